@@ -0,0 +1,48 @@
+package bench;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for encoding probe results in each output format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+
+    @Param({"text", "jsonl", "csv", "binary"})
+    public String format;
+
+    private Object sink;
+    private Object result;
+    private Object open;
+    private Object closed;
+    private int port;
+
+    @Setup
+    public void setUp() throws Throwable {
+        sink = Scanner.sink(format, OutputStream.nullOutputStream());
+        open = Scanner.state("OPEN");
+        closed = Scanner.state("CLOSED");
+        result = Scanner.HOST_RESULT.invoke(0x0A000001, 1024, 100, 1000, 0);
+        for(int i = 0; i < 1024; i++)
+            Scanner.HOST_RECORD.invoke(result, i, (i % 64 == 0) ? open : closed);
+    }
+
+    @Benchmark
+    public void record() throws Throwable {
+        port = (port + 1) & 0xFFFF;
+        Scanner.RECORD.invoke(sink, 0xC0A80001 + (port >>> 10), port, (port % 16 == 0) ? open : closed, 123456L);
+    }
+
+    @Benchmark
+    public void hostSummary() throws Throwable {
+        Scanner.HOST_COMPLETE.invoke(sink, result);
+    }
+}
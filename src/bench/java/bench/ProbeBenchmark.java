@@ -0,0 +1,112 @@
+package bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Probe throughput against local loopback listeners. Three targets are prepared:
+ * an accepting listener (open), a released port (refused) and a listener whose accept
+ * backlog has been filled so further SYNs are dropped (blackholed).
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProbeBenchmark {
+
+    private static final int LOOPBACK = 0x7F000001;
+    private static final int BATCH = 2048;
+
+    @Param({"open", "refused", "blackholed"})
+    public String target;
+
+    private ServerSocket listener;
+    private ArrayList<Socket> backlog;
+    private int port;
+
+    @Setup
+    public void setUp() throws IOException {
+        backlog = new ArrayList<Socket>();
+        switch(target) {
+            case "open":
+                listener = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+                Thread acceptor = new Thread(() -> {
+                    try {
+                        while(true)
+                            listener.accept().close();
+                    }
+                    catch(IOException e) {
+                        ;  // Listener closed.
+                    }
+                });
+                acceptor.setDaemon(true);
+                acceptor.start();
+                break;
+            case "refused":
+                ServerSocket released = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                port = released.getLocalPort();
+                released.close();
+                return;
+            default:
+                listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                for(int i = 0; i < 8; i++) {
+                    Socket sock = new Socket();
+                    try {
+                        sock.connect(new InetSocketAddress(listener.getInetAddress(), listener.getLocalPort()), 100);
+                        backlog.add(sock);
+                    }
+                    catch(IOException e) {
+                        sock.close();
+                        break;  // Backlog is full.
+                    }
+                }
+                break;
+        }
+        port = listener.getLocalPort();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for(Socket sock : backlog)
+            sock.close();
+        if(listener != null)
+            listener.close();
+    }
+
+    /**
+     * Latency of a single blocking connect probe with a 50 ms timeout.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object blockingProbe() throws Throwable {
+        return Scanner.BLOCKING_PROBE.invoke(LOOPBACK, port, 50);
+    }
+
+    /**
+     * Throughput of one NIO event loop running a batch of probes against the target port.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void nioScan() throws Throwable {
+        Object hosts = Scanner.INTERVAL_SET.invoke();
+        Scanner.INTERVAL_ADD.invoke(hosts, (long) LOOPBACK, (long) LOOPBACK);
+        int[] ports = new int[BATCH];
+        Arrays.fill(ports, port);
+        Object targets = Scanner.TARGET_ITERATOR.invoke(hosts, ports, 0L, (long) BATCH);
+        Object job = Scanner.SCAN_JOB.invoke(targets, 512, 50, 50, 0, null);
+        Thread scanner = (Thread) Scanner.NIO_SCANNER.invoke(job);
+        scanner.start();
+        scanner.join();
+    }
+}
@@ -0,0 +1,122 @@
+package bench;
+
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Bridge from the benchmark package to the scanner classes. JMH refuses benchmarks in
+ * the default package, and named packages cannot link against it, so the scanner API is
+ * looked up once by reflection. Calls go through static final method handles, which the
+ * JIT inlines like direct calls.
+ */
+final class Scanner {
+
+    static final Class<?> PORT_STATE = load("PortState");
+
+    static final MethodHandle ARG_PARSER = constructor("ArgParser");
+    static final MethodHandle PARSE_ARGS = method("ArgParser", "parseArgs", String[].class);
+    static final MethodHandle GET_HOSTS = method("ArgParser", "getHosts");
+    static final MethodHandle GET_PORTS = method("ArgParser", "getPorts");
+
+    static final MethodHandle IPV4_ADDRESS = constructor("IPv4Address", String.class);
+    static final MethodHandle NEXT_ADDRESS = method("IPv4Address", "getNextAddress");
+
+    static final MethodHandle INTERVAL_SET = constructor("IntervalSet");
+    static final MethodHandle INTERVAL_ADD = method("IntervalSet", "add", long.class, long.class);
+    static final MethodHandle INTERVAL_SIZE = method("IntervalSet", "size");
+    static final MethodHandle PORT_ARRAY = method("PortSet", "toArray");
+
+    static final MethodHandle TARGET_ITERATOR = constructor("TargetIterator", load("IntervalSet"), int[].class, long.class, long.class);
+    static final MethodHandle TARGET_HOST = method("TargetIterator", "host", long.class);
+    static final MethodHandle TARGET_PORT = method("TargetIterator", "port", long.class);
+    static final MethodHandle PERMUTATION = constructor("TargetPermutation", long.class, long.class);
+    static final MethodHandle PERMUTE = method("TargetPermutation", "permute", long.class);
+
+    static final MethodHandle SCAN_JOB = constructor("ScanJob", load("TargetIterator"), int.class, int.class, int.class, int.class, load("TargetPermutation"));
+    static final MethodHandle NIO_SCANNER = constructor("NioScanner", load("ScanJob"));
+    static final MethodHandle NIO_SCANNER_ON = constructor("NioScanner", load("ScanJob"), load("Transport"));
+    static final MethodHandle BLOCKING_PROBE = method("ScanThread", "probe", int.class, int.class, int.class);
+
+    static final MethodHandle SIMULATED_NETWORK = constructor("SimulatedNetwork", long.class);
+    static final MethodHandle SIM_PORTS = method("SimulatedNetwork", "ports", double.class, double.class);
+    static final MethodHandle SIM_HOSTS_DOWN = method("SimulatedNetwork", "hostsDown", double.class);
+    static final MethodHandle SIM_DROP_RATE = method("SimulatedNetwork", "dropRate", double.class);
+    static final MethodHandle SIM_LATENCY = method("SimulatedNetwork", "latency", long.class, double.class);
+    static final MethodHandle SIM_TRANSPORT = method("SimulatedNetwork", "transport");
+
+    static final MethodHandle HOST_RESULT = constructor("HostResult", int.class, int.class, int.class, int.class, int.class);
+    static final MethodHandle HOST_RECORD = method("HostResult", "record", int.class, PORT_STATE);
+    static final MethodHandle RECORD = method("ResultSink", "record", int.class, int.class, PORT_STATE, long.class);
+    static final MethodHandle HOST_COMPLETE = method("ResultSink", "hostComplete", load("HostResult"));
+
+    private Scanner() {
+    }
+
+    /**
+     * Creates a result sink for an output format.
+     * @param   format  String        'text', 'jsonl', 'csv' or 'binary'.
+     * @param   out     OutputStream  destination stream.
+     * @return          Object        the sink.
+     */
+    static Object sink(String format, OutputStream out) {
+        try {
+            switch(format) {
+                case "text":
+                    return constructor("TextSink", OutputStream.class, boolean.class).invoke(out, true);
+                case "jsonl":
+                    return constructor("JsonSink", OutputStream.class, boolean.class, boolean.class).invoke(out, true, true);
+                case "csv":
+                    return constructor("CsvSink", OutputStream.class, boolean.class, boolean.class).invoke(out, true, true);
+                default:
+                    return constructor("BinarySink", OutputStream.class, boolean.class, boolean.class).invoke(out, true, true);
+            }
+        }
+        catch(Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up a PortState constant.
+     * @param   name  String  constant name.
+     * @return        Object  the enum constant.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object state(String name) {
+        return Enum.valueOf((Class) PORT_STATE, name);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        }
+        catch(ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle constructor(String name, Class<?>... params) {
+        try {
+            Constructor<?> c = load(name).getDeclaredConstructor(params);
+            c.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(c);
+        }
+        catch(ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle method(String owner, String name, Class<?>... params) {
+        try {
+            Method m = load(owner).getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m);
+        }
+        catch(ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of one NIO event loop scanning port 80 of a /16 on a simulated network, with
+ * no sockets involved. A clean network answers every probe after 100 us; a lossy one has
+ * hosts down, blackholed ports, random drops and a long latency tail, so much of the
+ * work is timing out and retrying. Each iteration scans a network of its own.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulatedScanBenchmark {
+
+    private static final long SUBNET = 0x0A010000L;
+    private static final int HOSTS = 65536;
+
+    @Param({"clean", "lossy"})
+    public String network;
+
+    private Object simulated;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        simulated = Scanner.SIMULATED_NETWORK.invoke(1L);
+        if(network.equals("clean")) {
+            Scanner.SIM_PORTS.invoke(simulated, 0.3, 0.0);
+            Scanner.SIM_LATENCY.invoke(simulated, 100L, 0.0);
+        }
+        else {
+            Scanner.SIM_PORTS.invoke(simulated, 0.3, 0.05);
+            Scanner.SIM_HOSTS_DOWN.invoke(simulated, 0.2);
+            Scanner.SIM_DROP_RATE.invoke(simulated, 0.02);
+            Scanner.SIM_LATENCY.invoke(simulated, 100L, 1.0);
+        }
+    }
+
+    /**
+     * Scans the /16 with 4096 probes in flight, a 20 ms timeout and one retry.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(HOSTS)
+    public void scan() throws Throwable {
+        Object hosts = Scanner.INTERVAL_SET.invoke();
+        Scanner.INTERVAL_ADD.invoke(hosts, SUBNET, SUBNET + HOSTS - 1);
+        Object targets = Scanner.TARGET_ITERATOR.invoke(hosts, new int[] {80}, 0L, (long) HOSTS);
+        Object job = Scanner.SCAN_JOB.invoke(targets, 4096, 20, 20, 1, null);
+        Thread scanner = (Thread) Scanner.NIO_SCANNER_ON.invoke(job, Scanner.SIM_TRANSPORT.invoke(simulated));
+        scanner.start();
+        scanner.join();
+    }
+}
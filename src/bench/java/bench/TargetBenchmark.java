@@ -0,0 +1,91 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for argument parsing, address handling and target expansion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetBenchmark {
+
+    private static final int TARGETS = 1000000;
+
+    @Param({"10.0.0.0-10.0.3.255", "10.0.0.0/16", "10.0.0.0/8"})
+    public String hosts;
+
+    private Object hostSet;
+    private int[] ports;
+    private long size;
+    private Object address;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Object ap = Scanner.ARG_PARSER.invoke();
+        Scanner.PARSE_ARGS.invoke(ap, new String[] {"PortScanner", "--hosts", hosts, "--ports", "1-1024"});
+        hostSet = Scanner.GET_HOSTS.invoke(ap);
+        ports = (int[]) Scanner.PORT_ARRAY.invoke(Scanner.GET_PORTS.invoke(ap));
+        size = (long) Scanner.INTERVAL_SIZE.invoke(hostSet) * ports.length;
+        address = Scanner.IPV4_ADDRESS.invoke("192.168.10.254");
+    }
+
+    @Benchmark
+    public Object parseHosts() throws Throwable {
+        Object ap = Scanner.ARG_PARSER.invoke();
+        Scanner.PARSE_ARGS.invoke(ap, new String[] {"PortScanner", "--hosts", hosts + ",172.16.0.1,172.16.0.3-172.16.0.9", "--exclude", "10.0.0.128/25"});
+        return Scanner.GET_HOSTS.invoke(ap);
+    }
+
+    @Benchmark
+    public Object parsePorts() throws Throwable {
+        Object ap = Scanner.ARG_PARSER.invoke();
+        Scanner.PARSE_ARGS.invoke(ap, new String[] {"PortScanner", "--hosts", "127.0.0.1", "--ports", "1-65535,22,80,443,8000-8100"});
+        return Scanner.GET_PORTS.invoke(ap);
+    }
+
+    @Benchmark
+    public Object parseAddress() throws Throwable {
+        return Scanner.IPV4_ADDRESS.invoke("192.168.10.254");
+    }
+
+    @Benchmark
+    public Object nextAddress() throws Throwable {
+        return Scanner.NEXT_ADDRESS.invoke(address);
+    }
+
+    /**
+     * Decodes the first million targets of the cross product in host-major order. Every
+     * host parameter covers at least a million targets.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TARGETS)
+    public void iterateTargets(Blackhole bh) throws Throwable {
+        Object targets = Scanner.TARGET_ITERATOR.invoke(hostSet, ports, 0L, TARGETS);
+        for(long i = 0; i < TARGETS; i++) {
+            bh.consume((int) Scanner.TARGET_HOST.invoke(targets, i));
+            bh.consume((int) Scanner.TARGET_PORT.invoke(targets, i));
+        }
+    }
+
+    /**
+     * Decodes a million targets in random order.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TARGETS)
+    public void permuteTargets(Blackhole bh) throws Throwable {
+        Object targets = Scanner.TARGET_ITERATOR.invoke(hostSet, ports, 0L, size);
+        Object order = Scanner.PERMUTATION.invoke(size, 1L);
+        for(long i = 0; i < TARGETS; i++) {
+            long target = (long) Scanner.PERMUTE.invoke(order, i);
+            bh.consume((int) Scanner.TARGET_HOST.invoke(targets, target));
+            bh.consume((int) Scanner.TARGET_PORT.invoke(targets, target));
+        }
+    }
+}
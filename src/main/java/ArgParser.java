@@ -1,7 +1,17 @@
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.commons.cli.*;
 
@@ -10,33 +20,426 @@ import org.apache.commons.cli.*;
  */
 class ArgParser {
     
-    private ArrayList<String> hostList;
-    private ArrayList<Integer> portList;
+    /* Options that change how targets are probed, passed on to the workers of a coordinator. The
+       hosts are passed as resolved ranges, so every worker scans the same addresses. */
+    private static final List<String> PROBE_OPTIONS = Arrays.asList(
+        "ports", "top-ports", "mode", "concurrency", "max-inflight", "min-timeout", "max-timeout",
+        "retries", "order", "rate", "host-rate", "congestion", "banner", "banner-timeout", "udp");
+    
+    private IntervalSet hosts;
+    private IPv6Set hosts6;
+    private TargetList targets;
+    private boolean stdin;
+    private boolean filesAllowed;
+    private PortSet ports;
     private ArrayList<String> errors;
+    private int concurrency;
+    private int maxInflight;
+    private boolean nio;
+    private boolean udp;
+    private int minTimeout;
+    private int maxTimeout;
+    private int retries;
+    private boolean randomOrder;
+    private long seed;
+    private int rate;
+    private int hostRate;
+    private String congestion;
+    private String outputFormat;
+    private String outputFile;
+    private boolean outputAll;
+    private String checkpointFile;
+    private String resumeFile;
+    private String diffFile;
+    private boolean hotFirst;
+    private String storeFile;
+    private boolean progress;
+    private int metricsPort;
+    private int daemonPort;
+    private int coordinatorPort;
+    private InetAddress coordinatorAddress;
+    private String workerAddress;
+    private int shardSize;
+    private String[] probeArgs;
+    private boolean banner;
+    private int bannerTimeout;
+    private InetAddress sourceAddress;
+    private int sourceFirstPort;
+    private int sourceLastPort;
+    private boolean discover;
+    private PortSet discoveryPorts;
     
     /**
      * Constructor.
      */
     public ArgParser() {
-        hostList = new ArrayList<String>();
-        portList = new ArrayList<Integer>();
+        hosts = new IntervalSet();
+        hosts6 = new IPv6Set();
+        targets = null;
+        stdin = false;
+        filesAllowed = true;
+        ports = new PortSet();
         errors = new ArrayList<String>();
+        concurrency = 100;
+        maxInflight = 0;
+        nio = false;
+        udp = false;
+        minTimeout = RttEstimator.DEFAULT_MIN_TIMEOUT;
+        maxTimeout = RttEstimator.DEFAULT_MAX_TIMEOUT;
+        retries = 0;
+        randomOrder = false;
+        seed = ThreadLocalRandom.current().nextLong();
+        rate = 0;
+        hostRate = 0;
+        congestion = "off";
+        outputFormat = "text";
+        outputFile = null;
+        outputAll = false;
+        checkpointFile = null;
+        resumeFile = null;
+        diffFile = null;
+        hotFirst = false;
+        storeFile = null;
+        progress = false;
+        metricsPort = 0;
+        daemonPort = 0;
+        coordinatorPort = 0;
+        coordinatorAddress = null;
+        workerAddress = null;
+        shardSize = 65536;
+        probeArgs = new String[0];
+        banner = false;
+        bannerTimeout = BannerGrabber.DEFAULT_TIMEOUT;
+        sourceAddress = null;
+        sourceFirstPort = 0;
+        sourceLastPort = 0;
+        discover = false;
+        discoveryPorts = new PortSet();
+    }
+    
+    /**
+     * Refuses options that name files or open network endpoints in the next parseArgs(),
+     * for scan jobs sent by other local users, who must not read or write files, or
+     * listen or take work from the network, as the scanner's user.
+     */
+    public void forbidFiles() {
+        filesAllowed = false;
+    }
+    
+    /**
+     * Public access to the set of ports.
+     * @return  PortSet  the ports, without duplicates.
+     */
+    public PortSet getPorts() {
+        return ports;
+    }
+    
+    /**
+     * Public access to the set of hosts.
+     * @return  IntervalSet  the hosts as merged ranges of packed IPv4 addresses.
+     */
+    public IntervalSet getHosts() {
+        return hosts;
+    }
+    
+    /**
+     * Public access to the set of IPv6 hosts.
+     * @return  IPv6Set  the IPv6 hosts, scanned after the IPv4 ones.
+     */
+    public IPv6Set getHosts6() {
+        return hosts6;
+    }
+    
+    /**
+     * Public access to the targets read from --targets-file.
+     * @return  TargetList  the (host, port) targets, or null if hosts and ports are scanned
+     *                      as a cross product.
+     */
+    public TargetList getTargetList() {
+        return targets;
+    }
+    
+    /**
+     * Public access to the number of scan worker threads.
+     * @return  int  the number of workers.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+    
+    /**
+     * Public access to the maximum number of probes allowed in flight at once.
+     * @return  int  the in-flight limit (defaults to the concurrency, or 4096 in NIO and UDP modes).
+     */
+    public int getMaxInflight() {
+        if(maxInflight > 0)
+            return maxInflight;
+        return (nio || udp) ? 4096 : concurrency;
+    }
+    
+    /**
+     * Public access to the scan mode.
+     * @return  boolean  true if probes use non-blocking channels on selector event loops.
+     */
+    public boolean isNio() {
+        return nio;
+    }
+    
+    /**
+     * Public access to the protocol.
+     * @return  boolean  true if UDP ports are probed with datagrams instead of TCP connects.
+     */
+    public boolean isUdp() {
+        return udp;
+    }
+    
+    /**
+     * Public access to the lower bound of the adaptive probe timeout.
+     * @return  int  the minimum timeout in milliseconds.
+     */
+    public int getMinTimeout() {
+        return minTimeout;
+    }
+    
+    /**
+     * Public access to the upper bound of the adaptive probe timeout.
+     * @return  int  the maximum timeout in milliseconds.
+     */
+    public int getMaxTimeout() {
+        return maxTimeout;
+    }
+    
+    /**
+     * Public access to the number of retries for ports that timed out.
+     * @return  int  the retry count.
+     */
+    public int getRetries() {
+        return retries;
+    }
+    
+    /**
+     * Public access to the congestion control mode.
+     * @return  String  'off', 'scan' (one window for the scan) or 'subnet' (one per /24).
+     */
+    public String getCongestion() {
+        return congestion;
+    }
+    
+    /**
+     * Public access to the scan order.
+     * @return  boolean  true if targets are probed in a pseudo-random permutation.
+     */
+    public boolean isRandomOrder() {
+        return randomOrder;
+    }
+    
+    /**
+     * Public access to the seed of the random scan order.
+     * @return  long  the permutation seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+    
+    /**
+     * Public access to the scan-wide rate limit.
+     * @return  int  probes per second, or 0 for no limit.
+     */
+    public int getRate() {
+        return rate;
+    }
+    
+    /**
+     * Public access to the per-host rate limit.
+     * @return  int  probes per second to any one host, or 0 for no limit.
+     */
+    public int getHostRate() {
+        return hostRate;
+    }
+    
+    /**
+     * Public access to the output format.
+     * @return  String  'text', 'jsonl', 'csv' or 'binary'.
+     */
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+    
+    /**
+     * Public access to the output file.
+     * @return  String  the path to write results to, or null for stdout.
+     */
+    public String getOutputFile() {
+        return outputFile;
+    }
+    
+    /**
+     * Public access to the output filter.
+     * @return  boolean  true if closed and filtered ports are written as well as open ones.
+     */
+    public boolean isOutputAll() {
+        return outputAll;
+    }
+    
+    /**
+     * Public access to the checkpoint file.
+     * @return  String  the path to record scan progress to, or null if progress is not saved.
+     */
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+    
+    /**
+     * Public access to the checkpoint to resume from.
+     * @return  String  the path of the checkpoint file, or null for a new scan.
+     */
+    public String getResumeFile() {
+        return resumeFile;
+    }
+    
+    /**
+     * Public access to the result store of a previous scan.
+     * @return  String  the path of the store to report changes against, or null to report every result.
+     */
+    public String getDiffFile() {
+        return diffFile;
+    }
+    
+    /**
+     * Public access to the probe order for previously open ports.
+     * @return  boolean  true if ports open in the previous scan are probed before all others.
+     */
+    public boolean isHotFirst() {
+        return hotFirst;
+    }
+    
+    /**
+     * Public access to the result store to write.
+     * @return  String  the path to save the open ports to, or null if they are not saved.
+     */
+    public String getStoreFile() {
+        return storeFile;
+    }
+    
+    /**
+     * Public access to the progress line.
+     * @return  boolean  true if progress is printed to stderr once a second.
+     */
+    public boolean isProgress() {
+        return progress;
+    }
+    
+    /**
+     * Public access to the metrics endpoint.
+     * @return  int  the local port serving Prometheus metrics, or 0 if disabled.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+    
+    /**
+     * Public access to the daemon mode.
+     * @return  int  the local port to accept scan jobs on, or 0 to run a single scan.
+     */
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+    
+    /**
+     * Public access to the coordinator mode.
+     * @return  int  the local port workers connect to, or 0 to probe locally.
+     */
+    public int getCoordinatorPort() {
+        return coordinatorPort;
+    }
+    
+    /**
+     * Public access to the coordinator's listening address.
+     * @return  InetAddress  the local address workers connect to, or null for every interface.
+     */
+    public InetAddress getCoordinatorAddress() {
+        return coordinatorAddress;
+    }
+    
+    /**
+     * Public access to the worker mode.
+     * @return  String  the coordinator's host:port to take shards from, or null.
+     */
+    public String getWorkerAddress() {
+        return workerAddress;
+    }
+    
+    /**
+     * Public access to the shard size.
+     * @return  int  targets per shard handed to a worker.
+     */
+    public int getShardSize() {
+        return shardSize;
+    }
+    
+    /**
+     * Public access to the probing options.
+     * @return  String[]  the options that decide how targets are probed, including the
+     *                    seed, as arguments a worker can parse.
+     */
+    public String[] getProbeArgs() {
+        return probeArgs;
+    }
+    
+    /**
+     * Public access to banner grabbing.
+     * @return  boolean  true if open ports are asked what service they run.
+     */
+    public boolean isBanner() {
+        return banner;
+    }
+    
+    /**
+     * Public access to the banner deadline.
+     * @return  int  ms a service is given to answer on an open port.
+     */
+    public int getBannerTimeout() {
+        return bannerTimeout;
+    }
+    
+    /**
+     * Public access to the source address.
+     * @return  InetAddress  the local address probes are sent from, or null for any.
+     */
+    public InetAddress getSourceAddress() {
+        return sourceAddress;
+    }
+    
+    /**
+     * Public access to the first source port.
+     * @return  int  the first local port probes are bound to, or 0 to let the system choose.
+     */
+    public int getSourceFirstPort() {
+        return sourceFirstPort;
+    }
+    
+    /**
+     * Public access to the last source port.
+     * @return  int  the last local port probes are bound to.
+     */
+    public int getSourceLastPort() {
+        return sourceLastPort;
     }
     
     /**
-     * Public access to the list of ports.
-     * @return  ArrayList<Integer>  the list of ports.
+     * Public access to host discovery.
+     * @return  boolean  true if hosts are checked for life before their ports are scanned.
      */
-    public ArrayList<Integer> getPortList() {
-        return portList;
+    public boolean isDiscover() {
+        return discover;
     }
     
     /**
-     * Public access to the list of hosts.
-     * @return  ArrayList<String>  the list of hosts.
+     * Public access to the discovery ports.
+     * @return  PortSet  the ports a host must accept or reset a connection on to count as up.
      */
-    public ArrayList<String> getHostList() {
-        return hostList;
+    public PortSet getDiscoveryPorts() {
+        return discoveryPorts;
     }
     
     /**
@@ -46,21 +449,92 @@ class ArgParser {
      */
     public String parseArgs(String[] args) {
         Options options = new Options();
-        Option optionHosts = new Option("h", "hosts", true, "Host IP range to scan. Ex. --range=2.2.2.2,3.3.3.3,4.4.4.4-5.5.5.5 (REQUIRED)");
+        Option optionHosts = new Option("h", "hosts", true, "Hosts to scan: IPv4 or IPv6 addresses, ranges, CIDR blocks, host names and @<file> lists of them. Ex. --hosts=2.2.2.2,4.4.4.4-5.5.5.5,10.0.0.0/16,2001:db8::/120,example.com,@hosts.txt (REQUIRED)");
         optionHosts.setValueSeparator(',');
         optionHosts.setArgs(Option.UNLIMITED_VALUES);
-        optionHosts.setRequired(true);
         options.addOption(optionHosts);
+        options.addOption(null, "hosts-file", true, "File of hosts to scan, in the same formats as --hosts, separated by commas, spaces or new lines ('-' reads standard input).");
+        options.addOption(null, "targets-file", true, "File of targets to scan as <host>[:<port>[-<port>]] ('-' reads standard input). Hosts without a port are scanned on --ports.");
+        Option optionExclude = new Option("x", "exclude", true, "Hosts to leave out of the scan, in the same formats as --hosts. Ex. --exclude=10.0.5.0/24,10.0.9.1");
+        optionExclude.setValueSeparator(',');
+        optionExclude.setArgs(Option.UNLIMITED_VALUES);
+        options.addOption(optionExclude);
         Option optionPorts = new Option("p", "ports", true, "Ports to scan (comma separated). Ex. --ports 22,80,443. Default is 1-1024.");
         optionPorts.setArgs(Option.UNLIMITED_VALUES);
         optionPorts.setValueSeparator(',');
         options.addOption(optionPorts);
+        Option optionTopPorts = new Option(null, "top-ports", true, "Scan the N ports most likely to be open, most likely first. Combines with --ports.");
+        options.addOption(optionTopPorts);
         Option optionStealth = new Option("s", "stealth", true, "Scan in stealth mode.");
         optionStealth.setArgs(0);
         options.addOption(optionStealth);
         Option optionVerbose = new Option("v", "verbose", true, "Verbose logging to console.");
         optionVerbose.setArgs(0);
         options.addOption(optionVerbose);
+        Option optionConcurrency = new Option("c", "concurrency", true, "Number of scan worker threads (event loops in NIO and UDP modes, capped at the CPU count). Default is 100.");
+        options.addOption(optionConcurrency);
+        Option optionMaxInflight = new Option("m", "max-inflight", true, "Maximum number of probes in flight at once. Default is the concurrency (4096 in NIO and UDP modes).");
+        options.addOption(optionMaxInflight);
+        Option optionMode = new Option(null, "mode", true, "Scan engine: 'thread' (blocking sockets, default) or 'nio' (selector event loops).");
+        options.addOption(optionMode);
+        Option optionUdp = new Option(null, "udp", false, "Scan UDP ports, sending protocol requests to well-known ports. Ports are OPEN, CLOSED (ICMP port unreachable), FILTERED or OPEN_FILTERED (no answer).");
+        options.addOption(optionUdp);
+        Option optionMinTimeout = new Option(null, "min-timeout", true, "Lower bound for the adaptive per-host probe timeout in ms. Default is 100. A host starts at 200 ms (kept within the bounds) until its first answer.");
+        options.addOption(optionMinTimeout);
+        Option optionMaxTimeout = new Option(null, "max-timeout", true, "Upper bound for the adaptive per-host probe timeout in ms. Default is 1000.");
+        options.addOption(optionMaxTimeout);
+        Option optionRetries = new Option(null, "retries", true, "Number of times a port that timed out is probed again. Default is 0.");
+        options.addOption(optionRetries);
+        Option optionOrder = new Option(null, "order", true, "Scan order: 'sequential' (host by host, default) or 'random' (spread probes across hosts).");
+        options.addOption(optionOrder);
+        Option optionSeed = new Option(null, "seed", true, "Seed for the random scan order, to make runs reproducible.");
+        options.addOption(optionSeed);
+        Option optionRate = new Option(null, "rate", true, "Maximum probes per second across the whole scan. Default is unlimited.");
+        options.addOption(optionRate);
+        Option optionHostRate = new Option(null, "host-rate", true, "Maximum probes per second to any one host. Default is unlimited.");
+        options.addOption(optionHostRate);
+        Option optionCongestion = new Option(null, "congestion", true, "Adapt the probes in flight to loss: 'off' (default), 'scan' (one window) or 'subnet' (one window per /24, or /64 for IPv6).");
+        options.addOption(optionCongestion);
+        Option optionOutputFormat = new Option("o", "output-format", true, "Result format: 'text' (default), 'jsonl', 'csv' or 'binary'.");
+        options.addOption(optionOutputFormat);
+        Option optionOutputFile = new Option("f", "output-file", true, "File to write results to. Default is stdout.");
+        options.addOption(optionOutputFile);
+        Option optionOutputAll = new Option(null, "output-all", false, "Write closed and filtered ports as well as open ones (machine-readable formats only).");
+        options.addOption(optionOutputAll);
+        Option optionCheckpoint = new Option(null, "checkpoint", true, "File to record scan progress to once a second, so the scan can be resumed.");
+        options.addOption(optionCheckpoint);
+        Option optionResume = new Option(null, "resume", true, "Continue the scan recorded in a checkpoint file, with its original options.");
+        options.addOption(optionResume);
+        Option optionStore = new Option(null, "store", true, "File to save the open ports found to, for later --diff-against runs.");
+        options.addOption(optionStore);
+        Option optionDiffAgainst = new Option(null, "diff-against", true, "Result store of a previous scan (see --store). Only ports that opened or closed since are reported.");
+        options.addOption(optionDiffAgainst);
+        Option optionHotFirst = new Option(null, "hot-first", false, "Probe the ports open in the --diff-against store before all others.");
+        options.addOption(optionHotFirst);
+        Option optionProgress = new Option(null, "progress", false, "Print progress, probe rate and ETA to stderr once a second (always on with rate limits).");
+        options.addOption(optionProgress);
+        Option optionMetricsPort = new Option(null, "metrics-port", true, "Serve live metrics in Prometheus format at http://127.0.0.1:<port>/metrics.");
+        options.addOption(optionMetricsPort);
+        Option optionDaemon = new Option(null, "daemon", true, "Run as a daemon taking scan jobs, one line of options per connection, at 127.0.0.1:<port>.");
+        options.addOption(optionDaemon);
+        Option optionCoordinator = new Option(null, "coordinator", true, "Split the scan into shards and hand them to --worker processes connecting to [<address>:]<port> (default every interface). Any host that reaches the port can take shards and report results, so firewall it to the workers.");
+        options.addOption(optionCoordinator);
+        Option optionWorker = new Option(null, "worker", true, "Probe shards for the coordinator at <host:port> until it has none left.");
+        options.addOption(optionWorker);
+        Option optionShardSize = new Option(null, "shard-size", true, "Targets per shard handed to a worker. Default is 65536.");
+        options.addOption(optionShardSize);
+        Option optionBanner = new Option(null, "banner", false, "Read the greeting of services on open ports, sending an HTTP or TLS probe where needed.");
+        options.addOption(optionBanner);
+        Option optionBannerTimeout = new Option(null, "banner-timeout", true, "Time in ms a service is given to answer on an open port. Default is 2000.");
+        options.addOption(optionBannerTimeout);
+        Option optionSourceIp = new Option(null, "source-ip", true, "Local address to send probes from. Ex. --source-ip=192.0.2.10");
+        options.addOption(optionSourceIp);
+        Option optionSourcePorts = new Option(null, "source-ports", true, "Range of local ports to send probes from, used in turn. Ex. --source-ports=40000-49999");
+        options.addOption(optionSourcePorts);
+        Option optionDiscover = new Option(null, "discover", false, "Check which hosts are up before scanning their ports, and skip the rest.");
+        options.addOption(optionDiscover);
+        Option optionDiscoverPorts = new Option(null, "discover-ports", true, "Ports a host must accept or refuse a connection on to count as up. Default is 22,80,443,3389.");
+        options.addOption(optionDiscoverPorts);
         
         
         CommandLine cmd = null;
@@ -69,37 +543,342 @@ class ArgParser {
             cmd = parser.parse(options, args);
         }
         catch(Exception e) {
-            HelpFormatter help = new HelpFormatter();
-            StringWriter out = new StringWriter();
-            PrintWriter pw = new PrintWriter(out);
-
-            help.printHelp(
-                pw, 120, "java PortScanner <options>", "Host parameter is required to run scans.", options, 2, 4,
-                "\nExample: PortScanner --hosts=127.0.0.1,127.0.0.2-127.0.0.5,127.0.0.10 --ports=80,443,8000-8005,9999"
-            );
-            pw.flush();
-            return out.toString();
+            return usage(options);
         }
         
-        String hostError = parseHosts(cmd.getOptionValues("hosts"));
-        String portError = parsePorts(cmd.getOptionValues("ports"));
+        if(!filesAllowed) {
+            for(String name : new String[] {"output-file", "checkpoint", "resume", "store", "diff-against", "hosts-file", "targets-file"}) {
+                if(cmd.hasOption(name))
+                    return "ERROR: --" + name + " cannot be used in scan jobs (they cannot name files).";
+            }
+            for(String name : new String[] {"hosts", "exclude"}) {
+                String[] values = cmd.getOptionValues(name);
+                for(int i = 0; (values != null) && (i < values.length); i++) {
+                    if(values[i].trim().startsWith("@"))
+                        return "ERROR: @<file> host lists cannot be used in scan jobs (they cannot name files).";
+                }
+            }
+            for(String name : new String[] {"coordinator", "worker", "metrics-port"}) {
+                if(cmd.hasOption(name))
+                    return "ERROR: --" + name + " cannot be used in scan jobs (they cannot open network endpoints).";
+            }
+        }
+        if(cmd.hasOption("resume")) {
+            if(cmd.getOptions().length > 1)
+                return "ERROR: --resume cannot be combined with other options (they are read from the checkpoint file).";
+            resumeFile = cmd.getOptionValue("resume");
+            return null;
+        }
+        if(cmd.hasOption("daemon")) {
+            if(cmd.getOptions().length > 1)
+                return "ERROR: --daemon cannot be combined with other options (each job sends its own).";
+            try {
+                daemonPort = parseLimit(cmd.getOptionValue("daemon"), daemonPort, 1);
+            }
+            catch(NumberFormatException e) {
+                return "ERROR: Invalid integer supplied for daemon port.";
+            }
+            if(daemonPort > 65535)
+                return "ERROR: Invalid daemon port (must be in range from 1-65535).";
+            return null;
+        }
+        if(cmd.hasOption("worker")) {
+            if(cmd.getOptions().length > 1)
+                return "ERROR: --worker cannot be combined with other options (they are sent by the coordinator).";
+            workerAddress = cmd.getOptionValue("worker").trim();
+            int colon = workerAddress.lastIndexOf(':');
+            int port;
+            try {
+                port = (colon > 0) ? Integer.parseInt(workerAddress.substring(colon + 1)) : 0;
+            }
+            catch(NumberFormatException e) {
+                port = 0;
+            }
+            if((port < 1) || (port > 65535))
+                return "ERROR: Invalid coordinator address (must be <host>:<port>).";
+            return null;
+        }
+        if(!cmd.hasOption("hosts") && !cmd.hasOption("hosts-file") && !cmd.hasOption("targets-file"))
+            return usage(options);
+        if(cmd.hasOption("targets-file") && (cmd.hasOption("hosts") || cmd.hasOption("hosts-file")))
+            return "ERROR: --targets-file cannot be combined with --hosts or --hosts-file.";
+        
+        String portError = parsePorts(cmd.getOptionValues("ports"), ports);
+        if((portError.length() == 0) && cmd.hasOption("top-ports"))
+            portError = parseTopPorts(cmd.getOptionValue("top-ports"), ports);
+        if(!cmd.hasOption("ports") && !cmd.hasOption("top-ports"))
+            ports.add(1, 1024);
+        discover = cmd.hasOption("discover");
+        if((portError.length() == 0) && discover)
+            portError = parsePorts(cmd.getOptionValues("discover-ports"), discoveryPorts);
+        if(discover && !cmd.hasOption("discover-ports")) {
+            for(int port : new int[] {22, 80, 443, 3389})
+                discoveryPorts.add(port);
+        }
+        String hostError = "";
+        if(portError.length() == 0) {
+            if(cmd.hasOption("targets-file"))
+                hostError = parseTargetList(cmd.getOptionValue("targets-file").trim(), cmd.getOptionValues("exclude"));
+            else
+                hostError = parseHosts(cmd.getOptionValues("hosts"), cmd.getOptionValue("hosts-file"), cmd.getOptionValues("exclude"));
+        }
         if((portError.length() > 0) || (hostError.length() > 0))
             return portError + "\n" + hostError;
+        
+        String mode = cmd.getOptionValue("mode", "thread");
+        if(!mode.equals("thread") && !mode.equals("nio"))
+            return "ERROR: Invalid scan mode (must be 'thread' or 'nio').";
+        nio = mode.equals("nio");
+        udp = cmd.hasOption("udp");
+        
+        try {
+            concurrency = parseLimit(cmd.getOptionValue("concurrency"), concurrency, 1);
+            maxInflight = parseLimit(cmd.getOptionValue("max-inflight"), maxInflight, 1);
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for concurrency limits (must be a positive integer).";
+        }
+        
+        try {
+            minTimeout = parseLimit(cmd.getOptionValue("min-timeout"), minTimeout, 1);
+            maxTimeout = parseLimit(cmd.getOptionValue("max-timeout"), maxTimeout, 1);
+            retries = parseLimit(cmd.getOptionValue("retries"), retries, 0);
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for timeouts or retries.";
+        }
+        if(minTimeout > maxTimeout)
+            return "ERROR: Invalid timeout range (minimum timeout must not exceed maximum timeout).";
+        
+        String order = cmd.getOptionValue("order", "sequential");
+        if(!order.equals("sequential") && !order.equals("random"))
+            return "ERROR: Invalid scan order (must be 'sequential' or 'random').";
+        randomOrder = order.equals("random");
+        try {
+            if(cmd.hasOption("seed"))
+                seed = Long.parseLong(cmd.getOptionValue("seed").trim());
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for seed.";
+        }
+        
+        try {
+            rate = parseLimit(cmd.getOptionValue("rate"), rate, 1);
+            hostRate = parseLimit(cmd.getOptionValue("host-rate"), hostRate, 1);
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for rate limits (must be a positive integer).";
+        }
+        congestion = cmd.getOptionValue("congestion", congestion).trim();
+        if(!Arrays.asList("off", "scan", "subnet").contains(congestion))
+            return "ERROR: Invalid congestion control mode (must be 'off', 'scan' or 'subnet').";
+        
+        outputFormat = cmd.getOptionValue("output-format", outputFormat);
+        if(!Arrays.asList("text", "jsonl", "csv", "binary").contains(outputFormat))
+            return "ERROR: Invalid output format (must be 'text', 'jsonl', 'csv' or 'binary').";
+        outputFile = cmd.getOptionValue("output-file");
+        outputAll = cmd.hasOption("output-all");
+        checkpointFile = cmd.getOptionValue("checkpoint");
+        
+        storeFile = cmd.getOptionValue("store");
+        diffFile = cmd.getOptionValue("diff-against");
+        hotFirst = cmd.hasOption("hot-first");
+        if(hotFirst && (diffFile == null))
+            return "ERROR: --hot-first needs the open ports of a previous scan (--diff-against).";
+        if((hosts6.size() > 0) && (outputFormat.equals("binary") || (storeFile != null) || (diffFile != null)))
+            return "ERROR: Binary output, --store and --diff-against hold IPv4 results only and cannot be used with IPv6 hosts.";
+        
+        progress = cmd.hasOption("progress");
+        try {
+            metricsPort = parseLimit(cmd.getOptionValue("metrics-port"), metricsPort, 1);
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for metrics port.";
+        }
+        if(metricsPort > 65535)
+            return "ERROR: Invalid metrics port (must be in range from 1-65535).";
+        
+        banner = cmd.hasOption("banner");
+        try {
+            bannerTimeout = parseLimit(cmd.getOptionValue("banner-timeout"), bannerTimeout, 1);
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for banner timeout.";
+        }
+        
+        if(udp && (banner || cmd.hasOption("source-ip") || cmd.hasOption("source-ports")))
+            return "ERROR: --banner, --source-ip and --source-ports apply to TCP scans only and cannot be used with --udp.";
+        
+        String sourceError = parseSource(cmd.getOptionValue("source-ip"), cmd.getOptionValue("source-ports"));
+        if(sourceError.length() > 0)
+            return sourceError;
+        
+        if(cmd.hasOption("coordinator")) {
+            String coordinatorError = parseCoordinator(cmd.getOptionValue("coordinator").trim());
+            if(coordinatorError.length() > 0)
+                return coordinatorError;
+        }
+        try {
+            shardSize = parseLimit(cmd.getOptionValue("shard-size"), shardSize, 1);
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for shard size.";
+        }
+        if((coordinatorPort > 0) && ((checkpointFile != null) || hotFirst))
+            return "ERROR: --checkpoint and --hot-first are not supported with --coordinator.";
+        if((coordinatorPort > 0) && (targets != null))
+            return "ERROR: --targets-file is not supported with --coordinator (use --hosts-file).";
+        if(discover && ((checkpointFile != null) || (coordinatorPort > 0) || (targets != null)))
+            return "ERROR: --discover cannot be combined with --checkpoint, --coordinator or --targets-file.";
+        if((storeFile != null) && (checkpointFile != null))
+            return "ERROR: --store cannot be combined with --checkpoint (a resumed scan would replace the store with the hosts after the checkpoint only).";
+        if(stdin && (checkpointFile != null))
+            return "ERROR: A scan reading standard input cannot be checkpointed (it could not be read again to resume).";
+        
+        ArrayList<String> probe = new ArrayList<String>();
+        for(int i = 0; i < hosts.rangeCount(); i++)
+            probe.add("--hosts=" + IPv4Address.toString((int) hosts.rangeStart(i)) + "-" + IPv4Address.toString((int) hosts.rangeEnd(i)));
+        for(int i = 0; i < hosts6.rangeCount(); i++)
+            probe.add("--hosts=" + hosts6.rangeString(i));
+        for(Option option : cmd.getOptions()) {
+            if(!PROBE_OPTIONS.contains(option.getLongOpt()))
+                continue;
+            if(option.hasArg())
+                probe.add("--" + option.getLongOpt() + "=" + String.join(",", option.getValues()));
+            else
+                probe.add("--" + option.getLongOpt());
+        }
+        probe.add("--seed=" + seed);
+        probeArgs = probe.toArray(new String[0]);
         return null;
     }
     
+    /**
+     * Builds the help text.
+     * @param   options  Options  the supported options.
+     * @return           String   the usage message.
+     */
+    private String usage(Options options) {
+        HelpFormatter help = new HelpFormatter();
+        StringWriter out = new StringWriter();
+        PrintWriter pw = new PrintWriter(out);
+
+        help.printHelp(
+            pw, 120, "java PortScanner <options>", "Hosts (--hosts, --hosts-file or --targets-file) are required to run scans.", options, 2, 4,
+            "\nExample: PortScanner --hosts=127.0.0.1,127.0.0.2-127.0.0.5,127.0.0.10 --ports=80,443,8000-8005,9999"
+        );
+        pw.flush();
+        return out.toString();
+    }
+    
+    /**
+     * Parses an integer limit.
+     * @param   arg           String  the argument value, may be null.
+     * @param   defaultValue  int     value returned when the argument is absent.
+     * @param   minimum       int     smallest accepted value.
+     * @throws  NumberFormatException  if the value is not an integer of at least the minimum.
+     * @return                int     the parsed limit.
+     */
+    private int parseLimit(String arg, int defaultValue, int minimum) {
+        if(arg == null)
+            return defaultValue;
+        
+        int n = Integer.parseInt(arg.trim());
+        if(n < minimum)
+            throw new NumberFormatException("Limit must be at least " + minimum + ": " + arg);
+        return n;
+    }
+    
+    /**
+     * Parses the coordinator's listening port, optionally preceded by a local address
+     * (IPv6 addresses in brackets).
+     * @param   value  String  '[<address>:]<port>'.
+     * @return         String  errors if invalid arguments.
+     */
+    private String parseCoordinator(String value) {
+        int colon = value.lastIndexOf(':');
+        if(colon >= 0) {
+            String address = value.substring(0, colon).trim();
+            if(address.startsWith("[") && address.endsWith("]"))
+                address = address.substring(1, address.length() - 1);
+            long[] packed = IPv6Address.isIPv6(address) ? IPv6Address.parse(address) : null;
+            if(packed != null)
+                coordinatorAddress = IPv6Address.toInetAddress(packed[0], packed[1]);
+            else if(!IPv6Address.isIPv6(address) && (IPv4Address.validateIPAddress(address) != null))
+                coordinatorAddress = IPv4Address.toInetAddress(new IPv4Address(address).toInt());
+            else
+                return "ERROR: Invalid coordinator address (must be [<address>:]<port>).";
+        }
+        try {
+            coordinatorPort = Integer.parseInt(value.substring(colon + 1).trim());
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for coordinator port.";
+        }
+        if((coordinatorPort < 1) || (coordinatorPort > 65535))
+            return "ERROR: Invalid coordinator port (must be in range from 1-65535).";
+        return "";
+    }
+    
+    /**
+     * Parses the source address and port range, and checks that a socket can be bound to
+     * them.
+     * @param   address  String  the source address, may be null.
+     * @param   range    String  the source port or '<first>-<last>' range, may be null.
+     * @return           String  errors if invalid arguments.
+     */
+    private String parseSource(String address, String range) {
+        if(address != null) {
+            address = address.trim();
+            long[] packed = IPv6Address.isIPv6(address) ? IPv6Address.parse(address) : null;
+            if(packed != null)
+                sourceAddress = IPv6Address.toInetAddress(packed[0], packed[1]);
+            else if(!IPv6Address.isIPv6(address) && (IPv4Address.validateIPAddress(address) != null))
+                sourceAddress = IPv4Address.toInetAddress(new IPv4Address(address).toInt());
+            else
+                return "ERROR: Invalid source address format.";
+        }
+        if(range != null) {
+            String[] bounds = range.trim().split("-");
+            try {
+                sourceFirstPort = Integer.parseInt(bounds[0].trim());
+                sourceLastPort = (bounds.length == 2) ? Integer.parseInt(bounds[1].trim()) : sourceFirstPort;
+            }
+            catch(NumberFormatException e) {
+                return "ERROR: Invalid integer supplied for source ports.";
+            }
+            if((bounds.length > 2) || (sourceFirstPort < 1) || (sourceLastPort > 65535) || (sourceFirstPort > sourceLastPort))
+                return "ERROR: Invalid source port range (must be in range from 1-65535).";
+        }
+        if((sourceAddress == null) && (sourceFirstPort == 0))
+            return "";
+        
+        /* Fail now rather than on every probe if the address is not local or no port is usable. */
+        IOException last = null;
+        for(int port = sourceFirstPort; port <= sourceLastPort; port++) {
+            try(Socket socket = new Socket()) {
+                socket.bind(new InetSocketAddress(sourceAddress, port));
+                return "";
+            }
+            catch(IOException e) {
+                last = e;
+            }
+        }
+        if(sourceFirstPort == 0)
+            return "ERROR: Unable to send from source address " + sourceAddress.getHostAddress() + ": " + last.getMessage();
+        return "ERROR: Unable to bind to any of the source ports: " + last.getMessage();
+    }
+    
     /**
      * Parses the port arguments.
-     * @param   args    String[]  the list of ports and ranges.
+     * @param   args    String[]  the list of ports and ranges, may be null.
+     * @param   target  PortSet   set receiving the ports.
      * @return  String            errors if invalid arguments.
      */
-    private String parsePorts(String[] args) {
-        if(args == null) {
-            for (int i = 0; i < 1024; i++)
-                portList.add(i);
+    private String parsePorts(String[] args, PortSet target) {
+        if(args == null)
             return "";
-        }
-            
+        
         for(String arg : args) {
             String[] ranges = arg.split("-");
             
@@ -119,7 +898,7 @@ class ArgParser {
             
             /* Single port. */
             if(ranges.length == 1) {
-                portList.add(Integer.parseInt(ranges[0]));
+                target.add(Integer.parseInt(ranges[0]));
                 continue;
             }
             
@@ -132,59 +911,235 @@ class ArgParser {
             if(rangeStart > rangeFinish)
                 return "ERROR: Invalid character supplied for port range (finish must be less than start range).";
             
-            for(int i = rangeStart; i <= rangeFinish; i++) {
-                if(!portList.contains(i))
-                    portList.add(i);
-            }
+            target.add(rangeStart, rangeFinish);
+        }
+        return "";
+    }
+    
+    /**
+     * Parses the number of most likely open ports to scan.
+     * @param   arg     String   the port count.
+     * @param   target  PortSet  set receiving the ports, which are probed first.
+     * @return  String           errors if invalid arguments.
+     */
+    private String parseTopPorts(String arg, PortSet target) {
+        int count;
+        try {
+            count = Integer.parseInt(arg.trim());
+        }
+        catch(NumberFormatException e) {
+            return "ERROR: Invalid integer supplied for top ports.";
         }
+        if((count < 1) || (count > 65535))
+            return "ERROR: Invalid number of top ports (must be in range from 1-65535).";
+        target.addFirst(TopPorts.top(count));
         return "";
     }
     
     /**
      * Parses the host arguments.
-     * @param   args  String[]  list of hosts and ranges.
-     * @return        String    errors if invalid arguments.
+     * @param   args      String[]  list of hosts and ranges, may be null.
+     * @param   file      String    file of more hosts, '-' for standard input, may be null.
+     * @param   excludes  String[]  list of hosts and ranges to leave out, may be null.
+     * @return            String    errors if invalid arguments.
+     */
+    private String parseHosts(String[] args, String file, String[] excludes) {
+        String error = (args == null) ? "" : parseHostList(args, hosts, hosts6);
+        if((error.length() == 0) && (file != null))
+            error = readTargetFile(file.trim(), hosts, hosts6, null);
+        if(error.length() > 0)
+            return error;
+        if(hosts6.size() > IPv6Set.MAX_SIZE)
+            return "ERROR: Too many IPv6 hosts (at most " + IPv6Set.MAX_SIZE + " can be scanned).";
+        if(excludes == null)
+            return "";
+        
+        IntervalSet excluded = new IntervalSet();
+        IPv6Set excluded6 = new IPv6Set();
+        error = parseHostList(excludes, excluded, excluded6);
+        if(error.length() > 0)
+            return error;
+        hosts = hosts.subtract(excluded);
+        hosts6 = hosts6.subtract(excluded6);
+        if((hosts.size() == 0) && (hosts6.size() == 0))
+            return "ERROR: No hosts left to scan after exclusions.";
+        return "";
+    }
+    
+    /**
+     * Reads the (host, port) targets of --targets-file.
+     * @param   file      String    the file, or '-' for standard input.
+     * @param   excludes  String[]  list of hosts and ranges to leave out, may be null.
+     * @return            String    errors if invalid arguments.
+     */
+    private String parseTargetList(String file, String[] excludes) {
+        IntervalSet excluded = new IntervalSet();
+        String error = (excludes == null) ? "" : parseHostList(excludes, excluded, new IPv6Set());
+        if(error.length() > 0)
+            return error;
+        
+        TargetList.Builder builder = new TargetList.Builder();
+        error = readTargetFile(file, null, null, builder);
+        if(error.length() > 0)
+            return error;
+        targets = builder.build(excluded);
+        if(targets.size() == 0)
+            return "ERROR: No targets left to scan after exclusions.";
+        return "";
+    }
+    
+    /**
+     * Streams a host or target file.
+     * @param   file     String              the file, or '-' for standard input.
+     * @param   hosts    IntervalSet         set receiving IPv4 hosts, or null to read targets.
+     * @param   hosts6   IPv6Set             set receiving IPv6 hosts when hosts is not null.
+     * @param   targets  TargetList.Builder  list receiving targets when hosts is null.
+     * @return           String              errors if the file is unreadable or invalid.
+     */
+    private String readTargetFile(String file, IntervalSet hosts, IPv6Set hosts6, TargetList.Builder targets) {
+        stdin = stdin || file.equals("-");
+        try(InputStream in = file.equals("-") ? new FilterInputStream(System.in) {
+                public void close() {
+                    ;  // Standard input stays open.
+                }
+            } : new FileInputStream(file)) {
+            TargetReader reader = new TargetReader(in);
+            return (hosts != null) ? reader.readHosts(hosts, hosts6) : reader.readTargets(targets, ports);
+        }
+        catch(IOException e) {
+            return "ERROR: Unable to read target file: " + file;
+        }
+    }
+    
+    /**
+     * Parses a list of hosts, ranges, CIDR blocks, host names and '@file' references to
+     * files holding more of them, one or more per line. Names are all resolved at once.
+     * @param   args     String[]     the host arguments.
+     * @param   target   IntervalSet  set receiving the parsed IPv4 ranges.
+     * @param   target6  IPv6Set      set receiving the parsed IPv6 ranges.
+     * @return           String       errors if invalid arguments.
      */
-    private String parseHosts(String[] args) {
+    private String parseHostList(String[] args, IntervalSet target, IPv6Set target6) {
+        ArrayList<String> names = new ArrayList<String>();
         for(String arg : args) {
-            String ip = null;
-            String[] ranges = arg.split("-");
-
-            /* Check that arguments are valid TCP IP addresses. */
-            for(String i : ranges) {
-                if(IPv4Address.validateIPAddress(i) == null)
-                    return "ERROR: Invalid host IP address format.";
+            arg = arg.trim();
+            if(arg.startsWith("@")) {
+                String error = readTargetFile(arg.substring(1), target, target6, null);
+                if(error.length() > 0)
+                    return error;
             }
-            
-            /* Single machine. */
-            if(ranges.length == 1) {
-                if(!hostList.contains(ranges[0].toString()))
-                  hostList.add(ranges[0]);
-                continue;
+            else {
+                String error = parseHostOrName(arg, target, target6, names);
+                if(error.length() > 0)
+                    return error;
             }
+        }
+        if(names.isEmpty())
+            return "";
+        
+        try {
+            for(HostResolver.Addresses addresses : HostResolver.resolveAll(names).values()) {
+                for(int address : addresses.ipv4)
+                    target.add(Integer.toUnsignedLong(address), Integer.toUnsignedLong(address));
+                for(int i = 0; i < addresses.ipv6.length; i += 2)
+                    target6.add(addresses.ipv6[i], addresses.ipv6[i + 1], addresses.ipv6[i], addresses.ipv6[i + 1]);
+            }
+        }
+        catch(UnknownHostException e) {
+            return "ERROR: Unable to resolve host name: " + e.getMessage();
+        }
+        return "";
+    }
+    
+    /**
+     * Parses an address, range or CIDR block, or sets a host name aside for resolution.
+     * @param   arg      String             the host argument.
+     * @param   target   IntervalSet        set receiving a parsed IPv4 range.
+     * @param   target6  IPv6Set            set receiving a parsed IPv6 range.
+     * @param   names    ArrayList<String>  names to resolve.
+     * @return           String             errors if invalid arguments.
+     */
+    private String parseHostOrName(String arg, IntervalSet target, IPv6Set target6, ArrayList<String> names) {
+        if(arg.isEmpty())
+            return "";
+        if(IPv6Address.isIPv6(arg))
+            return parseIPv6Range(arg, target6);
+        if(HostResolver.isName(arg)) {
+            names.add(arg);
+            return "";
+        }
+        return parseHostRange(arg, target);
+    }
+    
+    /**
+     * Parses a single IPv6 host, hyphenated range or prefix into a set.
+     * @param   arg     String   the host argument.
+     * @param   target  IPv6Set  set receiving the parsed range.
+     * @return          String   errors if invalid arguments.
+     */
+    private String parseIPv6Range(String arg, IPv6Set target) {
+        if(target.add(arg))
+            return "";
+        int slash = arg.indexOf('/');
+        if((slash >= 0) && (IPv6Address.parse(arg.substring(0, slash)) != null))
+            return "ERROR: Invalid IPv6 prefix length (must be in range from 0-128).";
+        return "ERROR: Invalid IPv6 address format.";
+    }
+    
+    /**
+     * Parses a single host, hyphenated range or CIDR block into a set.
+     * @param   arg     String       the host argument.
+     * @param   target  IntervalSet  set receiving the parsed range.
+     * @return          String       errors if invalid arguments.
+     */
+    private String parseHostRange(String arg, IntervalSet target) {
+        /* CIDR block. */
+        if(arg.contains("/")) {
+            String[] cidr = arg.split("/");
+            if((cidr.length != 2) || (IPv4Address.validateIPAddress(cidr[0]) == null))
+                return "ERROR: Invalid CIDR block format (must be '<address>/<prefix length>').";
             
-            if(ranges.length != 2)
-                return "ERROR: Invalid host IP address range.";
-            
-            /* Machine range. */
-            IPv4Address rangeStart = new IPv4Address(ranges[0]);
-            IPv4Address rangeFinish = new IPv4Address(ranges[1]);
-            if(rangeStart.compareTo(rangeFinish) > 0)
-                return "ERROR: Invalid IP address range specified. Ending IP address must be greater than starting IP address.";
+            int prefix;
+            try {
+                prefix = Integer.parseInt(cidr[1]);
+            }
+            catch(Exception e) {
+                return "ERROR: Invalid CIDR prefix length.";
+            }
+            if((prefix < 0) || (prefix > 32))
+                return "ERROR: Invalid CIDR prefix length (must be in range from 0-32).";
             
-            IPv4Address tIP = rangeStart;
-            do {
-                if(!hostList.contains(tIP.toString()))
-                    hostList.add(tIP.toString());
-                
-                try {
-                    tIP = new IPv4Address(tIP.getNextAddress());
-                }
-                catch(InvalidIPv4Address e) {
-                    break;
-                }
-            } while(tIP.compareTo(rangeFinish) <= 0);
+            long mask = (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+            long network = Integer.toUnsignedLong(new IPv4Address(cidr[0]).toInt()) & mask;
+            target.add(network, network | (~mask & 0xFFFFFFFFL));
+            return "";
         }
+        
+        String[] ranges = arg.split("-");
+
+        /* Check that arguments are valid TCP IP addresses. */
+        for(String i : ranges) {
+            if(IPv4Address.validateIPAddress(i) == null)
+                return "ERROR: Invalid host IP address format.";
+        }
+        
+        /* Single machine. */
+        if(ranges.length == 1) {
+            long address = Integer.toUnsignedLong(new IPv4Address(ranges[0]).toInt());
+            target.add(address, address);
+            return "";
+        }
+        
+        if(ranges.length != 2)
+            return "ERROR: Invalid host IP address range.";
+        
+        /* Machine range. */
+        IPv4Address rangeStart = new IPv4Address(ranges[0]);
+        IPv4Address rangeFinish = new IPv4Address(ranges[1]);
+        if(rangeStart.compareTo(rangeFinish) > 0)
+            return "ERROR: Invalid IP address range specified. Ending IP address must be greater than starting IP address.";
+        
+        target.add(Integer.toUnsignedLong(rangeStart.toInt()), Integer.toUnsignedLong(rangeFinish.toInt()));
         return "";
     }
 }
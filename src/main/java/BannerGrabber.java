@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Reads what a service says on connections the scan found open, on one selector event
+ * loop of its own, so slow services never hold up the probes. Well-known HTTP and TLS
+ * ports are sent an HTTP HEAD request or a TLS ClientHello at once; on any other port the
+ * service is given half the deadline to greet first, as SSH, SMTP and FTP servers do,
+ * before an HTTP HEAD request is tried. Each read goes into a direct buffer taken from a
+ * pool and returned when the connection is done, so grabbing allocates no buffers once
+ * the pool is warm.
+ */
+class BannerGrabber extends Thread {
+
+    static final int DEFAULT_TIMEOUT = 2000;
+    static final int BANNER_SIZE = 512;
+
+    private static final int[] HTTP_PORTS = {80, 8000, 8008, 8080, 8081, 8888};
+    private static final int[] TLS_PORTS = {443, 465, 636, 993, 995, 8443};
+    private static final byte[] HTTP_HEAD = "HEAD / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLIENT_HELLO = clientHello();
+
+    private final long timeoutNanos;
+    private final Queue<Grab> incoming;
+    private final PriorityQueue<Grab> deadlines;
+    private final ArrayDeque<ByteBuffer> buffers;
+    private volatile Selector selector;
+
+    /**
+     * Connection waiting for its banner.
+     */
+    private static class Grab {
+        final SocketChannel channel;
+        final int port;
+        final Consumer<String> done;
+        ByteBuffer buffer;
+        long probeAt;
+        long deadline;
+        boolean finished;
+
+        Grab(SocketChannel channel, int port, Consumer<String> done) {
+            this.channel = channel;
+            this.port = port;
+            this.done = done;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param  timeout  int  ms allowed for a service to answer before its connection is
+     *                       closed without a banner.
+     */
+    public BannerGrabber(int timeout) {
+        this.timeoutNanos = timeout * 1000000L;
+        this.incoming = new ConcurrentLinkedQueue<Grab>();
+        this.deadlines = new PriorityQueue<Grab>((a, b) -> Long.compare(Math.min(a.probeAt, a.deadline), Math.min(b.probeAt, b.deadline)));
+        this.buffers = new ArrayDeque<ByteBuffer>();
+        this.selector = null;
+        setDaemon(true);
+        setName("banner-grabber");
+    }
+
+    /**
+     * Hands over an open connection. The callback runs on the grabber's thread with the
+     * banner, or with null if the service said nothing before the deadline; the
+     * connection is closed by then.
+     * @param  channel  SocketChannel     the connected channel.
+     * @param  port     int               the port it is connected to.
+     * @param  done     Consumer<String>  receives the banner.
+     */
+    public void grab(SocketChannel channel, int port, Consumer<String> done) {
+        incoming.add(new Grab(channel, port, done));
+        Selector waiting = selector;
+        if(waiting != null)
+            waiting.wakeup();
+    }
+
+    /**
+     * Event loop. Runs until interrupted; connections still open then are closed and
+     * reported without a banner.
+     */
+    public void run() {
+        try(Selector selector = Selector.open()) {
+            this.selector = selector;
+            while(!isInterrupted()) {
+                Grab grab;
+                while((grab = incoming.poll()) != null)
+                    start(selector, grab);
+
+                long now = System.nanoTime();
+                long wait = 0;
+                if(!deadlines.isEmpty()) {
+                    Grab next = deadlines.peek();
+                    wait = Math.max(1, (Math.min(next.probeAt, next.deadline) - now + 999999) / 1000000);
+                }
+                selector.select(wait);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    read((Grab) key.attachment());
+                }
+                expire();
+            }
+        }
+        catch(IOException e) {
+            System.out.println("ERROR: Banner grabbing stopped: " + e.getMessage());
+        }
+        Grab grab;
+        while((grab = deadlines.poll()) != null)
+            finish(grab, null);
+        while((grab = incoming.poll()) != null)
+            finish(grab, null);
+    }
+
+    /**
+     * Registers a connection and sends its protocol probe if the port calls for one.
+     * @param  selector  Selector  the event loop selector.
+     * @param  grab      Grab      the new connection.
+     */
+    private void start(Selector selector, Grab grab) {
+        long now = System.nanoTime();
+        grab.deadline = now + timeoutNanos;
+        grab.probeAt = now + timeoutNanos / 2;
+        grab.buffer = buffers.isEmpty() ? ByteBuffer.allocateDirect(BANNER_SIZE) : buffers.pop();
+        try {
+            grab.channel.configureBlocking(false);
+            grab.channel.register(selector, SelectionKey.OP_READ, grab);
+            if(contains(TLS_PORTS, grab.port))
+                probe(grab, CLIENT_HELLO);
+            else if(contains(HTTP_PORTS, grab.port))
+                probe(grab, HTTP_HEAD);
+            deadlines.add(grab);
+        }
+        catch(IOException e) {
+            finish(grab, null);
+        }
+    }
+
+    /**
+     * Sends a protocol probe. The request is far smaller than a fresh socket's send
+     * buffer, so one non-blocking write takes all of it.
+     * @param   grab     Grab    the connection.
+     * @param   request  byte[]  the probe to send.
+     * @throws  IOException      if the write fails.
+     */
+    private static void probe(Grab grab, byte[] request) throws IOException {
+        grab.probeAt = Long.MAX_VALUE;
+        grab.channel.write(ByteBuffer.wrap(request));
+    }
+
+    /**
+     * Reads what has arrived. The banner is complete once a line has ended, the buffer is
+     * full or the service has closed the connection.
+     * @param  grab  Grab  the readable connection.
+     */
+    private void read(Grab grab) {
+        try {
+            int n = grab.channel.read(grab.buffer);
+            ByteBuffer buffer = grab.buffer;
+            if((n < 0) || !buffer.hasRemaining() || endsLine(buffer) || isTls(buffer))
+                finish(grab, decode(buffer));
+        }
+        catch(IOException e) {
+            finish(grab, decode(grab.buffer));
+        }
+    }
+
+    /**
+     * Sends the fallback probe to quiet services and closes connections whose deadline
+     * has passed, with whatever they sent so far.
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        while(!deadlines.isEmpty()) {
+            Grab grab = deadlines.peek();
+            if(grab.finished) {
+                deadlines.poll();
+                continue;
+            }
+            if(grab.deadline - now <= 0) {
+                deadlines.poll();
+                finish(grab, decode(grab.buffer));
+            }
+            else if(grab.probeAt - now <= 0) {
+                deadlines.poll();
+                try {
+                    if(grab.buffer.position() == 0)
+                        probe(grab, HTTP_HEAD);
+                    else
+                        grab.probeAt = Long.MAX_VALUE;
+                    deadlines.add(grab);
+                }
+                catch(IOException e) {
+                    finish(grab, null);
+                }
+            }
+            else
+                break;
+        }
+    }
+
+    /**
+     * Closes a connection, returns its buffer to the pool and reports the banner.
+     * @param  grab    Grab    the connection.
+     * @param  banner  String  the banner, or null.
+     */
+    private void finish(Grab grab, String banner) {
+        if(grab.finished)
+            return;
+        grab.finished = true;
+        try {
+            grab.channel.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+        if(grab.buffer != null) {
+            grab.buffer.clear();
+            buffers.push(grab.buffer);
+            grab.buffer = null;
+        }
+        grab.done.accept(banner);
+    }
+
+    /**
+     * Turns the bytes a service sent into a one-line banner: the first line of text, with
+     * the Server header of an HTTP response, or a description of a TLS handshake record.
+     * @param   buffer  ByteBuffer  the bytes read, from position 0 to the buffer's position.
+     * @return          String      the banner, or null if nothing was read.
+     */
+    static String decode(ByteBuffer buffer) {
+        if((buffer == null) || (buffer.position() == 0))
+            return null;
+        byte[] bytes = new byte[buffer.position()];
+        buffer.duplicate().flip().get(bytes);
+        if(isTls(buffer)) {
+            if(bytes[0] == 0x15)
+                return "TLS alert";
+            if((bytes.length > 10) && (bytes[5] == 0x02) && (bytes[9] == 3))
+                return "TLS ServerHello, TLS 1." + ((bytes[10] & 0xFF) - 1);
+            return "TLS handshake";
+        }
+
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        int end = text.indexOf('\n');
+        String line = printable((end < 0) ? text : text.substring(0, end));
+        if(line.startsWith("HTTP/")) {
+            for(String header : text.split("\r?\n")) {
+                if(header.regionMatches(true, 0, "Server:", 0, 7))
+                    return line + " (Server: " + printable(header.substring(7)) + ")";
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Strips control characters and surrounding whitespace.
+     * @param   text  String  raw text.
+     * @return        String  the text with non-printable characters replaced by '.'.
+     */
+    private static String printable(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for(int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            out.append(((c >= 0x20) && (c < 0x7F)) ? c : (c == '\r') ? ' ' : '.');
+        }
+        return out.toString().trim();
+    }
+
+    /**
+     * Whether the bytes read so far include a line end.
+     * @param   buffer  ByteBuffer  the bytes read.
+     * @return          boolean     true if a '\n' has arrived.
+     */
+    private static boolean endsLine(ByteBuffer buffer) {
+        for(int i = 0; i < buffer.position(); i++) {
+            if(buffer.get(i) == '\n')
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the bytes read start a TLS handshake or alert record.
+     * @param   buffer  ByteBuffer  the bytes read.
+     * @return          boolean     true for a TLS record header.
+     */
+    private static boolean isTls(ByteBuffer buffer) {
+        return (buffer.position() >= 3) && ((buffer.get(0) == 0x16) || (buffer.get(0) == 0x15)) && (buffer.get(1) == 0x03);
+    }
+
+    private static boolean contains(int[] ports, int port) {
+        return Arrays.binarySearch(ports, port) >= 0;
+    }
+
+    /**
+     * Builds a minimal TLS 1.2 ClientHello offering common cipher suites, enough for a TLS
+     * service to answer with a ServerHello or an alert.
+     * @return  byte[]  the handshake record.
+     */
+    private static byte[] clientHello() {
+        int[] suites = {0xC02F, 0xC030, 0xC02B, 0xC02C, 0x009C, 0x009D, 0x002F, 0x0035, 0x00FF};
+        ByteBuffer hello = ByteBuffer.allocate(9 + 2 + 32 + 1 + 2 + 2 * suites.length + 2);
+        hello.put((byte) 0x16).putShort((short) 0x0301).putShort((short) (hello.capacity() - 5));
+        hello.put((byte) 0x01).put((byte) 0).putShort((short) (hello.capacity() - 9));
+        hello.putShort((short) 0x0303);
+        for(int i = 0; i < 32; i++)
+            hello.put((byte) (i * 37));
+        hello.put((byte) 0);
+        hello.putShort((short) (2 * suites.length));
+        for(int suite : suites)
+            hello.putShort((short) suite);
+        hello.put((byte) 1).put((byte) 0);
+        return hello.array();
+    }
+}
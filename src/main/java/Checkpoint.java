@@ -0,0 +1,281 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only record of a scan's progress, used to resume an interrupted scan. The file
+ * starts with the magic bytes "PSC1" and the scan's arguments, followed by fixed 16-byte
+ * big-endian entries: the scan-order position before which every probe has finished (8
+ * bytes) and the index of the first host whose summary has not been written (8). Only
+ * the last complete entry is read back, so a crash while appending loses one interval.
+ */
+class Checkpoint {
+
+    static final String MAGIC = "PSC1";
+    static final int ENTRY_SIZE = 16;
+
+    private final FileChannel channel;
+    private final String[] args;
+    private final boolean resumed;
+    private final ByteBuffer entry;
+    private long end;
+    private long position;
+    private long host;
+
+    /**
+     * Constructor.
+     * @param  channel   FileChannel  the open checkpoint file.
+     * @param  args      String[]     arguments of the scan.
+     * @param  resumed   boolean      whether the file was written by an earlier run.
+     * @param  end       long         offset at which the next entry is appended.
+     * @param  position  long         last recorded scan-order position.
+     * @param  host      long         last recorded host index.
+     */
+    private Checkpoint(FileChannel channel, String[] args, boolean resumed, long end, long position, long host) {
+        this.channel = channel;
+        this.args = args;
+        this.resumed = resumed;
+        this.entry = ByteBuffer.allocate(ENTRY_SIZE);
+        this.end = end;
+        this.position = position;
+        this.host = host;
+    }
+
+    /**
+     * Starts a new checkpoint file, replacing any existing one.
+     * @param   file  String      path of the checkpoint file.
+     * @param   args  String[]    arguments that reproduce the scan, including its seed.
+     * @throws  IOException       if the file cannot be written.
+     * @return        Checkpoint  the checkpoint, with no progress recorded.
+     */
+    static Checkpoint create(String file, String[] args) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                               StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        byte[] header = header(args);
+        channel.write(ByteBuffer.wrap(header));
+        return new Checkpoint(channel, args, false, header.length, 0, 0);
+    }
+
+    /**
+     * Opens an existing checkpoint file to continue the scan it records. A partly written
+     * trailing entry is discarded.
+     * @param   file  String      path of the checkpoint file.
+     * @throws  IOException       if the file cannot be read or is not a checkpoint.
+     * @return        Checkpoint  the checkpoint, positioned at its last entry.
+     */
+    static Checkpoint resume(String file) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            byte[] magic = new byte[MAGIC.length()];
+            in.readFully(magic);
+            if(!MAGIC.equals(new String(magic, "US-ASCII")))
+                throw new IOException("Not a checkpoint file: " + file);
+            String[] args = new String[in.readInt()];
+            for(int i = 0; i < args.length; i++)
+                args[i] = in.readUTF();
+
+            long start = header(args).length;
+            long entries = (channel.size() - start) / ENTRY_SIZE;
+            long end = start + entries * ENTRY_SIZE;
+            channel.truncate(end);
+            if(entries == 0)
+                return new Checkpoint(channel, args, true, end, 0, 0);
+
+            ByteBuffer last = ByteBuffer.allocate(ENTRY_SIZE);
+            while(last.hasRemaining())
+                channel.read(last, end - ENTRY_SIZE + last.position());
+            last.flip();
+            return new Checkpoint(channel, args, true, end, last.getLong(), last.getLong());
+        }
+        catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes the file header.
+     * @param   args  String[]  arguments of the scan.
+     * @throws  IOException     never, the header is built in memory.
+     * @return        byte[]    the magic bytes followed by the argument count and arguments.
+     */
+    private static byte[] header(String[] args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes(MAGIC);
+        out.writeInt(args.length);
+        for(String arg : args)
+            out.writeUTF(arg);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Arguments of the recorded scan.
+     * @return  String[]  the arguments, including the seed of the scan order.
+     */
+    public String[] getArgs() {
+        return args;
+    }
+
+    /**
+     * Whether the file was written by an earlier run.
+     * @return  boolean  true if the scan is being resumed.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Last recorded scan-order position.
+     * @return  long  the first position that may not have finished.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Last recorded host index.
+     * @return  long  index of the first host whose summary has not been written.
+     */
+    public long getHost() {
+        return host;
+    }
+
+    /**
+     * Appends an entry unless nothing has changed since the last one.
+     * @param   position  long  scan-order position before which every probe has finished.
+     * @param   host      long  index of the first host whose summary has not been written.
+     * @throws  IOException     if the entry cannot be written.
+     */
+    public synchronized void write(long position, long host) throws IOException {
+        if((position == this.position) && (host == this.host))
+            return;
+        entry.clear();
+        entry.putLong(position);
+        entry.putLong(host);
+        entry.flip();
+        while(entry.hasRemaining())
+            channel.write(entry, end + entry.position());
+        end += ENTRY_SIZE;
+        this.position = position;
+        this.host = host;
+    }
+
+    /**
+     * Closes the file.
+     * @throws  IOException  if closing fails.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+/**
+ * Saves a scan's progress to its checkpoint once a second. Before each entry is written
+ * the result sink is flushed, so everything the entry claims as done is already in the
+ * output.
+ */
+class Checkpointer extends Thread {
+
+    static final int INTERVAL = 1000;
+
+    private final Checkpoint checkpoint;
+    private final ScanJob job;
+    private final ResultSink sink;
+    private final Object wakeup;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     * @param  checkpoint  Checkpoint  the file to append to.
+     * @param  job         ScanJob     the scan to watch; must be tracking progress.
+     * @param  sink        ResultSink  the sink receiving the scan's results.
+     */
+    public Checkpointer(Checkpoint checkpoint, ScanJob job, ResultSink sink) {
+        this.checkpoint = checkpoint;
+        this.job = job;
+        this.sink = sink;
+        this.wakeup = new Object();
+        this.running = true;
+        setDaemon(true);
+    }
+
+    /**
+     * Checkpointing loop.
+     */
+    public void run() {
+        while(true) {
+            synchronized(wakeup) {
+                try {
+                    if(running)
+                        wakeup.wait(INTERVAL);
+                }
+                catch(InterruptedException e) {
+                    break;
+                }
+                if(!running)
+                    break;
+            }
+            if(!save())
+                break;
+        }
+    }
+
+    /**
+     * Writes one entry.
+     * @return  boolean  false if the checkpoint could not be written.
+     */
+    private synchronized boolean save() {
+        long position = job.completedPosition();
+        long host = job.hostsReported();
+        sink.flush();
+        try {
+            checkpoint.write(position, host);
+            return true;
+        }
+        catch(IOException e) {
+            System.out.println("ERROR: Unable to write checkpoint: " + e.getMessage());
+            running = false;
+            return false;
+        }
+    }
+
+    /**
+     * Stops the loop, records the final progress and closes the checkpoint. The file
+     * channel would be closed by an interrupt, so the loop is woken instead, and the
+     * caller's interrupt status is held back until the last entry is written.
+     */
+    public void finish() {
+        boolean interrupted = Thread.interrupted();
+        boolean saving;
+        synchronized(wakeup) {
+            saving = running;
+            running = false;
+            wakeup.notifyAll();
+        }
+        try {
+            join();
+        }
+        catch(InterruptedException e) {
+            interrupted = true;
+        }
+        if(saving)
+            save();
+        try {
+            checkpoint.close();
+        }
+        catch(IOException e) {
+            System.out.println("ERROR: Unable to close checkpoint: " + e.getMessage());
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adapts the number of probes in flight to loss on the path, by additive increase and
+ * multiplicative decrease as in TCP. A window starts at INITIAL_WINDOW probes and grows
+ * by one per answered probe (slow start) until its first cut, then by one per window of
+ * answers. Drops are told apart from ports that are simply filtered by the loss rate
+ * rising: each window keeps a fast moving average of the share of probes that timed
+ * out and a slow one as its baseline, and a timeout while the fast average is more than
+ * RISE above the baseline halves the window. Timeouts of probes sent before the last cut
+ * belong to the same loss event and do not cut again. A scan may use one window, or one
+ * per /24 (per /64 for IPv6 hosts), so a congested network does not slow down the rest.
+ */
+class CongestionControl {
+
+    static final int INITIAL_WINDOW = 10;
+    static final int MIN_WINDOW = 4;
+    static final double LOSS_GAIN = 1.0 / 16;
+    static final double BASELINE_GAIN = 1.0 / 128;
+    static final double RISE = 0.2;
+    /* Idle subnet windows are dropped once more than this many are kept. */
+    static final int MAX_IDLE_SUBNETS = 1024;
+
+    private final int ceiling;
+    private final Window scan;
+    private final ConcurrentHashMap<Long, Window> subnets;
+    private final ConcurrentHashMap<Long, Window> subnets6;
+    private final LongAdder cuts;
+    private double loss;
+
+    /**
+     * Congestion window of one path.
+     */
+    private static class Window {
+        private final int ceiling;
+        private double size;
+        private double threshold;
+        private double loss;
+        private double baseline;
+        private long lastCut;
+        private int inFlight;
+
+        Window(int ceiling) {
+            this.ceiling = ceiling;
+            this.size = Math.min(INITIAL_WINDOW, ceiling);
+            this.threshold = ceiling;
+            this.loss = 0;
+            this.baseline = 0;
+            this.lastCut = System.nanoTime();
+            this.inFlight = 0;
+        }
+
+        synchronized boolean tryAcquire() {
+            if(inFlight >= (int) size)
+                return false;
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * Counts a probe as finished and adjusts the window.
+         * @param   silent     boolean  whether the probe timed out.
+         * @param   sentNanos  long     System.nanoTime() when the probe was sent.
+         * @return             boolean  true if the window was cut.
+         */
+        synchronized boolean finished(boolean silent, long sentNanos) {
+            inFlight--;
+            double sample = silent ? 1 : 0;
+            loss += (sample - loss) * LOSS_GAIN;
+            boolean rising = loss > baseline + RISE;
+            baseline += (sample - baseline) * BASELINE_GAIN;
+            if(silent && rising) {
+                if(sentNanos - lastCut <= 0)
+                    return false;
+                threshold = Math.max(Math.min(MIN_WINDOW, ceiling), size / 2);
+                size = threshold;
+                lastCut = System.nanoTime();
+                return true;
+            }
+            size = Math.min(ceiling, size + ((size < threshold) ? 1 : 1 / size));
+            return false;
+        }
+
+        synchronized int size() {
+            return (int) size;
+        }
+
+        synchronized boolean isIdle() {
+            return inFlight == 0;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param  ceiling    int      largest window, the scan's in-flight limit.
+     * @param  perSubnet  boolean  whether each /24 (or IPv6 /64) gets its own window.
+     */
+    public CongestionControl(int ceiling, boolean perSubnet) {
+        this.ceiling = ceiling;
+        this.scan = perSubnet ? null : new Window(ceiling);
+        this.subnets = new ConcurrentHashMap<Long, Window>();
+        this.subnets6 = new ConcurrentHashMap<Long, Window>();
+        this.cuts = new LongAdder();
+        this.loss = 0;
+    }
+
+    /**
+     * Whether each /24 (or IPv6 /64) has its own window.
+     * @return  boolean  true if constructed per subnet.
+     */
+    public boolean isPerSubnet() {
+        return scan == null;
+    }
+
+    /**
+     * Claims a place in the window of a probe's path.
+     * @param   ipv6    boolean  whether the host is an IPv6 host.
+     * @param   subnet  long     the host's /24 (address >>> 8), or the high half of its IPv6 address.
+     * @return          boolean  true if the probe may be sent now.
+     */
+    public boolean tryAcquire(boolean ipv6, long subnet) {
+        if(scan != null)
+            return scan.tryAcquire();
+        boolean[] claimed = new boolean[1];
+        /* Claimed under the map's lock, so an idle window cannot be dropped in between. */
+        (ipv6 ? subnets6 : subnets).compute(subnet, (key, window) -> {
+            if(window == null)
+                window = new Window(ceiling);
+            claimed[0] = window.tryAcquire();
+            return window;
+        });
+        return claimed[0];
+    }
+
+    /**
+     * Counts a probe that claimed a place as finished.
+     * @param  ipv6       boolean  whether the host is an IPv6 host.
+     * @param  subnet     long     the key given to tryAcquire().
+     * @param  silent     boolean  whether the probe timed out.
+     * @param  sentNanos  long     System.nanoTime() when the probe was sent.
+     */
+    public void finished(boolean ipv6, long subnet, boolean silent, long sentNanos) {
+        synchronized(this) {
+            loss += ((silent ? 1 : 0) - loss) * LOSS_GAIN;
+        }
+        if(scan != null) {
+            if(scan.finished(silent, sentNanos))
+                cuts.increment();
+            return;
+        }
+        ConcurrentHashMap<Long, Window> windows = ipv6 ? subnets6 : subnets;
+        windows.computeIfPresent(subnet, (key, window) -> {
+            if(window.finished(silent, sentNanos))
+                cuts.increment();
+            return (window.isIdle() && (windows.size() > MAX_IDLE_SUBNETS)) ? null : window;
+        });
+    }
+
+    /**
+     * Current window: the scan's, or the sum of the subnet windows kept.
+     * @return  long  probes allowed in flight.
+     */
+    public long window() {
+        if(scan != null)
+            return scan.size();
+        long total = 0;
+        for(Window window : subnets.values())
+            total += window.size();
+        for(Window window : subnets6.values())
+            total += window.size();
+        return total;
+    }
+
+    /**
+     * Recent share of probes that timed out, across the whole scan.
+     * @return  double  moving average from 0 to 1.
+     */
+    public synchronized double loss() {
+        return loss;
+    }
+
+    /**
+     * Number of times a window was cut.
+     * @return  long  the cut count.
+     */
+    public long cuts() {
+        return cuts.sum();
+    }
+}
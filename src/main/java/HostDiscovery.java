@@ -0,0 +1,126 @@
+/**
+ * Host discovery pre-pass. Before the port sweep every host is sent TCP connect probes on
+ * a few ports, all of them at once within the scan's concurrency and rate limits; a host
+ * that accepts or resets any of them is up. Only hosts that answered go on to the full
+ * scan, so the empty addresses of a sparse range cost one round of timeouts rather than
+ * one per port. Hosts that drop probes to every discovery port are skipped as down.
+ */
+class HostDiscovery {
+
+    private final ArgParser options;
+    private final TargetIterator targets;
+    private final ScanJob job;
+    private final IntervalSet alive;
+    private final IPv6Set alive6;
+    private long hosts;
+    private long elapsedNanos;
+
+    /**
+     * Constructor.
+     * @param  options  ArgParser  the scan's options, with the hosts and discovery ports.
+     */
+    public HostDiscovery(ArgParser options) {
+        this.options = options;
+        this.targets = new TargetIterator(options.getHosts(), options.getHosts6(), options.getDiscoveryPorts());
+        this.job = new ScanJob(targets, options.getMaxInflight(), options.getMinTimeout(), options.getMaxTimeout(), options.getRetries(), null);
+        this.alive = new IntervalSet();
+        this.alive6 = new IPv6Set();
+        this.hosts = 0;
+        this.elapsedNanos = 0;
+    }
+
+    /**
+     * Probes every host on the discovery ports and keeps those that answered.
+     * @param   engine  ScanEngine  the engine providing worker threads and event loops.
+     * @throws  InterruptedException  if interrupted while waiting; probes in flight finish.
+     */
+    public void run(ScanEngine engine) throws InterruptedException {
+        long start = System.nanoTime();
+        job.limitRate(options.getRate(), options.getHostRate());
+        job.bindFrom(engine.localPorts(options.getSourceAddress(), options.getSourceFirstPort(), options.getSourceLastPort()));
+
+        int workers = (int) Math.min(options.getConcurrency(), targets.estimateSize());
+        if(options.isNio())
+            engine.addToLoops(job, workers);
+        else {
+            for(int i = 0; i < workers; i++)
+                engine.execute(new ScanThread(job));
+        }
+
+        try {
+            for(long i = job.firstHost(); i <= job.lastHost(); i++) {
+                HostResult result = job.awaitHost(i);
+                hosts++;
+                if(!result.answered)
+                    continue;
+                if(result.ipv6 != null)
+                    alive6.add(result.ipv6[0], result.ipv6[1], result.ipv6[0], result.ipv6[1]);
+                else
+                    alive.add(Integer.toUnsignedLong(result.address), Integer.toUnsignedLong(result.address));
+            }
+        }
+        catch(InterruptedException e) {
+            job.cancel();
+            throw e;
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Live metrics of the discovery probes.
+     * @return  ScanMetrics  the pre-pass's counters.
+     */
+    public ScanMetrics metrics() {
+        return job.metrics();
+    }
+
+    /**
+     * IPv4 hosts that answered.
+     * @return  IntervalSet  the live IPv4 hosts.
+     */
+    public IntervalSet getAlive() {
+        return alive;
+    }
+
+    /**
+     * IPv6 hosts that answered.
+     * @return  IPv6Set  the live IPv6 hosts.
+     */
+    public IPv6Set getAlive6() {
+        return alive6;
+    }
+
+    /**
+     * Number of hosts left out of the port sweep.
+     * @return  long  hosts that did not answer.
+     */
+    public long getSkipped() {
+        return hosts - alive.size() - alive6.size();
+    }
+
+    /**
+     * Estimated time the port sweep would have spent on the skipped hosts, less the time
+     * discovery took. A port of a down host holds a probe slot for the initial timeout
+     * on every attempt, since the host never answers, or is paced by the rate limit,
+     * whichever is slower.
+     * @return  long  nanoseconds saved, negative if discovery cost more than it saved.
+     */
+    public long getSavedNanos() {
+        double probes = (double) getSkipped() * options.getPorts().size() * (options.getRetries() + 1);
+        int slots = (options.isNio() || options.isUdp()) ? options.getMaxInflight() : Math.min(options.getConcurrency(), options.getMaxInflight());
+        double nanos = probes * RttEstimator.initialTimeout(options.getMinTimeout(), options.getMaxTimeout()) * 1e6 / slots;
+        if(options.getRate() > 0)
+            nanos = Math.max(nanos, probes * 1e9 / options.getRate());
+        return (long) Math.min(nanos - elapsedNanos, Long.MAX_VALUE);
+    }
+
+    /**
+     * One-line summary of the pre-pass.
+     * @return  String  hosts up and skipped, and the time discovery took and saved.
+     */
+    public String summary() {
+        long saved = getSavedNanos();
+        return "Host discovery: " + (hosts - getSkipped()) + " of " + hosts + " host(s) up, " + getSkipped() + " skipped in "
+            + ProgressReporter.eta(elapsedNanos / 1e9) + ((saved > 0) ? ", saving about " + ProgressReporter.eta(saved / 1e9) + " of probing." : ".");
+    }
+}
@@ -0,0 +1,190 @@
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Resolves host names given as scan targets to packed addresses: a name's IPv4 addresses,
+ * or its IPv6 addresses if it has none. Names are resolved once, while the options are
+ * parsed, on a small pool of threads so that a long list of names costs about one lookup
+ * round trip rather than one per name; probes only ever see the packed addresses. Answers
+ * are cached for the JVM's DNS cache lifetime (networkaddress.cache.ttl, 30 s when unset,
+ * and networkaddress.cache.negative.ttl for failures), so jobs sent to a long-running
+ * daemon see address changes.
+ */
+class HostResolver {
+
+    static final int THREADS = 16;
+
+    private static final ConcurrentHashMap<String, Entry> CACHE = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Addresses of one name.
+     */
+    static class Addresses {
+        final int[] ipv4;
+        final long[] ipv6;
+
+        Addresses(int[] ipv4, long[] ipv6) {
+            this.ipv4 = ipv4;
+            this.ipv6 = ipv6;
+        }
+    }
+
+    /**
+     * Cached answer for one name.
+     */
+    private static class Entry {
+        final Addresses addresses;
+        final String error;
+        final long expires;
+
+        Entry(Addresses addresses, String error, long ttlSeconds) {
+            this.addresses = addresses;
+            this.error = error;
+            this.expires = (ttlSeconds < 0) ? Long.MAX_VALUE : System.nanoTime() + ttlSeconds * 1000000000L;
+        }
+
+        boolean isLive() {
+            return (expires == Long.MAX_VALUE) || (expires - System.nanoTime() > 0);
+        }
+    }
+
+    /**
+     * Whether a host argument is a name rather than an address, range or CIDR block.
+     * @param   arg  String   the host argument.
+     * @return       boolean  true if it holds anything but digits, dots, '-' and '/'.
+     */
+    static boolean isName(String arg) {
+        for(int i = 0; i < arg.length(); i++) {
+            char c = arg.charAt(i);
+            if(((c < '0') || (c > '9')) && (c != '.') && (c != '-') && (c != '/'))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resolves names in parallel. Names already cached are not looked up again.
+     * @param   names  List<String>            the names, duplicates allowed.
+     * @throws  UnknownHostException           naming the first name that did not resolve.
+     * @return         Map<String, Addresses>  the addresses of each name.
+     */
+    static Map<String, Addresses> resolveAll(List<String> names) throws UnknownHostException {
+        Map<String, Addresses> resolved = new LinkedHashMap<String, Addresses>();
+        Set<String> stale = new LinkedHashSet<String>();
+        for(String name : names) {
+            Entry entry = CACHE.get(name.toLowerCase());
+            if((entry == null) || !entry.isLive())
+                stale.add(name.toLowerCase());
+        }
+        if(!stale.isEmpty())
+            lookupAll(new ArrayList<String>(stale));
+        for(String name : names)
+            resolved.put(name, answer(name, CACHE.get(name.toLowerCase())));
+        return resolved;
+    }
+
+    /**
+     * Looks names up on a bounded pool and caches the answers.
+     * @param   pending  List<String>   the lower-cased names, without duplicates.
+     * @throws  UnknownHostException    if the lookups were interrupted.
+     */
+    private static void lookupAll(List<String> pending) throws UnknownHostException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(THREADS, pending.size()), task -> {
+            Thread thread = new Thread(task, "host-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Entry>> lookups = new ArrayList<Future<Entry>>();
+            for(String name : pending)
+                lookups.add(pool.submit(() -> lookup(name)));
+            for(int i = 0; i < pending.size(); i++) {
+                Entry entry;
+                try {
+                    entry = lookups.get(i).get();
+                }
+                catch(ExecutionException | InterruptedException e) {
+                    throw new UnknownHostException(pending.get(i));
+                }
+                CACHE.put(pending.get(i), entry);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Looks a name up.
+     * @param   name  String  the host name.
+     * @return        Entry   its addresses, or the reason there are none.
+     */
+    private static Entry lookup(String name) {
+        try {
+            InetAddress[] all = InetAddress.getAllByName(name);
+            int[] ipv4 = new int[all.length];
+            long[] ipv6 = new long[2 * all.length];
+            int count4 = 0;
+            int count6 = 0;
+            for(InetAddress address : all) {
+                byte[] bytes = address.getAddress();
+                if(address instanceof Inet4Address)
+                    ipv4[count4++] = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+                else {
+                    ByteBuffer packed = ByteBuffer.wrap(bytes);
+                    ipv6[count6++] = packed.getLong();
+                    ipv6[count6++] = packed.getLong();
+                }
+            }
+            Addresses addresses = (count4 > 0) ? new Addresses(Arrays.copyOf(ipv4, count4), new long[0]) : new Addresses(new int[0], Arrays.copyOf(ipv6, count6));
+            return new Entry(addresses, null, ttl("networkaddress.cache.ttl", 30));
+        }
+        catch(UnknownHostException e) {
+            return new Entry(null, "is unknown", ttl("networkaddress.cache.negative.ttl", 10));
+        }
+    }
+
+    /**
+     * Addresses of a cached answer.
+     * @param   name   String     the name, for the error message.
+     * @param   entry  Entry      the cached answer.
+     * @throws  UnknownHostException  if the name did not resolve.
+     * @return         Addresses  the packed addresses.
+     */
+    private static Addresses answer(String name, Entry entry) throws UnknownHostException {
+        if(entry.addresses == null)
+            throw new UnknownHostException(name + " " + entry.error);
+        return entry.addresses;
+    }
+
+    /**
+     * Cache lifetime set for the JVM's own DNS cache.
+     * @param   property  String  the security property.
+     * @param   fallback  long    seconds to use when it is unset or invalid.
+     * @return            long    seconds, or -1 to cache forever.
+     */
+    private static long ttl(String property, long fallback) {
+        String value = Security.getProperty(property);
+        try {
+            return (value == null) ? fallback : Long.parseLong(value.trim());
+        }
+        catch(NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
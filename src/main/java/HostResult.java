@@ -0,0 +1,140 @@
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Probe outcomes for a single host. Created when the first probe for the host starts and
+ * dropped once the host has been reported.
+ */
+class HostResult {
+
+    final int address;
+    final long[] ipv6;
+    final Queue<Integer> openPorts;
+    final AtomicInteger closed;
+    final AtomicInteger filtered;
+    final AtomicInteger openFiltered;
+    final RttEstimator rtt;
+    final RateLimiter rate;
+    Map<Integer, PortState> changes;
+    final Map<Integer, String> banners;
+    volatile boolean answered;
+    private final CountDownLatch pending;
+
+    /**
+     * Constructor.
+     * @param  address     int  packed IPv4 address of the host.
+     * @param  portCount   int  number of probes expected for the host.
+     * @param  minTimeout  int  lower bound for the probe timeout (ms).
+     * @param  maxTimeout  int  upper bound for the probe timeout (ms).
+     * @param  rateLimit   int  connections per second allowed to the host, or 0 for no limit.
+     */
+    public HostResult(int address, int portCount, int minTimeout, int maxTimeout, int rateLimit) {
+        this(address, null, portCount, minTimeout, maxTimeout, rateLimit);
+    }
+
+    /**
+     * Constructor for an IPv6 host.
+     * @param  high        long  high 64 bits of the host's address.
+     * @param  low         long  low 64 bits of the host's address.
+     * @param  portCount   int   number of probes expected for the host.
+     * @param  minTimeout  int   lower bound for the probe timeout (ms).
+     * @param  maxTimeout  int   upper bound for the probe timeout (ms).
+     * @param  rateLimit   int   connections per second allowed to the host, or 0 for no limit.
+     */
+    public HostResult(long high, long low, int portCount, int minTimeout, int maxTimeout, int rateLimit) {
+        this(0, new long[] {high, low}, portCount, minTimeout, maxTimeout, rateLimit);
+    }
+
+    private HostResult(int address, long[] ipv6, int portCount, int minTimeout, int maxTimeout, int rateLimit) {
+        this.address = address;
+        this.ipv6 = ipv6;
+        this.openPorts = new ConcurrentLinkedQueue<Integer>();
+        this.closed = new AtomicInteger();
+        this.filtered = new AtomicInteger();
+        this.openFiltered = new AtomicInteger();
+        this.rtt = new RttEstimator(minTimeout, maxTimeout);
+        this.rate = (rateLimit > 0) ? new RateLimiter(rateLimit) : null;
+        this.changes = null;
+        this.banners = new ConcurrentSkipListMap<Integer, String>();
+        this.answered = false;
+        this.pending = new CountDownLatch(portCount);
+    }
+
+    /**
+     * Text form of the host's address.
+     * @return  String  the IPv4 or IPv6 address.
+     */
+    String addressString() {
+        return (ipv6 == null) ? IPv4Address.toString(address) : IPv6Address.toString(ipv6[0], ipv6[1]);
+    }
+
+    /**
+     * Starts collecting the ports whose state differs from a previous scan. Must be called
+     * before the result is shared.
+     */
+    void trackChanges() {
+        changes = new ConcurrentSkipListMap<Integer, PortState>();
+    }
+
+    /**
+     * Records a port that was open in the previous scan and no longer is, or the reverse.
+     * Must be called before record() for the same probe.
+     * @param  port   int        the probed port.
+     * @param  state  PortState  the new outcome.
+     */
+    void changed(int port, PortState state) {
+        changes.put(port, state);
+    }
+
+    /**
+     * Records what the service on an open port sent. Must be called before record() for
+     * the same probe.
+     * @param  port    int     the probed port.
+     * @param  banner  String  the service's banner.
+     */
+    void banner(int port, String banner) {
+        banners.put(port, banner);
+    }
+
+    /**
+     * Records the final outcome of a probe.
+     * @param  port   int        the probed port.
+     * @param  state  PortState  the probe outcome.
+     */
+    void record(int port, PortState state) {
+        switch(state) {
+            case OPEN:
+                openPorts.add(port);
+                break;
+            case CLOSED:
+                closed.incrementAndGet();
+                break;
+            case FILTERED:
+                filtered.incrementAndGet();
+                break;
+            case OPEN_FILTERED:
+                openFiltered.incrementAndGet();
+                break;
+        }
+        pending.countDown();
+    }
+
+    /**
+     * Counts a probe that ended without an outcome, such as one that failed locally.
+     */
+    void abandoned() {
+        pending.countDown();
+    }
+
+    /**
+     * Waits for every probe of the host to finish.
+     * @throws  InterruptedException  if interrupted while waiting.
+     */
+    void await() throws InterruptedException {
+        pending.await();
+    }
+}
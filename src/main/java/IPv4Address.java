@@ -1,3 +1,6 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
 /**
 * Class used for validating and manipulating IPv4 addresses.
 */
@@ -6,6 +9,7 @@ class IPv4Address {
     int[] numArray;
     String[] strArray;
     String ipString;
+    int address;
     
     /**
      * Constructor.
@@ -17,8 +21,10 @@ class IPv4Address {
             ipString = ip;
             strArray = ip.split("\\.");
             numArray = new int[strArray.length];
-            for(int i = 0; i < strArray.length; i++)
+            for(int i = 0; i < strArray.length; i++) {
                 numArray[i] = Integer.parseInt(strArray[i]);
+                address = (address << 8) | numArray[i];
+            }
         } else {
             ipString = "";
             strArray = null;
@@ -60,11 +66,39 @@ class IPv4Address {
      * @return      int          positive if this > ip, negative if this < ip, 0 if this == ip.
      */
     public int compareTo(IPv4Address ip) {
-        for(int i = 0; i < numArray.length; i++) {
-            if(numArray[i] != ip.numArray[i])
-                return (numArray[i] - ip.numArray[i]);
+        return Integer.compareUnsigned(address, ip.address);
+    }
+    
+    /**
+     * The address packed into a 32-bit value, most significant octet first.
+     * @return  int  the packed address.
+     */
+    public int toInt() {
+        return address;
+    }
+    
+    /**
+     * Dotted-quad form of a packed address.
+     * @param   address  int     the packed address.
+     * @return           String  the address as a string.
+     */
+    public static String toString(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+    
+    /**
+     * Socket address form of a packed address. No name lookup is performed.
+     * @param   address  int          the packed address.
+     * @return           InetAddress  the address for use with sockets.
+     */
+    public static InetAddress toInetAddress(int address) {
+        byte[] octets = { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address };
+        try {
+            return InetAddress.getByAddress(octets);
+        }
+        catch(UnknownHostException e) {
+            throw new IllegalStateException(e);  // Only thrown for an illegal array length.
         }
-        return 0;
     }
     
     /**
@@ -85,24 +119,8 @@ class IPv4Address {
      */
     public String getNextAddress() throws InvalidIPv4Address
     {
-        String[] temp = new String[numArray.length];
-        for (int i = 0; i < numArray.length; i++)
-            temp[i] = Integer.toString(numArray[i]);
-
-        for(int i = numArray.length - 1; i >= 0; i--) {
-            if((numArray[i] >= 0) && (numArray[i] < 255)) {
-                temp[i] = Integer.toString(numArray[i] + 1);
-                return String.join(".", temp);
-            }
-            else if(numArray[i] == 255) {
-                if(i == 0)
-                    throw new InvalidIPv4Address("Invalid IPv4 Address.");
-                else
-                    temp[i] = "0";
-            }
-            else
-                throw new InvalidIPv4Address("Invalid IPv4 Address.");
-        }
-        throw new InvalidIPv4Address("Invalid IPv4 Address.");
+        if((numArray == null) || (address == -1))
+            throw new InvalidIPv4Address("Invalid IPv4 Address.");
+        return IPv4Address.toString(address + 1);
     }
 }
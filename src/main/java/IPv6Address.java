@@ -0,0 +1,155 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Helpers for IPv6 addresses packed into two longs, the high and low 64 bits, compared as
+ * unsigned values. The packed form is what IPv6Set and the scan engine work with, so no
+ * object is created per address until a socket needs one.
+ */
+class IPv6Address {
+
+    /**
+     * Whether a host argument is written as an IPv6 address, range or prefix.
+     * @param   arg  String   the host argument.
+     * @return       boolean  true if it contains a ':'.
+     */
+    public static boolean isIPv6(String arg) {
+        return arg.indexOf(':') >= 0;
+    }
+
+    /**
+     * Parses an address in any of the RFC 4291 text forms, including '::' compression
+     * and a dotted-quad tail, optionally in square brackets.
+     * @param   text  String  the address.
+     * @return        long[]  the high and low 64 bits, or null if the text is invalid.
+     */
+    public static long[] parse(String text) {
+        if(text.startsWith("[") && text.endsWith("]"))
+            text = text.substring(1, text.length() - 1);
+        if(text.isEmpty() || (text.indexOf("::") != text.lastIndexOf("::")))
+            return null;
+
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int i = 0;
+        if(text.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        }
+        while(i < text.length()) {
+            int end = text.indexOf(':', i);
+            if(end < 0)
+                end = text.length();
+            String group = text.substring(i, end);
+
+            if((end == text.length()) && (group.indexOf('.') >= 0)) {
+                /* Embedded IPv4 address, as in ::ffff:192.0.2.1. */
+                if((count > 6) || (IPv4Address.validateIPAddress(group) == null))
+                    return null;
+                int v4 = new IPv4Address(group).toInt();
+                groups[count++] = v4 >>> 16;
+                groups[count++] = v4 & 0xFFFF;
+                i = end;
+                break;
+            }
+            if(group.isEmpty() || (group.length() > 4) || (count == 8) || (group.charAt(0) == '+') || (group.charAt(0) == '-'))
+                return null;
+            try {
+                groups[count++] = Integer.parseInt(group, 16);
+            }
+            catch(NumberFormatException e) {
+                return null;
+            }
+
+            if(end == text.length())
+                break;
+            if(text.startsWith("::", end)) {
+                gap = count;
+                i = end + 2;
+            }
+            else {
+                i = end + 1;
+                if(i == text.length())
+                    return null;  // Trailing single ':'.
+            }
+        }
+        if((gap < 0) ? (count != 8) : (count > 7))
+            return null;
+
+        /* Move the groups after the '::' to the end. */
+        int[] full = new int[8];
+        int tail = (gap < 0) ? 0 : count - gap;
+        for(int g = 0; g < count - tail; g++)
+            full[g] = groups[g];
+        for(int g = 0; g < tail; g++)
+            full[8 - tail + g] = groups[count - tail + g];
+        long high = 0;
+        long low = 0;
+        for(int g = 0; g < 4; g++) {
+            high = (high << 16) | full[g];
+            low = (low << 16) | full[g + 4];
+        }
+        return new long[] {high, low};
+    }
+
+    /**
+     * Text form of a packed address as recommended by RFC 5952: lowercase hex without
+     * leading zeros and the longest run of two or more zero groups written as '::'.
+     * @param   high  long    the high 64 bits.
+     * @param   low   long    the low 64 bits.
+     * @return        String  the address as a string.
+     */
+    public static String toString(long high, long low) {
+        int[] groups = new int[8];
+        for(int g = 0; g < 4; g++) {
+            groups[g] = (int) (high >>> (48 - 16 * g)) & 0xFFFF;
+            groups[g + 4] = (int) (low >>> (48 - 16 * g)) & 0xFFFF;
+        }
+        int bestStart = -1;
+        int bestLength = 1;
+        for(int g = 0; g < 8; g++) {
+            int length = 0;
+            while((g + length < 8) && (groups[g + length] == 0))
+                length++;
+            if(length > bestLength) {
+                bestStart = g;
+                bestLength = length;
+            }
+            g += length;
+        }
+
+        StringBuilder out = new StringBuilder(39);
+        for(int g = 0; g < 8; g++) {
+            if(g == bestStart) {
+                out.append("::");
+                g += bestLength - 1;
+                continue;
+            }
+            if((out.length() > 0) && (out.charAt(out.length() - 1) != ':'))
+                out.append(':');
+            out.append(Integer.toHexString(groups[g]));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Socket address form of a packed address. No name lookup is performed.
+     * @param   high  long         the high 64 bits.
+     * @param   low   long         the low 64 bits.
+     * @return        InetAddress  the address for use with sockets.
+     */
+    public static InetAddress toInetAddress(long high, long low) {
+        byte[] bytes = new byte[16];
+        for(int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        }
+        catch(UnknownHostException e) {
+            throw new IllegalStateException(e);  // Only thrown for an illegal array length.
+        }
+    }
+}
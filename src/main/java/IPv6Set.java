@@ -0,0 +1,327 @@
+import java.util.Arrays;
+
+/**
+ * Compact set of IPv6 addresses stored as sorted, merged [start, end] ranges, the IPv6
+ * counterpart of IntervalSet. Each range takes four longs: the high and low halves of its
+ * start and end, compared as unsigned 128-bit values. Ranges are merged lazily on first
+ * read. A set may hold at most MAX_SIZE addresses, so that positions fit in a long and a
+ * scan of it can finish.
+ */
+class IPv6Set {
+
+    static final long MAX_SIZE = 1L << 40;
+
+    private long[] ranges;
+    private long[] offsets;
+    private int count;
+    private boolean normalized;
+
+    /**
+     * Constructor.
+     */
+    public IPv6Set() {
+        ranges = new long[4 * 8];
+        offsets = null;
+        count = 0;
+        normalized = true;
+    }
+
+    /**
+     * Adds an inclusive range of addresses.
+     * @param  startHigh  long  high 64 bits of the first address.
+     * @param  startLow   long  low 64 bits of the first address.
+     * @param  endHigh    long  high 64 bits of the last address.
+     * @param  endLow     long  low 64 bits of the last address.
+     */
+    public void add(long startHigh, long startLow, long endHigh, long endLow) {
+        if(4 * count == ranges.length)
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        ranges[4 * count] = startHigh;
+        ranges[4 * count + 1] = startLow;
+        ranges[4 * count + 2] = endHigh;
+        ranges[4 * count + 3] = endLow;
+        count++;
+        normalized = false;
+    }
+
+    /**
+     * Adds an address, a hyphenated range or a prefix written as text.
+     * @param   text  String   e.g. '2001:db8::1', '2001:db8::1-2001:db8::ff' or '2001:db8::/120'.
+     * @return        boolean  false if the text is invalid.
+     */
+    public boolean add(String text) {
+        int slash = text.indexOf('/');
+        if(slash >= 0) {
+            long[] address = IPv6Address.parse(text.substring(0, slash));
+            int length;
+            try {
+                length = Integer.parseInt(text.substring(slash + 1));
+            }
+            catch(NumberFormatException e) {
+                return false;
+            }
+            if((address == null) || (length < 0) || (length > 128))
+                return false;
+            addPrefix(address[0], address[1], length);
+            return true;
+        }
+        int dash = text.indexOf('-');
+        long[] start = IPv6Address.parse((dash < 0) ? text : text.substring(0, dash));
+        long[] end = (dash < 0) ? start : IPv6Address.parse(text.substring(dash + 1));
+        if((start == null) || (end == null) || (compare(start[0], start[1], end[0], end[1]) > 0))
+            return false;
+        add(start[0], start[1], end[0], end[1]);
+        return true;
+    }
+
+    /**
+     * Adds the addresses covered by a prefix.
+     * @param  high    long  high 64 bits of an address in the prefix.
+     * @param  low     long  low 64 bits of an address in the prefix.
+     * @param  length  int   prefix length, from 0 to 128.
+     */
+    public void addPrefix(long high, long low, int length) {
+        long highMask = (length >= 64) ? -1L : (length == 0) ? 0 : -1L << (64 - length);
+        long lowMask = (length <= 64) ? 0 : (length == 128) ? -1L : -1L << (128 - length);
+        add(high & highMask, low & lowMask, high | ~highMask, low | ~lowMask);
+    }
+
+    /**
+     * Number of addresses between two, inclusive, saturated at MAX_SIZE + 1.
+     * @param   startHigh  long  high 64 bits of the first address.
+     * @param   startLow   long  low 64 bits of the first address.
+     * @param   endHigh    long  high 64 bits of the last address.
+     * @param   endLow     long  low 64 bits of the last address.
+     * @return             long  the range size.
+     */
+    static long span(long startHigh, long startLow, long endHigh, long endLow) {
+        long highDiff = endHigh - startHigh - ((Long.compareUnsigned(endLow, startLow) < 0) ? 1 : 0);
+        long lowDiff = endLow - startLow;
+        if((highDiff != 0) || (Long.compareUnsigned(lowDiff, MAX_SIZE) >= 0))
+            return MAX_SIZE + 1;
+        return lowDiff + 1;
+    }
+
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        int c = Long.compareUnsigned(aHigh, bHigh);
+        return (c != 0) ? c : Long.compareUnsigned(aLow, bLow);
+    }
+
+    private int compareStarts(int a, int b) {
+        return compare(ranges[4 * a], ranges[4 * a + 1], ranges[4 * b], ranges[4 * b + 1]);
+    }
+
+    private void swap(int a, int b) {
+        for(int i = 0; i < 4; i++) {
+            long t = ranges[4 * a + i];
+            ranges[4 * a + i] = ranges[4 * b + i];
+            ranges[4 * b + i] = t;
+        }
+    }
+
+    /**
+     * Sorts ranges by start, in place, without boxing them.
+     * @param  lo  int  first range to sort.
+     * @param  hi  int  last range to sort (inclusive).
+     */
+    private void sort(int lo, int hi) {
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            swap(mid, hi);
+            int store = lo;
+            for(int i = lo; i < hi; i++) {
+                if(compareStarts(i, hi) < 0)
+                    swap(i, store++);
+            }
+            swap(store, hi);
+            if(store - lo < hi - store) {
+                sort(lo, store - 1);
+                lo = store + 1;
+            }
+            else {
+                sort(store + 1, hi);
+                hi = store - 1;
+            }
+        }
+    }
+
+    /**
+     * Sorts and merges overlapping or adjacent ranges, then indexes their cumulative sizes.
+     */
+    private void normalize() {
+        if(normalized)
+            return;
+        sort(0, count - 1);
+        int merged = 0;
+        for(int i = 0; i < count; i++) {
+            long startHigh = ranges[4 * i];
+            long startLow = ranges[4 * i + 1];
+            long endHigh = ranges[4 * i + 2];
+            long endLow = ranges[4 * i + 3];
+            if(merged > 0) {
+                int last = 4 * (merged - 1);
+                /* Adjacent if the start is at most one past the previous end. */
+                long nextHigh = ranges[last + 2] + ((ranges[last + 3] == -1L) ? 1 : 0);
+                long nextLow = ranges[last + 3] + 1;
+                boolean atEnd = (ranges[last + 2] == -1L) && (ranges[last + 3] == -1L);
+                if(atEnd || (compare(startHigh, startLow, nextHigh, nextLow) <= 0)) {
+                    if(compare(endHigh, endLow, ranges[last + 2], ranges[last + 3]) > 0) {
+                        ranges[last + 2] = endHigh;
+                        ranges[last + 3] = endLow;
+                    }
+                    continue;
+                }
+            }
+            ranges[4 * merged] = startHigh;
+            ranges[4 * merged + 1] = startLow;
+            ranges[4 * merged + 2] = endHigh;
+            ranges[4 * merged + 3] = endLow;
+            merged++;
+        }
+        count = merged;
+
+        offsets = new long[count + 1];
+        for(int i = 0; i < count; i++)
+            offsets[i + 1] = Math.min(offsets[i] + span(ranges[4 * i], ranges[4 * i + 1], ranges[4 * i + 2], ranges[4 * i + 3]), MAX_SIZE + 1);
+        normalized = true;
+    }
+
+    /**
+     * Set difference.
+     * @param   other  IPv6Set  addresses to remove.
+     * @return         IPv6Set  a new set holding the addresses of this set not in other.
+     */
+    public IPv6Set subtract(IPv6Set other) {
+        normalize();
+        other.normalize();
+        IPv6Set result = new IPv6Set();
+        int j = 0;
+        for(int i = 0; i < count; i++) {
+            long startHigh = ranges[4 * i];
+            long startLow = ranges[4 * i + 1];
+            long endHigh = ranges[4 * i + 2];
+            long endLow = ranges[4 * i + 3];
+            while((j < other.count) && (compare(other.ranges[4 * j + 2], other.ranges[4 * j + 3], startHigh, startLow) < 0))
+                j++;
+
+            boolean empty = false;
+            for(int k = j; (k < other.count) && !empty && (compare(other.ranges[4 * k], other.ranges[4 * k + 1], endHigh, endLow) <= 0); k++) {
+                long cutHigh = other.ranges[4 * k];
+                long cutLow = other.ranges[4 * k + 1];
+                if(compare(cutHigh, cutLow, startHigh, startLow) > 0)
+                    result.add(startHigh, startLow, cutHigh - ((cutLow == 0) ? 1 : 0), cutLow - 1);
+                long afterHigh = other.ranges[4 * k + 2];
+                long afterLow = other.ranges[4 * k + 3];
+                if((afterHigh == -1L) && (afterLow == -1L))
+                    empty = true;
+                startHigh = afterHigh + ((afterLow == -1L) ? 1 : 0);
+                startLow = afterLow + 1;
+                if(compare(startHigh, startLow, endHigh, endLow) > 0)
+                    empty = true;
+            }
+            if(!empty)
+                result.add(startHigh, startLow, endHigh, endLow);
+        }
+        return result;
+    }
+
+    /**
+     * Number of addresses in the set.
+     * @return  long  the total size of all ranges, more than MAX_SIZE if the set is too large.
+     */
+    public long size() {
+        normalize();
+        return (offsets == null) ? 0 : offsets[count];
+    }
+
+    /**
+     * Range holding a position.
+     * @param   index  long  position from 0 to size() - 1.
+     * @return         int   the range index.
+     */
+    private int rangeOf(long index) {
+        normalize();
+        int lo = 0;
+        int hi = count - 1;
+        while(lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if(offsets[mid] <= index)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * High 64 bits of the address at a position in ascending order.
+     * @param   index  long  position from 0 to size() - 1.
+     * @return         long  the high half.
+     */
+    public long high(long index) {
+        int r = rangeOf(index);
+        long low = ranges[4 * r + 1] + (index - offsets[r]);
+        return ranges[4 * r] + ((Long.compareUnsigned(low, ranges[4 * r + 1]) < 0) ? 1 : 0);
+    }
+
+    /**
+     * Low 64 bits of the address at a position in ascending order.
+     * @param   index  long  position from 0 to size() - 1.
+     * @return         long  the low half.
+     */
+    public long low(long index) {
+        int r = rangeOf(index);
+        return ranges[4 * r + 1] + (index - offsets[r]);
+    }
+
+    /**
+     * Position of an address in ascending order; the inverse of high() and low().
+     * @param   high  long  high 64 bits of the address.
+     * @param   low   long  low 64 bits of the address.
+     * @return        long  position from 0 to size() - 1, or -1 if the address is not in the set.
+     */
+    public long indexOf(long high, long low) {
+        normalize();
+        int lo = 0;
+        int hi = count - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if(compare(high, low, ranges[4 * mid], ranges[4 * mid + 1]) < 0)
+                hi = mid - 1;
+            else if(compare(high, low, ranges[4 * mid + 2], ranges[4 * mid + 3]) > 0)
+                lo = mid + 1;
+            else
+                return offsets[mid] + (low - ranges[4 * mid + 1]);
+        }
+        return -1;
+    }
+
+    /**
+     * Membership test.
+     * @param   high  long     high 64 bits of the address.
+     * @param   low   long     low 64 bits of the address.
+     * @return        boolean  true if a range contains the address.
+     */
+    public boolean contains(long high, long low) {
+        return indexOf(high, low) >= 0;
+    }
+
+    /**
+     * Number of merged ranges.
+     * @return  int  the range count.
+     */
+    public int rangeCount() {
+        normalize();
+        return count;
+    }
+
+    /**
+     * Text form of a merged range, as accepted by --hosts.
+     * @param   i  int     range index.
+     * @return     String  '<first>-<last>'.
+     */
+    public String rangeString(int i) {
+        normalize();
+        return IPv6Address.toString(ranges[4 * i], ranges[4 * i + 1]) + "-" + IPv6Address.toString(ranges[4 * i + 2], ranges[4 * i + 3]);
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.Arrays;
+
+/**
+ * Compact set of unsigned 32-bit values (IPv4 addresses) stored as sorted, merged
+ * [start, end] ranges. Values are held in longs so that addresses above 127.255.255.255
+ * keep their natural order. Ranges are merged lazily on first read.
+ */
+class IntervalSet {
+
+    private long[] starts;
+    private long[] ends;
+    private long[] offsets;
+    private int count;
+    private boolean normalized;
+
+    /**
+     * Constructor.
+     */
+    public IntervalSet() {
+        starts = new long[8];
+        ends = new long[8];
+        offsets = null;
+        count = 0;
+        normalized = true;
+    }
+
+    /**
+     * Adds an inclusive range of values.
+     * @param  start  long  first value of the range.
+     * @param  end    long  last value of the range.
+     */
+    public void add(long start, long end) {
+        if(count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+        normalized = false;
+    }
+
+    /**
+     * Sorts and merges overlapping or adjacent ranges, then indexes their cumulative sizes.
+     */
+    private void normalize() {
+        if(normalized)
+            return;
+
+        /* Sorting starts and ends independently is enough to compute the union. */
+        long[] sortedStarts = Arrays.copyOf(starts, Math.max(count, 1));
+        long[] sortedEnds = Arrays.copyOf(ends, Math.max(count, 1));
+        Arrays.sort(sortedStarts, 0, count);
+        Arrays.sort(sortedEnds, 0, count);
+
+        int merged = 0;
+        for(int i = 0; i < count; i++) {
+            long start = sortedStarts[i];
+            while((i + 1 < count) && (sortedStarts[i + 1] <= sortedEnds[i] + 1))
+                i++;
+            sortedStarts[merged] = start;
+            sortedEnds[merged] = sortedEnds[i];
+            merged++;
+        }
+        starts = sortedStarts;
+        ends = sortedEnds;
+        count = merged;
+
+        offsets = new long[count + 1];
+        for(int i = 0; i < count; i++)
+            offsets[i + 1] = offsets[i] + (ends[i] - starts[i] + 1);
+        normalized = true;
+    }
+
+    /**
+     * Set difference. Both sets are walked once in order, so the cost is linear in the
+     * number of ranges and no individual values are enumerated.
+     * @param   other  IntervalSet  values to remove.
+     * @return         IntervalSet  a new set holding the values of this set not in other.
+     */
+    public IntervalSet subtract(IntervalSet other) {
+        normalize();
+        other.normalize();
+        IntervalSet result = new IntervalSet();
+        int j = 0;
+        for(int i = 0; i < count; i++) {
+            long start = starts[i];
+            long end = ends[i];
+            while((j < other.count) && (other.ends[j] < start))
+                j++;
+            
+            /* Cut out every excluded range overlapping [start, end]. */
+            int k = j;
+            while((k < other.count) && (other.starts[k] <= end) && (start <= end)) {
+                if(other.starts[k] > start)
+                    result.add(start, other.starts[k] - 1);
+                start = other.ends[k] + 1;
+                k++;
+            }
+            if(start <= end)
+                result.add(start, end);
+        }
+        return result;
+    }
+
+    /**
+     * Number of values in the set.
+     * @return  long  the total size of all ranges.
+     */
+    public long size() {
+        normalize();
+        return (offsets == null) ? 0 : offsets[count];
+    }
+
+    /**
+     * Value at a position in ascending order.
+     * @param   index  long  position from 0 to size() - 1.
+     * @return         long  the value.
+     */
+    public long get(long index) {
+        normalize();
+        int lo = 0;
+        int hi = count - 1;
+        while(lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if(offsets[mid] <= index)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return starts[lo] + (index - offsets[lo]);
+    }
+
+    /**
+     * Membership test.
+     * @param   value  long     the value to look up.
+     * @return         boolean  true if a range contains the value.
+     */
+    public boolean contains(long value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Position of a value in ascending order; the inverse of get().
+     * @param   value  long  the value to look up.
+     * @return         long  position from 0 to size() - 1, or -1 if the value is not in the set.
+     */
+    public long indexOf(long value) {
+        normalize();
+        int lo = 0;
+        int hi = count - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if(value < starts[mid])
+                hi = mid - 1;
+            else if(value > ends[mid])
+                lo = mid + 1;
+            else
+                return offsets[mid] + (value - starts[mid]);
+        }
+        return -1;
+    }
+
+    /**
+     * Number of merged ranges.
+     * @return  int  the range count.
+     */
+    public int rangeCount() {
+        normalize();
+        return count;
+    }
+
+    /**
+     * First value of a merged range.
+     * @param   i  int   range index.
+     * @return     long  the range start.
+     */
+    public long rangeStart(int i) {
+        normalize();
+        return starts[i];
+    }
+
+    /**
+     * Last value of a merged range.
+     * @param   i  int   range index.
+     * @return     long  the range end.
+     */
+    public long rangeEnd(int i) {
+        normalize();
+        return ends[i];
+    }
+}
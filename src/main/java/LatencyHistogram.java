@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of latencies in microseconds, in the style of
+ * HdrHistogram. Values below 32 us are counted exactly; above that each power of two is
+ * split into 16 buckets, so any recorded value is reported within 6.25%. Recording is one
+ * atomic increment on a fixed array and never allocates.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+
+    private final AtomicLongArray counts;
+    private final LongAdder count;
+    private final LongAdder sum;
+
+    /**
+     * Constructor.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * Bucket holding a value.
+     * @param   value  long  latency in microseconds.
+     * @return         int   the bucket index.
+     */
+    static int index(long value) {
+        if(value < 2 * SUB_COUNT)
+            return (int) value;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int mantissa = (int) Math.min(value >>> (exponent - SUB_BITS), 2 * SUB_COUNT - 1);
+        return (exponent - SUB_BITS) * SUB_COUNT + mantissa;
+    }
+
+    /**
+     * Smallest value counted in a bucket.
+     * @param   index  int   the bucket index.
+     * @return         long  the bucket's lower bound in microseconds.
+     */
+    static long lowerBound(int index) {
+        if(index < 2 * SUB_COUNT)
+            return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        long mantissa = index % SUB_COUNT + SUB_COUNT;
+        return mantissa << (exponent - SUB_BITS);
+    }
+
+    /**
+     * Records one latency.
+     * @param  nanos  long  the latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+    }
+
+    /**
+     * Number of recorded values.
+     * @return  long  the count.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Sum of the recorded values.
+     * @return  long  the total in microseconds.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Values at quantiles of the recorded latencies, read from one snapshot of the buckets
+     * so that they are consistent with each other.
+     * @param   quantiles  double[]  values from 0 to 1.
+     * @return             long[]    for each quantile, the lower bound of the bucket holding
+     *                               it in microseconds, or 0 if nothing was recorded.
+     */
+    public long[] quantiles(double... quantiles) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for(int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        long[] values = new long[quantiles.length];
+        for(int q = 0; q < quantiles.length; q++) {
+            if(total == 0)
+                continue;
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            long seen = 0;
+            int i = 0;
+            while((seen += snapshot[i]) < rank)
+                i++;
+            values[q] = lowerBound(i);
+        }
+        return values;
+    }
+
+    /**
+     * Value at a quantile of the recorded latencies.
+     * @param   quantile  double  from 0 to 1.
+     * @return            long    the lower bound of the bucket holding the quantile, in
+     *                            microseconds, or 0 if nothing was recorded.
+     */
+    public long quantile(double quantile) {
+        return quantiles(quantile)[0];
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.net.BindException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local end of a scan's connections. Every probe socket is set to SO_LINGER 0, so closing
+ * it sends a reset and frees its local port at once rather than leaving it in TIME_WAIT;
+ * at high probe rates TIME_WAIT sockets would otherwise use up the ephemeral range.
+ * Sockets may be bound to a source address and to a range of source ports, which are
+ * handed out in turn. The sockets open are counted, and new probes are held back once
+ * they reach HIGH_WATER of the usable ports, or the count at which the system last
+ * refused a local port, so a long scan slows down instead of failing with EADDRNOTAVAIL.
+ */
+class LocalPorts {
+
+    static final double HIGH_WATER = 0.8;
+    static final int MAX_REBINDS = 64;
+    static final long BACKOFF_NANOS = 50000000L;
+    static final long RECOVERY_NANOS = 1000000000L;
+    static final long PAUSE_NANOS = 1000000L;
+
+    /* IANA dynamic port range, assumed when the system's range cannot be read. */
+    private static final int EPHEMERAL_PORTS = ephemeralPorts(49152, 65535);
+
+    private final InetAddress source;
+    private final int firstPort;
+    private final int lastPort;
+    private final int ceiling;
+    private final AtomicInteger inUse;
+    private final AtomicInteger cursor;
+    private volatile int limit;
+    private volatile long backoffUntil;
+
+    /**
+     * Constructor for sockets bound by the system, as used when no source is given.
+     */
+    public LocalPorts() {
+        this(null, 0, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param  source     InetAddress  address to bind sockets to, or null for any. It is
+     *                                 only used for targets of the same address family.
+     * @param  firstPort  int          first source port, or 0 to let the system choose.
+     * @param  lastPort   int          last source port.
+     */
+    public LocalPorts(InetAddress source, int firstPort, int lastPort) {
+        this.source = source;
+        this.firstPort = firstPort;
+        this.lastPort = lastPort;
+        this.ceiling = Math.max(1, (int) (((firstPort > 0) ? lastPort - firstPort + 1 : EPHEMERAL_PORTS) * HIGH_WATER));
+        this.inUse = new AtomicInteger();
+        this.cursor = new AtomicInteger();
+        this.limit = ceiling;
+        this.backoffUntil = System.nanoTime();
+    }
+
+    /**
+     * Size of the system's ephemeral port range.
+     * @param   first  int  first port of the range assumed if it cannot be read.
+     * @param   last   int  last port of the range assumed if it cannot be read.
+     * @return         int  the number of ephemeral ports.
+     */
+    private static int ephemeralPorts(int first, int last) {
+        try {
+            String[] range = new String(Files.readAllBytes(Paths.get("/proc/sys/net/ipv4/ip_local_port_range")), StandardCharsets.US_ASCII).trim().split("\\s+");
+            first = Integer.parseInt(range[0]);
+            last = Integer.parseInt(range[1]);
+        }
+        catch(IOException | RuntimeException e) {
+            ;  // Not Linux, or not readable: keep the IANA range.
+        }
+        return Math.max(1, last - first + 1);
+    }
+
+    /**
+     * Prepares a new probe socket: sets SO_LINGER 0 and binds it to the source address
+     * and the next free source port, if any are configured. The socket counts as in use
+     * from this call until closed() is called for it, whether or not the bind succeeds.
+     * @param   socket  Socket       the unconnected socket, or the adaptor of a channel.
+     * @param   target  InetAddress  the host it will connect to.
+     * @throws  IOException          if no source port could be bound.
+     */
+    public void bind(Socket socket, InetAddress target) throws IOException {
+        inUse.incrementAndGet();
+        socket.setSoLinger(true, 0);
+        if((limit < ceiling) && (System.nanoTime() - backoffUntil > RECOVERY_NANOS))
+            limit++;
+        if((source == null) && (firstPort == 0))
+            return;
+
+        InetAddress local = ((source != null) && ((source instanceof Inet4Address) == (target instanceof Inet4Address))) ? source : null;
+        if(firstPort == 0) {
+            socket.bind(new InetSocketAddress(local, 0));
+            return;
+        }
+        int span = lastPort - firstPort + 1;
+        for(int i = 0; ; i++) {
+            try {
+                socket.bind(new InetSocketAddress(local, firstPort + Math.floorMod(cursor.getAndIncrement(), span)));
+                return;
+            }
+            catch(BindException e) {
+                if(i == span - 1)
+                    throw e;  // Every source port is taken.
+            }
+        }
+    }
+
+    /**
+     * Counts a socket prepared by bind() as closed.
+     */
+    public void closed() {
+        inUse.decrementAndGet();
+    }
+
+    /**
+     * Whether a failed probe ran out of local ports or addresses rather than being answered.
+     * @param   e  IOException  the exception raised by bind or connect.
+     * @return     boolean      true for EADDRNOTAVAIL and EADDRINUSE.
+     */
+    public static boolean isExhausted(IOException e) {
+        return e instanceof BindException;
+    }
+
+    /**
+     * Lowers the limit below the sockets open now, after the system refused a local port,
+     * and pauses new probes briefly. The limit creeps back up by one socket per probe once
+     * no port has been refused for RECOVERY_NANOS.
+     */
+    public void exhausted() {
+        int open = inUse.get();
+        limit = Math.max(1, Math.min(limit, open - open / 8));
+        backoffUntil = System.nanoTime() + BACKOFF_NANOS;
+    }
+
+    /**
+     * Time to hold back the next probe.
+     * @param   now  long  current System.nanoTime().
+     * @return       long  0 if a probe may start now, otherwise nanoseconds to wait.
+     */
+    public long delay(long now) {
+        long wait = backoffUntil - now;
+        if(wait > 0)
+            return wait;
+        return (inUse.get() >= limit) ? PAUSE_NANOS : 0;
+    }
+
+    /**
+     * Number of sockets open.
+     * @return  int  sockets prepared by bind() and not yet closed.
+     */
+    public int inUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Current cap on open sockets.
+     * @return  int  the limit.
+     */
+    public int limit() {
+        return limit;
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a scan's metrics at http://127.0.0.1:<port>/metrics in the Prometheus text format.
+ * Only the loopback interface is bound; scrapes are answered on one daemon thread.
+ */
+class MetricsServer {
+
+    private final HttpServer server;
+
+    /**
+     * Constructor. Starts listening immediately.
+     * @param   port     int          the TCP port to listen on.
+     * @param   metrics  ScanMetrics  the metrics to serve.
+     * @throws  IOException           if the port cannot be bound.
+     */
+    public MetricsServer(int port, ScanMetrics metrics) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, metrics));
+        server.start();
+    }
+
+    /**
+     * Answers one scrape.
+     * @param   exchange  HttpExchange  the request.
+     * @param   metrics   ScanMetrics   the metrics to serve.
+     * @throws  IOException             if the response cannot be sent.
+     */
+    private static void respond(HttpExchange exchange, ScanMetrics metrics) throws IOException {
+        byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Port the server is bound to.
+     * @return  int  the TCP port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+}
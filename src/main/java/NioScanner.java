@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking scan worker. A single event loop keeps many connects in flight
+ * at once, so throughput is bounded by round-trip time rather than by thread count.
+ * Probe deadlines are kept in a heap ordered by expiry time. A loop either serves one job
+ * and ends with it, or is shared by every NIO scan of a ScanEngine and takes jobs as they
+ * are added, admitting probes from each in turn. Connects go through a Transport: the
+ * host's TCP stack unless another, such as a SimulatedNetwork, is given.
+ */
+class NioScanner extends Thread implements Transport.Listener {
+
+    /* Probes admitted per loop pass, so completions are serviced before deadlines lapse. */
+    private static final int ADMIT_BATCH = 256;
+
+    private final boolean shared;
+    private final Queue<ScanJob> incoming;
+    private final ArrayList<ScanJob> jobs;
+    private final PriorityQueue<Probe> deadlines;
+    private final PriorityQueue<Probe> deferred;
+    private int active;
+    private volatile Transport transport;
+
+    /**
+     * In-flight connect attempt.
+     */
+    private static class Probe implements Comparable<Probe> {
+        final ScanJob job;
+        final long task;
+        long notBefore;
+        long start;
+        long deadline;
+        Transport.Connection connection;
+        boolean done;
+        int rebinds;
+
+        Probe(ScanJob job, long task) {
+            this.job = job;
+            this.task = task;
+        }
+
+        public int compareTo(Probe other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+
+    /**
+     * Constructor for a loop serving one job; it ends once the job has no work left.
+     * @param  job  ScanJob  the shared work source.
+     */
+    public NioScanner(ScanJob job) {
+        this(job, null);
+    }
+
+    /**
+     * Constructor for a loop serving one job through a given transport.
+     * @param  job        ScanJob    the shared work source.
+     * @param  transport  Transport  the network to probe, closed when the loop ends;
+     *                               null for the host's TCP stack.
+     */
+    public NioScanner(ScanJob job, Transport transport) {
+        this(false, transport);
+        incoming.add(job);
+    }
+
+    /**
+     * Constructor for a loop shared between jobs, which are handed to it with add(). It
+     * runs until interrupted.
+     */
+    public NioScanner() {
+        this(true, null);
+    }
+
+    /**
+     * Constructor for a shared loop probing through a given transport.
+     * @param  transport  Transport  the network to probe, closed when the loop ends;
+     *                               null for the host's TCP stack.
+     */
+    public NioScanner(Transport transport) {
+        this(true, transport);
+    }
+
+    /**
+     * Constructor.
+     * @param  shared     boolean    whether the loop waits for more jobs when it runs out of work.
+     * @param  transport  Transport  the network to probe, or null for the host's TCP stack.
+     */
+    private NioScanner(boolean shared, Transport transport) {
+        this.shared = shared;
+        this.incoming = new ConcurrentLinkedQueue<ScanJob>();
+        this.jobs = new ArrayList<ScanJob>();
+        this.deadlines = new PriorityQueue<Probe>();
+        this.deferred = new PriorityQueue<Probe>((a, b) -> Long.compare(a.notBefore, b.notBefore));
+        this.active = 0;
+        this.transport = transport;
+    }
+
+    /**
+     * Hands a job to the loop. The loop drops the job once it has no more tasks.
+     * @param  job  ScanJob  the job to take probes from.
+     */
+    public void add(ScanJob job) {
+        incoming.add(job);
+        Transport waiting = transport;
+        if(waiting != null)
+            waiting.wakeup();
+    }
+
+    /**
+     * Event loop. Admits new probes while slots and rate permits are available, then waits
+     * for connects to finish, for the earliest deadline to pass or for the next permit.
+     * Probes held back by their host's rate limit wait in a heap ordered by start time.
+     */
+    public void run() {
+        try(Transport transport = (this.transport != null) ? this.transport : new SocketTransport()) {
+            this.transport = transport;
+            while(!Thread.currentThread().isInterrupted()) {
+                ScanJob added;
+                while((added = incoming.poll()) != null)
+                    jobs.add(added);
+                
+                int admitted = 0;
+                long now = System.nanoTime();
+                while(!deferred.isEmpty() && (deferred.peek().notBefore - now <= 0))
+                    connect(deferred.poll());
+                
+                long rateWait = 0;
+                boolean full = false;
+                for(Iterator<ScanJob> it = jobs.iterator(); it.hasNext(); ) {
+                    ScanJob job = it.next();
+                    int batch = 0;
+                    while((batch < ADMIT_BATCH) && job.tryAcquire()) {
+                        long wait = job.admitDelay();
+                        if(wait > 0) {
+                            job.release();
+                            rateWait = (rateWait == 0) ? wait : Math.min(rateWait, wait);
+                            break;
+                        }
+                        long task = job.nextTask();
+                        if(task < 0) {
+                            job.release();
+                            if(task == ScanJob.DONE)
+                                it.remove();
+                            break;
+                        }
+                        
+                        Probe probe = new Probe(job, task);
+                        active++;
+                        batch++;
+                        long delay = job.hostDelay(task);
+                        if(delay > 0) {
+                            probe.notBefore = now + delay;
+                            deferred.add(probe);
+                        }
+                        else
+                            connect(probe);
+                    }
+                    admitted += batch;
+                    full |= (batch == ADMIT_BATCH);
+                }
+                if(jobs.isEmpty() && (active == 0)) {
+                    if(!shared)
+                        break;
+                    /* Idle until add() wakes the transport. */
+                    if(incoming.isEmpty())
+                        transport.poll(0, this);
+                    continue;
+                }
+                if((active == 0) && (admitted == 0) && (rateWait == 0)) {
+                    /* Other loops hold every slot, or only their retries remain. */
+                    try {
+                        Thread.sleep(1);
+                    }
+                    catch(InterruptedException e) {
+                        break;
+                    }
+                    continue;
+                }
+
+                long next = Long.MAX_VALUE;
+                if(!deadlines.isEmpty())
+                    next = Math.min(next, deadlines.peek().deadline - now);
+                if(!deferred.isEmpty())
+                    next = Math.min(next, deferred.peek().notBefore - now);
+                if(rateWait > 0)
+                    next = Math.min(next, rateWait);
+                long wait = (next == Long.MAX_VALUE) ? 1 : Math.max(1, (next + 999999) / 1000000);
+                transport.poll(full ? -1 : wait, this);  // When full, more probes may be waiting to be admitted.
+                expire();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("ERROR: Scan loop stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports a probe whose connect succeeded; called by the transport.
+     * @param  attachment  Object  the probe.
+     */
+    public void connected(Object attachment) {
+        finish((Probe) attachment, PortState.OPEN);
+    }
+
+    /**
+     * Reports a probe whose connect failed; called by the transport.
+     * @param  attachment  Object       the probe.
+     * @param  e           IOException  the exception the connect raised.
+     */
+    public void failed(Object attachment, IOException e) {
+        fail((Probe) attachment, e);
+    }
+
+    /**
+     * Starts a non-blocking connect for a probe.
+     * @param  probe  Probe  an admitted probe.
+     */
+    private void connect(Probe probe) {
+        ScanJob job = probe.job;
+        long task = probe.task;
+        if(probe.rebinds == 0)
+            job.started();
+        probe.start = System.nanoTime();
+        probe.deadline = probe.start + job.estimator(task).timeoutNanos();
+        try {
+            InetSocketAddress target = new InetSocketAddress(job.inetAddress(task), job.port(task));
+            probe.connection = transport.connect(target, job.attempt(task), job.localPorts(), probe);
+            deadlines.add(probe);
+        }
+        catch(IOException e) {
+            fail(probe, e);
+        }
+    }
+
+    /**
+     * Drops every probe whose deadline has passed as filtered.
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        while(!deadlines.isEmpty() && (deadlines.peek().deadline - now <= 0)) {
+            Probe probe = deadlines.poll();
+            if(!probe.done)
+                finish(probe, PortState.FILTERED);
+        }
+
+        /* Completed probes stay in the heap until their deadline; skip past them. */
+        while(!deadlines.isEmpty() && deadlines.peek().done)
+            deadlines.poll();
+    }
+
+    /**
+     * Closes a probe's connection and reports its outcome.
+     * @param  probe  Probe      the finished probe.
+     * @param  state  PortState  the probe outcome.
+     */
+    private void finish(Probe probe, PortState state) {
+        if((state == PortState.OPEN) && probe.job.grabsBanners()) {
+            /* The banner grabber takes over the connection, if the transport has one. */
+            SocketChannel channel = probe.connection.detach();
+            if(channel != null) {
+                probe.done = true;
+                active--;
+                probe.job.opened(probe.task, channel, System.nanoTime() - probe.start);
+                return;
+            }
+        }
+        close(probe);
+        probe.job.complete(probe.task, state, System.nanoTime() - probe.start);
+    }
+
+    /**
+     * Closes a probe's connection and reports the exception its connect raised. A probe that
+     * found no free local port is tried again, in its slot, once some have closed.
+     * @param  probe  Probe        the failed probe.
+     * @param  e      IOException  the exception.
+     */
+    private void fail(Probe probe, IOException e) {
+        close(probe);
+        if(LocalPorts.isExhausted(e) && (probe.rebinds < LocalPorts.MAX_REBINDS)) {
+            probe.job.exhausted();
+            Probe retry = new Probe(probe.job, probe.task);
+            retry.rebinds = probe.rebinds + 1;
+            long now = System.nanoTime();
+            retry.notBefore = now + probe.job.localPorts().delay(now);
+            active++;
+            deferred.add(retry);
+            return;
+        }
+        probe.job.fail(probe.task, e, System.nanoTime() - probe.start);
+    }
+
+    /**
+     * Marks a probe as done and closes its connection.
+     * @param  probe  Probe  the finished probe.
+     */
+    private void close(Probe probe) {
+        probe.done = true;
+        active--;
+        if(probe.connection != null)
+            probe.connection.close();
+    }
+}
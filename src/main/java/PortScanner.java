@@ -14,22 +14,17 @@
 
 import java.io.IOException;
 import java.net.*;
-import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
 
 class PortScanner extends Thread
 {
-    private static ArrayList<String> hostList;
-    private static ArrayList<Integer> portList;
-    private static Queue<Integer> resultQueue;
-
     /**
      * Constructor.
      */
     public PortScanner() {
-        hostList = new ArrayList<String>();
-        portList = new ArrayList<Integer>();
-        resultQueue = new ConcurrentLinkedQueue<Integer>();
     }
 	
     /**
@@ -37,86 +32,227 @@ class PortScanner extends Thread
      * @param  args  String[]  command line arguments.
      */
     public static void main(String[] args) {
-        PortScanner.start(args);
+        int status = PortScanner.start(args);
+        if(status != 0)
+            System.exit(status);
     }
 	
     /**
-     * Parses the arguments and returns errors if any. Starts the scan.
-     * @param  args  String[]  command line arguments.
+     * Parses the arguments and prints errors if any. Runs the scan on a ScanEngine and
+     * waits for it, or with --daemon serves scan jobs until the process is stopped, or
+     * with --worker probes shards for a coordinator until it has none left.
+     * Interrupting the process cancels the scan, which still writes its final checkpoint.
+     * @param   args  String[]  command line arguments.
+     * @return        int       exit status: 0 if the scan finished, 1 otherwise.
      */
-    public static void start(String[] args) {
-        ArgParser ap = new ArgParser();
-        PortScanner ps = new PortScanner();
-        String error = ap.parseArgs(args);
-        if(error != null) {
-            System.out.println(error);
-            System.exit(1);
+    public static int start(String[] args) {
+        ScanRequest request;
+        try {
+            request = ScanRequest.parse(args);
         }
-        ps.startScan(ap);
-    }
-	
-    /**
-     * Scans all hosts and ports provided.
-     * @throws  IOException             indicates no port found.
-     * @param   ap           ArgParser  argparser object.
-     */
-    private void startScan(ArgParser ap) {
-        int openCount = 0;
-        ArrayList<Integer> portList = ap.getPortList();
-        ArrayList<String> hostList = ap.getHostList();
-        for(String host : hostList) {
-            for(int port : portList) {
-                ScanThread scanThread = new ScanThread();
-                scanThread.run(host, port, resultQueue);
+        catch(IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return 1;
+        }
+        
+        ScanEngine engine = new ScanEngine();
+        try {
+            if(request.getOptions().getDaemonPort() > 0) {
+                new ScanDaemon(engine, request.getOptions().getDaemonPort()).serve();
+                return 0;
             }
-            
-            ArrayList<Integer> openPorts = new ArrayList<Integer>();
-            while(!resultQueue.isEmpty()) {
-                Integer result = resultQueue.poll();
-                openPorts.add(result);
+            if(request.getOptions().getWorkerAddress() != null) {
+                new ShardWorker(engine, request.getOptions().getWorkerAddress()).run();
+                return 0;
             }
             
-            System.out.println("Scan on host " + host + " found " + openPorts.size() + " open port(s).");
-            for(int openPort : openPorts) {
-              System.out.println("Port " + openPort + " is OPEN");
+            ScanHandle handle = engine.submit(request);
+            Thread cancel = new Thread(() -> {
+                handle.cancel();
+                try {
+                    handle.future().join();
+                }
+                catch(RuntimeException e) {
+                    ;
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(cancel);
+            try {
+                handle.future().get();
+                return 0;
+            }
+            catch(ExecutionException e) {
+                System.out.println("ERROR: " + e.getCause().getMessage());
+                return 1;
+            }
+            catch(CancellationException e) {
+                return 1;
             }
-            System.out.println();
+            catch(InterruptedException e) {
+                cancel.run();
+                Thread.currentThread().interrupt();
+                return 1;
+            }
+            finally {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(cancel);
+                }
+                catch(IllegalStateException e) {
+                    ;  // Already shutting down.
+                }
+            }
+        }
+        catch(IOException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            return 1;
+        }
+        finally {
+            engine.shutdown();
         }
     }
 }
 
 /**
- * Threaded scan for each port.
+ * Scan worker. Pulls (host, port) tasks from a shared ScanJob until none remain.
  */
 class ScanThread extends Thread {
     
+    private final ScanJob job;
+    
+    /**
+     * Constructor.
+     * @param  job  ScanJob  the shared work source.
+     */
+    public ScanThread(ScanJob job) {
+        this.job = job;
+    }
+    
     /**
      * Threaded function runner.
-     * @param  ip           ip              address as a string.
-     * @param  port         int             the TCP port number.
-     * @param  resultQueue  Queue<Integer>  finished results queue.
      */
-    public void run(String ip, int port, Queue<Integer> resultQueue) {
-        Socket sock = null;
+    public void run() {
+        long task;
+        while((task = job.nextTask()) != ScanJob.DONE) {
+            if(task == ScanJob.IDLE) {
+                /* Only probes that may be retried remain; wait for them to finish. */
+                try {
+                    Thread.sleep(5);
+                }
+                catch(InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            
+            try {
+                job.acquire();
+            }
+            catch(InterruptedException e) {
+                return;
+            }
+            
+            /* Pace against the scan-wide and per-host rate limits. */
+            long wait;
+            while((wait = job.admitDelay()) > 0)
+                LockSupport.parkNanos(wait);
+            long resume = System.nanoTime() + job.hostDelay(task);
+            while((wait = resume - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+            
+            job.started();
+            for(int rebinds = 0; ; rebinds++) {
+                long start = System.nanoTime();
+                try {
+                    InetAddress address = job.inetAddress(task);
+                    if(job.grabsBanners())
+                        job.opened(task, open(address, job.port(task), job.estimator(task).timeoutMillis(), job.localPorts()), System.nanoTime() - start);
+                    else {
+                        connect(address, job.port(task), job.estimator(task).timeoutMillis(), job.localPorts());
+                        job.complete(task, PortState.OPEN, System.nanoTime() - start);
+                    }
+                }
+                catch(IOException e) {
+                    if(LocalPorts.isExhausted(e) && (rebinds < LocalPorts.MAX_REBINDS)) {
+                        /* No local port was free: wait for some to close and try again. */
+                        job.exhausted();
+                        LockSupport.parkNanos(job.localPorts().delay(System.nanoTime()));
+                        continue;
+                    }
+                    job.fail(task, e, System.nanoTime() - start);
+                }
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Attempts a TCP connection to a single port.
+     * @param   ip       int        packed IPv4 address.
+     * @param   port     int        the TCP port number.
+     * @param   timeout  int        connect timeout in milliseconds.
+     * @return           PortState  the probe outcome.
+     */
+    static PortState probe(int ip, int port, int timeout) {
         try {
-            InetSocketAddress target = new InetSocketAddress(InetAddress.getByName(ip), port);
-            sock = new Socket();
-            sock.connect(target, 200);
-            resultQueue.add(port);
+            connect(IPv4Address.toInetAddress(ip), port, timeout, null);
+            return PortState.OPEN;
         }
-        catch(UnknownHostException e) {
-            System.out.println(e);
+        catch(IOException e) {
+            return PortState.fromException(e);
+        }
+    }
+    
+    /**
+     * Opens a TCP connection to a single port and leaves it open. The channel counts as
+     * a local port in use until its owner calls local.closed().
+     * @param   address  InetAddress    the host, IPv4 or IPv6.
+     * @param   port     int            the TCP port number.
+     * @param   timeout  int            connect timeout in milliseconds.
+     * @param   local    LocalPorts     the local end to bind from.
+     * @throws  IOException             if the connection fails.
+     * @return           SocketChannel  the connected channel.
+     */
+    static SocketChannel open(InetAddress address, int port, int timeout, LocalPorts local) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            local.bind(channel.socket(), address);
+            channel.socket().connect(new InetSocketAddress(address, port), timeout);
+            return channel;
         }
         catch(IOException e) {
-            ;  // Port is closed.
+            channel.close();
+            local.closed();
+            throw e;
+        }
+    }
+    
+    /**
+     * Opens and closes a TCP connection to a single port. The socket is closed with a
+     * reset (SO_LINGER 0), so its local port is free again at once.
+     * @param   address  InetAddress  the host, IPv4 or IPv6.
+     * @param   port     int          the TCP port number.
+     * @param   timeout  int          connect timeout in milliseconds.
+     * @param   local    LocalPorts   the local end to bind from, or null for any.
+     * @throws  IOException           if the connection fails.
+     */
+    static void connect(InetAddress address, int port, int timeout, LocalPorts local) throws IOException {
+        Socket sock = new Socket();
+        try {
+            if(local != null)
+                local.bind(sock, address);
+            else
+                sock.setSoLinger(true, 0);
+            sock.connect(new InetSocketAddress(address, port), timeout);
         }
         finally {
             try {
                 sock.close();
             }
-            catch(Exception e) {
+            catch(IOException e) {
                 ;
             }
+            if(local != null)
+                local.closed();
         }
     }
 }
@@ -0,0 +1,104 @@
+import java.util.BitSet;
+
+/**
+ * Set of TCP/UDP ports backed by a 65536-bit BitSet. Duplicates collapse on insert, and
+ * the members are exposed as a primitive array in scan order for indexed access by the
+ * scan loop: ascending, unless some ports were given priority, which then come first.
+ */
+class PortSet {
+
+    static final int PORT_COUNT = 65536;
+
+    private final BitSet bits;
+    private int[] priority;
+    private int[] ports;
+
+    /**
+     * Constructor.
+     */
+    public PortSet() {
+        bits = new BitSet(PORT_COUNT);
+        priority = new int[0];
+        ports = null;
+    }
+
+    /**
+     * Adds an inclusive range of ports.
+     * @param  start  int  first port of the range.
+     * @param  end    int  last port of the range.
+     */
+    public void add(int start, int end) {
+        bits.set(start, end + 1);
+        ports = null;
+    }
+
+    /**
+     * Adds a single port.
+     * @param  port  int  the port.
+     */
+    public void add(int port) {
+        bits.set(port);
+        ports = null;
+    }
+
+    /**
+     * Adds ports that are to be probed before all others, in the order given, such as the
+     * ports most likely to be open. Ports already in the set move up to their place in
+     * the order; a later call replaces the order of an earlier one.
+     * @param  order  int[]  the ports; repeats after the first are ignored.
+     */
+    public void addFirst(int[] order) {
+        for(int port : order)
+            bits.set(port);
+        priority = order.clone();
+        ports = null;
+    }
+
+    /**
+     * Membership test.
+     * @param   port  int      the port.
+     * @return        boolean  true if the port is in the set.
+     */
+    public boolean contains(int port) {
+        return bits.get(port);
+    }
+
+    /**
+     * Number of ports in the set.
+     * @return  int  the port count.
+     */
+    public int size() {
+        return toArray().length;
+    }
+
+    /**
+     * Port at a position in scan order.
+     * @param   index  int  position from 0 to size() - 1.
+     * @return         int  the port.
+     */
+    public int get(int index) {
+        return toArray()[index];
+    }
+
+    /**
+     * Members in scan order: the ports given to addFirst() in their order, then the rest
+     * in ascending order. The array is shared and must not be modified.
+     * @return  int[]  the ports.
+     */
+    public int[] toArray() {
+        if(ports == null) {
+            BitSet rest = (BitSet) bits.clone();
+            ports = new int[bits.cardinality()];
+            int n = 0;
+            for(int port : priority) {
+                if(rest.get(port)) {
+                    ports[n++] = port;
+                    rest.clear(port);
+                }
+            }
+            for(int port = rest.nextSetBit(0); port >= 0; port = rest.nextSetBit(port + 1))
+                ports[n++] = port;
+        }
+        return ports;
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Outcome of a single port probe. OPEN_FILTERED is for UDP probes that drew no answer:
+ * the port may be open with a service that ignored the probe, or the probe was dropped.
+ */
+enum PortState {
+    OPEN,
+    CLOSED,
+    FILTERED,
+    OPEN_FILTERED;
+
+    /**
+     * Whether nothing came back for the probe, so it may be retried and its time says
+     * nothing about the round trip.
+     * @return  boolean  true for FILTERED and OPEN_FILTERED.
+     */
+    boolean isSilent() {
+        return (this == FILTERED) || (this == OPEN_FILTERED);
+    }
+
+    /**
+     * Classifies a failed connection attempt.
+     * A refused connection (RST) means the port is closed; a timeout or an unreachable
+     * route means the probe was dropped somewhere along the path.
+     * @param   e  IOException  the exception raised by connect.
+     * @return     PortState    CLOSED or FILTERED.
+     */
+    static PortState fromException(IOException e) {
+        if((e instanceof SocketTimeoutException) || (e instanceof NoRouteToHostException))
+            return FILTERED;
+        return CLOSED;
+    }
+    
+    /**
+     * Tells answers from the network apart from local or unexpected failures, such as
+     * running out of local ports or file descriptors, which are counted as errors and
+     * leave the port without an outcome.
+     * @param   e  IOException  the exception raised by connect.
+     * @return     boolean      true unless the connection was refused, timed out or unroutable.
+     */
+    static boolean isError(IOException e) {
+        return !(e instanceof ConnectException) && !(e instanceof SocketTimeoutException)
+            && !(e instanceof NoRouteToHostException);
+    }
+}
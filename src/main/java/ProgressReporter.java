@@ -0,0 +1,87 @@
+import java.io.PrintStream;
+
+/**
+ * Prints a progress line to stderr once a second while a scan runs: the share of targets
+ * finished, the achieved probe rate against any configured limit, the probes in flight
+ * (and the congestion window and loss, if adapted), the open ports found so far and an
+ * estimate of the time left. Results on stdout are not disturbed.
+ */
+class ProgressReporter extends Thread {
+
+    private final ScanMetrics metrics;
+    private final int target;
+    private final PrintStream out;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     * @param  metrics  ScanMetrics  the counters of the scan to watch.
+     * @param  target   int          the configured scan-wide rate, or 0 if unlimited.
+     */
+    public ProgressReporter(ScanMetrics metrics, int target) {
+        this.metrics = metrics;
+        this.target = target;
+        this.out = System.err;
+        this.running = true;
+        setDaemon(true);
+    }
+
+    /**
+     * Reporting loop. Targets given up after an error count as finished. The ETA divides
+     * the targets left by the completion rate, smoothed over the last few seconds.
+     */
+    public void run() {
+        long lastCount = metrics.getIssued();
+        long lastDone = metrics.getCompleted() + metrics.getErrored();
+        long lastTime = System.nanoTime();
+        double doneRate = 0;
+        while(running) {
+            try {
+                Thread.sleep(1000);
+            }
+            catch(InterruptedException e) {
+                break;
+            }
+            long count = metrics.getIssued();
+            long done = metrics.getCompleted() + metrics.getErrored();
+            long time = System.nanoTime();
+            double seconds = Math.max(1, time - lastTime) / 1e9;
+            long rate = (long) ((count - lastCount) / seconds);
+            doneRate = (doneRate == 0) ? (done - lastDone) / seconds : 0.7 * doneRate + 0.3 * (done - lastDone) / seconds;
+            long total = metrics.getTargets();
+            out.print("\rProgress: " + String.format("%.1f", 100.0 * done / Math.max(1, total)) + "% (" + done + "/" + total + "), "
+                      + rate + " probes/s" + ((target > 0) ? " (limit " + target + ")" : "") + ", "
+                      + metrics.getInFlight() + " in flight"
+                      + (metrics.isCongestionControlled() ? " (window " + metrics.getCongestionWindow() + ", loss " + String.format("%.1f", 100 * metrics.getProbeLossRatio()) + "%)" : "")
+                      + ", " + metrics.getOpen() + " open, ETA "
+                      + eta((total - done) / Math.max(doneRate, 1e-9)) + "   ");
+            out.flush();
+            lastCount = count;
+            lastDone = done;
+            lastTime = time;
+        }
+    }
+
+    /**
+     * Formats a duration as [h:]mm:ss.
+     * @param   seconds  double  the duration.
+     * @return           String  the formatted duration, or "--:--" if unknown.
+     */
+    static String eta(double seconds) {
+        if(seconds > 100 * 3600)
+            return "--:--";
+        long s = (long) Math.ceil(seconds);
+        if(s >= 3600)
+            return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+        return String.format("%02d:%02d", s / 60, s % 60);
+    }
+
+    /**
+     * Stops reporting and ends the status line.
+     */
+    public void finish() {
+        running = false;
+        interrupt();
+        out.println();
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as the generic cell rate algorithm: the bucket is a
+ * single "theoretical arrival time" advanced by one interval per permit. Callers are told
+ * how long to wait instead of being put to sleep, so the scan loops can pace themselves
+ * with their own timers. A burst of up to 10 ms worth of permits is allowed.
+ */
+class RateLimiter {
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong tat;
+
+    /**
+     * Constructor.
+     * @param  permitsPerSecond  int  the sustained rate.
+     */
+    public RateLimiter(int permitsPerSecond) {
+        this.interval = Math.max(1, 1000000000L / permitsPerSecond);
+        this.tolerance = interval * (Math.max(1, permitsPerSecond / 100) - 1);
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a permit if one is available now.
+     * @param   now  long  current System.nanoTime().
+     * @return       long  0 if a permit was taken, otherwise nanoseconds until one is available.
+     */
+    public long tryAcquire(long now) {
+        while(true) {
+            long current = tat.get();
+            long start = Math.max(current, now);
+            if(start - now > tolerance)
+                return start - now - tolerance;
+            if(tat.compareAndSet(current, start + interval))
+                return 0;
+        }
+    }
+
+    /**
+     * Takes the next permit, even if it only becomes valid in the future.
+     * @param   now  long  current System.nanoTime().
+     * @return       long  nanoseconds to wait before using the permit, 0 if it is valid now.
+     */
+    public long reserve(long now) {
+        while(true) {
+            long current = tat.get();
+            long start = Math.max(current, now);
+            if(tat.compareAndSet(current, start + interval))
+                return Math.max(0, start - now - tolerance);
+        }
+    }
+}
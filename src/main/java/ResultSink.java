@@ -0,0 +1,502 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Receives probe results as soon as each probe completes, and a per-host summary once
+ * every probe of a host has finished. Implementations must be safe to call from every
+ * scan worker at once.
+ */
+interface ResultSink {
+
+    /**
+     * Records the final outcome of one probe.
+     * @param  host          int        packed IPv4 address.
+     * @param  port          int        the probed port.
+     * @param  state         PortState  the probe outcome.
+     * @param  latencyNanos  long       time the probe took.
+     */
+    void record(int host, int port, PortState state, long latencyNanos);
+
+    /**
+     * Records the final outcome of one probe together with what the service sent. Sinks
+     * that have nowhere to put the banner record the outcome alone.
+     * @param  host          int        packed IPv4 address.
+     * @param  port          int        the probed port.
+     * @param  state         PortState  the probe outcome.
+     * @param  latencyNanos  long       time the probe took.
+     * @param  banner        String     the service's banner, or null.
+     */
+    default void record(int host, int port, PortState state, long latencyNanos, String banner) {
+        record(host, port, state, latencyNanos);
+    }
+
+    /**
+     * Records the final outcome of one probe of a host of either address family. Sinks
+     * that only handle IPv4 addresses receive IPv6 results with a host of 0.
+     * @param  host          HostResult  the probed host.
+     * @param  port          int         the probed port.
+     * @param  state         PortState   the probe outcome.
+     * @param  latencyNanos  long        time the probe took.
+     * @param  banner        String      the service's banner, or null.
+     */
+    default void record(HostResult host, int port, PortState state, long latencyNanos, String banner) {
+        record(host.address, port, state, latencyNanos, banner);
+    }
+
+    /**
+     * Called once per host, in host order, after all of its probes have been recorded.
+     * @param  result  HostResult  the host's outcomes.
+     */
+    void hostComplete(HostResult result);
+
+    /**
+     * Hands buffered output to the underlying stream.
+     */
+    void flush();
+
+    /**
+     * Flushes buffered output and releases the underlying stream.
+     * @throws  IOException  if any write failed.
+     */
+    void close() throws IOException;
+
+    /**
+     * Creates a sink for one of the supported output formats.
+     * @param   format  String      'text', 'jsonl', 'csv' or 'binary'.
+     * @param   file    String      path of the output file, or null for stdout.
+     * @param   all     boolean     whether closed and filtered ports are written as well as open ones.
+     * @param   append  boolean     whether to continue an existing output file; its header is not repeated.
+     * @param   banners  boolean    whether service banners are grabbed, so CSV has a column for them.
+     * @throws  IOException         if the output file cannot be opened.
+     * @return          ResultSink  the sink, or null if the format is unknown.
+     */
+    static ResultSink open(String format, String file, boolean all, boolean append, boolean banners) throws IOException {
+        boolean header = !append || (file == null) || (new File(file).length() == 0);
+        if(file == null)
+            return create(format, System.out, false, all, header, banners);
+        return create(format, new FileOutputStream(file, append), true, all, header, banners);
+    }
+
+    /**
+     * Creates a sink writing to a stream.
+     * @param   format  String        'text', 'jsonl', 'csv' or 'binary'.
+     * @param   out     OutputStream  destination stream.
+     * @param   owned   boolean       whether close() should close the stream.
+     * @param   all     boolean       whether closed and filtered ports are written as well as open ones.
+     * @param   header  boolean       whether formats with a header start with one.
+     * @param   banners  boolean      whether service banners are grabbed, so CSV has a column for them.
+     * @throws  IOException           if an owned stream cannot be closed after an unknown format.
+     * @return          ResultSink    the sink, or null if the format is unknown.
+     */
+    static ResultSink create(String format, OutputStream out, boolean owned, boolean all, boolean header, boolean banners) throws IOException {
+        switch(format) {
+            case "text":
+                return new TextSink(out, owned);
+            case "jsonl":
+                return new JsonSink(out, owned, all);
+            case "csv":
+                return new CsvSink(out, owned, all, header, banners);
+            case "binary":
+                return new BinarySink(out, owned, all, header);
+            default:
+                if(owned)
+                    out.close();
+                return null;
+        }
+    }
+}
+
+/**
+ * Base class for sinks that encode into a shared byte buffer. Records are appended under
+ * a lock without building intermediate strings, and the buffer is handed to the stream
+ * only when it fills up or a host completes.
+ */
+abstract class StreamSink implements ResultSink {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final boolean owned;
+    private final boolean all;
+    private byte[] buf;
+    private int len;
+    private IOException error;
+    private long[] ipv6;
+
+    /**
+     * Constructor.
+     * @param  out    OutputStream  destination stream.
+     * @param  owned  boolean       whether close() should close the stream.
+     * @param  all    boolean       whether non-open results are written.
+     */
+    StreamSink(OutputStream out, boolean owned, boolean all) {
+        this.out = out;
+        this.owned = owned;
+        this.all = all;
+        this.buf = new byte[BUFFER_SIZE];
+        this.len = 0;
+        this.error = null;
+        this.ipv6 = null;
+    }
+
+    public void record(int host, int port, PortState state, long latencyNanos) {
+        record(host, port, state, latencyNanos, null);
+    }
+
+    public synchronized void record(int host, int port, PortState state, long latencyNanos, String banner) {
+        if(!all && (state != PortState.OPEN))
+            return;
+        if(banner == null)
+            encode(host, port, state, latencyNanos);
+        else
+            encode(host, port, state, latencyNanos, banner);
+        if(len >= BUFFER_SIZE - 256)
+            flush();
+    }
+
+    public synchronized void record(HostResult host, int port, PortState state, long latencyNanos, String banner) {
+        /* The formats write the host through putAddress(), which writes this address instead. */
+        ipv6 = host.ipv6;
+        try {
+            record(host.address, port, state, latencyNanos, banner);
+        }
+        finally {
+            ipv6 = null;
+        }
+    }
+
+    public synchronized void hostComplete(HostResult result) {
+        summarize(result);
+        flush();
+    }
+
+    public synchronized void close() throws IOException {
+        flush();
+        if(owned)
+            out.close();
+        if(error != null)
+            throw error;
+    }
+
+    /**
+     * Encodes one record into the buffer.
+     * @param  host          int        packed IPv4 address.
+     * @param  port          int        the probed port.
+     * @param  state         PortState  the probe outcome.
+     * @param  latencyNanos  long       time the probe took.
+     */
+    abstract void encode(int host, int port, PortState state, long latencyNanos);
+
+    /**
+     * Encodes one record with the service's banner. Formats without room for it encode
+     * the record alone.
+     * @param  host          int        packed IPv4 address.
+     * @param  port          int        the probed port.
+     * @param  state         PortState  the probe outcome.
+     * @param  latencyNanos  long       time the probe took.
+     * @param  banner        String     the banner, printable ASCII.
+     */
+    void encode(int host, int port, PortState state, long latencyNanos, String banner) {
+        encode(host, port, state, latencyNanos);
+    }
+
+    /**
+     * Encodes a host summary into the buffer. Formats without summaries write nothing.
+     * @param  result  HostResult  the host's outcomes.
+     */
+    void summarize(HostResult result) {
+        ;
+    }
+
+    /**
+     * Writes the buffer to the stream. Failures are kept and reported by close().
+     */
+    public synchronized void flush() {
+        if(len == 0)
+            return;
+        try {
+            out.write(buf, 0, len);
+            out.flush();
+        }
+        catch(IOException e) {
+            if(error == null)
+                error = e;
+        }
+        len = 0;
+    }
+
+    void put(int b) {
+        if(len == buf.length)
+            flush();
+        buf[len++] = (byte) b;
+    }
+
+    void put(String ascii) {
+        for(int i = 0; i < ascii.length(); i++)
+            put(ascii.charAt(i));
+    }
+
+    void putDecimal(long n) {
+        if(n < 0) {
+            put('-');
+            n = -n;
+        }
+        if(n >= 10)
+            putDecimal(n / 10);
+        put('0' + (int) (n % 10));
+    }
+
+    void putAddress(int address) {
+        if(ipv6 != null) {
+            put(IPv6Address.toString(ipv6[0], ipv6[1]));
+            return;
+        }
+        putDecimal((address >>> 24) & 0xFF);
+        put('.');
+        putDecimal((address >>> 16) & 0xFF);
+        put('.');
+        putDecimal((address >>> 8) & 0xFF);
+        put('.');
+        putDecimal(address & 0xFF);
+    }
+
+    void putHost(HostResult result) {
+        if(result.ipv6 != null)
+            put(IPv6Address.toString(result.ipv6[0], result.ipv6[1]));
+        else
+            putAddress(result.address);
+    }
+
+    void putInt(int n) {
+        put(n >>> 24);
+        put(n >>> 16);
+        put(n >>> 8);
+        put(n);
+    }
+}
+
+/**
+ * Human-readable output: one summary per host listing its open ports. When the scan is
+ * compared with a previous one, only hosts with changes are listed, with their changed ports.
+ */
+class TextSink extends StreamSink {
+
+    TextSink(OutputStream out, boolean owned) {
+        super(out, owned, false);
+    }
+
+    void encode(int host, int port, PortState state, long latencyNanos) {
+        ;  // Open ports are listed in the host summary.
+    }
+
+    void summarize(HostResult result) {
+        if(result.changes != null) {
+            summarizeChanges(result);
+            return;
+        }
+        ArrayList<Integer> openPorts = new ArrayList<Integer>(result.openPorts);
+        Collections.sort(openPorts);
+
+        put("Scan on host ");
+        putHost(result);
+        put(" found ");
+        putDecimal(openPorts.size());
+        put(" open port(s) (");
+        putDecimal(result.closed.get());
+        put(" closed, ");
+        putDecimal(result.filtered.get());
+        put(" filtered, ");
+        if(result.openFiltered.get() > 0) {
+            putDecimal(result.openFiltered.get());
+            put(" open|filtered, ");
+        }
+        put("timeout ");
+        putDecimal(result.rtt.timeoutMillis());
+        put(" ms).\n");
+        for(int openPort : openPorts) {
+            put("Port ");
+            putDecimal(openPort);
+            put(" is OPEN");
+            String banner = result.banners.get(openPort);
+            if(banner != null) {
+                put(": ");
+                put(banner);
+            }
+            put('\n');
+        }
+        put('\n');
+    }
+
+    /**
+     * Encodes the ports of a host that changed since the previous scan.
+     * @param  result  HostResult  the host's outcomes.
+     */
+    private void summarizeChanges(HostResult result) {
+        if(result.changes.isEmpty())
+            return;
+
+        put("Scan on host ");
+        putHost(result);
+        put(" found ");
+        putDecimal(result.changes.size());
+        put(" change(s) since the previous scan (");
+        putDecimal(result.openPorts.size());
+        put(" open, ");
+        putDecimal(result.closed.get());
+        put(" closed, ");
+        putDecimal(result.filtered.get());
+        put(" filtered, ");
+        if(result.openFiltered.get() > 0) {
+            putDecimal(result.openFiltered.get());
+            put(" open|filtered, ");
+        }
+        put("timeout ");
+        putDecimal(result.rtt.timeoutMillis());
+        put(" ms).\n");
+        for(Map.Entry<Integer, PortState> change : result.changes.entrySet()) {
+            put("Port ");
+            putDecimal(change.getKey());
+            put(" is now ");
+            put(change.getValue().name());
+            put('\n');
+        }
+        put('\n');
+    }
+}
+
+/**
+ * JSON Lines output: one object per probe result, with the service's banner when grabbed.
+ * Example: {"host":"10.0.0.1","port":22,"state":"OPEN","latency_us":412,"banner":"SSH-2.0-OpenSSH_9.6"}
+ */
+class JsonSink extends StreamSink {
+
+    JsonSink(OutputStream out, boolean owned, boolean all) {
+        super(out, owned, all);
+    }
+
+    void encode(int host, int port, PortState state, long latencyNanos) {
+        fields(host, port, state, latencyNanos);
+        put("}\n");
+    }
+
+    void encode(int host, int port, PortState state, long latencyNanos, String banner) {
+        fields(host, port, state, latencyNanos);
+        put(",\"banner\":\"");
+        for(int i = 0; i < banner.length(); i++) {
+            char c = banner.charAt(i);
+            if((c == '"') || (c == '\\'))
+                put('\\');
+            put(c);
+        }
+        put("\"}\n");
+    }
+
+    private void fields(int host, int port, PortState state, long latencyNanos) {
+        put("{\"host\":\"");
+        putAddress(host);
+        put("\",\"port\":");
+        putDecimal(port);
+        put(",\"state\":\"");
+        put(state.name());
+        put("\",\"latency_us\":");
+        putDecimal(latencyNanos / 1000);
+    }
+}
+
+/**
+ * CSV output with a header row: host,port,state,latency_us, and a quoted banner column
+ * when banners are grabbed.
+ */
+class CsvSink extends StreamSink {
+
+    private final boolean banners;
+
+    CsvSink(OutputStream out, boolean owned, boolean all) {
+        this(out, owned, all, true);
+    }
+
+    CsvSink(OutputStream out, boolean owned, boolean all, boolean header) {
+        this(out, owned, all, header, false);
+    }
+
+    CsvSink(OutputStream out, boolean owned, boolean all, boolean header, boolean banners) {
+        super(out, owned, all);
+        this.banners = banners;
+        if(header)
+            put(banners ? "host,port,state,latency_us,banner\n" : "host,port,state,latency_us\n");
+    }
+
+    void encode(int host, int port, PortState state, long latencyNanos) {
+        fields(host, port, state, latencyNanos);
+        if(banners)
+            put(',');
+        put('\n');
+    }
+
+    void encode(int host, int port, PortState state, long latencyNanos, String banner) {
+        if(!banners) {
+            encode(host, port, state, latencyNanos);
+            return;
+        }
+        fields(host, port, state, latencyNanos);
+        put(",\"");
+        for(int i = 0; i < banner.length(); i++) {
+            char c = banner.charAt(i);
+            if(c == '"')
+                put('"');
+            put(c);
+        }
+        put("\"\n");
+    }
+
+    private void fields(int host, int port, PortState state, long latencyNanos) {
+        putAddress(host);
+        put(',');
+        putDecimal(port);
+        put(',');
+        put(state.name());
+        put(',');
+        putDecimal(latencyNanos / 1000);
+    }
+}
+
+/**
+ * Compact binary output. The stream starts with the magic bytes "PSR1", followed by
+ * fixed 11-byte big-endian records: host (4 bytes), port (2), state ordinal (1; 0 OPEN,
+ * 1 CLOSED, 2 FILTERED, 3 OPEN_FILTERED) and
+ * latency in microseconds (4, saturated). Banners are not included, and neither are IPv6
+ * hosts, which the format has no room for.
+ */
+class BinarySink extends StreamSink {
+
+    static final String MAGIC = "PSR1";
+    static final int RECORD_SIZE = 11;
+
+    BinarySink(OutputStream out, boolean owned, boolean all) {
+        this(out, owned, all, true);
+    }
+
+    BinarySink(OutputStream out, boolean owned, boolean all, boolean header) {
+        super(out, owned, all);
+        if(header)
+            put(MAGIC);
+    }
+
+    public void record(HostResult host, int port, PortState state, long latencyNanos, String banner) {
+        if(host.ipv6 == null)
+            record(host.address, port, state, latencyNanos, banner);
+    }
+
+    void encode(int host, int port, PortState state, long latencyNanos) {
+        putInt(host);
+        put(port >>> 8);
+        put(port);
+        put(state.ordinal());
+        putInt((int) Math.min(Integer.MAX_VALUE, latencyNanos / 1000));
+    }
+}
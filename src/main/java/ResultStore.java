@@ -0,0 +1,207 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Open ports found by an earlier scan, kept on disk as a sorted array of 8-byte big-endian
+ * keys (unsigned host << 16 | port) after an 8-byte header: the magic bytes "PSS1" and the
+ * key count. The file is memory-mapped and searched in place, so opening a store costs
+ * nothing up front and each lookup is a binary search touching a few pages.
+ */
+class ResultStore {
+
+    static final String MAGIC = "PSS1";
+    static final int HEADER_SIZE = 8;
+
+    private final LongBuffer keys;
+
+    /**
+     * Constructor.
+     * @param  keys  LongBuffer  the sorted keys.
+     */
+    private ResultStore(LongBuffer keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Maps a store file.
+     * @param   file  String       path of the store.
+     * @throws  IOException        if the file cannot be read or is not a complete store.
+     * @return        ResultStore  the store.
+     */
+    static ResultStore open(String file) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if((size < HEADER_SIZE) || (size > Integer.MAX_VALUE))
+                throw new IOException("Not a result store: " + file);
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] magic = new byte[MAGIC.length()];
+            map.get(magic);
+            if(!MAGIC.equals(new String(magic, "US-ASCII")))
+                throw new IOException("Not a result store: " + file);
+            if((long) map.getInt() * Long.BYTES != size - HEADER_SIZE)
+                throw new IOException("Truncated result store: " + file);
+            return new ResultStore(map.slice().asLongBuffer());
+        }
+    }
+
+    /**
+     * Sort key of a (host, port) pair.
+     * @param   host  int   packed IPv4 address.
+     * @param   port  int   the port.
+     * @return        long  the key, ordered by unsigned address and then port.
+     */
+    static long key(int host, int port) {
+        return (Integer.toUnsignedLong(host) << 16) | port;
+    }
+
+    /**
+     * Number of open ports in the store.
+     * @return  int  the key count.
+     */
+    public int size() {
+        return keys.limit();
+    }
+
+    /**
+     * Host of an entry.
+     * @param   i  int  entry index.
+     * @return     int  the packed IPv4 address.
+     */
+    public int host(int i) {
+        return (int) (keys.get(i) >>> 16);
+    }
+
+    /**
+     * Port of an entry.
+     * @param   i  int  entry index.
+     * @return     int  the port.
+     */
+    public int port(int i) {
+        return (int) (keys.get(i) & 0xFFFF);
+    }
+
+    /**
+     * Whether a port was open.
+     * @param   host  int      packed IPv4 address.
+     * @param   port  int      the port.
+     * @return        boolean  true if the store lists the port as open.
+     */
+    public boolean contains(int host, int port) {
+        long key = key(host, port);
+        int lo = 0;
+        int hi = keys.limit() - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = keys.get(mid);
+            if(value < key)
+                lo = mid + 1;
+            else if(value > key)
+                hi = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Target indices of the stored ports that fall inside a target space.
+     * @param   targets  TargetIterator  the target space of the new scan.
+     * @return           long[]          the indices, in ascending order.
+     */
+    public long[] targetsIn(TargetIterator targets) {
+        long[] found = new long[size()];
+        int count = 0;
+        for(int i = 0; i < size(); i++) {
+            long target = targets.indexOf(host(i), port(i));
+            if(target >= 0)
+                found[count++] = target;
+        }
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);  // Ports may be scanned in ranked rather than ascending order.
+        return found;
+    }
+}
+
+/**
+ * Writes the open ports of a scan as a ResultStore. Hosts must be added in ascending
+ * address order, which is the order the scan reports them in, so keys are streamed to a
+ * temporary file without being held in memory. The file replaces the store only once the
+ * scan has finished, so the store of the previous scan survives an interrupted one.
+ */
+class ResultStoreWriter {
+
+    private final Path file;
+    private final Path temp;
+    private final DataOutputStream out;
+    private int count;
+
+    /**
+     * Constructor.
+     * @param   file  String  path of the store to write.
+     * @throws  IOException   if the temporary file cannot be created.
+     */
+    public ResultStoreWriter(String file) throws IOException {
+        this.file = Paths.get(file);
+        this.temp = Paths.get(file + ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+        this.count = 0;
+        out.writeBytes(ResultStore.MAGIC);
+        out.writeInt(0);
+    }
+
+    /**
+     * Appends the open ports of a host. IPv6 hosts are left out; the store holds IPv4
+     * keys only.
+     * @param   result  HostResult  the host's outcomes.
+     * @throws  IOException         if writing fails.
+     */
+    public void add(HostResult result) throws IOException {
+        if(result.ipv6 != null)
+            return;
+        ArrayList<Integer> openPorts = new ArrayList<Integer>(result.openPorts);
+        Collections.sort(openPorts);
+        for(int port : openPorts)
+            out.writeLong(ResultStore.key(result.address, port));
+        count += openPorts.size();
+    }
+
+    /**
+     * Completes the store and moves it into place.
+     * @throws  IOException  if writing or renaming fails.
+     */
+    public void finish() throws IOException {
+        out.close();
+        try(RandomAccessFile header = new RandomAccessFile(temp.toFile(), "rw")) {
+            header.seek(ResultStore.MAGIC.length());
+            header.writeInt(count);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Discards the partly written store.
+     */
+    public void abort() {
+        try {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+        catch(IOException e) {
+            ;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Round-trip time estimator for a single host, following the TCP retransmission
+ * timer (RFC 6298). Connect times from open and closed ports feed a smoothed RTT and
+ * its variance, and the probe timeout tracks SRTT + 4 * RTTVAR within fixed bounds. A
+ * host that has not answered yet is given a short initial timeout rather than the upper
+ * bound, so that hosts which are down or filtered do not cost the longest wait on every
+ * port; the timeout only grows once answers show the host to be slower.
+ */
+class RttEstimator {
+
+    static final int DEFAULT_MIN_TIMEOUT = 100;
+    static final int DEFAULT_MAX_TIMEOUT = 1000;
+    static final int INITIAL_TIMEOUT = 200;
+
+    private final long minTimeout;
+    private final long maxTimeout;
+    private long srtt;
+    private long rttvar;
+    private volatile long timeout;
+
+    /**
+     * Constructor. Until the first sample arrives the timeout is INITIAL_TIMEOUT, moved
+     * within the bounds.
+     * @param  minTimeoutMillis  int  lower bound for the probe timeout.
+     * @param  maxTimeoutMillis  int  upper bound for the probe timeout.
+     */
+    public RttEstimator(int minTimeoutMillis, int maxTimeoutMillis) {
+        this.minTimeout = minTimeoutMillis * 1000000L;
+        this.maxTimeout = maxTimeoutMillis * 1000000L;
+        this.srtt = -1;
+        this.rttvar = 0;
+        this.timeout = initialTimeout(minTimeoutMillis, maxTimeoutMillis) * 1000000L;
+    }
+
+    /**
+     * Timeout of a host that has not answered yet.
+     * @param   minTimeoutMillis  int  lower bound for the probe timeout.
+     * @param   maxTimeoutMillis  int  upper bound for the probe timeout.
+     * @return                    int  INITIAL_TIMEOUT moved within the bounds, in ms.
+     */
+    static int initialTimeout(int minTimeoutMillis, int maxTimeoutMillis) {
+        return Math.max(minTimeoutMillis, Math.min(maxTimeoutMillis, INITIAL_TIMEOUT));
+    }
+
+    /**
+     * Adds a measured connect time.
+     * @param  rttNanos  long  time from connect to accept or reset.
+     */
+    public synchronized void sample(long rttNanos) {
+        if(srtt < 0) {
+            srtt = rttNanos;
+            rttvar = rttNanos / 2;
+        }
+        else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rttNanos)) / 4;
+            srtt = (7 * srtt + rttNanos) / 8;
+        }
+        timeout = Math.max(minTimeout, Math.min(maxTimeout, srtt + 4 * rttvar));
+    }
+
+    /**
+     * Current probe timeout.
+     * @return  long  timeout in nanoseconds.
+     */
+    public long timeoutNanos() {
+        return timeout;
+    }
+
+    /**
+     * Current probe timeout.
+     * @return  int  timeout in milliseconds, at least 1.
+     */
+    public int timeoutMillis() {
+        return (int) Math.max(1, timeout / 1000000);
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Takes scan jobs over a local socket and runs them on one shared ScanEngine. A client
+ * connects to 127.0.0.1:<port> and sends one line holding the scan's options, as they
+ * would be given on the command line. Results stream back on the same connection in the
+ * requested format, and the connection is closed when the scan ends. Any local user can
+ * connect, so jobs may not name files or open network endpoints: options such as
+ * --output-file, --store or --checkpoint, @<file> host lists, and --coordinator,
+ * --worker and --metrics-port are refused. Invalid options are answered with
+ * the error line. Sending a line reading "cancel" stops the scan; closing the sending
+ * side does not. Notes such as the host discovery summary go to the client too when
+ * results are text.
+ */
+class ScanDaemon {
+
+    private final ScanEngine engine;
+    private final ServerSocket server;
+
+    /**
+     * Constructor. Starts listening immediately.
+     * @param   engine  ScanEngine  the engine to run jobs on.
+     * @param   port    int         the TCP port to listen on, or 0 for any free port.
+     * @throws  IOException         if the port cannot be bound.
+     */
+    public ScanDaemon(ScanEngine engine, int port) throws IOException {
+        this.engine = engine;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Port the daemon is bound to.
+     * @return  int  the TCP port.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts jobs until the daemon is closed. Each connection is served on the engine's
+     * pool, so jobs run concurrently.
+     */
+    public void serve() {
+        while(!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                engine.execute(() -> handle(client));
+            }
+            catch(IOException e) {
+                if(!server.isClosed())
+                    System.out.println("ERROR: Unable to accept scan job: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting jobs. Jobs already running continue.
+     */
+    public void close() {
+        try {
+            server.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+    }
+
+    /**
+     * Runs the job sent on one connection.
+     * @param  socket  Socket  the connection.
+     */
+    private void handle(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            String line = in.readLine();
+            if(line == null)
+                return;
+
+            ScanHandle handle;
+            try {
+                /* Options naming files, standard input ('-' or @-) among them, are refused. */
+                ScanRequest request = ScanRequest.parseJob(line.trim().split("\\s+"));
+                if(request.getOptions().getDaemonPort() > 0)
+                    throw new IllegalArgumentException("ERROR: A daemon cannot be started from a scan job.");
+                request.writeTo(out);
+                if(request.getOptions().getOutputFormat().equals("text"))
+                    request.logTo(new PrintStream(out, true, "UTF-8"));
+                else
+                    request.logTo(null);  // Keeps the result stream parseable.
+                handle = engine.submit(request);
+            }
+            catch(IllegalArgumentException e) {
+                out.write((e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            catch(IOException e) {
+                out.write(("ERROR: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            /* Closing the connection once the outputs are flushed tells the client the scan is over. */
+            handle.future().whenComplete((metrics, e) -> close(socket));
+            try {
+                while((line = in.readLine()) != null) {
+                    if(line.trim().equals("cancel"))
+                        handle.cancel();
+                }
+            }
+            catch(IOException e) {
+                ;  // Closed when the scan ended.
+            }
+            try {
+                handle.future().join();
+            }
+            catch(CancellationException | CompletionException e) {
+                ;
+            }
+        }
+        catch(IOException e) {
+            ;
+        }
+        finally {
+            close(socket);
+        }
+    }
+
+    /**
+     * Closes a connection, ignoring errors.
+     * @param  socket  Socket  the connection.
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs any number of scans at once in one JVM. Blocking workers and host reporting run on
+ * a shared pool of daemon threads, which are kept alive between scans, and every NIO scan
+ * is served by the same selector event loops, one per CPU, which admit probes from each
+ * job in turn. An engine that stays up, such as the one behind --daemon, therefore pays
+ * thread start-up and JIT warm-up once rather than per scan. An engine may be given its own
+ * transports, such as a SimulatedNetwork's, in which case its event loops probe that
+ * network instead of the host's, and it only takes TCP scans in NIO mode, as blocking and
+ * UDP workers would probe the host's network. Jobs binding from the same source
+ * share one LocalPorts, so together they stay within the local ports the system has.
+ */
+class ScanEngine {
+
+    private final ExecutorService pool;
+    private final NioScanner[] loops;
+    private final Supplier<Transport> transports;
+    private final ConcurrentHashMap<String, LocalPorts> localPorts;
+    private boolean started;
+    private int next;
+
+    /**
+     * Constructor. Threads and event loops are started on first use.
+     */
+    public ScanEngine() {
+        this(null);
+    }
+
+    /**
+     * Constructor for an engine whose event loops probe through other transports.
+     * @param  transports  Supplier<Transport>  opens one transport per event loop; null
+     *                                          for the host's TCP stack.
+     */
+    public ScanEngine(Supplier<Transport> transports) {
+        this.pool = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "scan-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.loops = new NioScanner[Runtime.getRuntime().availableProcessors()];
+        this.transports = transports;
+        this.localPorts = new ConcurrentHashMap<String, LocalPorts>();
+        this.started = false;
+        this.next = 0;
+    }
+
+    /**
+     * Starts a scan. With --discover, the scan first runs host discovery, writes its
+     * summary to the request's status stream and is restricted to the hosts found up.
+     * @param   request  ScanRequest  the scan to run.
+     * @throws  IOException           if an input or output of the scan cannot be opened,
+     *                                the message naming which; after host discovery,
+     *                                such errors complete the handle's future instead.
+     * @throws  IllegalArgumentException  if the engine has its own transports and the
+     *                                    scan is not a TCP scan in NIO mode.
+     * @return           ScanHandle   the running scan.
+     */
+    public ScanHandle submit(ScanRequest request) throws IOException {
+        ArgParser options = request.getOptions();
+        if(hasTransports() && (!options.isNio() || options.isUdp()))
+            throw new IllegalArgumentException("ERROR: This engine probes through its own transports, which only TCP scans in --mode=nio use.");
+        ScanHandle handle = new ScanHandle(request);
+        handle.start(this);
+        return handle;
+    }
+
+    /**
+     * Runs a task on the shared pool.
+     * @param  task  Runnable  the task.
+     */
+    void execute(Runnable task) {
+        pool.execute(task);
+    }
+
+    /**
+     * Local end shared by every job binding from the same source address and ports, so
+     * that their sockets are counted against one limit and source ports are handed out
+     * in turn across jobs.
+     * @param   source     InetAddress  address to bind to, or null for any.
+     * @param   firstPort  int          first source port, or 0 to let the system choose.
+     * @param   lastPort   int          last source port.
+     * @return             LocalPorts   the engine's LocalPorts for that source.
+     */
+    LocalPorts localPorts(InetAddress source, int firstPort, int lastPort) {
+        String key = ((source == null) ? "*" : source.getHostAddress()) + ":" + firstPort + "-" + lastPort;
+        return localPorts.computeIfAbsent(key, k -> new LocalPorts(source, firstPort, lastPort));
+    }
+
+    /**
+     * Whether the engine's event loops probe through transports it was given, so it only
+     * takes TCP scans in NIO mode.
+     * @return  boolean  true if constructed with transports.
+     */
+    boolean hasTransports() {
+        return transports != null;
+    }
+
+    /**
+     * Hands a NIO job to the shared event loops.
+     * @param  job      ScanJob  the job.
+     * @param  workers  int      number of loops to spread it over, capped at the CPU count.
+     */
+    synchronized void addToLoops(ScanJob job, int workers) {
+        if(!started) {
+            for(int i = 0; i < loops.length; i++) {
+                loops[i] = new NioScanner((transports != null) ? transports.get() : null);
+                pool.execute(loops[i]);
+            }
+            started = true;
+        }
+        /* Jobs using fewer loops than there are start on different ones. */
+        for(int i = 0; i < Math.min(workers, loops.length); i++)
+            loops[(next + i) % loops.length].add(job);
+        next = (next + 1) % loops.length;
+    }
+
+    /**
+     * Stops every worker and event loop. Scans still running are abandoned without
+     * closing their outputs; cancel them first to end them cleanly.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import javax.management.JMException;
+
+/**
+ * A scan submitted to a ScanEngine. Results stream to the request's sink while the scan
+ * runs; the future completes with the final metrics once every host summary has been
+ * written and the outputs are closed, or exceptionally if the scan failed or was
+ * cancelled. Cancelling stops new probes at once, and the scan still writes its final
+ * checkpoint, so it can be resumed later. With --discover, host discovery runs first on
+ * the handle's own thread and can be cancelled like the scan; the job is only built once
+ * it knows which hosts are up.
+ */
+class ScanHandle {
+
+    private final ArgParser options;
+    private final ScanRequest request;
+    private final HostDiscovery discovery;
+    private TargetIterator targets;
+    private volatile ScanJob job;
+    private final CompletableFuture<ScanMetrics> future;
+    private Checkpoint checkpoint;
+    private MetricsServer server;
+    private ResultSink sink;
+    private ResultStoreWriter store;
+    private ProgressReporter reporter;
+    private Checkpointer checkpointer;
+    private ShardCoordinator coordinator;
+    private BannerGrabber banners;
+    private Thread runner;
+    private boolean cancelled;
+
+    /**
+     * Constructor. Prepares the job and opens every file and endpoint the scan writes to;
+     * nothing is probed until the engine starts it. With --discover only the outputs are
+     * opened here, and the job is prepared once discovery is done.
+     * @param   request  ScanRequest  the scan to run.
+     * @throws  IOException           if an input or output cannot be opened; the message
+     *                                names which.
+     */
+    ScanHandle(ScanRequest request) throws IOException {
+        this.options = request.getOptions();
+        this.request = request;
+        this.discovery = options.isDiscover() ? new HostDiscovery(options) : null;
+        this.job = null;
+        this.future = new CompletableFuture<ScanMetrics>();
+        this.checkpoint = request.getResumed();
+        this.cancelled = false;
+        if(discovery != null) {
+            try {
+                openOutputs();
+            }
+            catch(IOException e) {
+                release();
+                throw e;
+            }
+        }
+        else
+            prepare();
+
+        /* Cancelling the future cancels the scan. */
+        future.whenComplete((metrics, e) -> {
+            if(future.isCancelled())
+                cancel();
+        });
+    }
+
+    /**
+     * Builds the job over the request's targets and opens what the scan reads and writes.
+     * @throws  IOException  if an input or output cannot be opened; everything opened
+     *                       so far is closed again.
+     */
+    private void prepare() throws IOException {
+        ArgParser ap = options;
+        targets = request.targets();
+        TargetPermutation order = ap.isRandomOrder() ? new TargetPermutation(targets.estimateSize(), ap.getSeed()) : null;
+        ScanJob job = new ScanJob(targets, ap.getMaxInflight(), ap.getMinTimeout(), ap.getMaxTimeout(), ap.getRetries(), order);
+        job.limitRate(ap.getRate(), ap.getHostRate());
+        if(!ap.getCongestion().equals("off"))
+            job.controlCongestion(ap.getCongestion().equals("subnet"));
+        this.job = job;
+        try {
+            openInputs();
+            if(sink == null)
+                openOutputs();
+        }
+        catch(IOException e) {
+            release();
+            throw e;
+        }
+        job.reportTo(sink);
+    }
+
+    /**
+     * Opens the checkpoint, baseline store, coordinator and metrics endpoint.
+     * @throws  IOException  if any of them cannot be opened.
+     */
+    private void openInputs() throws IOException {
+        ArgParser ap = options;
+        if((checkpoint == null) && (ap.getCheckpointFile() != null)) {
+            /* Record the seed so that a resumed random-order scan follows the same order. */
+            String[] args = request.getArgs();
+            String[] saved = Arrays.copyOf(args, args.length + 1);
+            saved[args.length] = "--seed=" + ap.getSeed();
+            try {
+                checkpoint = Checkpoint.create(ap.getCheckpointFile(), saved);
+            }
+            catch(IOException e) {
+                throw new IOException("Unable to open checkpoint file: " + e.getMessage(), e);
+            }
+        }
+        if(checkpoint != null) {
+            job.resume(checkpoint.getPosition(), checkpoint.getHost());
+            job.trackProgress();
+        }
+        if(ap.getDiffFile() != null) {
+            ResultStore baseline;
+            try {
+                baseline = ResultStore.open(ap.getDiffFile());
+            }
+            catch(IOException e) {
+                throw new IOException("Unable to read result store: " + e.getMessage(), e);
+            }
+            job.diffAgainst(baseline);
+            if(ap.isHotFirst())
+                job.probeFirst(baseline.targetsIn(targets));
+        }
+
+        if(ap.getCoordinatorPort() > 0) {
+            try {
+                coordinator = new ShardCoordinator(ap.getCoordinatorAddress(), ap.getCoordinatorPort(), job, targets, ap.getProbeArgs(), ap.getShardSize());
+            }
+            catch(IOException e) {
+                throw new IOException("Unable to listen for workers: " + e.getMessage(), e);
+            }
+        }
+        if(ap.getMetricsPort() > 0) {
+            try {
+                server = new MetricsServer(ap.getMetricsPort(), job.metrics());
+            }
+            catch(IOException e) {
+                throw new IOException("Unable to serve metrics: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Opens the sink and result store.
+     * @throws  IOException  if either cannot be opened.
+     */
+    private void openOutputs() throws IOException {
+        ArgParser ap = options;
+        try {
+            /* Ports that closed since the previous scan are reported whatever the output filter. */
+            boolean all = ap.isOutputAll() || (ap.getDiffFile() != null);
+            boolean append = (checkpoint != null) && checkpoint.isResumed();
+            if(request.getSink() != null)
+                sink = request.getSink();
+            else if(request.getOutput() != null)
+                sink = ResultSink.create(ap.getOutputFormat(), request.getOutput(), false, all, true, ap.isBanner());
+            else
+                sink = ResultSink.open(ap.getOutputFormat(), ap.getOutputFile(), all, append, ap.isBanner());
+            if(ap.getStoreFile() != null)
+                store = new ResultStoreWriter(ap.getStoreFile());
+        }
+        catch(IOException e) {
+            throw new IOException("Unable to open output file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Closes whatever openInputs() and openOutputs() managed to open, after a failure.
+     */
+    private void release() {
+        if(store != null)
+            store.abort();
+        if(server != null)
+            server.stop();
+        if(coordinator != null)
+            coordinator.stop();
+        try {
+            if(checkpoint != null)
+                checkpoint.close();
+            if(sink != null)
+                sink.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+    }
+
+    /**
+     * Starts the scan: the thread reporting host summaries, and unless host discovery
+     * must run first, the workers.
+     * @param  engine  ScanEngine  the engine providing worker threads and event loops.
+     */
+    void start(ScanEngine engine) {
+        if(discovery == null)
+            launch(engine);
+        engine.execute(() -> run(engine));
+    }
+
+    /**
+     * Starts the workers, or hands out shards to remote workers.
+     * @param  engine  ScanEngine  the engine providing worker threads and event loops.
+     */
+    private void launch(ScanEngine engine) {
+        ArgParser ap = options;
+        job.bindFrom(engine.localPorts(ap.getSourceAddress(), ap.getSourceFirstPort(), ap.getSourceLastPort()));
+        try {
+            job.metrics().register();
+        }
+        catch(JMException e) {
+            System.out.println("ERROR: Unable to register metrics MBean: " + e.getMessage());
+        }
+
+        if(ap.isBanner() && (coordinator == null)) {
+            banners = new BannerGrabber(ap.getBannerTimeout());
+            banners.start();
+            job.grabBanners(banners);
+        }
+        int workers = (int) Math.min(ap.getConcurrency(), targets.estimateSize());
+        if(coordinator != null)
+            coordinator.start();
+        else if(ap.isUdp()) {
+            for(int i = 0; i < Math.min(workers, Runtime.getRuntime().availableProcessors()); i++)
+                engine.execute(new UdpScanner(job));
+        }
+        else if(ap.isNio())
+            engine.addToLoops(job, workers);
+        else {
+            for(int i = 0; i < workers; i++)
+                engine.execute(new ScanThread(job));
+        }
+
+        if(ap.isProgress() || (ap.getRate() > 0) || (ap.getHostRate() > 0)) {
+            reporter = new ProgressReporter(job.metrics(), ap.getRate());
+            reporter.start();
+        }
+        if(checkpoint != null) {
+            checkpointer = new Checkpointer(checkpoint, job, sink);
+            checkpointer.start();
+        }
+    }
+
+    /**
+     * Runs host discovery, if requested, writes its summary to the request's status
+     * stream and starts the scan of the hosts found up.
+     * @param   engine  ScanEngine  the engine providing worker threads and event loops.
+     * @throws  InterruptedException  if cancelled during discovery.
+     * @throws  IOException           if an input of the scan cannot be opened.
+     */
+    private void discover(ScanEngine engine) throws InterruptedException, IOException {
+        discovery.run(engine);
+        if(request.getLog() != null)
+            request.getLog().println(discovery.summary());
+        request.restrictHosts(discovery.getAlive(), discovery.getAlive6());
+        prepare();
+        synchronized(this) {
+            if(cancelled)
+                job.cancel();
+        }
+        launch(engine);
+    }
+
+    /**
+     * Writes host summaries in host order as hosts complete, then closes every output and
+     * completes the future.
+     * @param  engine  ScanEngine  the engine providing worker threads and event loops.
+     */
+    private void run(ScanEngine engine) {
+        synchronized(this) {
+            runner = Thread.currentThread();
+            if(cancelled)
+                runner.interrupt();
+        }
+        if(discovery != null) {
+            try {
+                discover(engine);
+            }
+            catch(InterruptedException | IOException e) {
+                if(job == null)
+                    release();  // prepare() releases the outputs itself when it fails.
+                synchronized(this) {
+                    runner = null;
+                    Thread.interrupted();
+                }
+                future.completeExceptionally((e instanceof IOException) ? e : new CancellationException("Scan cancelled."));
+                return;
+            }
+        }
+        boolean finished = false;
+        IOException error = null;
+        try {
+            for(long i = job.firstHost(); i <= job.lastHost(); i++) {
+                HostResult result = job.awaitHost(i);
+                sink.hostComplete(result);
+                if(store != null)
+                    store.add(result);
+                job.hostReported(i);
+            }
+            finished = true;
+        }
+        catch(InterruptedException e) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+        }
+        catch(IOException e) {
+            job.cancel();
+            error = new IOException("Unable to write result store: " + e.getMessage(), e);
+        }
+        finally {
+            if(!finished) {
+                /* Let the probes in flight report before the outputs close. */
+                boolean interrupted = Thread.interrupted();
+                try {
+                    job.awaitIdle();
+                }
+                catch(InterruptedException e) {
+                    ;  // Cancelled again: close without waiting.
+                }
+                if(interrupted)
+                    Thread.currentThread().interrupt();
+            }
+            if(store != null) {
+                try {
+                    if(finished)
+                        store.finish();
+                    else
+                        store.abort();
+                }
+                catch(IOException e) {
+                    error = new IOException("Unable to write result store: " + e.getMessage(), e);
+                }
+            }
+            if(banners != null)
+                banners.interrupt();
+            if(reporter != null)
+                reporter.finish();
+            if(server != null)
+                server.stop();
+            if(coordinator != null)
+                coordinator.stop();
+            job.metrics().unregister();
+            if(checkpointer != null)
+                checkpointer.finish();
+            try {
+                sink.close();
+            }
+            catch(IOException e) {
+                error = new IOException("Unable to write results: " + e.getMessage(), e);
+            }
+            synchronized(this) {
+                runner = null;
+                Thread.interrupted();  // The pool thread goes on to other work.
+            }
+        }
+
+        if(error != null)
+            future.completeExceptionally(error);
+        else if(!finished)
+            future.completeExceptionally(new CancellationException("Scan cancelled."));
+        else
+            future.complete(job.metrics());
+    }
+
+    /**
+     * Stops the scan. Probes in flight finish and are reported, waiting for at most twice
+     * the longest probe timeout, then the outputs are closed and the future completes
+     * exceptionally. Cancelling again closes the outputs without waiting. Does nothing
+     * once the scan is done.
+     */
+    public void cancel() {
+        synchronized(this) {
+            cancelled = true;
+            if(job != null)
+                job.cancel();
+            if(runner != null)
+                runner.interrupt();
+        }
+    }
+
+    /**
+     * Completion of the scan.
+     * @return  CompletableFuture<ScanMetrics>  completes with the final metrics once the
+     *                                          outputs are closed.
+     */
+    public CompletableFuture<ScanMetrics> future() {
+        return future;
+    }
+
+    /**
+     * Live metrics of the scan, or of its host discovery while that runs.
+     * @return  ScanMetrics  the scan's counters.
+     */
+    public ScanMetrics metrics() {
+        ScanJob scanning = job;
+        return (scanning != null) ? scanning.metrics() : discovery.metrics();
+    }
+
+    /**
+     * Whether the scan has ended, successfully or not.
+     * @return  boolean  true once the future has completed.
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+}
@@ -0,0 +1,759 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared work source for a single scan. Hands out (host, port) tasks to any number
+ * of scan workers and collects the outcomes for each host. Targets are drawn lazily
+ * from a TargetIterator and per-host state only exists while a host is being scanned.
+ * Ports that time out are handed out again up to the configured number of retries.
+ * Progress can be tracked in chunks of the scan order so that an interrupted scan can
+ * be resumed from a checkpoint. Against the store of a previous scan, only changed ports
+ * are reported, and the previously open ports can be probed before all others. Under
+ * congestion control, a task whose window is full is held back until a place frees up,
+ * while tasks of other windows go ahead.
+ */
+class ScanJob {
+
+    static final long DONE = -1;
+    static final long IDLE = -2;
+    static final int CHUNK = 4096;
+
+    private final TargetIterator targets;
+    private final AtomicLong cursor;
+    private final long origin;
+    private final long fence;
+    private long start;
+    private long firstTarget;
+    private final TargetPermutation order;
+    private final Semaphore inflight;
+    private final int maxInflight;
+    private final ConcurrentHashMap<Long, HostResult> results;
+    private final int minTimeout;
+    private final int maxTimeout;
+    private final AtomicLong remaining;
+    private final int retries;
+    private final Queue<Long> retryQueue;
+    private final ConcurrentHashMap<Long, Integer> attempts;
+    private final ScanMetrics metrics;
+    private RateLimiter rate;
+    private int hostRate;
+    private ResultSink sink;
+    private ConcurrentHashMap<Long, AtomicInteger> progress;
+    private long watermark;
+    private volatile long reportedHosts;
+    private ResultStore baseline;
+    private long[] hot;
+    private final AtomicInteger hotCursor;
+    private volatile boolean cancelled;
+    private BannerGrabber banners;
+    private LocalPorts local;
+    private CongestionControl congestion;
+    private final ConcurrentHashMap<Long, ArrayDeque<Long>> held;
+    private final ConcurrentHashMap<Long, ArrayDeque<Long>> held6;
+    private final AtomicInteger heldCount;
+
+    /**
+     * Constructor using the default timeout bounds and no retries.
+     * @param  hosts        IntervalSet  hosts to scan.
+     * @param  ports        PortSet      ports to scan on every host.
+     * @param  maxInflight  int          maximum number of probes open at once.
+     */
+    public ScanJob(IntervalSet hosts, PortSet ports, int maxInflight) {
+        this(new TargetIterator(hosts, ports), maxInflight, RttEstimator.DEFAULT_MIN_TIMEOUT, RttEstimator.DEFAULT_MAX_TIMEOUT, 0, null);
+    }
+
+    /**
+     * Constructor.
+     * @param  targets      TargetIterator  targets to scan; the job claims them from its origin to its fence.
+     * @param  maxInflight  int             maximum number of probes open at once.
+     * @param  minTimeout   int             lower bound for the per-host probe timeout (ms).
+     * @param  maxTimeout   int             upper bound for the per-host probe timeout (ms).
+     * @param  retries      int             times a timed-out port is probed again.
+     * @param  order        TargetPermutation  order in which targets are probed, or null for host-major order.
+     */
+    public ScanJob(TargetIterator targets, int maxInflight, int minTimeout, int maxTimeout, int retries,
+                   TargetPermutation order) {
+        this.targets = targets;
+        this.cursor = new AtomicLong(targets.origin());
+        this.origin = targets.origin();
+        this.fence = targets.fence();
+        this.start = origin;
+        this.firstTarget = origin;
+        this.order = order;
+        this.inflight = new Semaphore(maxInflight);
+        this.maxInflight = maxInflight;
+        this.results = new ConcurrentHashMap<Long, HostResult>();
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.remaining = new AtomicLong(fence - origin);
+        this.retries = retries;
+        this.retryQueue = new ConcurrentLinkedQueue<Long>();
+        this.attempts = new ConcurrentHashMap<Long, Integer>();
+        this.metrics = new ScanMetrics(fence - origin);
+        this.rate = null;
+        this.hostRate = 0;
+        this.sink = null;
+        this.progress = null;
+        this.watermark = origin;
+        this.reportedHosts = firstHost();
+        this.baseline = null;
+        this.hot = new long[0];
+        this.hotCursor = new AtomicInteger();
+        this.cancelled = false;
+        this.banners = null;
+        this.local = new LocalPorts();
+        this.congestion = null;
+        this.held = new ConcurrentHashMap<Long, ArrayDeque<Long>>();
+        this.held6 = new ConcurrentHashMap<Long, ArrayDeque<Long>>();
+        this.heldCount = new AtomicInteger();
+    }
+
+    /**
+     * Continues an interrupted scan. Hosts whose summaries were already reported are not
+     * probed again. Every target of the other hosts is, since what their finished probes
+     * found was lost with the earlier run: in host-major order they all lie after the
+     * first unreported host's first target, or the given position if that is earlier; in
+     * random order they may lie anywhere, so the scan order is walked from the start.
+     * Must be called before any worker starts.
+     * @param  position  long  first scan-order position that may not have finished.
+     * @param  host      long  index of the first host not yet reported.
+     */
+    public void resume(long position, long host) {
+        firstTarget = Math.max(origin, Math.min(targets.firstTarget(host), fence));
+        start = (order == null) ? Math.max(origin, Math.min(position, firstTarget)) : origin;
+        cursor.set(start);
+        remaining.set(fence - start);
+        metrics.targets(fence - start);
+        watermark = start;
+        reportedHosts = firstHost();
+    }
+
+    /**
+     * Reports only ports whose state differs from a previous scan: newly open ports, and
+     * ports that were open and now are closed or filtered. Must be called before any
+     * worker starts, and only for IPv4 targets, which ArgParser ensures.
+     * @param  baseline  ResultStore  open ports found by the previous scan.
+     */
+    public void diffAgainst(ResultStore baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * Hands out the given targets before all others, skipping them when the scan order
+     * reaches them. Targets outside the job, or already finished before a resume, are
+     * ignored. Must be called after resume() and before any worker starts.
+     * @param  tasks  long[]  target indices in ascending order.
+     */
+    public void probeFirst(long[] tasks) {
+        int count = 0;
+        long[] kept = new long[tasks.length];
+        for(long task : tasks) {
+            if((task >= firstTarget) && (task < fence) && (position(task) >= start))
+                kept[count++] = task;
+        }
+        this.hot = Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Starts counting finished probes per chunk of the scan order, so that
+     * completedPosition() can be checkpointed. Must be called before any worker starts.
+     */
+    public void trackProgress() {
+        this.progress = new ConcurrentHashMap<Long, AtomicInteger>();
+    }
+
+    /**
+     * Streams every final probe outcome to a sink. Must be called before any worker starts.
+     * @param  sink  ResultSink  the sink receiving probe records.
+     */
+    public void reportTo(ResultSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Hands open connections to a banner grabber instead of closing them; the outcome of
+     * an open port is reported once its banner has been read. Must be called before any
+     * worker starts.
+     * @param  banners  BannerGrabber  the running grabber.
+     */
+    public void grabBanners(BannerGrabber banners) {
+        this.banners = banners;
+    }
+
+    /**
+     * Whether open connections go to a banner grabber.
+     * @return  boolean  true if workers should call opened() rather than closing them.
+     */
+    public boolean grabsBanners() {
+        return banners != null;
+    }
+
+    /**
+     * Binds probe sockets to a source address or port range. Must be called before any
+     * worker starts.
+     * @param  local  LocalPorts  the local end of the scan's connections.
+     */
+    public void bindFrom(LocalPorts local) {
+        this.local = local;
+    }
+
+    /**
+     * Local end of the scan's connections, which workers prepare each socket with.
+     * @return  LocalPorts  the source address, ports and count of sockets in use.
+     */
+    public LocalPorts localPorts() {
+        return local;
+    }
+
+    /**
+     * Caps the probe rate. Must be called before any worker starts.
+     * @param  rateLimit      int  probes per second across the whole scan, or 0 for no limit.
+     * @param  hostRateLimit  int  probes per second to any one host, or 0 for no limit.
+     */
+    public void limitRate(int rateLimit, int hostRateLimit) {
+        this.rate = (rateLimit > 0) ? new RateLimiter(rateLimit) : null;
+        this.hostRate = hostRateLimit;
+    }
+
+    /**
+     * Adapts the number of probes in flight to loss, within the in-flight limit. Must be
+     * called before any worker starts.
+     * @param  perSubnet  boolean  whether each /24 (or IPv6 /64) gets its own window.
+     */
+    public void controlCongestion(boolean perSubnet) {
+        this.congestion = new CongestionControl(maxInflight, perSubnet);
+        metrics.congestion(congestion);
+    }
+
+    /**
+     * Stops handing out tasks, including those held back by congestion control. Probes
+     * already in flight still finish and are reported.
+     */
+    public void cancel() {
+        cancelled = true;
+        held.clear();
+        held6.clear();
+        heldCount.set(0);
+    }
+
+    /**
+     * Whether the scan was cancelled.
+     * @return  boolean  true once cancel() has been called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Claims the next task. Retries are handed out first; fresh tasks follow host-major
+     * order, so that hosts complete in order, unless a permutation was given. Under
+     * congestion control the task also takes a place in its window: tasks held back
+     * earlier go first once their window has room, and a fresh task whose window is full
+     * is held back in turn while the next one is tried, up to maxInflight held tasks.
+     * @return  long  the task index, DONE if the scan is finished or cancelled, or IDLE if only
+     *                probes that may still need a retry are outstanding, or every window
+     *                reached is full.
+     */
+    public long nextTask() {
+        if(congestion == null)
+            return takeTask();
+        if(cancelled)
+            return DONE;
+        long task = takeHeld(held, false);
+        if(task < 0)
+            task = takeHeld(held6, true);
+        if(task >= 0)
+            return task;
+        
+        while(heldCount.get() < maxInflight) {
+            long fresh = takeTask();
+            if(fresh < 0)
+                return ((fresh == DONE) && (heldCount.get() > 0)) ? IDLE : fresh;
+            boolean ipv6 = isIPv6(fresh);
+            long subnet = subnet(fresh);
+            if(congestion.tryAcquire(ipv6, subnet))
+                return fresh;
+            (ipv6 ? held6 : held).compute(subnet, (key, waiting) -> {
+                if(waiting == null)
+                    waiting = new ArrayDeque<Long>();
+                waiting.add(fresh);
+                return waiting;
+            });
+            heldCount.incrementAndGet();
+            if(!congestion.isPerSubnet())
+                break;  // Every other task waits for the same window.
+        }
+        return IDLE;
+    }
+
+    /**
+     * Takes a held task whose window has room, claiming its place.
+     * @param   waiting  ConcurrentHashMap  held tasks by window key; a queue is removed once empty.
+     * @param   ipv6     boolean            whether the keys are IPv6 subnets.
+     * @return           long               the task index, or -1 if none may go yet.
+     */
+    private long takeHeld(ConcurrentHashMap<Long, ArrayDeque<Long>> waiting, boolean ipv6) {
+        if(waiting.isEmpty())
+            return -1;
+        long[] taken = {-1};
+        for(Long key : waiting.keySet()) {
+            waiting.computeIfPresent(key, (subnet, tasks) -> {
+                if(congestion.tryAcquire(ipv6, subnet))
+                    taken[0] = tasks.poll();
+                return tasks.isEmpty() ? null : tasks;
+            });
+            if(taken[0] >= 0) {
+                heldCount.decrementAndGet();
+                return taken[0];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes the next task from the retries, the ports probed first and the scan order.
+     * @return  long  the task index, DONE or IDLE.
+     */
+    private long takeTask() {
+        if(cancelled)
+            return DONE;
+        Long retry = retryQueue.poll();
+        if(retry != null)
+            return retry;
+        
+        if(hotCursor.get() < hot.length) {
+            int i = hotCursor.getAndIncrement();
+            if(i < hot.length)
+                return hot[i];
+        }
+        
+        while(cursor.get() < fence) {
+            long position = cursor.getAndIncrement();
+            if(position >= fence)
+                break;
+            long task = (order == null) ? position : origin + order.permute(position - origin);
+            if(task >= firstTarget) {
+                if((hot.length == 0) || (Arrays.binarySearch(hot, task) < 0))
+                    return task;
+                continue;  // Already probed first.
+            }
+            
+            /* The host was reported before the scan was resumed. */
+            remaining.decrementAndGet();
+            if(progress != null)
+                finished(position);
+        }
+        return ((retries == 0) || (remaining.get() == 0)) ? DONE : IDLE;
+    }
+
+    /**
+     * Position of a task in the scan order.
+     * @param   task  long  task index returned by nextTask().
+     * @return        long  the position claimed from the cursor.
+     */
+    private long position(long task) {
+        return (order == null) ? task : origin + order.invert(task - origin);
+    }
+
+    /**
+     * Counts a position of the scan order as finished.
+     * @param  position  long  the position.
+     */
+    private void finished(long position) {
+        AtomicInteger count = progress.computeIfAbsent((position - start) / CHUNK, c -> new AtomicInteger());
+        count.incrementAndGet();
+    }
+
+    /**
+     * Scan-order position before which every probe has finished and been passed to the
+     * sink. Advances one chunk at a time, so it lags the cursor by at most the probes in
+     * flight plus a chunk.
+     * @return  long  the first position that may still be outstanding.
+     */
+    public synchronized long completedPosition() {
+        if(progress == null)
+            return start;
+        while(watermark < fence) {
+            long chunk = (watermark - start) / CHUNK;
+            long next = Math.min(watermark + CHUNK, fence);
+            AtomicInteger count = progress.get(chunk);
+            if((count == null) || (count.get() < next - watermark))
+                break;
+            progress.remove(chunk);
+            watermark = next;
+        }
+        return watermark;
+    }
+
+    /**
+     * Marks a host's summary as written.
+     * @param  host  long  index into the host set.
+     */
+    public void hostReported(long host) {
+        reportedHosts = host + 1;
+    }
+
+    /**
+     * Index of the first host whose summary has not been written.
+     * @return  long  index into the host set.
+     */
+    public long hostsReported() {
+        return reportedHosts;
+    }
+
+    /**
+     * Index of the first host in the job.
+     * @return  long  index into the host set.
+     */
+    public long firstHost() {
+        return targets.hostIndex(firstTarget);
+    }
+
+    /**
+     * Index of the last host in the job.
+     * @return  long  index into the host set, or less than firstHost() if the job is empty.
+     */
+    public long lastHost() {
+        return targets.hostIndex(fence - 1);
+    }
+
+    /**
+     * Host address of a task.
+     * @param   task  long  task index returned by nextTask().
+     * @return        int   the packed IPv4 address, or 0 for an IPv6 host.
+     */
+    public int host(long task) {
+        return targets.host(task);
+    }
+
+    /**
+     * Socket address of a task's host.
+     * @param   task  long         task index returned by nextTask().
+     * @return        InetAddress  the IPv4 or IPv6 address.
+     */
+    public InetAddress inetAddress(long task) {
+        return targets.inetAddress(task);
+    }
+
+    /**
+     * Port of a task.
+     * @param   task  long  task index returned by nextTask().
+     * @return        int   the TCP port.
+     */
+    public int port(long task) {
+        return targets.port(task);
+    }
+
+    /**
+     * State of a host, created on first use.
+     * @param   host  long        index into the host set.
+     * @return        HostResult  the host's outcomes so far.
+     */
+    private HostResult result(long host) {
+        HostResult result = results.get(host);
+        if(result != null)
+            return result;
+        return results.computeIfAbsent(host, h -> {
+            HostResult created = targets.isIPv6(h)
+                ? new HostResult(targets.high(h), targets.low(h), probesFor(h), minTimeout, maxTimeout, hostRate)
+                : new HostResult(targets.address(h), probesFor(h), minTimeout, maxTimeout, hostRate);
+            if(baseline != null)
+                created.trackChanges();
+            return created;
+        });
+    }
+
+    /**
+     * Number of this job's targets that fall on a host.
+     * @param   host  long  index into the host set.
+     * @return        int   the probe count.
+     */
+    private int probesFor(long host) {
+        long first = Math.max(targets.firstTarget(host), origin);
+        long last = Math.min(targets.firstTarget(host + 1), fence);
+        return (int) Math.max(0, last - Math.max(first, start));
+    }
+
+    /**
+     * Blocks until a probe slot is free.
+     * @throws  InterruptedException  if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        inflight.acquire();
+    }
+
+    /**
+     * Claims a probe slot without blocking.
+     * @return  boolean  true if a slot was claimed.
+     */
+    public boolean tryAcquire() {
+        return inflight.tryAcquire();
+    }
+    
+    /**
+     * Returns a probe slot claimed without starting a probe.
+     */
+    public void release() {
+        inflight.release();
+    }
+
+    /**
+     * Waits for the probes in flight to finish, once no more are being started, by taking
+     * every probe slot. A probe may still be waiting on its host's rate limit, so the wait
+     * is bounded by twice the longest probe timeout.
+     * @throws  InterruptedException  if interrupted while waiting.
+     * @return  boolean               true if every slot was free before the bound.
+     */
+    public boolean awaitIdle() throws InterruptedException {
+        if(!inflight.tryAcquire(maxInflight, 2L * maxTimeout + 1000, TimeUnit.MILLISECONDS))
+            return false;
+        inflight.release(maxInflight);
+        return true;
+    }
+
+    /**
+     * Takes a permit from the scan-wide rate limit, once enough local ports are free.
+     * @return  long  0 if the next probe may be claimed now, otherwise nanoseconds to wait.
+     */
+    public long admitDelay() {
+        long now = System.nanoTime();
+        long wait = local.delay(now);
+        if(wait > 0)
+            return wait;
+        return (rate == null) ? 0 : rate.tryAcquire(now);
+    }
+
+    /**
+     * Counts a probe that could not get a local port and holds back new probes. The
+     * worker tries the probe again, in its slot, once localPorts().delay() has passed.
+     */
+    public void exhausted() {
+        local.exhausted();
+        metrics.exhausted();
+    }
+
+    /**
+     * Reserves a permit from the rate limit of a task's host.
+     * @param   task  long  task index returned by nextTask().
+     * @return        long  nanoseconds to wait before probing, 0 if the probe may start now.
+     */
+    public long hostDelay(long task) {
+        RateLimiter limiter = result(targets.hostIndex(task)).rate;
+        return (limiter == null) ? 0 : limiter.reserve(System.nanoTime());
+    }
+
+    /**
+     * Counts a probe as sent.
+     */
+    public void started() {
+        metrics.issued();
+    }
+
+    /**
+     * Live counters of the scan.
+     * @return  ScanMetrics  the metrics.
+     */
+    public ScanMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Whether a task's host is an IPv6 host.
+     * @param   task  long     task index.
+     * @return        boolean  true for an IPv6 host.
+     */
+    private boolean isIPv6(long task) {
+        return targets.isIPv6(targets.hostIndex(task));
+    }
+
+    /**
+     * Subnet of a task's host, which has its own congestion window in per-subnet mode.
+     * @param   task  long  task index.
+     * @return        long  the /24 of an IPv4 host, or the high half (/64) of an IPv6 host.
+     */
+    private long subnet(long task) {
+        long host = targets.hostIndex(task);
+        return targets.isIPv6(host) ? targets.high(host) : (Integer.toUnsignedLong(targets.address(host)) >>> 8);
+    }
+
+    /**
+     * Number of earlier attempts at a task, which is being retried if not 0.
+     * @param   task  long  task index returned by nextTask().
+     * @return        int   0 for the first attempt.
+     */
+    public int attempt(long task) {
+        Integer attempt = attempts.get(task);
+        return (attempt == null) ? 0 : attempt;
+    }
+
+    /**
+     * Round-trip estimator for the host of a task.
+     * @param   task  long          task index returned by nextTask().
+     * @return        RttEstimator  the estimator holding the host's current timeout.
+     */
+    public RttEstimator estimator(long task) {
+        return result(targets.hostIndex(task)).rtt;
+    }
+
+    /**
+     * Records the outcome of a probe and releases its slot. Unanswered ports are queued
+     * for another attempt while retries remain. When diffing, only changed ports reach the sink.
+     * @param  task      long       task index returned by nextTask().
+     * @param  state     PortState  the probe outcome.
+     * @param  rttNanos  long       time the probe took.
+     */
+    public void complete(long task, PortState state, long rttNanos) {
+        inflight.release();
+        if(congestion != null)
+            congestion.finished(isIPv6(task), subnet(task), state.isSilent(), System.nanoTime() - rttNanos);
+        metrics.attempted(state, rttNanos);
+        if(state.isSilent() && (retries > 0)) {
+            int attempt = attempts.merge(task, 1, Integer::sum);
+            if(attempt <= retries) {
+                retryQueue.add(task);
+                return;
+            }
+            attempts.remove(task);
+        }
+        report(task, state, rttNanos, null);
+    }
+
+    /**
+     * Takes over the connection of a probe that found its port open, when grabbing
+     * banners. The probe slot is released at once; the outcome is reported with the
+     * banner once the grabber is done with the connection.
+     * @param  task      long           task index returned by nextTask().
+     * @param  channel   SocketChannel  the connected channel.
+     * @param  rttNanos  long           time the connect took.
+     */
+    public void opened(long task, SocketChannel channel, long rttNanos) {
+        inflight.release();
+        if(congestion != null)
+            congestion.finished(isIPv6(task), subnet(task), false, System.nanoTime() - rttNanos);
+        metrics.attempted(PortState.OPEN, rttNanos);
+        banners.grab(channel, port(task), banner -> {
+            local.closed();
+            report(task, PortState.OPEN, rttNanos, banner);
+        });
+    }
+
+    /**
+     * Records the final outcome of a target probed elsewhere, such as by a remote worker.
+     * The task is not handed out by nextTask() and takes no probe slot.
+     * @param  task      long       target index.
+     * @param  state     PortState  the final outcome.
+     * @param  rttNanos  long       time the last attempt took.
+     * @param  banner    String     the service banner, or null.
+     */
+    public void merge(long task, PortState state, long rttNanos, String banner) {
+        metrics.issued();
+        metrics.attempted(state, rttNanos);
+        report(task, state, rttNanos, banner);
+    }
+
+    /**
+     * Records the final outcome of a target.
+     * @param  task      long       target index.
+     * @param  state     PortState  the final outcome.
+     * @param  rttNanos  long       time the last attempt took.
+     * @param  banner    String     the service banner, or null.
+     */
+    private void report(long task, PortState state, long rttNanos, String banner) {
+        HostResult result = result(targets.hostIndex(task));
+        if(!state.isSilent())
+            result.rtt.sample(rttNanos);
+        if(state == PortState.OPEN)
+            result.answered = true;
+        remaining.decrementAndGet();
+        int port = port(task);
+        boolean changed = (baseline == null) || ((state == PortState.OPEN) != baseline.contains(result.address, port));
+        if((sink != null) && changed)
+            sink.record(result, port, state, rttNanos, banner);
+        if(banner != null)
+            result.banner(port, banner);
+        if((baseline != null) && changed)
+            result.changed(port, state);
+        metrics.completed(state);
+        result.record(port, state);
+        if(progress != null)
+            finished(position(task));
+    }
+
+    /**
+     * Records a probe whose connect failed. Failures other than a refusal, a timeout or
+     * an unreachable route say nothing about the port: they are counted as errors and the
+     * target is finished without an outcome, so neither the sink nor the store sees it.
+     * @param  task      long         task index returned by nextTask().
+     * @param  e         IOException  the exception raised by connect.
+     * @param  rttNanos  long         time the probe took.
+     */
+    public void fail(long task, IOException e, long rttNanos) {
+        if(PortState.isError(e)) {
+            abandon(task, rttNanos);
+            return;
+        }
+        if(e instanceof ConnectException)
+            result(targets.hostIndex(task)).answered = true;  // Refused: the host is up.
+        complete(task, PortState.fromException(e), rttNanos);
+    }
+
+    /**
+     * Releases the slot of a probe that failed locally and finishes its target without
+     * an outcome.
+     * @param  task      long  task index returned by nextTask().
+     * @param  rttNanos  long  time the probe took.
+     */
+    private void abandon(long task, long rttNanos) {
+        inflight.release();
+        if(congestion != null)
+            congestion.finished(isIPv6(task), subnet(task), false, System.nanoTime() - rttNanos);
+        attempts.remove(task);
+        giveUp(task);
+    }
+
+    /**
+     * Finishes a target probed elsewhere, such as by a remote worker, that ended without
+     * an outcome. The task is not handed out by nextTask() and takes no probe slot.
+     * @param  task  long  target index.
+     */
+    public void mergeError(long task) {
+        metrics.issued();
+        giveUp(task);
+    }
+
+    /**
+     * Counts a target as errored and finishes it without passing anything to the sink.
+     * @param  task  long  target index.
+     */
+    private void giveUp(long task) {
+        metrics.errored();
+        remaining.decrementAndGet();
+        result(targets.hostIndex(task)).abandoned();
+        if(progress != null)
+            finished(position(task));
+    }
+
+    /**
+     * Waits for every probe of a host to finish, then releases the host's state.
+     * @param   host  long          index into the host set.
+     * @throws  InterruptedException  if interrupted while waiting.
+     * @return        HostResult    the outcomes for the host.
+     */
+    public HostResult awaitHost(long host) throws InterruptedException {
+        HostResult result = result(host);
+        result.await();
+        results.remove(host);
+        return result;
+    }
+}
@@ -0,0 +1,274 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Live counters for a scan. Every update on the probe path is a LongAdder increment or a
+ * histogram bucket increment, so workers never contend on a lock; readers sum the cells
+ * when they sample. The same numbers feed the progress line, JMX and the Prometheus
+ * endpoint.
+ */
+class ScanMetrics implements ScanMetricsMXBean {
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final LongAdder issued;
+    private final LongAdder attempts;
+    private final LongAdder completed;
+    private final LongAdder open;
+    private final LongAdder closed;
+    private final LongAdder filtered;
+    private final LongAdder openFiltered;
+    private final LongAdder errored;
+    private final LongAdder exhausted;
+    private final LatencyHistogram connect;
+    private volatile CongestionControl congestion;
+    private volatile long targets;
+    private ObjectName name;
+
+    /**
+     * Constructor.
+     * @param  targets  long  number of probes the scan will report.
+     */
+    public ScanMetrics(long targets) {
+        this.issued = new LongAdder();
+        this.attempts = new LongAdder();
+        this.completed = new LongAdder();
+        this.open = new LongAdder();
+        this.closed = new LongAdder();
+        this.filtered = new LongAdder();
+        this.openFiltered = new LongAdder();
+        this.errored = new LongAdder();
+        this.exhausted = new LongAdder();
+        this.connect = new LatencyHistogram();
+        this.congestion = null;
+        this.targets = targets;
+        this.name = null;
+    }
+
+    /**
+     * Changes the number of probes the scan will report, after a resume.
+     * @param  targets  long  the probe count.
+     */
+    void targets(long targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * Counts a probe as sent.
+     */
+    void issued() {
+        issued.increment();
+    }
+
+    /**
+     * Counts a finished attempt, and its connect time if the host answered.
+     * @param  state  PortState  the attempt's outcome.
+     * @param  nanos  long       time the attempt took.
+     */
+    void attempted(PortState state, long nanos) {
+        attempts.increment();
+        if(!state.isSilent())
+            connect.record(nanos);
+    }
+
+    /**
+     * Counts the final outcome of a target.
+     * @param  state  PortState  the outcome.
+     */
+    void completed(PortState state) {
+        completed.increment();
+        switch(state) {
+            case OPEN:
+                open.increment();
+                break;
+            case CLOSED:
+                closed.increment();
+                break;
+            case FILTERED:
+                filtered.increment();
+                break;
+            case OPEN_FILTERED:
+                openFiltered.increment();
+                break;
+        }
+    }
+
+    /**
+     * Counts a finished attempt whose target was given up without an outcome after a
+     * local or unexpected error.
+     */
+    void errored() {
+        attempts.increment();
+        errored.increment();
+    }
+
+    /**
+     * Counts an attempt that found no free local port and was held back to try again.
+     */
+    void exhausted() {
+        exhausted.increment();
+    }
+
+    /**
+     * Reports the window, loss and cuts of the scan's congestion control.
+     * @param  congestion  CongestionControl  the scan's controller.
+     */
+    void congestion(CongestionControl congestion) {
+        this.congestion = congestion;
+    }
+
+    /**
+     * Whether the scan adapts its window to loss.
+     * @return  boolean  true if congestion control is on.
+     */
+    boolean isCongestionControlled() {
+        return congestion != null;
+    }
+
+    public long getTargets() {
+        return targets;
+    }
+
+    public long getIssued() {
+        return issued.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getOpen() {
+        return open.sum();
+    }
+
+    public long getClosed() {
+        return closed.sum();
+    }
+
+    public long getFiltered() {
+        return filtered.sum();
+    }
+
+    public long getOpenFiltered() {
+        return openFiltered.sum();
+    }
+
+    public long getErrored() {
+        return errored.sum();
+    }
+
+    public long getPortsExhausted() {
+        return exhausted.sum();
+    }
+
+    public long getCongestionWindow() {
+        return (congestion == null) ? 0 : congestion.window();
+    }
+
+    public double getProbeLossRatio() {
+        return (congestion == null) ? 0 : congestion.loss();
+    }
+
+    public long getCongestionCuts() {
+        return (congestion == null) ? 0 : congestion.cuts();
+    }
+
+    public long getInFlight() {
+        return Math.max(0, issued.sum() - attempts.sum());
+    }
+
+    public long getConnectP50Micros() {
+        return connect.quantile(0.5);
+    }
+
+    public long getConnectP90Micros() {
+        return connect.quantile(0.9);
+    }
+
+    public long getConnectP99Micros() {
+        return connect.quantile(0.99);
+    }
+
+    public long getConnectP999Micros() {
+        return connect.quantile(0.999);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     * @throws  JMException  if registration fails.
+     */
+    public void register() throws JMException {
+        name = new ObjectName("PortScanner:type=ScanMetrics,id=" + IDS.incrementAndGet());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, ScanMetricsMXBean.class, true), name);
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if registered.
+     */
+    public void unregister() {
+        if(name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch(JMException e) {
+            ;
+        }
+        name = null;
+    }
+
+    /**
+     * Formats the metrics in the Prometheus text exposition format.
+     * @return  String  the metric families.
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        family(out, "portscanner_targets", "gauge", "Probes the scan will report.");
+        sample(out, "portscanner_targets", "", getTargets());
+        family(out, "portscanner_probes_issued_total", "counter", "Probes sent, including retries.");
+        sample(out, "portscanner_probes_issued_total", "", getIssued());
+        family(out, "portscanner_probes_completed_total", "counter", "Targets with a final outcome.");
+        sample(out, "portscanner_probes_completed_total", "", getCompleted());
+        family(out, "portscanner_ports_total", "counter", "Final outcomes by port state.");
+        sample(out, "portscanner_ports_total", "{state=\"open\"}", getOpen());
+        sample(out, "portscanner_ports_total", "{state=\"closed\"}", getClosed());
+        sample(out, "portscanner_ports_total", "{state=\"filtered\"}", getFiltered());
+        sample(out, "portscanner_ports_total", "{state=\"open_filtered\"}", getOpenFiltered());
+        family(out, "portscanner_probe_errors_total", "counter", "Targets given up after a local or unexpected error.");
+        sample(out, "portscanner_probe_errors_total", "", getErrored());
+        family(out, "portscanner_local_ports_exhausted_total", "counter", "Attempts held back because no local port was free.");
+        sample(out, "portscanner_local_ports_exhausted_total", "", getPortsExhausted());
+        family(out, "portscanner_probes_in_flight", "gauge", "Probes sent and not yet finished.");
+        sample(out, "portscanner_probes_in_flight", "", getInFlight());
+        if(congestion != null) {
+            family(out, "portscanner_congestion_window", "gauge", "Probes the congestion control allows in flight.");
+            sample(out, "portscanner_congestion_window", "", getCongestionWindow());
+            family(out, "portscanner_probe_loss_ratio", "gauge", "Recent share of probes that timed out.");
+            out.append("portscanner_probe_loss_ratio ").append(getProbeLossRatio()).append('\n');
+            family(out, "portscanner_congestion_cuts_total", "counter", "Times the congestion window was cut after loss rose.");
+            sample(out, "portscanner_congestion_cuts_total", "", getCongestionCuts());
+        }
+        family(out, "portscanner_connect_seconds", "summary", "Connect time of probes the host answered.");
+        double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+        long[] values = connect.quantiles(quantiles);
+        for(int i = 0; i < quantiles.length; i++)
+            out.append("portscanner_connect_seconds{quantile=\"").append(quantiles[i]).append("\"} ").append(values[i] / 1e6).append('\n');
+        out.append("portscanner_connect_seconds_sum ").append(connect.sum() / 1e6).append('\n');
+        out.append("portscanner_connect_seconds_count ").append(connect.count()).append('\n');
+        return out.toString();
+    }
+
+    private static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+}
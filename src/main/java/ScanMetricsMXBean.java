@@ -0,0 +1,40 @@
+/**
+ * Management interface of a running scan, registered with the platform MBean server as
+ * "PortScanner:type=ScanMetrics,id=<n>". JMX requires the interface to be public.
+ */
+public interface ScanMetricsMXBean {
+
+    long getTargets();
+
+    long getIssued();
+
+    long getCompleted();
+
+    long getOpen();
+
+    long getClosed();
+
+    long getFiltered();
+
+    long getOpenFiltered();
+
+    long getErrored();
+
+    long getPortsExhausted();
+
+    long getInFlight();
+
+    long getCongestionWindow();
+
+    double getProbeLossRatio();
+
+    long getCongestionCuts();
+
+    long getConnectP50Micros();
+
+    long getConnectP90Micros();
+
+    long getConnectP99Micros();
+
+    long getConnectP999Micros();
+}
@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * One scan job for a ScanEngine: its parsed options and, for a resumed scan, the
+ * checkpoint it continues. By default results go to the output format and file given in
+ * the options; they can be sent to a stream or to any ResultSink instead. Status lines,
+ * such as the host discovery summary, go to standard error unless sent elsewhere.
+ */
+class ScanRequest {
+
+    private final ArgParser options;
+    private final String[] args;
+    private final Checkpoint resumed;
+    private OutputStream output;
+    private ResultSink sink;
+    private PrintStream log;
+    private long origin;
+    private long fence;
+    private IntervalSet hosts;
+    private IPv6Set hosts6;
+
+    /**
+     * Constructor.
+     * @param  options  ArgParser   the parsed options.
+     * @param  args     String[]    the arguments they were parsed from.
+     * @param  resumed  Checkpoint  the checkpoint being resumed, or null.
+     */
+    private ScanRequest(ArgParser options, String[] args, Checkpoint resumed) {
+        this.options = options;
+        this.args = args;
+        this.resumed = resumed;
+        this.output = null;
+        this.sink = null;
+        this.log = System.err;
+        this.origin = 0;
+        this.fence = -1;
+        this.hosts = null;
+        this.hosts6 = null;
+    }
+
+    /**
+     * Parses a request from command-line style arguments. With --resume, the checkpoint
+     * is opened and the options it recorded are used.
+     * @param   args  String[]     the arguments.
+     * @throws  IllegalArgumentException  carrying the message to show if the arguments are invalid.
+     * @return        ScanRequest  the request.
+     */
+    static ScanRequest parse(String... args) {
+        return parse(new ArgParser(), args);
+    }
+
+    /**
+     * Parses a request sent by another local user, such as to a ScanDaemon. Options that
+     * name files or open network endpoints are refused, as the job would use them as the
+     * scanner's user.
+     * @param   args  String[]     the arguments.
+     * @throws  IllegalArgumentException  carrying the message to show if the arguments are
+     *                                    invalid, name a file or open an endpoint.
+     * @return        ScanRequest  the request.
+     */
+    static ScanRequest parseJob(String... args) {
+        ArgParser options = new ArgParser();
+        options.forbidFiles();
+        return parse(options, args);
+    }
+
+    /**
+     * Parses a request with the given parser.
+     * @param   options  ArgParser    the parser to fill.
+     * @param   args     String[]     the arguments.
+     * @throws  IllegalArgumentException  carrying the message to show if the arguments are invalid.
+     * @return           ScanRequest  the request.
+     */
+    private static ScanRequest parse(ArgParser options, String[] args) {
+        String error = options.parseArgs(args);
+        if(error != null)
+            throw new IllegalArgumentException(error);
+        if(options.getResumeFile() == null)
+            return new ScanRequest(options, args, null);
+
+        Checkpoint checkpoint;
+        try {
+            checkpoint = Checkpoint.resume(options.getResumeFile());
+        }
+        catch(IOException e) {
+            throw new IllegalArgumentException("ERROR: Unable to open checkpoint file: " + e.getMessage());
+        }
+        ArgParser recorded = new ArgParser();
+        error = recorded.parseArgs(checkpoint.getArgs());
+        if(error != null) {
+            try {
+                checkpoint.close();
+            }
+            catch(IOException e) {
+                ;
+            }
+            throw new IllegalArgumentException(error);
+        }
+        return new ScanRequest(recorded, checkpoint.getArgs(), checkpoint);
+    }
+
+    /**
+     * Public access to the options.
+     * @return  ArgParser  the parsed options.
+     */
+    public ArgParser getOptions() {
+        return options;
+    }
+
+    /**
+     * Public access to the arguments.
+     * @return  String[]  the arguments the options were parsed from.
+     */
+    public String[] getArgs() {
+        return args;
+    }
+
+    /**
+     * Public access to the resumed checkpoint.
+     * @return  Checkpoint  the checkpoint the scan continues, or null for a new scan.
+     */
+    public Checkpoint getResumed() {
+        return resumed;
+    }
+
+    /**
+     * Writes results to a stream, in the requested format, instead of the output file or
+     * stdout. The stream is flushed but left open when the scan ends.
+     * @param   out  OutputStream  the destination.
+     * @return       ScanRequest   this request.
+     */
+    public ScanRequest writeTo(OutputStream out) {
+        this.output = out;
+        return this;
+    }
+
+    /**
+     * Sends results to a sink instead of the requested output. The sink is closed when
+     * the scan ends.
+     * @param   sink  ResultSink   the destination.
+     * @return        ScanRequest  this request.
+     */
+    public ScanRequest reportTo(ResultSink sink) {
+        this.sink = sink;
+        return this;
+    }
+
+    /**
+     * Sends status lines, such as the host discovery summary, to a stream instead of
+     * standard error.
+     * @param   log  PrintStream  the destination, or null to drop them.
+     * @return       ScanRequest  this request.
+     */
+    public ScanRequest logTo(PrintStream log) {
+        this.log = log;
+        return this;
+    }
+
+    /**
+     * Public access to the status stream.
+     * @return  PrintStream  where status lines go, or null if they are dropped.
+     */
+    public PrintStream getLog() {
+        return log;
+    }
+
+    /**
+     * Public access to the output stream.
+     * @return  OutputStream  the stream set with writeTo(), or null.
+     */
+    public OutputStream getOutput() {
+        return output;
+    }
+
+    /**
+     * Public access to the result sink.
+     * @return  ResultSink  the sink set with reportTo(), or null.
+     */
+    public ResultSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Limits the scan to a range of target indices, as a worker does with its shard.
+     * @param   origin  long         first target index (inclusive).
+     * @param   fence   long         last target index (exclusive).
+     * @return          ScanRequest  this request.
+     */
+    public ScanRequest restrictTo(long origin, long fence) {
+        this.origin = origin;
+        this.fence = fence;
+        return this;
+    }
+
+    /**
+     * Scans only some of the hosts, such as those found up by host discovery.
+     * @param   hosts   IntervalSet  the IPv4 hosts to scan.
+     * @param   hosts6  IPv6Set      the IPv6 hosts to scan.
+     * @return          ScanRequest  this request.
+     */
+    public ScanRequest restrictHosts(IntervalSet hosts, IPv6Set hosts6) {
+        this.hosts = hosts;
+        this.hosts6 = hosts6;
+        return this;
+    }
+
+    /**
+     * Targets of the request.
+     * @return  TargetIterator  the whole host x port space or target list, or the range set
+     *                          with restrictTo().
+     */
+    public TargetIterator targets() {
+        TargetList list = options.getTargetList();
+        if(list != null)
+            return new TargetIterator(list, origin, (fence < 0) ? list.size() : fence);
+        IntervalSet scanned = (hosts != null) ? hosts : options.getHosts();
+        IPv6Set scanned6 = (hosts6 != null) ? hosts6 : options.getHosts6();
+        if(fence < 0)
+            return new TargetIterator(scanned, scanned6, options.getPorts());
+        return new TargetIterator(scanned, scanned6, options.getPorts().toArray(), origin, fence);
+    }
+}
@@ -0,0 +1,587 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Splits a scan's target space into shards of consecutive target indices and hands them
+ * to ShardWorker processes over TCP. Each worker is sent the probing options once, then
+ * asks for a shard, streams back the final outcome of every target in it and reports the
+ * shard done; targets it streamed nothing for failed locally on the worker and are counted
+ * as errors. A shard is leased to its worker: if the connection drops, or no heartbeat
+ * arrives for the lease period, the shard goes back to the queue and is handed out
+ * again. Outcomes are held per shard and only merged into the coordinator's ScanJob once
+ * the shard is done, so a reassigned shard is never reported twice. Workers are not
+ * authenticated: any host that reaches the port can take shards and report outcomes, so
+ * the port must be firewalled to the scanning machines.
+ *
+ * Messages are big-endian: worker to coordinator 'N' (next shard), 'R' host (4 bytes)
+ * port (2) state (1) latency in ns (8), 'B' the same followed by the port's banner as
+ * modified UTF-8, 'V' and 'U' the same as 'R' and 'B' for an IPv6 host (high and low 8
+ * bytes), 'H' (heartbeat) and 'D' (shard done); coordinator
+ * to worker 'A' argument count (4) and arguments, 'S' first (8) and fence (8) target
+ * index, 'W' (every shard is leased, ask again later) and 'Q' (no work left).
+ */
+class ShardCoordinator {
+
+    static final int LEASE = 10000;
+    static final byte ARGS = 'A';
+    static final byte NEXT = 'N';
+    static final byte SHARD = 'S';
+    static final byte WAIT = 'W';
+    static final byte QUIT = 'Q';
+    static final byte RECORD = 'R';
+    static final byte BANNER = 'B';
+    static final byte RECORD6 = 'V';
+    static final byte BANNER6 = 'U';
+    static final byte HEARTBEAT = 'H';
+    static final byte DONE = 'D';
+
+    private final ServerSocket server;
+    private final ScanJob job;
+    private final TargetIterator targets;
+    private final String[] args;
+    private final int shardSize;
+    private final int lease;
+    private final ArrayDeque<Shard> requeued;
+    private final Map<Shard, Socket> leased;
+    private final ArrayList<Socket> workers;
+    private long cursor;
+    private Thread acceptor;
+    private Thread reaper;
+    private volatile boolean running;
+
+    /**
+     * Range of target indices leased to one worker at a time.
+     */
+    private static class Shard {
+        final long start;
+        final long end;
+        long expires;
+
+        Shard(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Constructor using the default lease. Starts listening immediately.
+     * @param   address    InetAddress     the local address to listen on, or null for every interface.
+     * @param   port       int             the TCP port workers connect to.
+     * @param   job        ScanJob         the scan receiving the merged outcomes.
+     * @param   targets    TargetIterator  the scan's target space.
+     * @param   args       String[]        the probing options sent to every worker.
+     * @param   shardSize  int             targets per shard.
+     * @throws  IOException                if the port cannot be bound.
+     */
+    public ShardCoordinator(InetAddress address, int port, ScanJob job, TargetIterator targets, String[] args, int shardSize) throws IOException {
+        this(address, port, job, targets, args, shardSize, LEASE);
+    }
+
+    /**
+     * Constructor. Starts listening immediately.
+     * @param   address    InetAddress     the local address to listen on, or null for every interface.
+     * @param   port       int             the TCP port workers connect to, or 0 for any free port.
+     * @param   job        ScanJob         the scan receiving the merged outcomes.
+     * @param   targets    TargetIterator  the scan's target space.
+     * @param   args       String[]        the probing options sent to every worker.
+     * @param   shardSize  int             targets per shard.
+     * @param   lease      int             ms without a heartbeat before a worker's shard is reassigned.
+     * @throws  IOException                if the port cannot be bound.
+     */
+    ShardCoordinator(InetAddress address, int port, ScanJob job, TargetIterator targets, String[] args, int shardSize, int lease) throws IOException {
+        this.server = new ServerSocket(port, 50, address);
+        this.job = job;
+        this.targets = targets;
+        this.args = args;
+        this.shardSize = shardSize;
+        this.lease = lease;
+        this.requeued = new ArrayDeque<Shard>();
+        this.leased = new HashMap<Shard, Socket>();
+        this.workers = new ArrayList<Socket>();
+        this.cursor = targets.origin();
+        this.running = true;
+    }
+
+    /**
+     * Port the coordinator is bound to.
+     * @return  int  the TCP port.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Starts accepting workers and watching their leases.
+     */
+    public void start() {
+        acceptor = new Thread(this::accept, "shard-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        reaper = new Thread(this::reap, "shard-leases");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Stops handing out shards and drops every worker connection.
+     */
+    public void stop() {
+        running = false;
+        try {
+            server.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+        if(reaper != null)
+            reaper.interrupt();
+        synchronized(this) {
+            for(Socket worker : workers)
+                close(worker);
+        }
+    }
+
+    /**
+     * Accept loop. Every worker is served on its own thread.
+     */
+    private void accept() {
+        while(running) {
+            try {
+                Socket socket = server.accept();
+                synchronized(this) {
+                    workers.add(socket);
+                }
+                Thread thread = new Thread(() -> serve(socket), "shard-worker-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch(IOException e) {
+                if(running)
+                    System.out.println("ERROR: Unable to accept worker: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serves one worker until it disconnects. A shard it still holds is reassigned.
+     * @param  socket  Socket  the worker's connection.
+     */
+    private void serve(Socket socket) {
+        Shard shard = null;
+        long[] outcomes = new long[1024];
+        int count = 0;
+        HashMap<Long, String> banners = new HashMap<Long, String>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeByte(ARGS);
+            out.writeInt(args.length);
+            for(String arg : args)
+                out.writeUTF(arg);
+            out.flush();
+
+            while(running) {
+                byte type = in.readByte();
+                switch(type) {
+                    case NEXT:
+                        shard = assign(socket);
+                        count = 0;
+                        banners.clear();
+                        if(shard != null) {
+                            out.writeByte(SHARD);
+                            out.writeLong(shard.start);
+                            out.writeLong(shard.end);
+                        }
+                        else
+                            out.writeByte(isLeased() ? WAIT : QUIT);
+                        out.flush();
+                        break;
+                    case RECORD:
+                    case BANNER:
+                    case RECORD6:
+                    case BANNER6:
+                        boolean ipv6 = (type == RECORD6) || (type == BANNER6);
+                        int host = ipv6 ? 0 : in.readInt();
+                        long high = ipv6 ? in.readLong() : 0;
+                        long low = ipv6 ? in.readLong() : 0;
+                        int port = in.readUnsignedShort();
+                        int state = in.readByte();
+                        long nanos = in.readLong();
+                        String banner = ((type == BANNER) || (type == BANNER6)) ? in.readUTF() : null;
+                        long task = ipv6 ? targets.indexOf(high, low, port) : targets.indexOf(host, port);
+                        if((shard == null) || (task < shard.start) || (task >= shard.end) || (state < 0) || (state >= PortState.values().length))
+                            break;
+                        if(count + 2 > outcomes.length)
+                            outcomes = Arrays.copyOf(outcomes, outcomes.length * 2);
+                        outcomes[count++] = task;
+                        outcomes[count++] = (nanos << 2) | state;
+                        if(banner != null)
+                            banners.put(task, banner);
+                        break;
+                    case HEARTBEAT:
+                        if(shard != null)
+                            renew(shard, socket);
+                        break;
+                    case DONE:
+                        if((shard != null) && release(shard, socket)) {
+                            BitSet reported = new BitSet((int) (shard.end - shard.start));
+                            for(int i = 0; i < count; i += 2) {
+                                if(reported.get((int) (outcomes[i] - shard.start)))
+                                    continue;
+                                reported.set((int) (outcomes[i] - shard.start));
+                                job.merge(outcomes[i], PortState.values()[(int) (outcomes[i + 1] & 3)], outcomes[i + 1] >>> 2, banners.get(outcomes[i]));
+                            }
+                            for(int i = reported.nextClearBit(0); i < shard.end - shard.start; i = reported.nextClearBit(i + 1))
+                                job.mergeError(shard.start + i);
+                        }
+                        shard = null;
+                        count = 0;
+                        banners.clear();
+                        break;
+                    default:
+                        throw new IOException("Unexpected message from worker: " + type);
+                }
+            }
+        }
+        catch(IOException e) {
+            ;  // The worker is gone.
+        }
+        finally {
+            if(shard != null)
+                lose(shard, socket);
+            synchronized(this) {
+                workers.remove(socket);
+            }
+            close(socket);
+        }
+    }
+
+    /**
+     * Leases the next shard to a worker: a reassigned one if any, else a fresh one.
+     * @param   worker  Socket  the worker's connection.
+     * @return          Shard   the shard, or null if none is left to hand out.
+     */
+    private synchronized Shard assign(Socket worker) {
+        Shard shard = requeued.poll();
+        if((shard == null) && (cursor < targets.fence())) {
+            shard = new Shard(cursor, Math.min(cursor + shardSize, targets.fence()));
+            cursor = shard.end;
+        }
+        if(shard != null) {
+            shard.expires = System.currentTimeMillis() + lease;
+            leased.put(shard, worker);
+        }
+        return shard;
+    }
+
+    /**
+     * Whether any shard is still out with a worker.
+     * @return  boolean  true if a lease is outstanding.
+     */
+    private synchronized boolean isLeased() {
+        return !leased.isEmpty();
+    }
+
+    /**
+     * Extends a worker's lease.
+     * @param  shard   Shard   the shard.
+     * @param  worker  Socket  the worker's connection.
+     */
+    private synchronized void renew(Shard shard, Socket worker) {
+        if(leased.get(shard) == worker)
+            shard.expires = System.currentTimeMillis() + lease;
+    }
+
+    /**
+     * Ends a lease because the shard is done.
+     * @param   shard   Shard    the shard.
+     * @param   worker  Socket   the worker's connection.
+     * @return          boolean  false if the lease had already been lost, so the shard
+     *                           was handed to another worker.
+     */
+    private synchronized boolean release(Shard shard, Socket worker) {
+        if(leased.get(shard) != worker)
+            return false;
+        leased.remove(shard);
+        return true;
+    }
+
+    /**
+     * Takes a shard back from a worker and queues it for reassignment.
+     * @param  shard   Shard   the shard.
+     * @param  worker  Socket  the worker's connection.
+     */
+    private synchronized void lose(Shard shard, Socket worker) {
+        if(leased.get(shard) != worker)
+            return;
+        leased.remove(shard);
+        requeued.add(shard);
+    }
+
+    /**
+     * Reassigns the shards of workers that have gone quiet, once a second, and drops
+     * their connections.
+     */
+    private void reap() {
+        while(running) {
+            try {
+                Thread.sleep(Math.min(1000, lease));
+            }
+            catch(InterruptedException e) {
+                return;
+            }
+            ArrayList<Socket> expired = new ArrayList<Socket>();
+            synchronized(this) {
+                long now = System.currentTimeMillis();
+                for(Map.Entry<Shard, Socket> entry : new ArrayList<Map.Entry<Shard, Socket>>(leased.entrySet())) {
+                    if(entry.getKey().expires - now < 0) {
+                        lose(entry.getKey(), entry.getValue());
+                        expired.add(entry.getValue());
+                    }
+                }
+            }
+            for(Socket worker : expired)
+                close(worker);
+        }
+    }
+
+    /**
+     * Closes a connection, ignoring errors.
+     * @param  socket  Socket  the connection.
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+    }
+}
+
+/**
+ * Probes shards for a ShardCoordinator until it has none left. Each shard is run as a
+ * scan of its own on the worker's ScanEngine, restricted to the shard's target indices,
+ * and every final outcome is streamed back as it completes. While a shard runs, a
+ * heartbeat is sent once a second to keep the lease.
+ */
+class ShardWorker {
+
+    static final int HEARTBEAT_INTERVAL = 1000;
+
+    private final ScanEngine engine;
+    private final String host;
+    private final int port;
+
+    /**
+     * Constructor.
+     * @param  engine   ScanEngine  the engine running the shards.
+     * @param  address  String      the coordinator's host:port.
+     */
+    public ShardWorker(ScanEngine engine, String address) {
+        int colon = address.lastIndexOf(':');
+        this.engine = engine;
+        this.host = address.substring(0, colon);
+        this.port = Integer.parseInt(address.substring(colon + 1));
+    }
+
+    /**
+     * Takes and probes shards until the coordinator has no more or goes away between
+     * shards.
+     * @throws  IOException  if the coordinator cannot be reached or is lost mid-shard,
+     *                       or a shard cannot be scanned.
+     * @return  int          number of shards completed.
+     */
+    public int run() throws IOException {
+        Socket socket;
+        try {
+            socket = new Socket(host, port);
+        }
+        catch(IOException e) {
+            throw new IOException("Unable to reach coordinator: " + e.getMessage(), e);
+        }
+        int shards = 0;
+        try(Socket connection = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            if(in.readByte() != ShardCoordinator.ARGS)
+                throw new IOException("Not a shard coordinator: " + host + ":" + port);
+            String[] args = new String[in.readInt()];
+            for(int i = 0; i < args.length; i++)
+                args[i] = in.readUTF();
+
+            while(true) {
+                byte reply;
+                try {
+                    synchronized(out) {
+                        out.writeByte(ShardCoordinator.NEXT);
+                        out.flush();
+                    }
+                    reply = in.readByte();
+                }
+                catch(EOFException | SocketException e) {
+                    return shards;  // The scan finished while this worker was idle.
+                }
+                if(reply == ShardCoordinator.QUIT)
+                    return shards;
+                if(reply == ShardCoordinator.WAIT) {
+                    try {
+                        Thread.sleep(HEARTBEAT_INTERVAL);
+                    }
+                    catch(InterruptedException e) {
+                        return shards;
+                    }
+                    continue;
+                }
+                if(reply != ShardCoordinator.SHARD)
+                    throw new IOException("Unexpected message from coordinator: " + reply);
+
+                long start = in.readLong();
+                long end = in.readLong();
+                probe(args, start, end, out);
+                synchronized(out) {
+                    out.writeByte(ShardCoordinator.DONE);
+                    out.flush();
+                }
+                shards++;
+            }
+        }
+    }
+
+    /**
+     * Scans one shard, streaming outcomes and heartbeats to the coordinator.
+     * @param   args   String[]          the probing options.
+     * @param   start  long              first target index of the shard.
+     * @param   end    long              fence of the shard.
+     * @param   out    DataOutputStream  the connection to the coordinator.
+     * @throws  IOException              if the shard cannot be scanned or reported.
+     */
+    private void probe(String[] args, long start, long end, DataOutputStream out) throws IOException {
+        ScanRequest request;
+        try {
+            request = ScanRequest.parse(args);
+        }
+        catch(IllegalArgumentException e) {
+            throw new IOException("Invalid options from coordinator: " + e.getMessage());
+        }
+        ScanHandle handle = engine.submit(request.restrictTo(start, end).reportTo(new RemoteSink(out)));
+        boolean finished = false;
+        try {
+            while(true) {
+                try {
+                    handle.future().get(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+                    finished = true;
+                    return;
+                }
+                catch(TimeoutException e) {
+                    synchronized(out) {
+                        out.writeByte(ShardCoordinator.HEARTBEAT);
+                        out.flush();
+                    }
+                }
+            }
+        }
+        catch(ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        catch(InterruptedException | CancellationException e) {
+            throw new IOException("Shard interrupted.", e);
+        }
+        finally {
+            if(!finished) {
+                handle.cancel();
+                handle.future().handle((metrics, e) -> null).join();
+            }
+        }
+    }
+
+    /**
+     * Sends every final outcome of a shard to the coordinator.
+     */
+    private static class RemoteSink implements ResultSink {
+
+        private final DataOutputStream out;
+        private IOException error;
+
+        RemoteSink(DataOutputStream out) {
+            this.out = out;
+            this.error = null;
+        }
+
+        public void record(int host, int port, PortState state, long latencyNanos) {
+            record(host, port, state, latencyNanos, null);
+        }
+
+        public void record(int host, int port, PortState state, long latencyNanos, String banner) {
+            write(host, null, port, state, latencyNanos, banner);
+        }
+
+        public void record(HostResult host, int port, PortState state, long latencyNanos, String banner) {
+            write(host.address, host.ipv6, port, state, latencyNanos, banner);
+        }
+
+        private void write(int host, long[] ipv6, int port, PortState state, long latencyNanos, String banner) {
+            synchronized(out) {
+                try {
+                    if(ipv6 == null) {
+                        out.writeByte((banner == null) ? ShardCoordinator.RECORD : ShardCoordinator.BANNER);
+                        out.writeInt(host);
+                    }
+                    else {
+                        out.writeByte((banner == null) ? ShardCoordinator.RECORD6 : ShardCoordinator.BANNER6);
+                        out.writeLong(ipv6[0]);
+                        out.writeLong(ipv6[1]);
+                    }
+                    out.writeShort(port);
+                    out.writeByte(state.ordinal());
+                    out.writeLong(latencyNanos);
+                    if(banner != null)
+                        out.writeUTF(banner);
+                }
+                catch(IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        public void hostComplete(HostResult result) {
+        }
+
+        public void flush() {
+            synchronized(out) {
+                try {
+                    out.flush();
+                }
+                catch(IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        public void close() throws IOException {
+            flush();
+            synchronized(out) {
+                if(error != null)
+                    throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+import java.net.ConnectException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process network for tests and benchmarks, probed through the transports it hands
+ * out to NIO scan loops. No sockets are opened: every (host, port) endpoint behaves as a
+ * pure function of the seed and its address, so any number of them cost no memory and a
+ * scan of a /16 sees the same network every run. An endpoint accepts connects, refuses
+ * them with an RST, or drops them (blackholed), in the shares configured; hosts that are
+ * down drop everything. Each attempt at an endpoint is lost with the drop rate, and
+ * answers arrive after a log-normal latency; both are drawn from the seed, the endpoint
+ * and the attempt number, so that retries see fresh draws and the n-th attempt fares the
+ * same in every scan. A host may also answer at most so many probes per second and drop
+ * the rest, as rate-limiting firewalls and TCP stacks do. Only that limit, and answers
+ * due within a millisecond or so of their probe's deadline, depend on timing: otherwise
+ * which ports a scan finds open, closed or filtered is the same on every run, even with
+ * timeouts shorter than some latencies.
+ */
+class SimulatedNetwork {
+
+    private final long seed;
+    private double open;
+    private double blackholed;
+    private double down;
+    private double drop;
+    private long medianMicros;
+    private double spread;
+    private int hostRate;
+    private final ConcurrentHashMap<Long, RateLimiter> limits;
+    private final LongAdder connects;
+    private final LongAdder answers;
+
+    /**
+     * Answer due to a connect in flight.
+     */
+    private static class Pending implements Transport.Connection, Comparable<Pending> {
+        final Object attachment;
+        final long due;
+        final boolean refused;
+        boolean closed;
+
+        Pending(Object attachment, long due, boolean refused) {
+            this.attachment = attachment;
+            this.due = due;
+            this.refused = refused;
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        public SocketChannel detach() {
+            return null;
+        }
+
+        public int compareTo(Pending other) {
+            return Long.compare(due, other.due);
+        }
+    }
+
+    /**
+     * Transport of one scan loop: a heap of answers ordered by arrival time.
+     */
+    private class Loop implements Transport {
+        private final PriorityQueue<Pending> arrivals;
+        private volatile Thread owner;
+        private volatile boolean woken;
+
+        Loop() {
+            this.arrivals = new PriorityQueue<Pending>();
+            this.owner = null;
+            this.woken = false;
+        }
+
+        public Connection connect(InetSocketAddress target, int attempt, LocalPorts local, Object attachment) {
+            long now = System.nanoTime();
+            PortState state = send(target.getAddress(), target.getPort(), attempt, now);
+            if(state == PortState.FILTERED)
+                return new Pending(attachment, Long.MAX_VALUE, false);  // Never answered.
+            Pending pending = new Pending(attachment, now + latencyNanos(target.getAddress(), target.getPort(), attempt), state == PortState.CLOSED);
+            arrivals.add(pending);
+            return pending;
+        }
+
+        public void poll(long timeoutMillis, Listener listener) {
+            owner = Thread.currentThread();
+            long now = System.nanoTime();
+            if((timeoutMillis >= 0) && !woken && (arrivals.isEmpty() || (arrivals.peek().due - now > 0))) {
+                long wait = (timeoutMillis == 0) ? Long.MAX_VALUE : timeoutMillis * 1000000;
+                if(!arrivals.isEmpty())
+                    wait = Math.min(wait, arrivals.peek().due - now);
+                LockSupport.parkNanos(this, wait);
+                now = System.nanoTime();
+            }
+            woken = false;
+            while(!arrivals.isEmpty() && (arrivals.peek().due - now <= 0)) {
+                Pending pending = arrivals.poll();
+                if(pending.closed)
+                    continue;
+                if(pending.refused)
+                    listener.failed(pending.attachment, new ConnectException("Connection refused"));
+                else
+                    listener.connected(pending.attachment);
+            }
+        }
+
+        public void wakeup() {
+            woken = true;
+            Thread waiting = owner;
+            if(waiting != null)
+                LockSupport.unpark(waiting);
+        }
+
+        public void close() {
+            arrivals.clear();
+        }
+    }
+
+    /**
+     * Constructor for a network where every port refuses connects, answered at once,
+     * until configured otherwise.
+     * @param  seed  long  selects the network; the same seed gives the same endpoints.
+     */
+    public SimulatedNetwork(long seed) {
+        this.seed = seed;
+        this.open = 0;
+        this.blackholed = 0;
+        this.down = 0;
+        this.drop = 0;
+        this.medianMicros = 0;
+        this.spread = 0;
+        this.hostRate = 0;
+        this.limits = new ConcurrentHashMap<Long, RateLimiter>();
+        this.connects = new LongAdder();
+        this.answers = new LongAdder();
+    }
+
+    /**
+     * Sets how the ports of hosts that are up behave; the rest refuse with an RST.
+     * @param  open        double  share of ports that accept connects, 0 to 1.
+     * @param  blackholed  double  share that drop every probe.
+     */
+    public void ports(double open, double blackholed) {
+        if((open < 0) || (blackholed < 0) || (open + blackholed > 1))
+            throw new IllegalArgumentException("ERROR: Port shares must be from 0 to 1 and add up to at most 1.");
+        this.open = open;
+        this.blackholed = blackholed;
+    }
+
+    /**
+     * Sets the share of hosts that are down and drop every probe.
+     * @param  down  double  share of hosts, 0 to 1.
+     */
+    public void hostsDown(double down) {
+        this.down = down;
+    }
+
+    /**
+     * Sets the probability that a probe or its answer is lost on the way.
+     * @param  drop  double  loss rate per attempt, 0 to 1.
+     */
+    public void dropRate(double drop) {
+        this.drop = drop;
+    }
+
+    /**
+     * Sets the round-trip time distribution: log-normal around a median.
+     * @param  medianMicros  long    median round trip in microseconds.
+     * @param  spread        double  standard deviation of its logarithm; 0 for a fixed
+     *                               latency, 1 for a tail of a few times the median.
+     */
+    public void latency(long medianMicros, double spread) {
+        this.medianMicros = medianMicros;
+        this.spread = spread;
+    }
+
+    /**
+     * Limits how many probes each host answers per second; the rest are dropped.
+     * @param  perSecond  int  probes per host per second, 0 for no limit.
+     */
+    public void limitHostRate(int perSecond) {
+        this.hostRate = perSecond;
+    }
+
+    /**
+     * Opens a transport for one scan loop, such as with ScanEngine(network::transport).
+     * @return  Transport  a new transport onto this network.
+     */
+    public Transport transport() {
+        return new Loop();
+    }
+
+    /**
+     * How an endpoint behaves, ignoring losses and rate limits.
+     * @param   host  InetAddress  the host.
+     * @param   port  int          the port.
+     * @return        PortState    OPEN, CLOSED for an RST, or FILTERED if it drops probes.
+     */
+    public PortState endpoint(InetAddress host, int port) {
+        long key = hostKey(host);
+        if(uniform(mix(seed ^ key)) < down)
+            return PortState.FILTERED;
+        double draw = uniform(mix(seed ^ mix(key ^ port)));
+        if(draw < open)
+            return PortState.OPEN;
+        return (draw < open + blackholed) ? PortState.FILTERED : PortState.CLOSED;
+    }
+
+    /**
+     * Outcome a scan should report for an endpoint, given the random losses of each of its
+     * attempts and no host rate limit or timeouts shorter than the latency.
+     * @param   host     InetAddress  the host.
+     * @param   port     int          the port.
+     * @param   retries  int          retries after the first attempt.
+     * @return           PortState    FILTERED if every attempt is lost, else endpoint().
+     */
+    public PortState expected(InetAddress host, int port, int retries) {
+        return expected(host, port, retries, Long.MAX_VALUE);
+    }
+
+    /**
+     * Outcome a scan with a fixed timeout should report for an endpoint, given the random
+     * losses and latencies of each of its attempts and no host rate limit.
+     * @param   host           InetAddress  the host.
+     * @param   port           int          the port.
+     * @param   retries        int          retries after the first attempt.
+     * @param   timeoutMillis  long         how long each attempt waits for an answer.
+     * @return                 PortState    FILTERED if every attempt is lost or answered
+     *                                      late, else endpoint().
+     */
+    public PortState expected(InetAddress host, int port, int retries, long timeoutMillis) {
+        PortState state = endpoint(host, port);
+        if(state == PortState.FILTERED)
+            return state;
+        long timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for(int attempt = 0; attempt <= retries; attempt++) {
+            if(!lost(host, port, attempt) && (latencyNanos(host, port, attempt) < timeout))
+                return state;
+        }
+        return PortState.FILTERED;
+    }
+
+    /**
+     * Number of connects made so far.
+     * @return  long  connects started on any transport.
+     */
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    /**
+     * Number of connects answered so far, accepted or refused.
+     * @return  long  connects that drew an answer.
+     */
+    public long getAnswers() {
+        return answers.sum();
+    }
+
+    /**
+     * Decides the fate of one connect.
+     * @param   host     InetAddress  the host.
+     * @param   port     int          the port.
+     * @param   attempt  int          0 for the first attempt at the endpoint.
+     * @param   now      long         current System.nanoTime().
+     * @return           PortState    the answer, or FILTERED if none will come.
+     */
+    private PortState send(InetAddress host, int port, int attempt, long now) {
+        connects.increment();
+        PortState state = endpoint(host, port);
+        if(state == PortState.FILTERED)
+            return state;
+        if((drop > 0) && lost(host, port, attempt))
+            return PortState.FILTERED;
+        if(hostRate > 0) {
+            RateLimiter limit = limits.computeIfAbsent(hostKey(host), key -> new RateLimiter(hostRate));
+            if(limit.tryAcquire(now) > 0)
+                return PortState.FILTERED;
+        }
+        answers.increment();
+        return state;
+    }
+
+    /**
+     * Whether an attempt at an endpoint is lost: a pure function of the endpoint and the
+     * attempt number, so the n-th attempt has the same fate in every scan and no state is
+     * kept per endpoint.
+     * @param   host     InetAddress  the host.
+     * @param   port     int          the port.
+     * @param   attempt  int          0 for the first attempt.
+     * @return           boolean      true if the probe or its answer is dropped.
+     */
+    private boolean lost(InetAddress host, int port, int attempt) {
+        return uniform(attemptHash(host, port, attempt)) < drop;
+    }
+
+    /**
+     * Latency of an attempt at an endpoint, in nanoseconds: like lost(), a pure function
+     * of the endpoint and the attempt number.
+     * @param   host     InetAddress  the host.
+     * @param   port     int          the port.
+     * @param   attempt  int          0 for the first attempt.
+     * @return           long         the round trip.
+     */
+    private long latencyNanos(InetAddress host, int port, int attempt) {
+        double micros = medianMicros;
+        if(spread > 0) {
+            /* Box-Muller from two draws past the one lost() takes. */
+            long draw = mix(attemptHash(host, port, attempt));
+            double u1 = Math.max(uniform(draw), Double.MIN_NORMAL);
+            double u2 = uniform(mix(draw));
+            micros *= Math.exp(spread * Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2));
+        }
+        return (long) (micros * 1000);
+    }
+
+    /**
+     * Hash of one attempt at an endpoint.
+     * @param   host     InetAddress  the host.
+     * @param   port     int          the port.
+     * @param   attempt  int          0 for the first attempt.
+     * @return           long         64 well-mixed bits.
+     */
+    private long attemptHash(InetAddress host, int port, int attempt) {
+        return mix(seed ^ mix(mix(hostKey(host) ^ port) + attempt + 1));
+    }
+
+    /**
+     * Folds a host's address into 64 bits; IPv4 addresses keep their value.
+     * @param   host  InetAddress  the host.
+     * @return        long         the key.
+     */
+    private static long hostKey(InetAddress host) {
+        byte[] bytes = host.getAddress();
+        if(host instanceof Inet4Address)
+            return Integer.toUnsignedLong(((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff));
+        long high = 0;
+        long low = 0;
+        for(int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xff);
+            low = (low << 8) | (bytes[i + 8] & 0xff);
+        }
+        return mix(high) ^ low;
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     * @param   x  long  the input.
+     * @return     long  a well-mixed hash of it.
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Maps a hash to [0, 1).
+     * @param   hash  long    the hash.
+     * @return        double  a uniform draw.
+     */
+    private static double uniform(long hash) {
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Transport over the host's TCP stack: one non-blocking channel per connect, registered
+ * with a selector for OP_CONNECT. Connects that succeed at once, as they may on loopback,
+ * are held back until the next poll.
+ */
+class SocketTransport implements Transport {
+
+    private final Selector selector;
+    private final ArrayList<Object> immediate;
+
+    /**
+     * Connect on a channel registered with the transport's selector.
+     */
+    private class Channel implements Connection {
+        final SocketChannel channel;
+        final LocalPorts local;
+
+        Channel(SocketChannel channel, LocalPorts local) {
+            this.channel = channel;
+            this.local = local;
+        }
+
+        public void close() {
+            SocketTransport.close(channel);
+            local.closed();
+        }
+
+        public SocketChannel detach() {
+            SelectionKey key = channel.keyFor(selector);
+            if(key != null)
+                key.cancel();
+            return channel;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @throws  IOException  if the selector cannot be opened.
+     */
+    public SocketTransport() throws IOException {
+        this.selector = Selector.open();
+        this.immediate = new ArrayList<Object>();
+    }
+
+    public Connection connect(InetSocketAddress target, int attempt, LocalPorts local, Object attachment) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            local.bind(channel.socket(), target.getAddress());
+            channel.configureBlocking(false);
+            if(channel.connect(target))
+                immediate.add(attachment);
+            else
+                channel.register(selector, SelectionKey.OP_CONNECT, attachment);
+        }
+        catch(IOException e) {
+            close(channel);
+            local.closed();
+            throw e;
+        }
+        return new Channel(channel, local);
+    }
+
+    public void poll(long timeoutMillis, Listener listener) throws IOException {
+        if((timeoutMillis < 0) || !immediate.isEmpty())
+            selector.selectNow();
+        else
+            selector.select(timeoutMillis);
+
+        for(Object attachment : immediate)
+            listener.connected(attachment);
+        immediate.clear();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while(keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            try {
+                if(((SocketChannel) key.channel()).finishConnect())
+                    listener.connected(key.attachment());
+            }
+            catch(IOException e) {
+                listener.failed(key.attachment(), e);
+            }
+        }
+    }
+
+    public void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * Closes the selector; channels are closed by their owners.
+     */
+    public void close() throws IOException {
+        selector.close();
+    }
+
+    /**
+     * Closes a channel, ignoring errors.
+     * @param  channel  SocketChannel  the channel.
+     */
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+    }
+}
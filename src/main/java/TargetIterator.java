@@ -0,0 +1,320 @@
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy view of the host x port cross product. Targets are numbered host-major, so index
+ * i is port (i % ports) of host (i / ports), and are decoded on demand. No target list is
+ * ever built, so memory use does not depend on the size of the target space. Splitting
+ * halves the remaining index range, letting work spread across cores. A TargetList can be
+ * iterated the same way when hosts do not share one port list.
+ */
+class TargetIterator implements Spliterator.OfLong {
+
+    private final IntervalSet hosts;
+    private final IPv6Set hosts6;
+    private final long hosts4;
+    private final int[] ports;
+    private final int[] slots;
+    private final TargetList list;
+    private long index;
+    private long fence;
+
+    /**
+     * Constructor covering the whole target space.
+     * @param  hosts  IntervalSet  hosts to scan.
+     * @param  ports  PortSet      ports to scan on every host.
+     */
+    public TargetIterator(IntervalSet hosts, PortSet ports) {
+        this(hosts, ports.toArray(), 0, hosts.size() * ports.size());
+    }
+
+    /**
+     * Constructor covering the whole target space of IPv4 and IPv6 hosts. IPv4 hosts are
+     * numbered first, then IPv6 hosts.
+     * @param  hosts   IntervalSet  IPv4 hosts to scan.
+     * @param  hosts6  IPv6Set      IPv6 hosts to scan.
+     * @param  ports   PortSet      ports to scan on every host.
+     */
+    public TargetIterator(IntervalSet hosts, IPv6Set hosts6, PortSet ports) {
+        this(hosts, hosts6, ports.toArray(), 0, (hosts.size() + hosts6.size()) * ports.size());
+    }
+
+    /**
+     * Constructor covering part of the target space.
+     * @param  hosts   IntervalSet  hosts to scan.
+     * @param  ports   int[]        ports to scan on every host, in scan order.
+     * @param  origin  long         first target index (inclusive).
+     * @param  fence   long         last target index (exclusive).
+     */
+    TargetIterator(IntervalSet hosts, int[] ports, long origin, long fence) {
+        this(hosts, new IPv6Set(), ports, origin, fence);
+    }
+
+    /**
+     * Constructor covering part of the target space of IPv4 and IPv6 hosts.
+     * @param  hosts   IntervalSet  IPv4 hosts to scan.
+     * @param  hosts6  IPv6Set      IPv6 hosts to scan, numbered after the IPv4 hosts.
+     * @param  ports   int[]        ports to scan on every host, in scan order.
+     * @param  origin  long         first target index (inclusive).
+     * @param  fence   long         last target index (exclusive).
+     */
+    TargetIterator(IntervalSet hosts, IPv6Set hosts6, int[] ports, long origin, long fence) {
+        this(hosts, hosts6, ports, slots(ports), origin, fence);
+    }
+
+    private TargetIterator(IntervalSet hosts, IPv6Set hosts6, int[] ports, int[] slots, long origin, long fence) {
+        this.hosts = hosts;
+        this.hosts6 = hosts6;
+        this.hosts4 = hosts.size();
+        this.ports = ports;
+        this.slots = slots;
+        this.list = null;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    /**
+     * Constructor covering part of an explicit target list.
+     * @param  list    TargetList  the targets.
+     * @param  origin  long        first target index (inclusive).
+     * @param  fence   long        last target index (exclusive).
+     */
+    TargetIterator(TargetList list, long origin, long fence) {
+        this.hosts = null;
+        this.hosts6 = null;
+        this.hosts4 = list.hostCount();
+        this.ports = null;
+        this.slots = null;
+        this.list = list;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    /**
+     * Number of ports scanned on every host.
+     * @return  int  the port count, or 0 for a target list.
+     */
+    public int portCount() {
+        return (list == null) ? ports.length : 0;
+    }
+
+    /**
+     * Number of hosts in the whole target space.
+     * @return  long  the host count.
+     */
+    public long hostCount() {
+        return (list == null) ? hosts4 + hosts6.size() : list.hostCount();
+    }
+
+    /**
+     * First target of a host.
+     * @param   host  long  index into the host set.
+     * @return        long  the target index; past the last host, the size of the target space.
+     */
+    public long firstTarget(long host) {
+        return (list == null) ? host * ports.length : list.firstTarget(host);
+    }
+
+    /**
+     * First index not yet handed out.
+     * @return  long  the current position.
+     */
+    public long origin() {
+        return index;
+    }
+
+    /**
+     * End of the index range (exclusive).
+     * @return  long  the fence.
+     */
+    public long fence() {
+        return fence;
+    }
+
+    /**
+     * Host index of a target.
+     * @param   target  long  target index.
+     * @return          long  index into the host set.
+     */
+    public long hostIndex(long target) {
+        return (list == null) ? Math.floorDiv(target, ports.length) : list.hostIndex(target);
+    }
+
+    /**
+     * Host address of a target.
+     * @param   target  long  target index.
+     * @return          int   the packed IPv4 address, or 0 for an IPv6 host.
+     */
+    public int host(long target) {
+        return (list == null) ? address(hostIndex(target)) : list.host(target);
+    }
+
+    /**
+     * Host address at an index into the host set.
+     * @param   host  long  index into the host set.
+     * @return        int   the packed IPv4 address, or 0 for an IPv6 host.
+     */
+    public int address(long host) {
+        if(list != null)
+            return list.address(host);
+        return (host < hosts4) ? (int) hosts.get(host) : 0;
+    }
+
+    /**
+     * Whether the host at an index is an IPv6 host.
+     * @param   host  long     index into the host set.
+     * @return        boolean  true for an IPv6 host.
+     */
+    public boolean isIPv6(long host) {
+        return host >= hosts4;
+    }
+
+    /**
+     * High 64 bits of an IPv6 host.
+     * @param   host  long  index into the host set, of an IPv6 host.
+     * @return        long  the high half of the address.
+     */
+    public long high(long host) {
+        return hosts6.high(host - hosts4);
+    }
+
+    /**
+     * Low 64 bits of an IPv6 host.
+     * @param   host  long  index into the host set, of an IPv6 host.
+     * @return        long  the low half of the address.
+     */
+    public long low(long host) {
+        return hosts6.low(host - hosts4);
+    }
+
+    /**
+     * Socket address of a target's host, of either family.
+     * @param   target  long         target index.
+     * @return          InetAddress  the address for use with sockets.
+     */
+    public InetAddress inetAddress(long target) {
+        long host = hostIndex(target);
+        if(host < hosts4)
+            return IPv4Address.toInetAddress(host(target));
+        return IPv6Address.toInetAddress(high(host), low(host));
+    }
+
+    /**
+     * Port of a target.
+     * @param   target  long  target index.
+     * @return          int   the port.
+     */
+    public int port(long target) {
+        return (list == null) ? ports[(int) (target % ports.length)] : list.port(target);
+    }
+
+    /**
+     * Target index of a (host, port) pair; the inverse of host() and port().
+     * @param   host  int   packed IPv4 address.
+     * @param   port  int   the port.
+     * @return        long  index into the whole target space, or -1 if the pair is not part of it.
+     */
+    public long indexOf(int host, int port) {
+        if(list != null)
+            return list.indexOf(host, port);
+        long hostIndex = hosts.indexOf(Integer.toUnsignedLong(host));
+        int portIndex = portIndex(port);
+        if((hostIndex < 0) || (portIndex < 0))
+            return -1;
+        return hostIndex * ports.length + portIndex;
+    }
+
+    /**
+     * Target index of an IPv6 (host, port) pair.
+     * @param   high  long  high 64 bits of the address.
+     * @param   low   long  low 64 bits of the address.
+     * @param   port  int   the port.
+     * @return        long  index into the whole target space, or -1 if the pair is not part of it.
+     */
+    public long indexOf(long high, long low, int port) {
+        if(list != null)
+            return -1;
+        long hostIndex = hosts6.indexOf(high, low);
+        int portIndex = portIndex(port);
+        if((hostIndex < 0) || (portIndex < 0))
+            return -1;
+        return (hosts4 + hostIndex) * ports.length + portIndex;
+    }
+
+    /**
+     * Position of a port in the port list.
+     * @param   port  int  the port.
+     * @return        int  its index, or a negative value if it is not scanned.
+     */
+    private int portIndex(int port) {
+        if(slots == null)
+            return Arrays.binarySearch(ports, port);
+        return ((port >= 0) && (port < slots.length)) ? slots[port] - 1 : -1;
+    }
+
+    /**
+     * Index from port to position, for port lists not in ascending order, which cannot be
+     * binary searched; such as ports ranked by how likely they are to be open.
+     * @param   ports  int[]  the ports in scan order.
+     * @return         int[]  one more than the position of each port, 0 for ports not
+     *                        listed, or null if the ports are in ascending order.
+     */
+    private static int[] slots(int[] ports) {
+        int i = 1;
+        while((i < ports.length) && (ports[i - 1] < ports[i]))
+            i++;
+        if(i >= ports.length)
+            return null;
+        int[] slots = new int[PortSet.PORT_COUNT];
+        for(i = 0; i < ports.length; i++)
+            slots[ports[i]] = i + 1;
+        return slots;
+    }
+
+    public boolean tryAdvance(LongConsumer action) {
+        if(index >= fence)
+            return false;
+        action.accept(index++);
+        return true;
+    }
+
+    public void forEachRemaining(LongConsumer action) {
+        long i = index;
+        long end = fence;
+        index = end;
+        for(; i < end; i++)
+            action.accept(i);
+    }
+
+    public TargetIterator trySplit() {
+        long lo = index;
+        long mid = lo + ((fence - lo) >>> 1);
+        if(mid <= lo)
+            return null;
+        index = mid;
+        if(list != null)
+            return new TargetIterator(list, lo, mid);
+        return new TargetIterator(hosts, hosts6, ports, slots, lo, mid);
+    }
+
+    public long estimateSize() {
+        return fence - index;
+    }
+
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Stream of the remaining target indices.
+     * @param   parallel  boolean     whether the stream may be split across threads.
+     * @return            LongStream  the target indices.
+     */
+    public LongStream stream(boolean parallel) {
+        return StreamSupport.longStream(this, parallel);
+    }
+}
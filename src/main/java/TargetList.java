@@ -0,0 +1,172 @@
+import java.util.Arrays;
+
+/**
+ * Explicit set of (host, port) targets, for scans whose hosts do not all share one port
+ * list. Each target is held as one sorted 8-byte key, the unsigned host shifted over the
+ * port as in a ResultStore, so targets are numbered host-major like the host x port
+ * cross product and a host's targets are consecutive.
+ */
+class TargetList {
+
+    private final long[] keys;
+    private final int[] hosts;
+    private final int[] hostStarts;
+
+    /**
+     * Accumulates targets in any order, with duplicates.
+     */
+    static class Builder {
+        private long[] keys;
+        private int count;
+
+        Builder() {
+            this.keys = new long[1024];
+            this.count = 0;
+        }
+
+        /**
+         * Adds a target.
+         * @param  host  int  packed IPv4 address.
+         * @param  port  int  the port.
+         */
+        void add(int host, int port) {
+            if(count == keys.length)
+                keys = Arrays.copyOf(keys, count * 2);
+            keys[count++] = (Integer.toUnsignedLong(host) << 16) | port;
+        }
+
+        /**
+         * Adds a target for each of a set of ports.
+         * @param  host   int      packed IPv4 address.
+         * @param  ports  PortSet  the ports.
+         */
+        void add(int host, PortSet ports) {
+            for(int i = 0; i < ports.size(); i++)
+                add(host, ports.get(i));
+        }
+
+        /**
+         * Number of targets added so far, duplicates included.
+         * @return  int  the count.
+         */
+        int size() {
+            return count;
+        }
+
+        /**
+         * Sorts the targets and drops duplicates and excluded hosts.
+         * @param   excluded  IntervalSet  hosts to leave out, may be null.
+         * @return            TargetList   the targets.
+         */
+        TargetList build(IntervalSet excluded) {
+            long[] sorted = Arrays.copyOf(keys, count);
+            Arrays.sort(sorted);
+            int unique = 0;
+            for(int i = 0; i < sorted.length; i++) {
+                if((unique > 0) && (sorted[unique - 1] == sorted[i]))
+                    continue;
+                if((excluded != null) && excluded.contains(sorted[i] >>> 16))
+                    continue;
+                sorted[unique++] = sorted[i];
+            }
+            return new TargetList(Arrays.copyOf(sorted, unique));
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param  keys  long[]  sorted, distinct target keys.
+     */
+    private TargetList(long[] keys) {
+        this.keys = keys;
+        int count = 0;
+        for(int i = 0; i < keys.length; i++) {
+            if((i == 0) || ((keys[i] >>> 16) != (keys[i - 1] >>> 16)))
+                count++;
+        }
+        this.hosts = new int[count];
+        this.hostStarts = new int[count];
+        count = 0;
+        for(int i = 0; i < keys.length; i++) {
+            if((i == 0) || ((keys[i] >>> 16) != (keys[i - 1] >>> 16))) {
+                hosts[count] = (int) (keys[i] >>> 16);
+                hostStarts[count++] = i;
+            }
+        }
+    }
+
+    /**
+     * Number of targets.
+     * @return  long  the target count.
+     */
+    public long size() {
+        return keys.length;
+    }
+
+    /**
+     * Number of distinct hosts.
+     * @return  long  the host count.
+     */
+    public long hostCount() {
+        return hosts.length;
+    }
+
+    /**
+     * Host index of a target.
+     * @param   target  long  target index.
+     * @return          long  index into the hosts, or -1 for a negative target.
+     */
+    public long hostIndex(long target) {
+        if(target < 0)
+            return -1;
+        int index = Arrays.binarySearch(hostStarts, (int) Math.min(target, Integer.MAX_VALUE));
+        return (index >= 0) ? index : -index - 2;
+    }
+
+    /**
+     * First target of a host.
+     * @param   host  long  index into the hosts.
+     * @return        long  the target index, or size() past the last host.
+     */
+    public long firstTarget(long host) {
+        return (host < hosts.length) ? hostStarts[(int) host] : keys.length;
+    }
+
+    /**
+     * Host address at an index into the hosts.
+     * @param   host  long  index into the hosts.
+     * @return        int   the packed IPv4 address.
+     */
+    public int address(long host) {
+        return hosts[(int) host];
+    }
+
+    /**
+     * Host address of a target.
+     * @param   target  long  target index.
+     * @return          int   the packed IPv4 address.
+     */
+    public int host(long target) {
+        return (int) (keys[(int) target] >>> 16);
+    }
+
+    /**
+     * Port of a target.
+     * @param   target  long  target index.
+     * @return          int   the port.
+     */
+    public int port(long target) {
+        return (int) (keys[(int) target] & 0xFFFF);
+    }
+
+    /**
+     * Target index of a (host, port) pair.
+     * @param   host  int   packed IPv4 address.
+     * @param   port  int   the port.
+     * @return        long  the target index, or -1 if the pair is not in the list.
+     */
+    public long indexOf(int host, int port) {
+        int index = Arrays.binarySearch(keys, (Integer.toUnsignedLong(host) << 16) | port);
+        return (index >= 0) ? index : -1;
+    }
+}
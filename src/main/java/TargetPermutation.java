@@ -0,0 +1,102 @@
+/**
+ * Stateless pseudo-random permutation of the indices [0, size). A balanced Feistel network
+ * over the smallest even power of two covering the range is a bijection; indices that land
+ * outside the range are encrypted again ("cycle walking") until they fall inside it. Each
+ * lookup is O(1) memory and the same seed always produces the same order.
+ */
+class TargetPermutation {
+
+    private static final int ROUNDS = 4;
+
+    private final long size;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] keys;
+
+    /**
+     * Constructor.
+     * @param  size  long  number of indices to permute.
+     * @param  seed  long  seed selecting the permutation.
+     */
+    public TargetPermutation(long size, long seed) {
+        this.size = size;
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(size - 1, 1));
+        this.halfBits = Math.max(1, (bits + 1) / 2);
+        this.halfMask = (1L << halfBits) - 1;
+        this.keys = new long[ROUNDS];
+        long state = seed;
+        for(int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            keys[i] = mix(state);
+        }
+    }
+
+    /**
+     * Maps a position in the scan order to a target index.
+     * @param   index  long  position from 0 to size - 1.
+     * @return         long  the permuted index, also from 0 to size - 1.
+     */
+    public long permute(long index) {
+        long value = index;
+        do {
+            value = encrypt(value);
+        } while(value >= size);
+        return value;
+    }
+
+    /**
+     * Maps a target index back to its position in the scan order.
+     * @param   value  long  target index from 0 to size - 1.
+     * @return         long  the position whose permute() is the given index.
+     */
+    public long invert(long value) {
+        long index = value;
+        do {
+            index = decrypt(index);
+        } while(index >= size);
+        return index;
+    }
+
+    /**
+     * One pass of the Feistel network over the power-of-two domain.
+     * @param   value  long  value in the domain.
+     * @return         long  the encrypted value.
+     */
+    private long encrypt(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for(int i = 0; i < ROUNDS; i++) {
+            long next = left ^ (mix(right ^ keys[i]) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    /**
+     * Reverses one pass of the Feistel network by running the rounds backwards.
+     * @param   value  long  value in the domain.
+     * @return         long  the decrypted value.
+     */
+    private long decrypt(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for(int i = ROUNDS - 1; i >= 0; i--) {
+            long previous = right ^ (mix(left ^ keys[i]) & halfMask);
+            right = left;
+            left = previous;
+        }
+        return (left << halfBits) | right;
+    }
+
+    /**
+     * SplitMix64 finalizer, used as the round function.
+     * @param   z  long  input.
+     * @return     long  well-mixed output.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
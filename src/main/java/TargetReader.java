@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Streaming parser for target files. Entries are separated by new lines, commas or
+ * whitespace, and '#' starts a comment running to the end of the line. An entry is an
+ * address, a hyphenated range, a CIDR block or a host name, optionally followed by
+ * ':<port>' or ':<first>-<last>'. Host files may also hold IPv6 addresses, ranges and
+ * prefixes; target files are IPv4 only, since a ':' there introduces the ports. The input
+ * is read through one fixed buffer and addresses, ranges and ports are parsed straight
+ * from its bytes into an IntervalSet or a TargetList builder, so no string or list entry
+ * is created per target; only host names are kept, to be resolved together at the end.
+ */
+class TargetReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_ENTRY = 255;
+    static final long MAX_TARGETS = 1L << 27;
+
+    private final InputStream in;
+    private final long maxTargets;
+    private final byte[] buf;
+    private final byte[] entry;
+    private int pos;
+    private int len;
+    private int length;
+    private long line;
+    private long entryLine;
+    private boolean comment;
+    private boolean truncated;
+    private long start;
+    private long end;
+    private final ArrayList<String> names;
+    private final ArrayList<long[]> namePorts;
+
+    /**
+     * Constructor.
+     * @param  in  InputStream  the target file or standard input; not closed.
+     */
+    public TargetReader(InputStream in) {
+        this(in, MAX_TARGETS);
+    }
+
+    /**
+     * Constructor with a lower limit on the number of targets, for tests.
+     * @param  in          InputStream  the target file or standard input; not closed.
+     * @param  maxTargets  long         most targets readTargets() accepts.
+     */
+    TargetReader(InputStream in, long maxTargets) {
+        this.in = in;
+        this.maxTargets = maxTargets;
+        this.buf = new byte[BUFFER_SIZE];
+        this.entry = new byte[MAX_ENTRY];
+        this.pos = 0;
+        this.len = 0;
+        this.length = 0;
+        this.line = 1;
+        this.entryLine = 1;
+        this.comment = false;
+        this.truncated = false;
+        this.start = 0;
+        this.end = 0;
+        this.names = new ArrayList<String>();
+        this.namePorts = new ArrayList<long[]>();
+    }
+
+    /**
+     * Reads hosts into a set. Entries with a port are rejected.
+     * @param   hosts   IntervalSet  set receiving the IPv4 hosts.
+     * @param   hosts6  IPv6Set      set receiving the IPv6 hosts.
+     * @throws  IOException          if the input cannot be read.
+     * @return          String       errors if an entry is invalid, otherwise "".
+     */
+    public String readHosts(IntervalSet hosts, IPv6Set hosts6) throws IOException {
+        while(next()) {
+            if(truncated)
+                return error("too long");
+            if(indexOf(':') >= 0) {
+                /* IPv6 entries are rare enough in host files to be parsed from a string. */
+                if(!hosts6.add(new String(entry, 0, length, StandardCharsets.US_ASCII)))
+                    return error("invalid IPv6 host; ports are only allowed in --targets-file");
+                continue;
+            }
+            int parsed = parseHosts(0, length);
+            if(parsed < 0)
+                return error("invalid host");
+            if(parsed > 0)
+                hosts.add(start, end);
+        }
+        try {
+            for(HostResolver.Addresses addresses : HostResolver.resolveAll(names).values()) {
+                for(int address : addresses.ipv4)
+                    hosts.add(Integer.toUnsignedLong(address), Integer.toUnsignedLong(address));
+                for(int i = 0; i < addresses.ipv6.length; i += 2)
+                    hosts6.add(addresses.ipv6[i], addresses.ipv6[i + 1], addresses.ipv6[i], addresses.ipv6[i + 1]);
+            }
+        }
+        catch(UnknownHostException e) {
+            return "ERROR: Unable to resolve host name: " + e.getMessage();
+        }
+        return "";
+    }
+
+    /**
+     * Reads (host, port) targets into a list. Entries without a port are probed on every
+     * port of a default set.
+     * @param   targets  TargetList.Builder  list receiving the targets.
+     * @param   ports    PortSet             ports for entries that name none.
+     * @throws  IOException                  if the input cannot be read.
+     * @return           String              errors if an entry is invalid, otherwise "".
+     */
+    public String readTargets(TargetList.Builder targets, PortSet ports) throws IOException {
+        while(next()) {
+            if(truncated)
+                return error("too long");
+            int colon = indexOf(':');
+            if((entry[0] == '[') || ((colon >= 0) && (indexOf(':', colon + 1) >= 0)))
+                return error("IPv6 targets are only allowed in --hosts and --hosts-file");
+            int hostEnd = (colon < 0) ? length : colon;
+            int first = -1;
+            int last = -1;
+            if(colon >= 0) {
+                int dash = indexOf('-', colon + 1);
+                first = parseNumber(colon + 1, (dash < 0) ? length : dash);
+                last = (dash < 0) ? first : parseNumber(dash + 1, length);
+                if((first < 1) || (last > 65535) || (first > last))
+                    return error("invalid port");
+            }
+
+            int parsed = parseHosts(0, hostEnd);
+            if(parsed < 0)
+                return error("invalid host");
+            if(parsed == 0) {
+                namePorts.add(new long[] {first, last, entryLine});
+                continue;
+            }
+            long count = (end - start + 1) * ((first < 0) ? ports.size() : last - first + 1);
+            if(targets.size() + count > maxTargets)
+                return error("more than " + maxTargets + " targets; list large host ranges in --hosts-file");
+            for(long host = start; host <= end; host++)
+                add(targets, (int) host, first, last, ports);
+        }
+
+        Map<String, HostResolver.Addresses> resolved;
+        try {
+            resolved = HostResolver.resolveAll(names);
+        }
+        catch(UnknownHostException e) {
+            return "ERROR: Unable to resolve host name: " + e.getMessage();
+        }
+        for(int i = 0; i < names.size(); i++) {
+            long[] range = namePorts.get(i);
+            HostResolver.Addresses addresses = resolved.get(names.get(i));
+            if(addresses.ipv4.length == 0)
+                return "ERROR: Unable to resolve host name: " + names.get(i) + " has no IPv4 address";
+            long count = addresses.ipv4.length * ((range[0] < 0) ? ports.size() : range[1] - range[0] + 1);
+            if(targets.size() + count > maxTargets)
+                return error(range[2], names.get(i), "more than " + maxTargets + " targets; list large host ranges in --hosts-file");
+            for(int address : addresses.ipv4)
+                add(targets, address, (int) range[0], (int) range[1], ports);
+        }
+        return "";
+    }
+
+    /**
+     * Adds one host's targets.
+     * @param  targets  TargetList.Builder  list receiving the targets.
+     * @param  host     int                 packed IPv4 address.
+     * @param  first    int                 first port, or -1 for the default set.
+     * @param  last     int                 last port.
+     * @param  ports    PortSet             the default set.
+     */
+    private static void add(TargetList.Builder targets, int host, int first, int last, PortSet ports) {
+        if(first < 0)
+            targets.add(host, ports);
+        else {
+            for(int port = first; port <= last; port++)
+                targets.add(host, port);
+        }
+    }
+
+    /**
+     * Copies the next entry into the entry buffer.
+     * @throws  IOException  if the input cannot be read.
+     * @return  boolean      false at the end of the input.
+     */
+    private boolean next() throws IOException {
+        length = 0;
+        truncated = false;
+        while(true) {
+            if(pos == len) {
+                len = in.read(buf, 0, buf.length);
+                pos = 0;
+                if(len <= 0) {
+                    len = 0;
+                    return length > 0;
+                }
+            }
+            byte b = buf[pos++];
+            if(b == '\n') {
+                line++;
+                comment = false;
+                if(length > 0)
+                    return true;
+            }
+            else if(comment)
+                continue;
+            else if(b == '#') {
+                comment = true;
+                if(length > 0)
+                    return true;
+            }
+            else if((b == ',') || (b == ' ') || (b == '\t') || (b == '\r')) {
+                if(length > 0)
+                    return true;
+            }
+            else if(length < MAX_ENTRY) {
+                if(length == 0)
+                    entryLine = line;
+                entry[length++] = b;
+            }
+            else
+                truncated = true;
+        }
+    }
+
+    /**
+     * Parses an address, range or CIDR block from the entry buffer into start and end,
+     * or keeps a host name for later resolution.
+     * @param   from  int  first byte of the hosts.
+     * @param   to    int  end of the hosts (exclusive).
+     * @return        int  1 for a range, 0 for a name, -1 if the hosts are invalid.
+     */
+    private int parseHosts(int from, int to) {
+        for(int i = from; i < to; i++) {
+            byte b = entry[i];
+            if(((b < '0') || (b > '9')) && (b != '.') && (b != '-') && (b != '/')) {
+                names.add(new String(entry, from, to - from, StandardCharsets.US_ASCII));
+                return 0;
+            }
+        }
+
+        int slash = indexOf('/', from, to);
+        if(slash >= 0) {
+            long network = parseAddress(from, slash);
+            int prefix = parseNumber(slash + 1, to);
+            if((network < 0) || (prefix < 0) || (prefix > 32))
+                return -1;
+            long mask = (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+            start = network & mask;
+            end = start | (~mask & 0xFFFFFFFFL);
+            return 1;
+        }
+        int dash = indexOf('-', from, to);
+        start = parseAddress(from, (dash < 0) ? to : dash);
+        end = (dash < 0) ? start : parseAddress(dash + 1, to);
+        return ((start < 0) || (end < start)) ? -1 : 1;
+    }
+
+    /**
+     * Parses a dotted-quad address from the entry buffer.
+     * @param   from  int   first byte.
+     * @param   to    int   end (exclusive).
+     * @return        long  the unsigned address, or -1 if invalid.
+     */
+    private long parseAddress(int from, int to) {
+        long address = 0;
+        int octets = 0;
+        int start = from;
+        for(int i = from; i <= to; i++) {
+            if((i == to) || (entry[i] == '.')) {
+                int octet = parseNumber(start, i);
+                if((octet < 0) || (octet > 255))
+                    return -1;
+                address = (address << 8) | octet;
+                octets++;
+                start = i + 1;
+            }
+        }
+        return (octets == 4) ? address : -1;
+    }
+
+    /**
+     * Parses a decimal number of up to 5 digits from the entry buffer.
+     * @param   from  int  first byte.
+     * @param   to    int  end (exclusive).
+     * @return        int  the number, or -1 if invalid.
+     */
+    private int parseNumber(int from, int to) {
+        if((to <= from) || (to - from > 5))
+            return -1;
+        int n = 0;
+        for(int i = from; i < to; i++) {
+            if((entry[i] < '0') || (entry[i] > '9'))
+                return -1;
+            n = n * 10 + (entry[i] - '0');
+        }
+        return n;
+    }
+
+    private int indexOf(char c) {
+        return indexOf(c, 0, length);
+    }
+
+    private int indexOf(char c, int from) {
+        return indexOf(c, from, length);
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(entry[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Error message naming the current entry and its line.
+     * @param   reason  String  what is wrong.
+     * @return          String  the message.
+     */
+    private String error(String reason) {
+        return error(entryLine, new String(entry, 0, length, StandardCharsets.US_ASCII), reason);
+    }
+
+    /**
+     * Error message naming an entry read earlier, such as a host name resolved at the end.
+     * @param   line    long    line of the entry.
+     * @param   text    String  the entry.
+     * @param   reason  String  what is wrong.
+     * @return          String  the message.
+     */
+    private static String error(long line, String text, String reason) {
+        return "ERROR: Invalid target on line " + line + " (" + reason + "): " + text;
+    }
+}
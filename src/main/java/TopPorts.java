@@ -0,0 +1,70 @@
+/**
+ * Ports ranked by how likely they are to be found open, most likely first, for
+ * --top-ports. The first part of the ranking follows published port-frequency data for
+ * TCP services on internet hosts; after it come the well-known ports of databases, message
+ * brokers, container and cluster services, remote access, VoIP and industrial protocols
+ * that such data under-counts because they are rarely exposed publicly. Ports beyond the
+ * table follow in ascending order, so any count up to 65535 can be asked for.
+ */
+class TopPorts {
+
+    /* Kept as a primitive array; ports fit in a char and the table is read once. */
+    private static final char[] RANKED = toChars(new int[] {
+        80, 23, 443, 21, 22, 25, 3389, 110, 445, 139, 143, 53, 135, 3306, 8080, 1723, 111, 995,
+        993, 5900, 1025, 587, 8888, 199, 1720, 465, 548, 113, 81, 6001, 10000, 514, 5060, 179, 1026, 2000,
+        8443, 8000, 32768, 554, 26, 1433, 49152, 2001, 515, 8008, 49154, 1027, 5666, 646, 5000, 5631, 631, 49153,
+        8081, 2049, 88, 79, 5800, 106, 2121, 1110, 49155, 6000, 513, 990, 5357, 427, 49156, 543, 544, 5101,
+        144, 7, 389, 8009, 3128, 444, 9999, 5009, 7070, 5190, 3000, 5432, 1900, 3986, 13, 1029, 9, 5051,
+        6646, 49157, 1028, 873, 1755, 2717, 4899, 9100, 119, 37, 1000, 3001, 5001, 82, 10010, 1030, 9090, 2107,
+        1024, 2103, 6004, 1801, 5050, 19, 8031, 1041, 255, 2967, 1049, 1048, 1053, 3703, 1056, 1065, 1064, 1054,
+        17, 808, 3689, 1031, 1044, 1071, 5901, 100, 9102, 8010, 2869, 1039, 5120, 4001, 9000, 2105, 636, 1038,
+        2601, 7000, 6379, 9200, 27017, 11211, 2375, 2376, 5672, 15672, 9092, 2181, 8086, 5984, 7001, 8161, 9300, 50000,
+        6443, 10250, 2379, 5601, 9042, 7474, 1521, 1883, 8883, 502, 102, 20000, 4786, 8880, 8082, 8083, 8084, 8085,
+        8088, 8089, 8090, 8181, 8280, 8800, 9080, 9443, 10443, 4443, 7443, 5985, 5986, 47001, 1434, 3050, 5555, 5556,
+        4444, 4445, 6666, 6667, 6668, 6669, 7777, 8001, 8002, 8003, 9001, 9002, 9418, 9091, 9993, 10001, 1080, 1081,
+        3127, 3129, 8118, 8123, 6080, 5801, 5902, 5903, 5904, 5910, 2082, 2083, 2086, 2087, 2095, 2096, 3333, 4848,
+        7002, 7003, 9060, 9043, 8140, 4567, 5044, 5140, 6514, 10514, 24224, 8500, 8600, 8300, 8301, 4369, 25672, 61613,
+        61614, 61616, 5671, 1099, 1098, 4447, 9990, 8005, 8006, 7199, 9160, 16379, 26379, 6380, 27018, 27019, 28017, 5433,
+        5434, 3307, 33060, 1158, 2483, 2484, 5500, 5560, 7778, 3690, 2401, 4045, 20048, 137, 138, 5353, 3702, 5355,
+        8291, 8728, 8729, 4433, 1194, 1701, 500, 4500, 1812, 1813, 1645, 1646, 49, 3268, 3269, 464, 749, 750,
+        5722, 9389, 123, 161, 162, 10161, 10162, 5061, 5062, 1719, 2427, 2727, 4569, 5038, 10050, 10051, 9093, 9094,
+        9115, 9187, 9121, 9104, 3100, 9411, 14268, 16686, 4317, 4318, 6831, 8428, 8429, 8480, 8529, 2380, 4194, 10255,
+        10256, 30000, 32000, 6783, 6784, 8472, 9099, 9153, 853, 5335, 8053, 5678, 1880, 44818, 47808, 2404, 1911, 4911,
+        9600, 789, 18245, 18246, 5007, 1962, 2455, 5094
+    });
+
+    /**
+     * Number of ports in the ranking itself, before the remaining ports in ascending order.
+     * @return  int  the table size.
+     */
+    static int rankedCount() {
+        return RANKED.length;
+    }
+
+    /**
+     * The most likely open ports.
+     * @param   count  int    number of ports, from 0 to 65535.
+     * @return         int[]  the ports, most likely first, without duplicates.
+     */
+    static int[] top(int count) {
+        int[] ports = new int[count];
+        int n = Math.min(count, RANKED.length);
+        PortSet taken = new PortSet();
+        for(int i = 0; i < n; i++) {
+            ports[i] = RANKED[i];
+            taken.add(RANKED[i]);
+        }
+        for(int port = 1; n < count; port++) {
+            if(!taken.contains(port))
+                ports[n++] = port;
+        }
+        return ports;
+    }
+
+    private static char[] toChars(int[] ports) {
+        char[] packed = new char[ports.length];
+        for(int i = 0; i < ports.length; i++)
+            packed[i] = (char) ports[i];
+        return packed;
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Network underneath the NIO scan loop: starts TCP connects and reports how they end.
+ * SocketTransport goes through the host's TCP stack; SimulatedNetwork stands in for it
+ * in tests and benchmarks. A transport serves one event loop and, but for wakeup(), is
+ * only used from that loop's thread. A connect that is neither answered nor closed is
+ * never reported; the loop's deadlines take care of it.
+ */
+interface Transport extends Closeable {
+
+    /**
+     * A connect in progress, or an established connection.
+     */
+    interface Connection {
+        /**
+         * Abandons the connect or closes the connection; its outcome is no longer reported.
+         */
+        void close();
+
+        /**
+         * Hands an established connection over to the caller, who becomes responsible for
+         * closing it and for counting it closed with the LocalPorts it was bound with.
+         * @return  SocketChannel  the connected channel, or null if the transport has no
+         *                         sockets, in which case the connection is left open.
+         */
+        SocketChannel detach();
+    }
+
+    /**
+     * Receives the outcome of connects, with the attachment each was started with.
+     */
+    interface Listener {
+        void connected(Object attachment);
+        void failed(Object attachment, IOException e);
+    }
+
+    /**
+     * Starts a non-blocking connect. Its outcome is reported by a later poll(), never
+     * from this call.
+     * @param   target      InetSocketAddress  the host and port.
+     * @param   attempt     int                0 for the first attempt at the target, then
+     *                                         1 for its first retry and so on.
+     * @param   local       LocalPorts         the source addresses and ports to bind.
+     * @param   attachment  Object             handed back to the listener.
+     * @throws  IOException                    if the connect could not be started; the
+     *                                         transport has cleaned up after it.
+     * @return              Connection         the connect in progress.
+     */
+    Connection connect(InetSocketAddress target, int attempt, LocalPorts local, Object attachment) throws IOException;
+
+    /**
+     * Reports connects that ended, waiting for the first if none has.
+     * @param   timeoutMillis  long      longest wait: negative not to wait, 0 to wait
+     *                                   until something happens or wakeup() is called.
+     * @param   listener       Listener  receives each outcome.
+     * @throws  IOException              if the transport failed.
+     */
+    void poll(long timeoutMillis, Listener listener) throws IOException;
+
+    /**
+     * Makes a poll() in progress, or the next one, return at once. May be called from any
+     * thread.
+     */
+    void wakeup();
+}
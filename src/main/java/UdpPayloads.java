@@ -0,0 +1,64 @@
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Datagrams sent by UDP probes. Most UDP services stay silent unless they are sent a
+ * request they understand, so well-known ports get a minimal valid request of their
+ * protocol; every other port gets a single NUL byte, which is enough to draw an ICMP
+ * port unreachable from a closed port. (An empty datagram would do, but Java's channels
+ * silently skip writing one.)
+ */
+class UdpPayloads {
+
+    private static final byte[] DEFAULT = new byte[1];
+    private static final Map<Integer, byte[]> PAYLOADS = new HashMap<Integer, byte[]>();
+
+    static {
+        /* DNS: TXT query for version.bind in the CHAOS class. */
+        PAYLOADS.put(53, hex("12340100000100000000000007" + "76657273696f6e" + "04" + "62696e64" + "00" + "0010" + "0003"));
+        /* TFTP: read request for file "a" in octet mode. */
+        PAYLOADS.put(69, hex("0001" + "61" + "00" + "6f63746574" + "00"));
+        /* ONC RPC portmapper: NULL call to program 100000 version 2. */
+        PAYLOADS.put(111, hex("72fe1d13" + "00000000" + "00000002" + "000186a0" + "00000002" + "00000000" + "0000000000000000" + "0000000000000000"));
+        /* NTP: version 4 client request. */
+        PAYLOADS.put(123, hex("e3" + "00".repeat(47)));
+        /* NetBIOS name service: node status request for the wildcard name. */
+        PAYLOADS.put(137, hex("80f00010000100000000000020" + "434b" + "41".repeat(30) + "00" + "0021" + "0001"));
+        /* SNMP: v1 GetRequest for sysDescr.0 with the community "public". */
+        PAYLOADS.put(161, hex("3029020100" + "04067075626c6963" + "a01c020400000001020100020100" + "300e300c06082b060102010101000500"));
+        /* Syslog: a notice-level message; receivers never answer, so the port is open|filtered at best. */
+        PAYLOADS.put(514, "<13>PortScanner UDP probe".getBytes(StandardCharsets.US_ASCII));
+        /* SSDP: search for all devices. */
+        PAYLOADS.put(1900, ("M-SEARCH * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\nMAN: \"ssdp:discover\"\r\nMX: 1\r\nST: ssdp:all\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        /* mDNS: PTR query for the DNS-SD service list. */
+        PAYLOADS.put(5353, hex("000000000001000000000000" + "095f7365727669636573" + "075f646e732d7364" + "045f756470" + "056c6f63616c" + "00" + "000c" + "0001"));
+        /* Memcached: frame header and a version request. */
+        PAYLOADS.put(11211, hex("0000000000010000" + "76657273696f6e0d0a"));
+    }
+
+    /**
+     * Datagram to send to a port.
+     * @param   port  int     the UDP port.
+     * @return        byte[]  the port's request, or a NUL byte; not to be modified.
+     */
+    static byte[] forPort(int port) {
+        return PAYLOADS.getOrDefault(port, DEFAULT);
+    }
+
+    /**
+     * Whether a port has a protocol-specific request.
+     * @param   port  int      the UDP port.
+     * @return        boolean  true for the well-known ports listed above.
+     */
+    static boolean hasPayload(int port) {
+        return PAYLOADS.containsKey(port);
+    }
+
+    private static byte[] hex(String text) {
+        byte[] bytes = new byte[text.length() / 2];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(text.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+
+/**
+ * UDP scan worker. A selector event loop sends each probe the datagram UdpPayloads has
+ * for its port and waits for what comes back: any reply means the port is OPEN, an ICMP
+ * port unreachable means it is CLOSED, another ICMP error that it is FILTERED, and
+ * silence until the deadline that it is OPEN_FILTERED. Java only reports ICMP errors on
+ * connected datagram channels, so each probe in flight has a channel connected to its
+ * target; the selection key's attachment ties replies and errors to the probe without a
+ * lookup. Channels are kept in a pool and reconnected for the next probe rather than
+ * opened per probe, so the loop costs one socket per probe slot, not per target.
+ */
+class UdpScanner extends Thread {
+
+    /* Probes admitted per loop pass, so replies are serviced before deadlines lapse. */
+    private static final int ADMIT_BATCH = 256;
+    /* Datagrams drained from a channel before it is reused, so stale replies are dropped. */
+    private static final int DRAIN_LIMIT = 16;
+
+    private final ScanJob job;
+    private final PriorityQueue<Probe> deadlines;
+    private final PriorityQueue<Probe> deferred;
+    private final ArrayDeque<DatagramChannel> idle;
+    private final ByteBuffer buffer;
+    private int active;
+    private Selector selector;
+
+    /**
+     * Datagram probe awaiting an answer.
+     */
+    private static class Probe implements Comparable<Probe> {
+        final long task;
+        long notBefore;
+        long start;
+        long deadline;
+        DatagramChannel channel;
+        boolean done;
+
+        Probe(long task) {
+            this.task = task;
+        }
+
+        public int compareTo(Probe other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param  job  ScanJob  the shared work source; the loop ends once it has no work left.
+     */
+    public UdpScanner(ScanJob job) {
+        this.job = job;
+        this.deadlines = new PriorityQueue<Probe>();
+        this.deferred = new PriorityQueue<Probe>((a, b) -> Long.compare(a.notBefore, b.notBefore));
+        this.idle = new ArrayDeque<DatagramChannel>();
+        this.buffer = ByteBuffer.allocate(65536);
+        this.active = 0;
+        this.selector = null;
+    }
+
+    /**
+     * Event loop. Admits new probes while slots and rate permits are available, then waits
+     * for replies, for the earliest deadline to pass or for the next permit.
+     */
+    public void run() {
+        try(Selector selector = Selector.open()) {
+            this.selector = selector;
+            boolean more = true;
+            while(!Thread.currentThread().isInterrupted()) {
+                long now = System.nanoTime();
+                while(!deferred.isEmpty() && (deferred.peek().notBefore - now <= 0))
+                    send(deferred.poll());
+
+                int batch = 0;
+                long rateWait = 0;
+                while(more && (batch < ADMIT_BATCH) && job.tryAcquire()) {
+                    rateWait = job.admitDelay();
+                    if(rateWait > 0) {
+                        job.release();
+                        break;
+                    }
+                    long task = job.nextTask();
+                    if(task < 0) {
+                        job.release();
+                        more = (task != ScanJob.DONE);
+                        break;
+                    }
+
+                    Probe probe = new Probe(task);
+                    active++;
+                    batch++;
+                    long delay = job.hostDelay(task);
+                    if(delay > 0) {
+                        probe.notBefore = now + delay;
+                        deferred.add(probe);
+                    }
+                    else
+                        send(probe);
+                }
+                if(!more && (active == 0))
+                    break;
+                if((active == 0) && (batch == 0) && (rateWait == 0)) {
+                    /* Other loops hold every slot, or only their retries remain. */
+                    try {
+                        Thread.sleep(1);
+                    }
+                    catch(InterruptedException e) {
+                        break;
+                    }
+                    continue;
+                }
+
+                long next = Long.MAX_VALUE;
+                if(!deadlines.isEmpty())
+                    next = Math.min(next, deadlines.peek().deadline - now);
+                if(!deferred.isEmpty())
+                    next = Math.min(next, deferred.peek().notBefore - now);
+                if(rateWait > 0)
+                    next = Math.min(next, rateWait);
+                long wait = (next == Long.MAX_VALUE) ? 1 : Math.max(1, (next + 999999) / 1000000);
+                if(batch == ADMIT_BATCH)
+                    selector.selectNow();  // More probes may be waiting to be admitted.
+                else
+                    selector.select(wait);
+
+                for(SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    if(probe == null)
+                        drain((DatagramChannel) key.channel());  // A late reply to a finished probe.
+                    else
+                        receive(probe);
+                }
+                selector.selectedKeys().clear();
+                expire();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("ERROR: UDP scan loop stopped: " + e.getMessage());
+        }
+        finally {
+            for(DatagramChannel channel : idle)
+                close(channel);
+            for(Probe probe : deadlines) {
+                if(!probe.done)
+                    close(probe.channel);
+            }
+        }
+    }
+
+    /**
+     * Sends a probe's datagram on a pooled channel connected to its target.
+     * @param  probe  Probe  an admitted probe.
+     */
+    private void send(Probe probe) {
+        long task = probe.task;
+        int port = job.port(task);
+        job.started();
+        probe.start = System.nanoTime();
+        probe.deadline = probe.start + job.estimator(task).timeoutNanos();
+        try {
+            probe.channel = idle.poll();
+            if(probe.channel == null) {
+                probe.channel = DatagramChannel.open();
+                probe.channel.configureBlocking(false);
+                probe.channel.register(selector, SelectionKey.OP_READ);
+            }
+            probe.channel.connect(new InetSocketAddress(job.inetAddress(task), port));
+            probe.channel.keyFor(selector).attach(probe);
+            probe.channel.write(ByteBuffer.wrap(UdpPayloads.forPort(port)));
+            deadlines.add(probe);
+        }
+        catch(IOException e) {
+            finish(probe, (e instanceof PortUnreachableException) ? PortState.CLOSED : PortState.FILTERED);
+        }
+    }
+
+    /**
+     * Reads what came back for a probe.
+     * @param  probe  Probe  the probe whose channel is readable.
+     */
+    private void receive(Probe probe) {
+        try {
+            buffer.clear();
+            if(probe.channel.read(buffer) > 0)
+                finish(probe, PortState.OPEN);
+        }
+        catch(PortUnreachableException e) {
+            finish(probe, PortState.CLOSED);
+        }
+        catch(IOException e) {
+            finish(probe, PortState.FILTERED);  // Host or network unreachable, or prohibited.
+        }
+    }
+
+    /**
+     * Reports every probe whose deadline has passed without an answer as open|filtered.
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        while(!deadlines.isEmpty() && (deadlines.peek().deadline - now <= 0)) {
+            Probe probe = deadlines.poll();
+            if(!probe.done)
+                finish(probe, PortState.OPEN_FILTERED);
+        }
+
+        /* Answered probes stay in the heap until their deadline; skip past them. */
+        while(!deadlines.isEmpty() && deadlines.peek().done)
+            deadlines.poll();
+    }
+
+    /**
+     * Returns a probe's channel to the pool and reports its outcome.
+     * @param  probe  Probe      the finished probe.
+     * @param  state  PortState  the probe outcome.
+     */
+    private void finish(Probe probe, PortState state) {
+        probe.done = true;
+        active--;
+        DatagramChannel channel = probe.channel;
+        if(channel != null) {
+            SelectionKey key = channel.keyFor(selector);
+            if(key != null)
+                key.attach(null);
+            drain(channel);
+            try {
+                channel.disconnect();
+                if(key != null)
+                    idle.push(channel);
+                else
+                    close(channel);
+            }
+            catch(IOException e) {
+                close(channel);
+            }
+        }
+        job.complete(probe.task, state, System.nanoTime() - probe.start);
+    }
+
+    /**
+     * Discards datagrams and errors waiting on a channel.
+     * @param  channel  DatagramChannel  the channel.
+     */
+    private void drain(DatagramChannel channel) {
+        for(int i = 0; i < DRAIN_LIMIT; i++) {
+            try {
+                buffer.clear();
+                if(channel.isConnected() ? (channel.read(buffer) <= 0) : (channel.receive(buffer) == null))
+                    return;
+            }
+            catch(IOException e) {
+                ;  // A pending ICMP error, cleared by reading it.
+            }
+        }
+    }
+
+    /**
+     * Closes a channel, ignoring errors.
+     * @param  channel  DatagramChannel  the channel.
+     */
+    private static void close(DatagramChannel channel) {
+        try {
+            channel.close();
+        }
+        catch(IOException e) {
+            ;
+        }
+    }
+}
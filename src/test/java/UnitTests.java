@@ -20,70 +20,375 @@ class UnitTests {
     // Begin PortScanner Tests.
     
     @Test
-    public void test_port_scanner_should_pass() {
-        ArrayList<Thread> threads = new ArrayList<Thread>();
-        List<Integer> openPorts = Arrays.asList(80, 9999, 8002, 8003, 8004);
+    public void test_port_scanner_should_pass() throws IOException {
+        // Listeners on ephemeral ports, and ports freed just before the scan, so closed.
+        ArrayList<ServerSocket> listeners = new ArrayList<ServerSocket>();
+        ArrayList<Integer> openPorts = new ArrayList<Integer>();
+        ArrayList<Integer> closedPorts = new ArrayList<Integer>();
+        for(int i = 0; i < 8; i++) {
+            ServerSocket server = new ServerSocket(0);
+            if(i < 5) {
+                listeners.add(server);
+                openPorts.add(server.getLocalPort());
+            }
+            else {
+                closedPorts.add(server.getLocalPort());
+                server.close();
+            }
+        }
+        StringBuilder ports = new StringBuilder();
+        for(int port : openPorts)
+            ports.append(port).append(',');
+        for(int port : closedPorts)
+            ports.append(port).append(',');
         
         // Re-direct System.out to buffer.
+        PrintStream stdout = System.out;
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         System.setOut(new PrintStream(buffer));
-        
-        // Start test server threads.
-        for(Integer port : openPorts) {
-          Thread thread = new Thread() {
-              public void run() {
-                  try {
-                      ServerSocket server = new ServerSocket(port);
-                      while(true) {
-                          Socket client = server.accept();
-                      }
-                  } catch(Exception e) { System.out.println(e); }
-              }
-          };
-          threads.add(thread);
+        try {
+            String[] args = {"PortScanner", "--hosts", "127.0.0.1-127.0.0.2,127.0.0.3", "--ports", ports.substring(0, ports.length() - 1)};
+            PortScanner ps = new PortScanner();
+            ps.start(args);
+        }
+        finally {
+            System.setOut(stdout);
+            for(ServerSocket server : listeners)
+                server.close();
         }
         
-        for(Thread thread : threads) {
-            thread.start();
+        String output = buffer.toString();
+        
+        // Assert ports open on each of the three hosts.
+        for(int port : openPorts)
+            assertEquals(3, output.split("Port " + port + " is OPEN", -1).length - 1);
+        
+        // Assert ports closed.
+        for(int port : closedPorts)
+            assertFalse(output.contains("Port " + port + " is OPEN"));
+    }
+    
+    @Test
+    public void test_nio_scanner_reports_open_and_closed_should_pass() throws Exception {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int openPort = server.getLocalPort();
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x7F000001L, 0x7F000001L);
+        PortSet ports = new PortSet();
+        ports.add(openPort);
+        ports.add(closedPort);
+        ScanJob job = new ScanJob(hosts, ports, 16);
+        NioScanner scanner = new NioScanner(job);
+        scanner.start();
+        HostResult result = job.awaitHost(0);
+        scanner.join();
+        server.close();
+        
+        assertEquals(Arrays.asList(openPort), new ArrayList<Integer>(result.openPorts));
+        assertEquals(1, result.closed.get());
+        assertEquals(0, result.filtered.get());
+    }
+    
+    // End PortScanner Tests.
+    
+
+    // Begin ScanEngine Tests.
+    
+    @Test
+    public void test_scan_engine_concurrent_jobs_should_pass() throws Exception {
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int port = listener.getLocalPort();
+        ScanEngine engine = new ScanEngine();
+        ByteArrayOutputStream threaded = new ByteArrayOutputStream();
+        ByteArrayOutputStream nio = new ByteArrayOutputStream();
+        ScanHandle first = engine.submit(ScanRequest.parse("--hosts=127.0.0.1", "--ports=" + port + "-" + (port + 9), "-o", "jsonl", "--output-all")
+                                         .reportTo(new JsonSink(threaded, true, true)));
+        ScanHandle second = engine.submit(ScanRequest.parse("--hosts=127.0.0.1", "--ports=" + port + "-" + (port + 19), "--mode=nio", "-o", "jsonl", "--output-all")
+                                          .reportTo(new JsonSink(nio, true, true)));
+        assertEquals(10, first.future().get(30, TimeUnit.SECONDS).getCompleted());
+        assertEquals(20, second.future().get(30, TimeUnit.SECONDS).getCompleted());
+        engine.shutdown();
+        listener.close();
+        assertEquals(10, threaded.toString().split("\n").length);
+        assertEquals(20, nio.toString().split("\n").length);
+        assertTrue(threaded.toString().contains("\"port\":" + port + ",\"state\":\"OPEN\""));
+        assertTrue(nio.toString().contains("\"port\":" + port + ",\"state\":\"OPEN\""));
+    }
+    
+    @Test
+    public void test_scan_engine_cancel_should_pass() throws Exception {
+        ScanEngine engine = new ScanEngine();
+        ScanHandle handle = engine.submit(ScanRequest.parse("--hosts=127.0.0.1", "--ports=1-65535", "--mode=nio", "--rate=100")
+                                          .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false)));
+        Thread.sleep(100);
+        handle.cancel();
+        assertThrows(CancellationException.class, () -> handle.future().get(10, TimeUnit.SECONDS));
+        assertTrue(handle.isDone());
+        assertTrue(handle.metrics().getCompleted() < 65535);
+        engine.shutdown();
+    }
+    
+    @Test
+    public void test_scan_engine_cancel_reports_in_flight_should_pass() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(7);
+        network.ports(1, 0);
+        network.latency(300000, 0);
+        ScanEngine engine = new ScanEngine(network::transport);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScanHandle handle = engine.submit(ScanRequest.parse("--hosts=10.4.0.0/16", "--ports=1-10", "--mode=nio", "--min-timeout=2000", "--max-timeout=2000", "-o", "jsonl", "--output-all")
+                                          .reportTo(new JsonSink(out, true, true)));
+        Thread.sleep(100);
+        handle.cancel();
+        assertThrows(CancellationException.class, () -> handle.future().get(10, TimeUnit.SECONDS));
+        engine.shutdown();
+        long issued = handle.metrics().getIssued();
+        assertTrue(issued > 0);
+        assertEquals(issued, handle.metrics().getCompleted());
+        assertEquals(issued, out.toString().split("\n").length);
+    }
+    
+    @Test
+    public void test_scan_request_invalid_args_should_fail() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ScanRequest.parse("--hosts=127.0.0.1", "--mode=raw"));
+        assertTrue(e.getMessage().startsWith("ERROR:"));
+    }
+    
+    @Test
+    public void test_scan_daemon_should_pass() throws Exception {
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int port = listener.getLocalPort();
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        ScanEngine engine = new ScanEngine();
+        ScanDaemon daemon = new ScanDaemon(engine, 0);
+        Thread server = new Thread(daemon::serve);
+        server.setDaemon(true);
+        server.start();
+        
+        String[] replies = new String[10];
+        String[] jobs = {"--hosts=127.0.0.1 --ports=" + port + "," + closedPort + " -o jsonl", "--hosts=127.0.0.1 --ports=99999",
+                         "--hosts=127.0.0.1 --output-file=/tmp/scan.txt", "--hosts=127.0.0.1,@/etc/hosts", "--hosts=127.0.0.1 --sto=/tmp/scan.store",
+                         "--hosts=@-", "--targets-file=-",
+                         "--hosts=127.0.0.1 --coordinator=7311", "--worker=127.0.0.1:7311", "--hosts=127.0.0.1 --metrics-port=9100"};
+        for(int i = 0; i < jobs.length; i++) {
+            try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+                socket.getOutputStream().write((jobs[i] + "\n").getBytes("UTF-8"));
+                replies[i] = new String(socket.getInputStream().readAllBytes(), "UTF-8");
+            }
+        }
+        daemon.close();
+        engine.shutdown();
+        listener.close();
+        assertTrue(replies[0].contains("\"port\":" + port + ",\"state\":\"OPEN\""));
+        assertEquals(1, replies[0].split("\n").length);
+        assertTrue(replies[1].startsWith("ERROR:"));
+        assertEquals("ERROR: --output-file cannot be used in scan jobs (they cannot name files).\n", replies[2]);
+        assertEquals("ERROR: @<file> host lists cannot be used in scan jobs (they cannot name files).\n", replies[3]);
+        assertEquals("ERROR: --store cannot be used in scan jobs (they cannot name files).\n", replies[4]);
+        assertEquals("ERROR: @<file> host lists cannot be used in scan jobs (they cannot name files).\n", replies[5]);
+        assertEquals("ERROR: --targets-file cannot be used in scan jobs (they cannot name files).\n", replies[6]);
+        assertEquals("ERROR: --coordinator cannot be used in scan jobs (they cannot open network endpoints).\n", replies[7]);
+        assertEquals("ERROR: --worker cannot be used in scan jobs (they cannot open network endpoints).\n", replies[8]);
+        assertEquals("ERROR: --metrics-port cannot be used in scan jobs (they cannot open network endpoints).\n", replies[9]);
+    }
+    
+    // End ScanEngine Tests.
+    
+    
+    // Begin ShardCoordinator Tests.
+    
+    @Test
+    public void test_shard_coordinator_should_pass() throws Exception {
+        // One listening port, 99 closed ones freed just before the scan, and a free port for the coordinator.
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        ServerSocket[] freed = new ServerSocket[100];
+        String ports = "--ports=" + listener.getLocalPort();
+        for(int i = 0; i < freed.length; i++) {
+            freed[i] = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            if(i < 99)
+                ports += "," + freed[i].getLocalPort();
         }
+        for(ServerSocket socket : freed)
+            socket.close();
+        int closedPort = freed[0].getLocalPort();
+        int coordinatorPort = freed[99].getLocalPort();
         
-        String[] args = {"PortScanner", "--hosts", "127.0.0.1-127.0.0.2,127.0.0.3", "--ports", "80,8000-8005,9999"};
-        PortScanner ps = new PortScanner();
-        ps.start(args);
+        ScanEngine engine = new ScanEngine();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScanHandle handle = engine.submit(ScanRequest.parse("--hosts=127.0.0.1", ports, "--coordinator=" + coordinatorPort, "--shard-size=16",
+                                                            "--order=random", "-o", "jsonl", "--output-all")
+                                          .reportTo(new JsonSink(out, true, true)));
         
-        // Stop all test server threads.
-        for(Thread thread : threads) {
-            thread.interrupt();
+        // A worker that takes a shard, reports part of it and dies.
+        try(Socket dying = new Socket(InetAddress.getLoopbackAddress(), coordinatorPort)) {
+            DataInputStream in = new DataInputStream(dying.getInputStream());
+            DataOutputStream send = new DataOutputStream(dying.getOutputStream());
+            assertEquals(ShardCoordinator.ARGS, in.readByte());
+            for(int i = in.readInt(); i > 0; i--)
+                in.readUTF();
+            send.writeByte(ShardCoordinator.NEXT);
+            assertEquals(ShardCoordinator.SHARD, in.readByte());
+            assertEquals(0, in.readLong());
+            assertEquals(16, in.readLong());
+            send.writeByte(ShardCoordinator.RECORD);
+            send.writeInt(0x7F000001);
+            send.writeShort(closedPort);
+            send.writeByte(PortState.OPEN.ordinal());
+            send.writeLong(1000);
+            send.flush();
         }
         
-        // 1 second delay to wait for server threads.
-        try {
-            TimeUnit.SECONDS.sleep(1);
-        } catch(Exception e) { ; }
+        int[] shards = new int[2];
+        Thread[] workers = new Thread[2];
+        for(int i = 0; i < workers.length; i++) {
+            int worker = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    shards[worker] = new ShardWorker(new ScanEngine(), "127.0.0.1:" + coordinatorPort).run();
+                }
+                catch(IOException e) {
+                    shards[worker] = -1;
+                }
+            });
+            workers[i].start();
+        }
+        ScanMetrics metrics = handle.future().get(60, TimeUnit.SECONDS);
+        for(Thread worker : workers)
+            worker.join(10000);
+        engine.shutdown();
+        listener.close();
         
-        // Reconnect System.out to stdout.
-        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out)));
+        assertEquals(100, metrics.getCompleted());
+        assertEquals(1, metrics.getOpen());
+        assertEquals(7, shards[0] + shards[1]);
+        String[] lines = out.toString().split("\\n");
+        assertEquals(100, lines.length);
+        assertEquals(100, new HashSet<String>(Arrays.asList(out.toString().replaceAll(",\"latency_us\":\\d+", "").split("\\n"))).size());
+        assertTrue(out.toString().contains("\"port\":" + listener.getLocalPort() + ",\"state\":\"OPEN\""));
+        assertTrue(out.toString().contains("\"port\":" + closedPort + ",\"state\":\"CLOSED\""));
+    }
+    
+    @Test
+    public void test_shard_coordinator_expired_lease_should_pass() throws Exception {
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int port = listener.getLocalPort();
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        ArgParser ap = new ArgParser();
+        assertNull(ap.parseArgs(new String[] {"--hosts=127.0.0.1", "--ports=" + port + "," + closedPort}));
+        TargetIterator targets = new TargetIterator(ap.getHosts(), ap.getPorts());
+        ScanJob job = new ScanJob(ap.getHosts(), ap.getPorts(), 10);
+        ShardCoordinator coordinator = new ShardCoordinator(InetAddress.getLoopbackAddress(), 0, job, targets, ap.getProbeArgs(), 10, 300);
+        coordinator.start();
         
-        String output = buffer.toString();
-        //System.out.print(output);
-        buffer.reset();
+        // A worker that takes the only shard and never answers again.
+        try(Socket silent = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort())) {
+            DataInputStream in = new DataInputStream(silent.getInputStream());
+            DataOutputStream send = new DataOutputStream(silent.getOutputStream());
+            assertEquals(ShardCoordinator.ARGS, in.readByte());
+            for(int i = in.readInt(); i > 0; i--)
+                in.readUTF();
+            send.writeByte(ShardCoordinator.NEXT);
+            assertEquals(ShardCoordinator.SHARD, in.readByte());
+            in.readLong();
+            in.readLong();
+            
+            assertEquals(1, new ShardWorker(new ScanEngine(), "127.0.0.1:" + coordinator.getPort()).run());
+            HostResult result = job.awaitHost(0);
+            assertEquals(Arrays.asList(port), new ArrayList<Integer>(result.openPorts));
+            assertEquals(1, result.closed.get());
+            assertEquals(-1, in.read());  // Dropped when its lease ran out.
+        }
+        coordinator.stop();
+        listener.close();
+    }
+    
+    @Test
+    public void test_parse_args_coordinator_should_pass() throws Exception {
+        ArgParser ap = new ArgParser();
+        assertNull(ap.parseArgs(new String[] {"--hosts=10.0.0.0/24", "--coordinator=7311"}));
+        assertEquals(7311, ap.getCoordinatorPort());
+        assertNull(ap.getCoordinatorAddress());
+        ap = new ArgParser();
+        assertNull(ap.parseArgs(new String[] {"--hosts=10.0.0.0/24", "--coordinator=192.168.1.5:7311"}));
+        assertEquals(InetAddress.getByName("192.168.1.5"), ap.getCoordinatorAddress());
+        ap = new ArgParser();
+        assertNull(ap.parseArgs(new String[] {"--hosts=10.0.0.0/24", "--coordinator=[::1]:7311"}));
+        assertEquals(InetAddress.getByName("::1"), ap.getCoordinatorAddress());
+        assertEquals(7311, ap.getCoordinatorPort());
+        assertTrue(new ArgParser().parseArgs(new String[] {"--hosts=10.0.0.0/24", "--coordinator=example:7311"}).startsWith("ERROR: Invalid coordinator address"));
+        assertTrue(new ArgParser().parseArgs(new String[] {"--hosts=10.0.0.0/24", "--coordinator=70000"}).startsWith("ERROR: Invalid coordinator port"));
+    }
+    
+    // End ShardCoordinator Tests.
+    
+    
+    // Begin BannerGrabber Tests.
+    
+    @Test
+    public void test_banner_grab_should_pass() throws Exception {
+        ServerSocket service = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread greeter = new Thread(() -> {
+            try {
+                while(true) {
+                    try(Socket client = service.accept()) {
+                        client.getOutputStream().write("SSH-2.0-Test\r\n".getBytes());
+                    }
+                }
+            }
+            catch(IOException e) {
+                ;
+            }
+        });
+        greeter.setDaemon(true);
+        greeter.start();
         
-        // Assert ports open.
-        assert(output.indexOf("Port 80 is OPEN") > 0);
-        assert(output.indexOf("Port 9999 is OPEN") > 0);
-        assert(output.indexOf("Port 8002 is OPEN") > 0);
-        assert(output.indexOf("Port 8003 is OPEN") > 0);
-        assert(output.indexOf("Port 8004 is OPEN") > 0);
+        ScanEngine engine = new ScanEngine();
+        for(String mode : new String[] {"thread", "nio"}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            engine.submit(ScanRequest.parse("--hosts=127.0.0.1", "--ports=" + service.getLocalPort(), "--mode=" + mode, "--banner")
+                          .reportTo(new JsonSink(out, true, false))).future().get(30, TimeUnit.SECONDS);
+            assertTrue(out.toString().contains("\"banner\":\"SSH-2.0-Test\""));
+        }
+        engine.shutdown();
+        service.close();
+    }
+    
+    @Test
+    public void test_banner_decode_should_pass() {
+        java.nio.ByteBuffer http = java.nio.ByteBuffer.allocate(BannerGrabber.BANNER_SIZE);
+        http.put("HTTP/1.1 404 Not Found\r\nDate: today\r\nServer: nginx\r\n\r\n".getBytes());
+        assertEquals("HTTP/1.1 404 Not Found (Server: nginx)", BannerGrabber.decode(http));
         
-        // Assert ports closed.
-        assert(output.indexOf("Port 8000 is OPEN") < 0);
-        assert(output.indexOf("Port 8001 is OPEN") < 0);
-        assert(output.indexOf("Port 8005 is OPEN") < 0);
+        java.nio.ByteBuffer alert = java.nio.ByteBuffer.allocate(BannerGrabber.BANNER_SIZE);
+        alert.put(new byte[] {0x15, 0x03, 0x03, 0x00, 0x02, 0x02, 0x28});
+        assertEquals("TLS alert", BannerGrabber.decode(alert));
+        
+        assertNull(BannerGrabber.decode(java.nio.ByteBuffer.allocate(BannerGrabber.BANNER_SIZE)));
     }
     
-    // End PortScanner Tests.
+    @Test
+    public void test_banner_csv_column_should_pass() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSink sink = ResultSink.create("csv", out, true, false, true, true);
+        sink.record(0x7F000001, 22, PortState.OPEN, 1000, "SSH-2.0-\"x\"");
+        sink.record(0x7F000001, 23, PortState.OPEN, 1000, null);
+        sink.close();
+        String[] lines = out.toString().split("\n");
+        assertEquals("host,port,state,latency_us,banner", lines[0]);
+        assertEquals("127.0.0.1,22,OPEN,1,\"SSH-2.0-\"\"x\"\"\"", lines[1]);
+        assertEquals("127.0.0.1,23,OPEN,1,", lines[2]);
+    }
+    
+    // End BannerGrabber Tests.
+    
     
-
     // Begin IPv4Address Tests.
     
     @Test
@@ -119,9 +424,1398 @@ class UnitTests {
         } catch(Exception e) { ; }
     }
     
+    @Test
+    public void test_ipv4address_to_int_should_pass() {
+        IPv4Address ip = new IPv4Address("192.168.1.2");
+        assertEquals(0xC0A80102, ip.toInt());
+        assertEquals("192.168.1.2", IPv4Address.toString(ip.toInt()));
+    }
+    
+    @Test
+    public void test_ipv4address_compare_high_addresses_should_pass() {
+        assertTrue(new IPv4Address("200.0.0.1").compareTo(new IPv4Address("100.0.0.1")) > 0);
+        assertTrue(new IPv4Address("1.0.0.0").compareTo(new IPv4Address("0.255.255.255")) > 0);
+    }
+    
+    @Test
+    public void test_ipv4address_get_next_address_last_should_fail() {
+        IPv4Address ip = new IPv4Address("255.255.255.255");
+        assertThrows(InvalidIPv4Address.class, () -> ip.getNextAddress());
+    }
+    
     // End IPv4Address Tests.
     
     
+    // Begin IntervalSet Tests.
+    
+    @Test
+    public void test_interval_set_merges_overlapping_ranges_should_pass() {
+        IntervalSet set = new IntervalSet();
+        set.add(10, 20);
+        set.add(1, 3);
+        set.add(15, 30);
+        set.add(4, 4);
+        set.add(2, 2);
+        assertEquals(2, set.rangeCount());
+        assertEquals(1, set.rangeStart(0));
+        assertEquals(4, set.rangeEnd(0));
+        assertEquals(10, set.rangeStart(1));
+        assertEquals(30, set.rangeEnd(1));
+        assertEquals(25, set.size());
+        assertEquals(10, set.get(4));
+        assertEquals(30, set.get(24));
+        assertTrue(set.contains(12));
+        assertFalse(set.contains(7));
+    }
+    
+    @Test
+    public void test_interval_set_large_range_should_pass() {
+        IntervalSet set = new IntervalSet();
+        set.add(0x0A000000L, 0x0AFFFFFFL);
+        assertEquals(1L << 24, set.size());
+        assertEquals(0x0A123456L, set.get(0x123456));
+    }
+    
+    @Test
+    public void test_interval_set_subtract_should_pass() {
+        IntervalSet set = new IntervalSet();
+        set.add(0, 99);
+        set.add(200, 299);
+        IntervalSet excluded = new IntervalSet();
+        excluded.add(10, 19);
+        excluded.add(90, 210);
+        excluded.add(299, 400);
+        IntervalSet result = set.subtract(excluded);
+        assertEquals(3, result.rangeCount());
+        assertEquals(0, result.rangeStart(0));
+        assertEquals(9, result.rangeEnd(0));
+        assertEquals(20, result.rangeStart(1));
+        assertEquals(89, result.rangeEnd(1));
+        assertEquals(211, result.rangeStart(2));
+        assertEquals(298, result.rangeEnd(2));
+        assertEquals(10 + 70 + 88, result.size());
+    }
+    
+    @Test
+    public void test_interval_set_index_of_should_pass() {
+        IntervalSet set = new IntervalSet();
+        set.add(100, 109);
+        set.add(0xFFFFFF00L, 0xFFFFFFFFL);
+        assertEquals(3, set.indexOf(103));
+        assertEquals(10 + 255, set.indexOf(0xFFFFFFFFL));
+        assertEquals(0xFFFFFFFFL, set.get(set.indexOf(0xFFFFFFFFL)));
+        assertEquals(-1, set.indexOf(110));
+    }
+    
+    // End IntervalSet Tests.
+    
+    
+    // Begin PortSet Tests.
+    
+    @Test
+    public void test_port_set_removes_duplicates_should_pass() {
+        PortSet ports = new PortSet();
+        ports.add(8000, 8005);
+        ports.add(8003);
+        ports.add(80);
+        assertArrayEquals(new int[] {80, 8000, 8001, 8002, 8003, 8004, 8005}, ports.toArray());
+    }
+    
+    @Test
+    public void test_port_set_top_ports_first_should_pass() {
+        PortSet ports = new PortSet();
+        ports.add(22);
+        ports.add(8000, 8001);
+        ports.addFirst(TopPorts.top(3));
+        assertArrayEquals(new int[] {80, 23, 443, 22, 8000, 8001}, ports.toArray());
+        assertEquals(6, ports.size());
+        
+        int[] all = TopPorts.top(65535);
+        PortSet unique = new PortSet();
+        unique.add(1, 65535);
+        unique.addFirst(all);
+        assertEquals(65535, unique.size());
+        assertEquals(1, all[TopPorts.rankedCount()]);
+        assertTrue(TopPorts.rankedCount() > 300);
+    }
+    
+    // End PortSet Tests.
+    
+    
+    // Begin TargetIterator Tests.
+    
+    @Test
+    public void test_target_iterator_decodes_host_major_should_pass() {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(100, 101);
+        hosts.add(200, 200);
+        PortSet ports = new PortSet();
+        ports.add(22);
+        ports.add(80);
+        TargetIterator targets = new TargetIterator(hosts, ports);
+        assertEquals(6, targets.estimateSize());
+        assertEquals(100, targets.host(1));
+        assertEquals(80, targets.port(1));
+        assertEquals(200, targets.host(4));
+        assertEquals(22, targets.port(4));
+    }
+    
+    @Test
+    public void test_target_iterator_split_covers_space_should_pass() {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0, 0xFFFFFF);
+        PortSet ports = new PortSet();
+        ports.add(1, 1024);
+        TargetIterator targets = new TargetIterator(hosts, ports);
+        long size = targets.estimateSize();
+        TargetIterator prefix = targets.trySplit();
+        assertEquals(size, prefix.estimateSize() + targets.estimateSize());
+        assertEquals(prefix.fence(), targets.origin());
+        assertEquals(1000, new TargetIterator(hosts, ports.toArray(), 0, 1000).stream(true).count());
+    }
+    
+    @Test
+    public void test_target_iterator_ranked_ports_should_pass() {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(100, 101);
+        PortSet ports = new PortSet();
+        ports.add(22);
+        ports.addFirst(new int[] {8080, 443});
+        TargetIterator targets = new TargetIterator(hosts, ports);
+        assertEquals(8080, targets.port(0));
+        assertEquals(22, targets.port(5));
+        assertEquals(4, targets.indexOf(101, 443));
+        assertEquals(3, targets.trySplit().indexOf(101, 8080));
+        assertEquals(-1, targets.indexOf(101, 80));
+    }
+    
+    // End TargetIterator Tests.
+    
+    
+    // Begin TargetReader Tests.
+    
+    @Test
+    public void test_target_reader_hosts_should_pass() throws IOException {
+        String input = "10.0.0.1\n# comment, 10.9.9.9\n10.0.0.5-10.0.0.7,\t10.0.1.0/30 # lab\r\n\n";
+        IntervalSet hosts = new IntervalSet();
+        String error = new TargetReader(new ByteArrayInputStream(input.getBytes())).readHosts(hosts, new IPv6Set());
+        assertEquals("", error);
+        assertEquals(8, hosts.size());
+        assertFalse(hosts.contains(0x0A090909L));
+    }
+    
+    @Test
+    public void test_target_reader_invalid_entry_should_fail() throws IOException {
+        String input = "10.0.0.1\n10.0.0.300\n";
+        String error = new TargetReader(new ByteArrayInputStream(input.getBytes())).readHosts(new IntervalSet(), new IPv6Set());
+        assertEquals("ERROR: Invalid target on line 2 (invalid host): 10.0.0.300", error);
+        
+        error = new TargetReader(new ByteArrayInputStream("10.0.0.1:80".getBytes())).readHosts(new IntervalSet(), new IPv6Set());
+        assertTrue(error.contains("ports are only allowed in --targets-file"));
+        
+        error = new TargetReader(new ByteArrayInputStream("10.0.0.1:0".getBytes())).readTargets(new TargetList.Builder(), new PortSet());
+        assertTrue(error.contains("invalid port"));
+    }
+    
+    @Test
+    public void test_target_reader_too_many_targets_should_fail() throws IOException {
+        String input = "10.0.0.0/30:80-81\n10.0.1.1\n# names are counted too\nlocalhost:1-4\n";
+        PortSet ports = new PortSet();
+        ports.add(22);
+        String error = new TargetReader(new ByteArrayInputStream(input.getBytes()), 12).readTargets(new TargetList.Builder(), ports);
+        assertEquals("ERROR: Invalid target on line 4 (more than 12 targets; list large host ranges in --hosts-file): localhost", error);
+        error = new TargetReader(new ByteArrayInputStream(input.getBytes()), 8).readTargets(new TargetList.Builder(), ports);
+        assertEquals("ERROR: Invalid target on line 2 (more than 8 targets; list large host ranges in --hosts-file): 10.0.1.1", error);
+    }
+    
+    @Test
+    public void test_target_list_should_pass() throws IOException {
+        PortSet ports = new PortSet();
+        ports.add(22);
+        ports.add(80);
+        String input = "10.0.0.2:443\n10.0.0.1:8000-8002\n10.0.0.2\n10.0.0.2:443\n10.0.0.3:25\n";
+        TargetList.Builder builder = new TargetList.Builder();
+        assertEquals("", new TargetReader(new ByteArrayInputStream(input.getBytes())).readTargets(builder, ports));
+        IntervalSet excluded = new IntervalSet();
+        excluded.add(0x0A000003L, 0x0A000003L);
+        TargetList list = builder.build(excluded);
+        
+        /* 10.0.0.1 on 8000-8002, then 10.0.0.2 on 22, 80 and 443. */
+        assertEquals(6, list.size());
+        assertEquals(2, list.hostCount());
+        TargetIterator targets = new TargetIterator(list, 0, list.size());
+        assertEquals(0, targets.hostIndex(2));
+        assertEquals(1, targets.hostIndex(3));
+        assertEquals(3, targets.firstTarget(1));
+        assertEquals(6, targets.firstTarget(2));
+        assertEquals(0x0A000002, targets.host(5));
+        assertEquals(443, targets.port(5));
+        assertEquals(4, targets.indexOf(0x0A000002, 80));
+        assertEquals(-1, targets.indexOf(0x0A000003, 25));
+    }
+    
+    @Test
+    public void test_scan_target_list_should_pass() throws Exception {
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        ServerSocket[] closed = {new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")), new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))};
+        int port = listener.getLocalPort();
+        int[] closedPorts = {closed[0].getLocalPort(), closed[1].getLocalPort()};
+        closed[0].close();
+        closed[1].close();
+        File list = File.createTempFile("targets", ".txt");
+        list.deleteOnExit();
+        java.nio.file.Files.write(list.toPath(), ("127.0.0.1:" + port + "\n127.0.0.1:" + closedPorts[0] + "-" + closedPorts[0] + ",127.0.0.1:" + closedPorts[1] + "\n127.0.0.2\n").getBytes());
+        ScanEngine engine = new ScanEngine();
+        for(String mode : new String[] {"thread", "nio"}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ScanHandle handle = engine.submit(ScanRequest.parse("--targets-file=" + list.getPath(), "--ports=" + port, "--mode=" + mode, "-o", "jsonl")
+                                              .reportTo(new JsonSink(out, true, false)));
+            ScanMetrics metrics = handle.future().get(30, TimeUnit.SECONDS);
+            assertEquals(4, metrics.getCompleted());
+            assertEquals(1, metrics.getOpen());
+            assertTrue(out.toString().contains("\"host\":\"127.0.0.1\",\"port\":" + port + ",\"state\":\"OPEN\""));
+        }
+        engine.shutdown();
+        listener.close();
+    }
+    
+    // End TargetReader Tests.
+    
+
+    // Begin IPv6 Tests.
+    
+    @Test
+    public void test_ipv6_address_parse_should_pass() {
+        assertArrayEquals(new long[] {0x20010DB800000000L, 1}, IPv6Address.parse("2001:db8::1"));
+        assertArrayEquals(new long[] {0, 0xFFFFC0000201L}, IPv6Address.parse("::ffff:192.0.2.1"));
+        assertArrayEquals(new long[] {0, 0}, IPv6Address.parse("::"));
+        assertArrayEquals(new long[] {0, 1}, IPv6Address.parse("[0:0:0:0:0:0:0:1]"));
+        assertEquals("2001:db8::1", IPv6Address.toString(0x20010DB800000000L, 1));
+        assertEquals("2001:0:0:1::1", IPv6Address.toString(0x2001000000000001L, 1));
+        assertEquals("::", IPv6Address.toString(0, 0));
+    }
+    
+    @Test
+    public void test_ipv6_address_parse_should_fail() {
+        assertNull(IPv6Address.parse("2001:db8::1::2"));
+        assertNull(IPv6Address.parse("1:2:3:4:5:6:7:8:9"));
+        assertNull(IPv6Address.parse("2001:db8:"));
+        assertNull(IPv6Address.parse("12345::"));
+        assertNull(IPv6Address.parse("::ffff:192.0.2.300"));
+    }
+    
+    @Test
+    public void test_ipv6_set_should_pass() {
+        IPv6Set hosts = new IPv6Set();
+        assertTrue(hosts.add("2001:db8::/120"));
+        assertTrue(hosts.add("2001:db8::ff-2001:db8::101"));
+        assertFalse(hosts.add("2001:db8::/129"));
+        assertEquals(258, hosts.size());
+        assertEquals(1, hosts.rangeCount());
+        assertEquals(0x101, hosts.low(257));
+        assertEquals(0x20010DB800000000L, hosts.high(257));
+        assertEquals(16, hosts.indexOf(0x20010DB800000000L, 0x10));
+        
+        IPv6Set excluded = new IPv6Set();
+        excluded.add("2001:db8::10-2001:db8::1f");
+        IPv6Set left = hosts.subtract(excluded);
+        assertEquals(242, left.size());
+        assertEquals(2, left.rangeCount());
+        assertFalse(left.contains(0x20010DB800000000L, 0x10));
+        assertEquals("2001:db8::20-2001:db8::101", left.rangeString(1));
+    }
+    
+    @Test
+    public void test_ipv6_set_carry_should_pass() {
+        IPv6Set hosts = new IPv6Set();
+        hosts.add("::ffff:ffff:ffff:fffe-0:0:0:1::1");
+        assertEquals(4, hosts.size());
+        assertEquals(1, hosts.high(2));
+        assertEquals(0, hosts.low(2));
+        assertEquals(3, hosts.indexOf(1, 1));
+    }
+    
+    @Test
+    public void test_mixed_target_iterator_should_pass() {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000001L, 0x0A000002L);
+        IPv6Set hosts6 = new IPv6Set();
+        hosts6.add("::1");
+        PortSet ports = new PortSet();
+        ports.add(22);
+        ports.add(80);
+        TargetIterator targets = new TargetIterator(hosts, hosts6, ports);
+        assertEquals(6, targets.estimateSize());
+        assertFalse(targets.isIPv6(1));
+        assertTrue(targets.isIPv6(2));
+        assertEquals(1, targets.low(2));
+        assertEquals(5, targets.indexOf(0, 1, 80));
+        assertEquals(2, targets.indexOf(0x0A000002, 22));
+        assertEquals("/0:0:0:0:0:0:0:1", targets.inetAddress(4).toString());
+    }
+    
+    @Test
+    public void test_parse_args_ipv6_hosts_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1,2001:db8::/126,[::1]", "--exclude", "2001:db8::2"};
+        assertNull(ap.parseArgs(args));
+        assertEquals(1, ap.getHosts().size());
+        assertEquals(4, ap.getHosts6().size());
+        assertTrue(Arrays.asList(ap.getProbeArgs()).contains("--hosts=2001:db8::3-2001:db8::3"));
+        
+        args = new String[] {"PortScanner", "--hosts", "2001:db8::1", "-o", "binary"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: Binary output"));
+        args = new String[] {"PortScanner", "--hosts", "2001:db8::1/200"};
+        assertTrue(new ArgParser().parseArgs(args).contains("ERROR: Invalid IPv6 prefix length"));
+        args = new String[] {"PortScanner", "--hosts", "2001:db8::g"};
+        assertTrue(new ArgParser().parseArgs(args).contains("ERROR: Invalid IPv6 address format."));
+    }
+    
+    @Test
+    public void test_target_reader_ipv6_should_pass() throws IOException {
+        IntervalSet hosts = new IntervalSet();
+        IPv6Set hosts6 = new IPv6Set();
+        String input = "10.0.0.1\n2001:db8::/127, [::1]\n";
+        assertEquals("", new TargetReader(new ByteArrayInputStream(input.getBytes())).readHosts(hosts, hosts6));
+        assertEquals(1, hosts.size());
+        assertEquals(3, hosts6.size());
+        
+        String error = new TargetReader(new ByteArrayInputStream("[::1]:80".getBytes())).readTargets(new TargetList.Builder(), new PortSet());
+        assertTrue(error.contains("IPv6 targets are only allowed"));
+    }
+    
+    @Test
+    public void test_scan_ipv6_loopback_should_pass() throws Exception {
+        ServerSocket listener = new ServerSocket(0, 50, InetAddress.getByName("::1"));
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("::1"));
+        int port = listener.getLocalPort();
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        ScanEngine engine = new ScanEngine();
+        for(String mode : new String[] {"thread", "nio"}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ScanHandle handle = engine.submit(ScanRequest.parse("--hosts=::1", "--ports=" + port + "," + closedPort, "--mode=" + mode, "-o", "jsonl", "--output-all")
+                                              .reportTo(new JsonSink(out, true, true)));
+            ScanMetrics metrics = handle.future().get(30, TimeUnit.SECONDS);
+            assertEquals(2, metrics.getCompleted());
+            assertEquals(1, metrics.getOpen());
+            assertTrue(out.toString().contains("\"host\":\"::1\",\"port\":" + port + ",\"state\":\"OPEN\""));
+            assertTrue(out.toString().contains("\"host\":\"::1\",\"port\":" + closedPort + ",\"state\":\"CLOSED\""));
+        }
+        engine.shutdown();
+        listener.close();
+    }
+    
+    // End IPv6 Tests.
+    
+
+    // Begin TargetPermutation Tests.
+    
+    @Test
+    public void test_target_permutation_is_bijection_should_pass() {
+        for(long size : new long[] {1, 2, 7, 1000, 4099}) {
+            TargetPermutation order = new TargetPermutation(size, 42);
+            BitSet seen = new BitSet();
+            for(long i = 0; i < size; i++) {
+                long j = order.permute(i);
+                assertTrue((j >= 0) && (j < size));
+                assertFalse(seen.get((int) j));
+                seen.set((int) j);
+            }
+        }
+    }
+    
+    @Test
+    public void test_target_permutation_seed_is_reproducible_should_pass() {
+        TargetPermutation a = new TargetPermutation(1 << 20, 7);
+        TargetPermutation b = new TargetPermutation(1 << 20, 7);
+        TargetPermutation c = new TargetPermutation(1 << 20, 8);
+        int differs = 0;
+        for(long i = 0; i < 100; i++) {
+            assertEquals(a.permute(i), b.permute(i));
+            if(a.permute(i) != c.permute(i))
+                differs++;
+        }
+        assertTrue(differs > 90);
+    }
+    
+    @Test
+    public void test_target_permutation_invert_should_pass() {
+        for(long size : new long[] {1, 7, 4099, 1L << 33}) {
+            TargetPermutation order = new TargetPermutation(size, 99);
+            for(long i = 0; i < Math.min(size, 5000); i++)
+                assertEquals(i, order.invert(order.permute(i)));
+        }
+    }
+    
+    // End TargetPermutation Tests.
+    
+    
+    // Begin ResultSink Tests.
+    
+    @Test
+    public void test_json_sink_writes_open_ports_should_pass() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSink sink = new JsonSink(out, true, false);
+        sink.record(0xC0A80001, 22, PortState.OPEN, 412000);
+        sink.record(0xC0A80001, 23, PortState.CLOSED, 300000);
+        sink.close();
+        assertEquals("{\"host\":\"192.168.0.1\",\"port\":22,\"state\":\"OPEN\",\"latency_us\":412}\n", out.toString());
+    }
+    
+    @Test
+    public void test_csv_sink_writes_all_ports_should_pass() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSink sink = new CsvSink(out, true, true);
+        sink.record(0x0A000001, 443, PortState.OPEN, 1000);
+        sink.record(0x0A000001, 444, PortState.FILTERED, 200000000);
+        sink.close();
+        assertEquals("host,port,state,latency_us\n10.0.0.1,443,OPEN,1\n10.0.0.1,444,FILTERED,200000\n", out.toString());
+    }
+    
+    @Test
+    public void test_binary_sink_record_layout_should_pass() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSink sink = new BinarySink(out, true, true);
+        sink.record(0xFFFFFFFE, 65535, PortState.CLOSED, 5000);
+        sink.close();
+        byte[] bytes = out.toByteArray();
+        assertEquals(4 + BinarySink.RECORD_SIZE, bytes.length);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 4, BinarySink.RECORD_SIZE));
+        assertEquals(0xFFFFFFFE, in.readInt());
+        assertEquals(65535, in.readUnsignedShort());
+        assertEquals(PortState.CLOSED.ordinal(), in.readByte());
+        assertEquals(5, in.readInt());
+    }
+    
+    @Test
+    public void test_text_sink_host_summary_should_pass() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSink sink = new TextSink(out, true);
+        HostResult result = new HostResult(0x7F000001, 3, 100, 1000, 0);
+        result.record(443, PortState.OPEN);
+        result.record(80, PortState.OPEN);
+        result.record(81, PortState.CLOSED);
+        sink.hostComplete(result);
+        sink.close();
+        assertEquals("Scan on host 127.0.0.1 found 2 open port(s) (1 closed, 0 filtered, timeout 200 ms).\n"
+            + "Port 80 is OPEN\nPort 443 is OPEN\n\n", out.toString());
+    }
+    
+    // End ResultSink Tests.
+    
+    
+    // Begin Checkpoint Tests.
+    
+    @Test
+    public void test_checkpoint_resumes_last_entry_should_pass() throws Exception {
+        File file = File.createTempFile("scan", ".ckpt");
+        file.deleteOnExit();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.0/24", "--seed=5"};
+        Checkpoint checkpoint = Checkpoint.create(file.getPath(), args);
+        checkpoint.write(4096, 1);
+        checkpoint.write(8192, 2);
+        checkpoint.close();
+        
+        // A torn trailing entry is ignored.
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        
+        Checkpoint resumed = Checkpoint.resume(file.getPath());
+        assertArrayEquals(args, resumed.getArgs());
+        assertTrue(resumed.isResumed());
+        assertEquals(8192, resumed.getPosition());
+        assertEquals(2, resumed.getHost());
+        resumed.write(12288, 3);
+        resumed.close();
+        assertEquals(12288, Checkpoint.resume(file.getPath()).getPosition());
+    }
+    
+    @Test
+    public void test_checkpoint_with_store_should_fail() throws Exception {
+        File store = File.createTempFile("scan", ".store");
+        store.deleteOnExit();
+        ResultStoreWriter writer = new ResultStoreWriter(store.getPath());
+        HostResult host = new HostResult(0x0A000001, 1, 100, 1000, 0);
+        host.record(22, PortState.OPEN);
+        writer.add(host);
+        writer.finish();
+        byte[] saved = java.nio.file.Files.readAllBytes(store.toPath());
+        
+        File file = File.createTempFile("scan", ".ckpt");
+        file.deleteOnExit();
+        String[] args = {"--hosts=10.0.0.0/24", "--ports=22", "--store=" + store.getPath(), "--checkpoint=" + file.getPath()};
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ScanRequest.parse(args));
+        assertTrue(e.getMessage().startsWith("ERROR: --store cannot be combined with --checkpoint"));
+        
+        /* A checkpoint recorded before the check, interrupted after the first host, is not resumed over the store. */
+        Checkpoint checkpoint = Checkpoint.create(file.getPath(), args);
+        checkpoint.write(1, 1);
+        checkpoint.close();
+        e = assertThrows(IllegalArgumentException.class, () -> ScanRequest.parse("--resume=" + file.getPath()));
+        assertTrue(e.getMessage().startsWith("ERROR: --store cannot be combined with --checkpoint"));
+        assertArrayEquals(saved, java.nio.file.Files.readAllBytes(store.toPath()));
+        assertEquals(1, ResultStore.open(store.getPath()).size());
+    }
+    
+    @Test
+    public void test_checkpoint_invalid_file_should_fail() throws Exception {
+        File file = File.createTempFile("scan", ".ckpt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("host,port,state,latency_us\n".getBytes());
+        out.close();
+        assertThrows(IOException.class, () -> Checkpoint.resume(file.getPath()));
+    }
+    
+    @Test
+    public void test_scan_job_completed_position_should_pass() {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000000L, 0x0A000003L);
+        PortSet ports = new PortSet();
+        ports.add(1, 2048);
+        ScanJob job = new ScanJob(hosts, ports, 16);
+        job.trackProgress();
+        
+        long task;
+        while((task = job.nextTask()) != ScanJob.DONE) {
+            if(task != 5000)
+                job.complete(task, PortState.CLOSED, 0);
+        }
+        assertEquals(ScanJob.CHUNK, job.completedPosition());
+        job.complete(5000, PortState.CLOSED, 0);
+        assertEquals(2 * ScanJob.CHUNK, job.completedPosition());
+    }
+    
+    @Test
+    public void test_scan_job_resume_skips_finished_targets_should_pass() throws Exception {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000000L, 0x0A000003L);
+        PortSet ports = new PortSet();
+        ports.add(1, 2048);
+        TargetIterator targets = new TargetIterator(hosts, ports);
+        TargetPermutation order = new TargetPermutation(targets.estimateSize(), 3);
+        ScanJob job = new ScanJob(targets, 16, 100, 1000, 0, order);
+        job.resume(ScanJob.CHUNK, 1);
+        
+        /* In random order the unreported hosts' targets are spread over the whole scan
+           order, so all of them are probed again, and only those. */
+        long probed = 0;
+        long task;
+        while((task = job.nextTask()) != ScanJob.DONE) {
+            assertTrue(task >= 2048);
+            job.complete(task, PortState.CLOSED, 0);
+            probed++;
+        }
+        assertEquals(3 * 2048, probed);
+        assertEquals(1, job.firstHost());
+        assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> {
+            for(long i = job.firstHost(); i <= job.lastHost(); i++)
+                job.awaitHost(i);
+        });
+    }
+    
+    @Test
+    public void test_scan_job_resume_mid_host_should_pass() throws Exception {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000000L, 0x0A000001L);
+        PortSet ports = new PortSet();
+        ports.add(1, 100);
+        ScanJob job = new ScanJob(hosts, ports, 16);
+        
+        /* Host 0 was reported; host 1 was interrupted after its first 50 ports. */
+        job.resume(150, 1);
+        long first = -1;
+        long task;
+        while((task = job.nextTask()) != ScanJob.DONE) {
+            if(first < 0)
+                first = task;
+            job.complete(task, (job.port(task) % 25 == 0) ? PortState.OPEN : PortState.CLOSED, 0);
+        }
+        assertEquals(100, first);
+        HostResult result = job.awaitHost(1);
+        assertEquals(Arrays.asList(25, 50, 75, 100), new ArrayList<Integer>(result.openPorts));
+        assertEquals(96, result.closed.get());
+    }
+    
+    // End Checkpoint Tests.
+    
+    
+    // Begin ResultStore Tests.
+    
+    @Test
+    public void test_result_store_round_trip_should_pass() throws Exception {
+        File file = File.createTempFile("scan", ".store");
+        file.deleteOnExit();
+        ResultStoreWriter writer = new ResultStoreWriter(file.getPath());
+        HostResult low = new HostResult(0x0A000001, 3, 100, 1000, 0);
+        low.record(443, PortState.OPEN);
+        low.record(22, PortState.OPEN);
+        low.record(80, PortState.CLOSED);
+        HostResult high = new HostResult(0xC0A80001, 1, 100, 1000, 0);
+        high.record(8080, PortState.OPEN);
+        writer.add(low);
+        writer.add(high);
+        writer.finish();
+        
+        ResultStore store = ResultStore.open(file.getPath());
+        assertEquals(3, store.size());
+        assertEquals(22, store.port(0));
+        assertEquals(0xC0A80001, store.host(2));
+        assertTrue(store.contains(0x0A000001, 443));
+        assertTrue(store.contains(0xC0A80001, 8080));
+        assertFalse(store.contains(0x0A000001, 80));
+        assertFalse(store.contains(0x0A000002, 22));
+        
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000000L, 0x0A0000FFL);
+        PortSet ports = new PortSet();
+        ports.add(1, 1024);
+        assertArrayEquals(new long[] {1024 + 21, 1024 + 442}, store.targetsIn(new TargetIterator(hosts, ports)));
+    }
+    
+    @Test
+    public void test_result_store_invalid_file_should_fail() throws Exception {
+        File file = File.createTempFile("scan", ".store");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {'P', 'S', 'S', '1', 0, 0, 0, 2, 0, 0});
+        out.close();
+        assertThrows(IOException.class, () -> ResultStore.open(file.getPath()));
+    }
+    
+    @Test
+    public void test_scan_job_reports_changes_hot_first_should_pass() throws Exception {
+        File file = File.createTempFile("scan", ".store");
+        file.deleteOnExit();
+        ResultStoreWriter writer = new ResultStoreWriter(file.getPath());
+        HostResult previous = new HostResult(0x0A000001, 2, 100, 1000, 0);
+        previous.record(22, PortState.OPEN);
+        previous.record(900, PortState.OPEN);
+        writer.add(previous);
+        writer.finish();
+        ResultStore baseline = ResultStore.open(file.getPath());
+        
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000000L, 0x0A000001L);
+        PortSet ports = new PortSet();
+        ports.add(1, 1024);
+        TargetIterator targets = new TargetIterator(hosts, ports);
+        ScanJob job = new ScanJob(targets, 16, 100, 1000, 0, null);
+        job.diffAgainst(baseline);
+        job.probeFirst(baseline.targetsIn(targets));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSink csv = new CsvSink(out, true, true, false);
+        job.reportTo(csv);
+        
+        assertEquals(1024 + 21, job.nextTask());
+        assertEquals(1024 + 899, job.nextTask());
+        job.complete(1024 + 21, PortState.OPEN, 0);
+        job.complete(1024 + 899, PortState.CLOSED, 0);
+        long task;
+        int probed = 2;
+        while((task = job.nextTask()) != ScanJob.DONE) {
+            job.complete(task, (job.port(task) == 443) ? PortState.OPEN : PortState.CLOSED, 0);
+            probed++;
+        }
+        assertEquals(2048, probed);
+        job.awaitHost(0);
+        HostResult result = job.awaitHost(1);
+        csv.close();
+        
+        assertEquals("10.0.0.1,900,CLOSED,0\n10.0.0.0,443,OPEN,0\n10.0.0.1,443,OPEN,0\n", out.toString());
+        assertEquals(2, result.openPorts.size());
+        assertEquals(Arrays.asList(443, 900), new ArrayList<Integer>(result.changes.keySet()));
+        
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ResultSink sink = new TextSink(text, true);
+        sink.hostComplete(result);
+        sink.close();
+        assertEquals("Scan on host 10.0.0.1 found 2 change(s) since the previous scan (2 open, 1022 closed, 0 filtered, timeout 100 ms).\n"
+            + "Port 443 is now OPEN\nPort 900 is now CLOSED\n\n", text.toString());
+    }
+    
+    // End ResultStore Tests.
+    
+    
+    // Begin RttEstimator Tests.
+    
+    @Test
+    public void test_rtt_estimator_starts_at_initial_timeout_should_pass() {
+        assertEquals(200, new RttEstimator(50, 1000).timeoutMillis());
+        assertEquals(300, new RttEstimator(300, 1000).timeoutMillis());
+        assertEquals(100, new RttEstimator(50, 100).timeoutMillis());
+        
+        /* Only answers make the timeout grow. */
+        RttEstimator rtt = new RttEstimator(50, 1000);
+        rtt.sample(TimeUnit.MILLISECONDS.toNanos(150));
+        assertEquals(450, rtt.timeoutMillis());  // 150 + 4 * 75
+    }
+    
+    @Test
+    public void test_rtt_estimator_shrinks_to_min_timeout_should_pass() {
+        RttEstimator rtt = new RttEstimator(50, 1000);
+        for(int i = 0; i < 40; i++)
+            rtt.sample(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(50, rtt.timeoutMillis());
+    }
+    
+    @Test
+    public void test_rtt_estimator_tracks_srtt_and_rttvar_should_pass() {
+        RttEstimator rtt = new RttEstimator(1, 10000);
+        rtt.sample(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(300, rtt.timeoutMillis());  // 100 + 4 * 50
+        rtt.sample(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(250, rtt.timeoutMillis());  // 100 + 4 * 37.5
+    }
+    
+    // End RttEstimator Tests.
+    
+    
+    // Begin LatencyHistogram Tests.
+    
+    @Test
+    public void test_latency_histogram_bucket_precision_should_pass() {
+        for(long value = 0; value < (1L << 36); value = value * 3 / 2 + 1) {
+            long bound = LatencyHistogram.lowerBound(LatencyHistogram.index(value));
+            assertTrue(bound <= value);
+            assertTrue(value - bound <= value / 16);
+        }
+    }
+    
+    @Test
+    public void test_latency_histogram_quantiles_should_pass() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(1000, histogram.count());
+        assertEquals(500500, histogram.sum());
+        long[] values = histogram.quantiles(0.5, 0.99, 1.0);
+        assertTrue(Math.abs(values[0] - 500) <= 500 / 16);
+        assertTrue(Math.abs(values[1] - 990) <= 990 / 16);
+        assertTrue(values[0] <= values[1] && values[1] <= values[2]);
+        assertEquals(0, new LatencyHistogram().quantile(0.5));
+    }
+    
+    // End LatencyHistogram Tests.
+    
+    
+    // Begin ScanMetrics Tests.
+    
+    @Test
+    public void test_scan_metrics_count_outcomes_should_pass() throws Exception {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000001L, 0x0A000001L);
+        PortSet ports = new PortSet();
+        ports.add(1, 4);
+        ScanJob job = new ScanJob(new TargetIterator(hosts, ports), 16, 100, 1000, 1, null);
+        ScanMetrics metrics = job.metrics();
+        for(long task = job.nextTask(); task >= 0; task = job.nextTask())
+            job.started();
+        assertEquals(4, metrics.getInFlight());
+        job.complete(0, PortState.OPEN, 2000000);
+        job.fail(1, new ConnectException("Connection refused"), 1000000);
+        job.fail(2, new SocketException("Too many open files"), 0);
+        job.fail(3, new SocketTimeoutException(), 100000000);
+        job.started();
+        job.complete(job.nextTask(), PortState.FILTERED, 100000000);
+        
+        assertEquals(4, metrics.getTargets());
+        assertEquals(5, metrics.getIssued());
+        assertEquals(3, metrics.getCompleted());
+        assertEquals(1, metrics.getOpen());
+        assertEquals(1, metrics.getClosed());
+        assertEquals(1, metrics.getFiltered());
+        assertEquals(1, metrics.getErrored());
+        assertEquals(0, metrics.getInFlight());
+        assertTrue(metrics.getConnectP999Micros() < 2100);
+        
+        String text = metrics.toPrometheus();
+        assertTrue(text.contains("# TYPE portscanner_probes_issued_total counter\nportscanner_probes_issued_total 5\n"));
+        assertTrue(text.contains("portscanner_ports_total{state=\"filtered\"} 1\n"));
+        assertTrue(text.contains("portscanner_connect_seconds_count 2\n"));
+    }
+    
+    @Test
+    public void test_scan_metrics_jmx_registration_should_pass() throws Exception {
+        ScanMetrics metrics = new ScanMetrics(42);
+        metrics.register();
+        javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        Set<javax.management.ObjectName> names = server.queryNames(new javax.management.ObjectName("PortScanner:type=ScanMetrics,*"), null);
+        assertFalse(names.isEmpty());
+        boolean found = false;
+        for(javax.management.ObjectName name : names)
+            found |= Long.valueOf(42).equals(server.getAttribute(name, "Targets"));
+        assertTrue(found);
+        metrics.unregister();
+        assertEquals(names.size() - 1, server.queryNames(new javax.management.ObjectName("PortScanner:type=ScanMetrics,*"), null).size());
+    }
+    
+    @Test
+    public void test_progress_reporter_eta_format_should_pass() {
+        assertEquals("00:05", ProgressReporter.eta(4.2));
+        assertEquals("02:00", ProgressReporter.eta(120));
+        assertEquals("1:01:01", ProgressReporter.eta(3661));
+        assertEquals("--:--", ProgressReporter.eta(Double.POSITIVE_INFINITY));
+    }
+    
+    // End ScanMetrics Tests.
+    
+    
+    // Begin RateLimiter Tests.
+    
+    @Test
+    public void test_rate_limiter_allows_burst_then_paces_should_pass() {
+        RateLimiter limiter = new RateLimiter(1000);  // 1 ms per permit, burst of 10.
+        long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        for(int i = 0; i < 10; i++)
+            assertEquals(0, limiter.tryAcquire(now));
+        long wait = limiter.tryAcquire(now);
+        assertTrue((wait > 0) && (wait <= TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(0, limiter.tryAcquire(now + wait));
+    }
+    
+    @Test
+    public void test_rate_limiter_reserve_schedules_ahead_should_pass() {
+        RateLimiter limiter = new RateLimiter(100);  // 10 ms per permit, no burst.
+        long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), limiter.reserve(now));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), limiter.reserve(now));
+    }
+    
+    // End RateLimiter Tests.
+    
+    
+    // Begin LocalPorts Tests.
+    
+    @Test
+    public void test_local_ports_bind_should_pass() throws IOException {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        LocalPorts local = new LocalPorts(loopback, 45100, 45103);
+        try(Socket a = new Socket(); Socket b = new Socket()) {
+            local.bind(a, loopback);
+            local.bind(b, loopback);
+            assertEquals(0, a.getSoLinger());
+            assertEquals(45100, a.getLocalPort());
+            assertEquals(45101, b.getLocalPort());
+            assertEquals(2, local.inUse());
+        }
+        local.closed();
+        local.closed();
+        assertEquals(0, local.inUse());
+        assertEquals(3, local.limit());
+    }
+    
+    @Test
+    public void test_local_ports_throttle_should_pass() throws IOException {
+        LocalPorts local = new LocalPorts();
+        assertEquals(0, local.delay(System.nanoTime()));
+        ArrayList<Socket> sockets = new ArrayList<Socket>();
+        for(int i = 0; i < 16; i++) {
+            sockets.add(new Socket());
+            local.bind(sockets.get(i), null);
+        }
+        local.exhausted();
+        assertEquals(14, local.limit());
+        assertTrue(local.delay(System.nanoTime()) > 0);
+        assertEquals(LocalPorts.PAUSE_NANOS, local.delay(System.nanoTime() + LocalPorts.BACKOFF_NANOS));
+        for(int i = 0; i < 3; i++)
+            local.closed();
+        assertEquals(0, local.delay(System.nanoTime() + LocalPorts.BACKOFF_NANOS));
+        assertTrue(LocalPorts.isExhausted(new BindException("Cannot assign requested address")));
+        assertFalse(LocalPorts.isExhausted(new ConnectException("Connection refused")));
+        for(Socket socket : sockets)
+            socket.close();
+    }
+    
+    @Test
+    public void test_local_failures_left_out_of_results_should_pass() throws Exception {
+        /* Port 1 never finds a local port; port 2 runs out of file descriptors. */
+        Transport failing = new Transport() {
+            public Connection connect(InetSocketAddress target, int attempt, LocalPorts local, Object attachment) throws IOException {
+                if(target.getPort() == 1)
+                    throw new BindException("Cannot assign requested address");
+                throw new SocketException("Too many open files");
+            }
+            public void poll(long timeoutMillis, Listener listener) throws IOException {
+                try {
+                    if(timeoutMillis >= 0)
+                        Thread.sleep((timeoutMillis == 0) ? 10 : Math.min(timeoutMillis, 10));
+                }
+                catch(InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            public void wakeup() {
+            }
+            public void close() {
+            }
+        };
+        ScanEngine engine = new ScanEngine(() -> failing);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScanHandle handle = engine.submit(ScanRequest.parse("--hosts=10.9.0.1", "--ports=1-2", "--mode=nio", "-o", "jsonl", "--output-all")
+                                          .reportTo(new JsonSink(out, true, true)));
+        ScanMetrics metrics = handle.future().get(30, TimeUnit.SECONDS);
+        engine.shutdown();
+        assertEquals(LocalPorts.MAX_REBINDS, metrics.getPortsExhausted());
+        assertEquals(2, metrics.getErrored());
+        assertEquals(0, metrics.getCompleted());
+        assertEquals(0, metrics.getClosed());
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void test_scan_engine_shares_local_ports_should_pass() throws Exception {
+        ScanEngine engine = new ScanEngine();
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        assertSame(engine.localPorts(null, 0, 0), engine.localPorts(null, 0, 0));
+        assertSame(engine.localPorts(loopback, 45100, 45103), engine.localPorts(InetAddress.getByName("127.0.0.1"), 45100, 45103));
+        assertNotSame(engine.localPorts(null, 0, 0), engine.localPorts(loopback, 0, 0));
+        assertNotSame(engine.localPorts(loopback, 45100, 45103), engine.localPorts(loopback, 45100, 45199));
+        assertNotSame(engine.localPorts(null, 0, 0), new ScanEngine().localPorts(null, 0, 0));
+        
+        /* Jobs on the engine bind from its LocalPorts and leave no socket counted. */
+        ServerSocket listener = new ServerSocket(0, 50, loopback);
+        ScanHandle first = engine.submit(ScanRequest.parse("--hosts=127.0.0.1", "--ports=" + listener.getLocalPort(), "--source-ip=127.0.0.1", "--source-ports=45100-45103")
+                                         .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false)));
+        ScanHandle second = engine.submit(ScanRequest.parse("--hosts=127.0.0.1", "--ports=" + listener.getLocalPort(), "--source-ip=127.0.0.1", "--source-ports=45100-45103", "--mode=nio")
+                                          .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false)));
+        assertEquals(1, first.future().get(30, TimeUnit.SECONDS).getOpen());
+        assertEquals(1, second.future().get(30, TimeUnit.SECONDS).getOpen());
+        assertEquals(0, engine.localPorts(loopback, 45100, 45103).inUse());
+        engine.shutdown();
+        listener.close();
+    }
+    
+    @Test
+    public void test_parse_args_source_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--source-ip", "127.0.0.1", "--source-ports", "45200-45299"};
+        assertNull(ap.parseArgs(args));
+        assertEquals("127.0.0.1", ap.getSourceAddress().getHostAddress());
+        assertEquals(45200, ap.getSourceFirstPort());
+        assertEquals(45299, ap.getSourceLastPort());
+        
+        args = new String[] {"PortScanner", "--hosts", "127.0.0.1", "--source-ports", "0-10"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: Invalid source port range"));
+        args = new String[] {"PortScanner", "--hosts", "127.0.0.1", "--source-ip", "127.0.0"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: Invalid source address format."));
+        args = new String[] {"PortScanner", "--hosts", "127.0.0.1", "--source-ip", "192.0.2.77"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: Unable to send from source address 192.0.2.77"));
+    }
+    
+    // End LocalPorts Tests.
+    
+    
+    // Begin HostDiscovery Tests.
+    
+    @Test
+    public void test_host_discovery_should_pass() throws Exception {
+        try(ServerSocket service = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            ArgParser ap = new ArgParser();
+            String[] args = {"PortScanner", "--hosts", "127.0.0.1,2001:db8::1", "--ports", "1-100", "--discover",
+                             "--discover-ports", String.valueOf(service.getLocalPort()), "--max-timeout", "200"};
+            assertNull(ap.parseArgs(args));
+            ScanEngine engine = new ScanEngine();
+            HostDiscovery discovery = new HostDiscovery(ap);
+            try {
+                discovery.run(engine);
+            }
+            finally {
+                engine.shutdown();
+            }
+            assertEquals(1, discovery.getAlive().size());
+            assertTrue(discovery.getAlive().contains(0x7F000001L));
+            assertEquals(0, discovery.getAlive6().size());
+            assertEquals(1, discovery.getSkipped());
+            assertTrue(discovery.summary().startsWith("Host discovery: 1 of 2 host(s) up, 1 skipped in "));
+        }
+    }
+    
+    @Test
+    public void test_scan_handle_discovery_should_pass() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(5);
+        network.ports(0.5, 0);
+        network.hostsDown(0.5);
+        int up = 0;
+        for(int host = 0; host < 256; host++) {
+            if(network.endpoint(InetAddress.getByName("10.2.0." + host), 80) != PortState.FILTERED)
+                up++;
+        }
+        ScanEngine engine = new ScanEngine(network::transport);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ScanHandle handle = engine.submit(ScanRequest.parse("--hosts=10.2.0.0/24", "--ports=1-10", "--discover", "--mode=nio", "--min-timeout=50", "--max-timeout=50")
+                                          .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false)).logTo(new PrintStream(log, true)));
+        assertEquals(up * 10, handle.future().get(30, TimeUnit.SECONDS).getCompleted());
+        assertTrue(log.toString().startsWith("Host discovery: " + up + " of 256 host(s) up, " + (256 - up) + " skipped in "));
+        
+        /* Submitting does not wait for discovery, and discovery can be cancelled. */
+        network.ports(0, 1);
+        long start = System.nanoTime();
+        ScanHandle slow = engine.submit(ScanRequest.parse("--hosts=10.3.0.0/24", "--discover", "--mode=nio", "--min-timeout=5000", "--max-timeout=5000")
+                                        .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false)).logTo(null));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        Thread.sleep(100);
+        assertTrue(slow.metrics().getIssued() > 0);
+        slow.cancel();
+        assertThrows(CancellationException.class, () -> slow.future().get(2, TimeUnit.SECONDS));
+        engine.shutdown();
+    }
+    
+    @Test
+    public void test_parse_args_discover_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.0/24", "--discover"};
+        assertNull(ap.parseArgs(args));
+        assertTrue(ap.isDiscover());
+        assertArrayEquals(new int[] {22, 80, 443, 3389}, ap.getDiscoveryPorts().toArray());
+        assertEquals(1024, ap.getPorts().size());
+        
+        args = new String[] {"PortScanner", "--hosts", "10.0.0.0/24", "--discover", "--checkpoint", "scan.ckpt"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: --discover cannot be combined"));
+        args = new String[] {"PortScanner", "--hosts", "10.0.0.0/24", "--discover", "--discover-ports", "x"};
+        assertTrue(new ArgParser().parseArgs(args).contains("ERROR: Invalid integer supplied for port range."));
+    }
+    
+    // End HostDiscovery Tests.
+    
+    
+    // Begin UdpScanner Tests.
+    
+    @Test
+    public void test_udp_scanner_reports_states_should_pass() throws Exception {
+        DatagramSocket echo = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        DatagramSocket closed = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        int echoPort = echo.getLocalPort();
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        Thread responder = new Thread(() -> {
+            byte[] buffer = new byte[512];
+            try {
+                while(true) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    echo.receive(packet);
+                    echo.send(new DatagramPacket(new byte[] {'o', 'k'}, 2, packet.getSocketAddress()));
+                }
+            }
+            catch(IOException e) {
+                ;  // Closed by the test.
+            }
+        });
+        responder.start();
+        
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x7F000001L, 0x7F000001L);
+        PortSet ports = new PortSet();
+        ports.add(echoPort);
+        ports.add(silent.getLocalPort());
+        ports.add(closedPort);
+        ScanJob job = new ScanJob(new TargetIterator(hosts, new IPv6Set(), ports), 16, 100, 200, 1, null);
+        UdpScanner scanner = new UdpScanner(job);
+        scanner.start();
+        HostResult result = job.awaitHost(0);
+        scanner.join();
+        echo.close();
+        silent.close();
+        responder.join();
+        
+        assertEquals(Arrays.asList(echoPort), new ArrayList<Integer>(result.openPorts));
+        assertEquals(1, result.closed.get());
+        assertEquals(0, result.filtered.get());
+        assertEquals(1, result.openFiltered.get());
+        assertEquals(1, job.metrics().getOpenFiltered());
+        assertEquals(4, job.metrics().getIssued());  // The silent port is probed twice.
+    }
+    
+    @Test
+    public void test_udp_payloads_should_pass() {
+        assertEquals(48, UdpPayloads.forPort(123).length);
+        assertEquals(0x30, UdpPayloads.forPort(161)[0]);
+        assertEquals(UdpPayloads.forPort(161).length, UdpPayloads.forPort(161)[1] + 2);
+        assertTrue(UdpPayloads.hasPayload(53));
+        assertFalse(UdpPayloads.hasPayload(40000));
+        assertArrayEquals(new byte[] {0}, UdpPayloads.forPort(40000));
+    }
+    
+    @Test
+    public void test_parse_args_udp_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.1", "--ports", "53,161", "--udp"};
+        assertNull(ap.parseArgs(args));
+        assertTrue(ap.isUdp());
+        assertEquals(4096, ap.getMaxInflight());
+        assertTrue(Arrays.asList(ap.getProbeArgs()).contains("--udp"));
+        
+        args = new String[] {"PortScanner", "--hosts", "10.0.0.1", "--udp", "--banner"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: --banner, --source-ip and --source-ports apply to TCP scans only"));
+    }
+    
+    // End UdpScanner Tests.
+    
+    
+    // Begin CongestionControl Tests.
+    
+    @Test
+    public void test_congestion_window_grows_and_cuts_should_pass() {
+        CongestionControl control = new CongestionControl(64, false);
+        assertEquals(CongestionControl.INITIAL_WINDOW, control.window());
+        for(int i = 0; i < CongestionControl.INITIAL_WINDOW; i++)
+            assertTrue(control.tryAcquire(false, 0));
+        assertFalse(control.tryAcquire(false, 0));
+        
+        long sent = System.nanoTime();
+        for(int i = 0; i < 40; i++) {
+            control.finished(false, 0, false, sent);
+            assertTrue(control.tryAcquire(false, 0));
+        }
+        assertEquals(50, control.window());  // Slow start: one more per answer.
+        
+        /* Loss rises past RISE on the fourth timeout of a burst (the first three count as a
+           port that is merely filtered); the rest of the burst is the same loss event. */
+        sent = System.nanoTime();
+        for(int i = 0; i < 10; i++)
+            control.finished(false, 0, true, sent);
+        assertEquals(1, control.cuts());
+        assertEquals(26, control.window());
+        assertTrue(control.loss() > CongestionControl.RISE);
+        control.finished(false, 0, true, System.nanoTime());
+        assertEquals(2, control.cuts());
+        assertEquals(13, control.window());
+    }
+    
+    @Test
+    public void test_congestion_window_per_subnet_should_pass() {
+        CongestionControl control = new CongestionControl(4096, true);
+        for(int i = 0; i < CongestionControl.INITIAL_WINDOW; i++)
+            assertTrue(control.tryAcquire(false, 0x0A0000));
+        assertFalse(control.tryAcquire(false, 0x0A0000));
+        assertTrue(control.tryAcquire(false, 0x0A0001));
+        assertTrue(control.tryAcquire(true, 0x20010DB800000000L));
+        assertEquals(3 * CongestionControl.INITIAL_WINDOW, control.window());
+        control.finished(false, 0x0A0000, false, System.nanoTime());
+        assertTrue(control.tryAcquire(false, 0x0A0000));
+    }
+    
+    @Test
+    public void test_scan_job_congestion_control_should_pass() throws Exception {
+        try(ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+            IntervalSet hosts = new IntervalSet();
+            hosts.add(0x7F000001L, 0x7F000002L);
+            PortSet ports = new PortSet();
+            ports.add(1, 100);
+            ports.add(server.getLocalPort());
+            ScanJob job = new ScanJob(new TargetIterator(hosts, ports), 64, 100, 1000, 0, null);
+            job.controlCongestion(true);
+            Thread[] workers = {new NioScanner(job), new ScanThread(job), new ScanThread(job)};
+            for(Thread worker : workers)
+                worker.start();
+            HostResult first = job.awaitHost(0);
+            job.awaitHost(1);
+            for(Thread worker : workers)
+                worker.join();
+            
+            assertEquals(Arrays.asList(server.getLocalPort()), new ArrayList<Integer>(first.openPorts));
+            assertEquals(202, job.metrics().getCompleted());
+            assertEquals(0, job.metrics().getCongestionCuts());
+            assertTrue(job.metrics().getCongestionWindow() > CongestionControl.INITIAL_WINDOW);
+        }
+    }
+    
+    @Test
+    public void test_scan_job_full_subnet_does_not_block_others_should_pass() {
+        IntervalSet hosts = new IntervalSet();
+        hosts.add(0x0A000000L, 0x0A0000FFL);
+        hosts.add(0x0A000100L, 0x0A0001FFL);
+        PortSet ports = new PortSet();
+        ports.add(1, 4);
+        TargetIterator targets = new TargetIterator(hosts, ports);
+        ScanJob job = new ScanJob(targets, 64, 100, 1000, 0, new TargetPermutation(targets.estimateSize(), 9));
+        job.controlCongestion(true);
+        
+        int[] subnets = new int[2];
+        long first = -1;
+        for(int i = 0; i < 200; i++) {
+            long task = job.nextTask();
+            if(task == ScanJob.IDLE)
+                continue;
+            subnets[(job.host(task) >>> 8) & 1]++;
+            if(first < 0)
+                first = task;
+        }
+        assertEquals(CongestionControl.INITIAL_WINDOW, subnets[0]);
+        assertEquals(CongestionControl.INITIAL_WINDOW, subnets[1]);
+        
+        /* A freed place goes to a held task of the same subnet. */
+        job.complete(first, PortState.CLOSED, 0);
+        long next = job.nextTask();
+        assertTrue(next >= 0);
+        assertEquals(job.host(first) >>> 8, job.host(next) >>> 8);
+        
+        /* Held tasks are dropped on cancel. */
+        job.cancel();
+        job.complete(next, PortState.CLOSED, 0);
+        assertEquals(ScanJob.DONE, job.nextTask());
+    }
+    
+    @Test
+    public void test_parse_args_congestion_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.0/24", "--congestion", "subnet"};
+        assertNull(ap.parseArgs(args));
+        assertEquals("subnet", ap.getCongestion());
+        assertEquals("off", new ArgParser().getCongestion());
+        args = new String[] {"PortScanner", "--hosts", "10.0.0.0/24", "--congestion", "fast"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: Invalid congestion control mode"));
+    }
+    
+    // End CongestionControl Tests.
+    
+    
+    // Begin SimulatedNetwork Tests.
+    
+    @Test
+    public void test_simulated_network_endpoints_should_pass() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(7);
+        network.ports(0.25, 0.25);
+        network.hostsDown(0.5);
+        int[] counts = new int[PortState.values().length];
+        for(int host = 0; host < 1000; host++) {
+            InetAddress address = InetAddress.getByName("10.0." + (host >> 8) + "." + (host & 0xff));
+            for(int port = 1; port <= 100; port++)
+                counts[network.endpoint(address, port).ordinal()]++;
+        }
+        assertEquals(12500, counts[PortState.OPEN.ordinal()], 1000);
+        assertEquals(25000, counts[PortState.CLOSED.ordinal()], 1000);
+        assertEquals(62500, counts[PortState.FILTERED.ordinal()], 1000);
+        
+        SimulatedNetwork same = new SimulatedNetwork(7);
+        same.ports(0.25, 0.25);
+        same.hostsDown(0.5);
+        InetAddress host = InetAddress.getByName("2001:db8::1");
+        for(int port = 1; port <= 100; port++)
+            assertEquals(network.endpoint(host, port), same.endpoint(host, port));
+        assertThrows(IllegalArgumentException.class, () -> network.ports(0.75, 0.5));
+    }
+    
+    @Test
+    public void test_simulated_network_slash16_scan_should_pass() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(42);
+        network.ports(0.3, 0.1);
+        network.hostsDown(0.2);
+        network.dropRate(0.05);
+        network.latency(100, 0.5);
+        int[] expected = new int[PortState.values().length];
+        for(int host = 0; host < 65536; host++) {
+            InetAddress address = InetAddress.getByName("10.1." + (host >> 8) + "." + (host & 0xff));
+            expected[network.expected(address, 22, 2).ordinal()]++;
+            expected[network.expected(address, 80, 2).ordinal()]++;
+        }
+        
+        ScanEngine engine = new ScanEngine(network::transport);
+        ScanHandle handle = engine.submit(ScanRequest.parse("--hosts=10.1.0.0/16", "--ports=22,80", "--mode=nio", "--retries=2", "--min-timeout=100", "--max-timeout=100", "-o", "jsonl")
+                                          .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false)));
+        ScanMetrics metrics = handle.future().get(60, TimeUnit.SECONDS);
+        engine.shutdown();
+        assertEquals(131072, metrics.getCompleted());
+        assertEquals(expected[PortState.OPEN.ordinal()], metrics.getOpen());
+        assertEquals(expected[PortState.CLOSED.ordinal()], metrics.getClosed());
+        assertEquals(expected[PortState.FILTERED.ordinal()], metrics.getFiltered());
+        assertEquals(metrics.getOpen() + metrics.getClosed(), network.getAnswers());
+        assertTrue(network.getConnects() > 131072);
+    }
+    
+    @Test
+    public void test_simulated_network_timeouts_should_pass() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(1);
+        network.ports(0, 1);
+        ScanEngine engine = new ScanEngine(network::transport);
+        long start = System.nanoTime();
+        ScanMetrics blackholed = engine.submit(ScanRequest.parse("--hosts=10.0.0.0/30", "--ports=1-50", "--mode=nio", "--retries=1", "--min-timeout=30", "--max-timeout=30")
+                                               .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false))).future().get(30, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+        assertEquals(200, blackholed.getFiltered());
+        assertEquals(400, network.getConnects());
+        assertEquals(0, network.getAnswers());
+        
+        /* Open ports whose answers come after the deadline are filtered too. */
+        network.ports(1, 0);
+        network.latency(50000, 0);
+        ScanMetrics late = engine.submit(ScanRequest.parse("--hosts=10.0.0.0/30", "--ports=1-50", "--mode=nio", "--retries=1", "--min-timeout=10", "--max-timeout=20")
+                                         .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false))).future().get(30, TimeUnit.SECONDS);
+        
+        /* Blocking and UDP workers would bypass the simulated network. */
+        assertThrows(IllegalArgumentException.class, () -> engine.submit(ScanRequest.parse("--hosts=10.0.0.1", "--mode=thread")));
+        assertThrows(IllegalArgumentException.class, () -> engine.submit(ScanRequest.parse("--hosts=10.0.0.1", "--mode=nio", "--udp")));
+        engine.shutdown();
+        assertEquals(200, late.getFiltered());
+        assertEquals(0, late.getOpen());
+        assertEquals(800, network.getConnects());
+        assertEquals(400, network.getAnswers());
+    }
+    
+    @Test
+    public void test_simulated_network_late_answers_repeat_should_pass() throws Exception {
+        /* Answers take 30 ms on median against a 60 ms timeout, so some come too late; none
+           comes within 15 ms of the timeout, where the loop's timing could decide. */
+        SimulatedNetwork network = new SimulatedNetwork(118);
+        network.ports(0.5, 0);
+        network.dropRate(0.1);
+        network.latency(30000, 1.0);
+        int[] expected = new int[PortState.values().length];
+        int late = 0;
+        for(int host = 0; host < 16; host++) {
+            InetAddress address = InetAddress.getByName("10.5.0." + host);
+            for(int port = 1; port <= 20; port++) {
+                PortState state = network.expected(address, port, 1, 60);
+                assertEquals(network.expected(address, port, 1, 45), network.expected(address, port, 1, 80));
+                if(state != network.expected(address, port, 1))
+                    late++;
+                expected[state.ordinal()]++;
+            }
+        }
+        assertTrue(late > 0);
+        
+        String[] runs = new String[2];
+        for(int run = 0; run < 2; run++) {
+            ScanEngine engine = new ScanEngine(network::transport);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ScanMetrics metrics = engine.submit(ScanRequest.parse("--hosts=10.5.0.0/28", "--ports=1-20", "--mode=nio", "--retries=1", "--min-timeout=60", "--max-timeout=60", "-o", "jsonl", "--output-all")
+                                                .reportTo(new JsonSink(out, true, true))).future().get(30, TimeUnit.SECONDS);
+            engine.shutdown();
+            assertEquals(expected[PortState.OPEN.ordinal()], metrics.getOpen());
+            assertEquals(expected[PortState.CLOSED.ordinal()], metrics.getClosed());
+            assertEquals(expected[PortState.FILTERED.ordinal()], metrics.getFiltered());
+            String[] lines = out.toString().replaceAll(",\"latency_us\":\\d+", "").split("\n");
+            Arrays.sort(lines);
+            runs[run] = String.join("\n", lines);
+        }
+        assertEquals(runs[0], runs[1]);
+    }
+    
+    @Test
+    public void test_simulated_network_host_rate_limit_should_pass() throws Exception {
+        SimulatedNetwork network = new SimulatedNetwork(3);
+        network.ports(1, 0);
+        network.latency(200, 0);
+        network.limitHostRate(1000);
+        ScanEngine engine = new ScanEngine(network::transport);
+        ScanMetrics flooded = engine.submit(ScanRequest.parse("--hosts=10.0.0.1", "--ports=1-2000", "--mode=nio", "--min-timeout=20", "--max-timeout=20")
+                                            .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false))).future().get(30, TimeUnit.SECONDS);
+        assertTrue(flooded.getFiltered() > 0);
+        assertEquals(flooded.getOpen(), network.getAnswers());
+        
+        ScanMetrics paced = engine.submit(ScanRequest.parse("--hosts=10.0.0.2", "--ports=1-100", "--mode=nio", "--host-rate=200", "--retries=2", "--min-timeout=20", "--max-timeout=20")
+                                          .reportTo(new JsonSink(new ByteArrayOutputStream(), true, false))).future().get(30, TimeUnit.SECONDS);
+        engine.shutdown();
+        assertEquals(100, paced.getOpen());
+    }
+    
+    // End SimulatedNetwork Tests.
+    
+    
     // Begin ArgParser Tests.
     
     @Test
@@ -196,6 +1890,20 @@ class UnitTests {
         assertNotNull(error);
     }
     
+    @Test
+    public void test_parse_args_resume_should_pass() {
+        ArgParser ap = new ArgParser();
+        assertNull(ap.parseArgs(new String[] {"PortScanner", "--resume", "scan.ckpt"}));
+        assertEquals("scan.ckpt", ap.getResumeFile());
+    }
+    
+    @Test
+    public void test_parse_args_resume_with_other_options_should_fail() {
+        ArgParser ap = new ArgParser();
+        String error = ap.parseArgs(new String[] {"PortScanner", "--resume", "scan.ckpt", "--hosts", "127.0.0.1"});
+        assertTrue(error.startsWith("ERROR: --resume"));
+    }
+    
     @Test
     public void test_parse_args_missing_hosts_parameter_should_fail() {
         ArgParser ap = new ArgParser();
@@ -204,6 +1912,175 @@ class UnitTests {
         assertNotNull(error);
     }
     
+    @Test
+    public void test_parse_args_overlapping_ranges_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.0-10.0.255.255,10.0.1.5,9.255.255.255", "--ports", "20-25,22,443"};
+        String error = ap.parseArgs(args);
+        assertNull(error);
+        assertEquals(65537, ap.getHosts().size());
+        assertEquals(7, ap.getPorts().size());
+    }
+    
+    @Test
+    public void test_parse_args_top_ports_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.1", "--top-ports", "5", "--ports", "22,9999,23"};
+        assertNull(ap.parseArgs(args));
+        assertArrayEquals(new int[] {80, 23, 443, 21, 22, 9999}, ap.getPorts().toArray());
+        assertTrue(Arrays.asList(ap.getProbeArgs()).contains("--top-ports=5"));
+        
+        ap = new ArgParser();
+        assertNull(ap.parseArgs(new String[] {"PortScanner", "--hosts", "10.0.0.1"}));
+        assertEquals(1, ap.getPorts().get(0));
+        assertEquals(1024, ap.getPorts().get(1023));
+        args = new String[] {"PortScanner", "--hosts", "10.0.0.1", "--top-ports", "0"};
+        assertTrue(new ArgParser().parseArgs(args).contains("ERROR: Invalid number of top ports"));
+    }
+    
+    @Test
+    public void test_parse_args_cidr_with_exclusions_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.0/16,192.168.1.77/24", "--exclude", "10.0.5.0/24,10.0.0.0-10.0.0.255,192.168.1.1"};
+        String error = ap.parseArgs(args);
+        assertNull(error);
+        assertEquals(65536 - 512 + 255, ap.getHosts().size());
+        assertEquals(0x0A000100L, ap.getHosts().get(0));
+        assertFalse(ap.getHosts().contains(0xC0A80101L));
+    }
+    
+    @Test
+    public void test_parse_args_invalid_cidr_prefix_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.0/33"};
+        String error = ap.parseArgs(args);
+        assertNotNull(error);
+    }
+    
+    @Test
+    public void test_parse_args_everything_excluded_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.0.0/24", "--exclude", "10.0.0.0/16"};
+        String error = ap.parseArgs(args);
+        assertNotNull(error);
+    }
+    
+    @Test
+    public void test_parse_args_random_order_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--order", "random", "--seed", "1234"};
+        String error = ap.parseArgs(args);
+        assertNull(error);
+        assertTrue(ap.isRandomOrder());
+        assertEquals(1234, ap.getSeed());
+    }
+    
+    @Test
+    public void test_parse_args_hot_first_without_store_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--hot-first"};
+        String error = ap.parseArgs(args);
+        assertTrue(error.startsWith("ERROR: --hot-first"));
+    }
+    
+    @Test
+    public void test_parse_args_invalid_metrics_port_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--metrics-port", "70000"};
+        String error = ap.parseArgs(args);
+        assertTrue(error.startsWith("ERROR: Invalid metrics port"));
+    }
+    
+    @Test
+    public void test_parse_args_invalid_output_format_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--output-format", "xml"};
+        String error = ap.parseArgs(args);
+        assertNotNull(error);
+    }
+    
+    @Test
+    public void test_parse_args_concurrency_limits_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--concurrency", "32", "--max-inflight", "8"};
+        String error = ap.parseArgs(args);
+        assertNull(error);
+        assertEquals(32, ap.getConcurrency());
+        assertEquals(8, ap.getMaxInflight());
+    }
+    
+    @Test
+    public void test_parse_args_invalid_concurrency_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--concurrency", "0"};
+        String error = ap.parseArgs(args);
+        assertNotNull(error);
+    }
+    
+    @Test
+    public void test_parse_args_timeouts_and_retries_should_pass() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--min-timeout", "20", "--max-timeout", "3000", "--retries", "2"};
+        String error = ap.parseArgs(args);
+        assertNull(error);
+        assertEquals(20, ap.getMinTimeout());
+        assertEquals(3000, ap.getMaxTimeout());
+        assertEquals(2, ap.getRetries());
+    }
+    
+    @Test
+    public void test_parse_args_inverted_timeouts_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1", "--min-timeout", "500", "--max-timeout", "100"};
+        String error = ap.parseArgs(args);
+        assertNotNull(error);
+    }
+    
+    @Test
+    public void test_parse_args_host_names_should_pass() throws IOException {
+        File list = File.createTempFile("hosts", ".txt");
+        list.deleteOnExit();
+        java.nio.file.Files.write(list.toPath(), "# inventory\n127.0.0.5-127.0.0.6, localhost\n\n10.0.0.0/30  # lab\n".getBytes());
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "LocalHost,@" + list.getPath(), "--exclude", "10.0.0.2"};
+        String error = ap.parseArgs(args);
+        assertNull(error);
+        assertEquals(6, ap.getHosts().size());
+        assertTrue(ap.getHosts().contains(0x7F000001L));
+        assertTrue(Arrays.asList(ap.getProbeArgs()).contains("--hosts=127.0.0.1-127.0.0.1"));
+        assertTrue(Arrays.asList(ap.getProbeArgs()).contains("--hosts=10.0.0.3-10.0.0.3"));
+    }
+    
+    @Test
+    public void test_parse_args_unknown_host_name_should_fail() {
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "127.0.0.1,no-such-host.invalid"};
+        String error = ap.parseArgs(args);
+        assertTrue(error.contains("ERROR: Unable to resolve host name: no-such-host.invalid"));
+        
+        args = new String[] {"PortScanner", "--hosts", "@/no/such/file"};
+        assertTrue(new ArgParser().parseArgs(args).contains("ERROR: Unable to read target file"));
+    }
+    
+    @Test
+    public void test_parse_args_target_files_should_pass() throws IOException {
+        File hostsFile = File.createTempFile("hosts", ".txt");
+        hostsFile.deleteOnExit();
+        java.nio.file.Files.write(hostsFile.toPath(), "10.0.0.0/24\n".getBytes());
+        ArgParser ap = new ArgParser();
+        String[] args = {"PortScanner", "--hosts", "10.0.1.1", "--hosts-file", hostsFile.getPath(), "--exclude", "10.0.0.0/25"};
+        assertNull(ap.parseArgs(args));
+        assertEquals(129, ap.getHosts().size());
+        assertNull(ap.getTargetList());
+        
+        args = new String[] {"PortScanner", "--hosts", "10.0.1.1", "--targets-file", hostsFile.getPath()};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: --targets-file cannot be combined"));
+        args = new String[] {"PortScanner", "--targets-file", hostsFile.getPath(), "--coordinator", "7400"};
+        assertTrue(new ArgParser().parseArgs(args).startsWith("ERROR: --targets-file is not supported"));
+        args = new String[] {"PortScanner", "--hosts-file", "/no/such/file"};
+        assertTrue(new ArgParser().parseArgs(args).contains("ERROR: Unable to read target file"));
+    }
+    
     // End ArgParser Tests.
     
 }
\ No newline at end of file